@@ -0,0 +1,101 @@
+package com.fruity.notebook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.StrictMode;
+import android.widget.EditText;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Checks that saving a note from the editor does no disk I/O on the main thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EditorActivitySaveTest {
+
+    private static final String TITLE = "StrictMode save test";
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getInstrumentation().getTargetContext().getContentResolver();
+        deleteTestNotes();
+    }
+
+    @After
+    public void tearDown() {
+        deleteTestNotes();
+    }
+
+    @Test
+    public void saveNote_doesNoDiskIoOnMainThread() throws Exception {
+        final List<Object> violations = new CopyOnWriteArrayList<>();
+
+        try (ActivityScenario<EditorActivity> scenario = ActivityScenario.launch(EditorActivity.class)) {
+            scenario.onActivity(activity -> {
+                ((EditText) activity.findViewById(R.id.edit_title)).setText(TITLE);
+                ((EditText) activity.findViewById(R.id.edit_contain)).setText("Saved in the background");
+
+                // Only the save itself runs under the policy, not the activity setup
+                StrictMode.ThreadPolicy oldPolicy = StrictMode.getThreadPolicy();
+                StrictMode.ThreadPolicy.Builder policy = new StrictMode.ThreadPolicy.Builder()
+                        .detectDiskReads()
+                        .detectDiskWrites();
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+                    policy.penaltyListener(Runnable::run, violations::add);
+                } else {
+                    policy.penaltyDeath();
+                }
+                StrictMode.setThreadPolicy(policy.build());
+                try {
+                    activity.saveNote();
+                } finally {
+                    StrictMode.setThreadPolicy(oldPolicy);
+                }
+            });
+        }
+
+        assertTrue("Disk I/O on the main thread: " + violations, violations.isEmpty());
+        assertEquals(1, waitForTestNotes());
+    }
+
+    /** Polls until the background write landed, for up to five seconds */
+    private int waitForTestNotes() throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            int count = countTestNotes();
+            if (count > 0) {
+                return count;
+            }
+            Thread.sleep(100);
+        }
+        return countTestNotes();
+    }
+
+    private int countTestNotes() {
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, new String[] { NoteEntry._ID },
+                NoteEntry.COLUMN_NOTE_NAME + "=?", new String[] { TITLE }, null)) {
+            return cursor.getCount();
+        }
+    }
+
+    private void deleteTestNotes() {
+        mResolver.delete(NoteEntry.CONTENT_URI, NoteEntry.COLUMN_NOTE_NAME + "=?", new String[] { TITLE });
+    }
+}
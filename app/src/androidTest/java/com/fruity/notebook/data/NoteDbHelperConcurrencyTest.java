@@ -0,0 +1,100 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that reading the notes isn't blocked by a write in progress, now that
+ * {@link NoteDbHelper} uses write-ahead logging.
+ */
+@RunWith(AndroidJUnit4.class)
+public class NoteDbHelperConcurrencyTest {
+
+    private static final String DATABASE_NAME = "concurrency-test.db";
+
+    private Context mContext;
+    private NoteDbHelper mDbHelper;
+    private ExecutorService mExecutor;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mContext.deleteDatabase(DATABASE_NAME);
+        mDbHelper = new NoteDbHelper(mContext, DATABASE_NAME, NoteDbHelper.Tuning.DEFAULT);
+        mExecutor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+        mDbHelper.close();
+        mContext.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void readDuringOpenWriteTransaction_isNotBlocked() throws Exception {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        insertNote(db, "committed");
+
+        CountDownLatch written = new CountDownLatch(1);
+        CountDownLatch readDone = new CountDownLatch(1);
+
+        // Writer: keeps a transaction with an uncommitted note open until the read is done
+        Future<?> writer = mExecutor.submit(() -> {
+            db.beginTransaction();
+            try {
+                insertNote(db, "uncommitted");
+                written.countDown();
+                readDone.await(10, TimeUnit.SECONDS);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            return null;
+        });
+        written.await(5, TimeUnit.SECONDS);
+
+        // Reader: has to finish while the write transaction is still open
+        Future<Integer> reader = mExecutor.submit(() -> {
+            try (Cursor cursor = db.query(NoteEntry.TABLE_NAME, new String[] { NoteEntry._ID },
+                    null, null, null, null, null)) {
+                return cursor.getCount();
+            }
+        });
+
+        // Only the committed note is visible, and the read didn't wait for the writer
+        assertEquals(1, (int) reader.get(2, TimeUnit.SECONDS));
+        readDone.countDown();
+        writer.get(5, TimeUnit.SECONDS);
+
+        try (Cursor cursor = db.query(NoteEntry.TABLE_NAME, null, null, null, null, null, null)) {
+            assertEquals(2, cursor.getCount());
+        }
+    }
+
+    private static void insertNote(SQLiteDatabase db, String title) {
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, title);
+        db.insert(NoteEntry.TABLE_NAME, null, values);
+    }
+}
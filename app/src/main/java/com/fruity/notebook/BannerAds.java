@@ -0,0 +1,96 @@
+package com.fruity.notebook;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Trace;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+import com.google.android.gms.ads.AdRequest;
+import com.google.android.gms.ads.AdView;
+import com.google.android.gms.ads.MobileAds;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the banner ads of the activities without delaying their first frame.
+ *
+ * The ads SDK is initialized once per process, on a background thread, the first time a banner
+ * is requested. Each banner is only requested after its activity drew its first frame, and
+ * loads once the SDK is ready.
+ */
+final class BannerAds {
+
+    /** Set once the initialization started, only used on the main thread */
+    private static boolean sInitializing;
+
+    /** Set once the SDK is ready, only used on the main thread */
+    private static boolean sInitialized;
+
+    /** Banners waiting for the SDK, only used on the main thread */
+    private static final List<AdView> sPending = new ArrayList<>();
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private BannerAds() {}
+
+    /**
+     * Loads an ad into the banner once the window of the banner drew its next frame.
+     * Call it from onCreate, after setContentView.
+     */
+    static void loadAfterFirstFrame(final AdView adView) {
+        final View root = adView.getRootView();
+        root.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                root.getViewTreeObserver().removeOnPreDrawListener(this);
+                // Posted from the pre-draw pass, so it runs once this frame is drawn
+                sMainHandler.post(() -> load(adView));
+                return true;
+            }
+        });
+    }
+
+    private static void load(AdView adView) {
+        if (sInitialized) {
+            request(adView);
+            return;
+        }
+        sPending.add(adView);
+        if (!sInitializing) {
+            sInitializing = true;
+            initialize(adView.getContext().getApplicationContext());
+        }
+    }
+
+    private static void initialize(final Context context) {
+        new Thread(() -> {
+            Trace.beginSection("BannerAds.initialize");
+            try {
+                MobileAds.initialize(context, status -> sMainHandler.post(BannerAds::onInitialized));
+            } finally {
+                Trace.endSection();
+            }
+        }, "BannerAds").start();
+    }
+
+    private static void onInitialized() {
+        if (sInitialized) {
+            return;
+        }
+        sInitialized = true;
+        for (AdView adView : sPending) {
+            request(adView);
+        }
+        sPending.clear();
+    }
+
+    private static void request(AdView adView) {
+        // The activity may have been closed while the SDK was starting
+        if (adView.getWindowToken() != null) {
+            adView.loadAd(new AdRequest.Builder().build());
+        }
+    }
+}
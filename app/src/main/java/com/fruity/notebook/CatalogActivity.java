@@ -2,149 +2,351 @@ package com.fruity.notebook;
 
 
 import android.annotation.SuppressLint;
-import android.app.LoaderManager;
+import android.app.AlertDialog;
 import android.content.ContentUris;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.Intent;
-import android.content.Loader;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Trace;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.widget.ListView;
+import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.content.res.AppCompatResources;
+import androidx.appcompat.view.ActionMode;
 import androidx.appcompat.view.menu.MenuBuilder;
+import androidx.appcompat.widget.SearchView;
+import androidx.recyclerview.widget.DividerItemDecoration;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.fruity.notebook.data.NoteContract;
-import com.google.android.gms.ads.AdListener;
-import com.google.android.gms.ads.AdRequest;
-import com.google.android.gms.ads.AdSize;
-import com.google.android.gms.ads.AdView;
-import com.google.android.gms.ads.LoadAdError;
-import com.google.android.gms.ads.MobileAds;
+import com.fruity.notebook.data.NoteMaintenanceJob;
+import com.fruity.notebook.data.NoteWriter;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 
+import java.util.Collections;
+
 /**
  * Displays list of notes that were entered and stored in the app.
  */
-public class CatalogActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+public class CatalogActivity extends AppCompatActivity {
 
-    /** Identifier for the note data loader */
-    private static final int NOTE_LOADER = 0;
+    /** Adapter for the RecyclerView */
+    NoteListAdapter mNoteAdapter;
 
-    /** Adapter for the ListView */
-    NoteCursorAdapter mCursorAdapter;
+    /** The notes list, showing either all the notes or the search results */
+    private RecyclerView mNoteListView;
 
-    public static SharedPref sharedPref;
+    /** Adapter for the search results */
+    private SearchResultsAdapter mSearchAdapter;
 
-    @SuppressLint("MissingInflatedId")
-    @Override
-    protected void onCreate(Bundle savedInstanceState) {
+    /** Searches the notes as the user types in the search box */
+    private NoteSearcher mSearcher;
 
-        //add dark mode
-        sharedPref = new SharedPref(this);
-        if (sharedPref.loadNightModeState()) {
-            setTheme(R.style.DarkTheme);
-        } else setTheme(R.style.AppTheme);
+    /** Key of the selection waiting for the document to export it to, in the saved state */
+    private static final String STATE_PENDING_EXPORT = "pending_export";
 
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_catalog);
+    /** The notes picked in the list, while the selection mode is on */
+    private final NoteSelection mSelection = new NoteSelection();
 
-        // Setup FAB to open EditorActivity
-        FloatingActionButton fab = findViewById(R.id.fab);
-        fab.setOnClickListener(view -> {
-            Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
-            startActivity(intent);
-        });
+    /** The selection mode in the app bar, null when the list isn't selecting */
+    private ActionMode mActionMode;
 
-        // Find the ListView which will be populated with the note data
-       ListView noteListView = findViewById(R.id.list);
+    /** Number of notes picked, -1 while the provider counts them, see {@link #countSelection} */
+    private int mSelectedCount;
 
-        // Setup an Adapter to create a list item for each row of note data in the Cursor.
-        // There is no note data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new NoteCursorAdapter(this, null);
-        noteListView.setAdapter(mCursorAdapter);
+    /** Incremented on every change of the selection, so the count of an older one is dropped */
+    private int mSelectionVersion;
 
-        // Setup the item click listener
-        noteListView.setOnItemClickListener((adapterView, view, position, id) -> {
-            // Create new intent to go to {@link EditorActivity}
-            Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+    /** Selection of the notes to export once the user picked a document, see {@link #exportSelection} */
+    private String mPendingExport;
+    private boolean mExportPending;
 
-            // Form the content URI that represents the specific note that was clicked on,
-            // by appending the "id" (passed as input to this method) onto the
-            // {@link NoteEntry#CONTENT_URI}.
-            // For example, the URI would be "content://com.example.android.notes/notes/2"
-            // if the note with ID 2 was clicked on.
-            Uri currentPetUri = ContentUris.withAppendedId(NoteContract.NoteEntry.CONTENT_URI, id);
+    /** Asks the user for the document to export the selected notes to */
+    private final ActivityResultLauncher<String> mExportLauncher = registerForActivityResult(
+            new ActivityResultContracts.CreateDocument(NoteContract.ARCHIVE_MIME_TYPE), this::exportTo);
 
-            // Set the URI on the data field of the intent
-            intent.setData(currentPetUri);
+    /** Logs frame times of the list in debug builds */
+    private final FrameTimeMonitor mFrameTimeMonitor = new FrameTimeMonitor("CatalogActivity");
 
-            // Launch the {@link EditorActivity} to display the data for the current note.
-            startActivity(intent);
-        });
+    public static SharedPref sharedPref;
 
-        // Kick off the loader
-        getLoaderManager().initLoader(NOTE_LOADER, null, this);
+    @SuppressLint("MissingInflatedId")
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        // Traced so the time to the first frame can be split up in a system trace
+        Trace.beginSection("CatalogActivity.onCreate");
+        try {
+            //add dark mode
+            sharedPref = SharedPref.getInstance(this);
+            if (sharedPref.loadNightModeState()) {
+                setTheme(R.style.DarkTheme);
+            } else setTheme(R.style.AppTheme);
+
+            super.onCreate(savedInstanceState);
+
+            Trace.beginSection("CatalogActivity.setContentView");
+            try {
+                setContentView(R.layout.activity_catalog);
+            } finally {
+                Trace.endSection();
+            }
 
-        //admob
-        MobileAds.initialize(this, initializationStatus -> {
-        });
+            // Setup FAB to open EditorActivity
+            FloatingActionButton fab = findViewById(R.id.fab);
+            fab.setOnClickListener(view -> {
+                Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+                startActivity(intent);
+            });
+
+            // Find the RecyclerView which will be populated with the note data
+            RecyclerView noteListView = findViewById(R.id.list);
+            noteListView.setLayoutManager(new LinearLayoutManager(this));
+            DividerItemDecoration divider = new DividerItemDecoration(this, DividerItemDecoration.VERTICAL);
+            divider.setDrawable(AppCompatResources.getDrawable(this, R.drawable.list_divider));
+            noteListView.addItemDecoration(divider);
+
+            // Setup an Adapter to create a list item for each note.
+            // The adapter loads the notes page by page in the background as the list scrolls.
+            mNoteAdapter = new NoteListAdapter(this, this::onNoteClick);
+            mNoteAdapter.setOnNoteLongClickListener(this::onNoteLongClick);
+            noteListView.setAdapter(mNoteAdapter);
+            mNoteListView = noteListView;
+
+            // While the search box holds text, the list shows the search results instead
+            mSearchAdapter = new SearchResultsAdapter(this::openNote);
+            mSearcher = new NoteSearcher(getContentResolver(), (text, results) -> {
+                mSearchAdapter.setResults(results);
+                if (mNoteListView.getAdapter() != mSearchAdapter) {
+                    // The search results can't be selected
+                    if (mActionMode != null) {
+                        mActionMode.finish();
+                    }
+                    mNoteListView.swapAdapter(mSearchAdapter, true);
+                }
+            });
+
+            // The ad only loads once the list is on screen
+            BannerAds.loadAfterFirstFrame(findViewById(R.id.adView));
+
+            NoteMaintenanceJob.schedule(this);
+
+            if (savedInstanceState != null && savedInstanceState.containsKey(STATE_PENDING_EXPORT)) {
+                mExportPending = true;
+                mPendingExport = savedInstanceState.getString(STATE_PENDING_EXPORT);
+            }
+        } finally {
+            Trace.endSection();
+        }
+    }
 
-        AdView mAdView = new AdView(this);
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        if (mExportPending) {
+            outState.putString(STATE_PENDING_EXPORT, mPendingExport);
+        }
+    }
 
-        mAdView.setAdSize(AdSize.BANNER);
+    /**
+     * Opens the note, or picks it while the list is selecting.
+     */
+    private void onNoteClick(long id) {
+        if (mActionMode == null) {
+            openNote(id);
+        } else {
+            toggleNote(id);
+        }
+    }
 
-        mAdView.setAdUnitId("ca-app-pub-9792667030467157/4526786061");
+    /**
+     * Starts selecting the notes of the list with the note pressed.
+     */
+    private void onNoteLongClick(long id) {
+        if (mActionMode == null) {
+            mActionMode = startSupportActionMode(mSelectionCallback);
+            mNoteAdapter.setSelection(mSelection);
+        }
+        toggleNote(id);
+    }
 
-        mAdView = findViewById(R.id.adView);
-        AdRequest adRequest = new AdRequest.Builder().build();
-        mAdView.loadAd(adRequest);
+    private void toggleNote(long id) {
+        mSelection.toggle(id);
+        mNoteAdapter.notifySelectionChanged();
+        countSelection();
+    }
 
-        mAdView.setAdListener(new AdListener() {
-            @Override
-            public void onAdClicked() {
-                // Code to be executed when the user clicks on an ad.
-            }
+    /**
+     * Shows the number of notes picked in the app bar, and leaves the selection mode once none
+     * is. After "Select all" the list only holds the pages found so far, so the notes picked
+     * are counted by the provider.
+     */
+    private void countSelection() {
+        final int version = ++mSelectionVersion;
+        if (!mSelection.isAll()) {
+            onSelectionCounted(mSelection.size());
+            return;
+        }
+        mSelectedCount = -1;
+        mActionMode.invalidate();
+        NoteWriter.getInstance(this).count(NoteContract.NoteEntry.CONTENT_URI, mSelection.toSelection(),
+                count -> {
+                    if (mActionMode != null && version == mSelectionVersion) {
+                        onSelectionCounted(count);
+                    }
+                });
+    }
 
-            @Override
-            public void onAdClosed() {
-                // Code to be executed when the user is about to return
-                // to the app after tapping on an ad.
-            }
+    private void onSelectionCounted(int count) {
+        if (count == 0) {
+            mActionMode.finish();
+            return;
+        }
+        mSelectedCount = count;
+        mActionMode.invalidate();
+    }
 
-            @Override
-            public void onAdFailedToLoad(@NonNull LoadAdError adError) {
-                // Code to be executed when an ad request fails.
-            }
+    /**
+     * The selection mode of the notes list. Each bulk operation is one call to the provider with
+     * the selection of the picked notes, so it runs in one transaction and the list refreshes
+     * once, however many notes are picked.
+     */
+    private final ActionMode.Callback mSelectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_catalog_selection, menu);
+            return true;
+        }
 
-            @Override
-            public void onAdImpression() {
-                // Code to be executed when an impression is recorded
-                // for an ad.
-            }
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            mode.setTitle(mSelectedCount < 0 ? getString(R.string.selection_counting)
+                    : getString(R.string.selected_count, mSelectedCount));
+            return true;
+        }
 
-            @Override
-            public void onAdLoaded() {
-                // Code to be executed when an ad finishes loading.
+        @SuppressLint("NonConstantResourceId")
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            switch (item.getItemId()) {
+                case R.id.action_select_all:
+                    mSelection.selectAll();
+                    mNoteAdapter.notifySelectionChanged();
+                    countSelection();
+                    return true;
+                case R.id.action_delete_selected:
+                    if (mSelection.isAll()) {
+                        // Also picks the notes the user hasn't scrolled to
+                        showDeleteSelectionDialog(mSelection.toSelection());
+                    } else {
+                        deleteSelection(mSelection.toSelection());
+                        mode.finish();
+                    }
+                    return true;
+                case R.id.action_export_selected:
+                    exportSelection();
+                    mode.finish();
+                    return true;
             }
+            return false;
+        }
 
-            @Override
-            public void onAdOpened() {
-                // Code to be executed when an ad opens an overlay that
-                // covers the screen.
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            mActionMode = null;
+            mSelectedCount = 0;
+            mSelectionVersion++;
+            mSelection.clear();
+            mNoteAdapter.setSelection(null);
+        }
+    };
+
+    /**
+     * Prompt the user to confirm that they want to delete the selected notes.
+     */
+    private void showDeleteSelectionDialog(final String selection) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(mSelectedCount < 0 ? getString(R.string.bulk_delete_all_dialog_msg)
+                : getString(R.string.bulk_delete_dialog_msg, mSelectedCount));
+        builder.setPositiveButton(R.string.delete, (dialog, id) -> {
+            deleteSelection(selection);
+            if (mActionMode != null) {
+                mActionMode.finish();
             }
         });
+        builder.setNegativeButton(R.string.cancel, (dialog, id) -> {
+            // Keep the notes selected
+            if (dialog != null) {
+                dialog.dismiss();
+            }
+        });
+        builder.create().show();
+    }
 
+    /**
+     * Moves the notes that match the selection of {@link NoteSelection#toSelection()} to the
+     * trash.
+     */
+    private void deleteSelection(String selection) {
+        final Context appContext = getApplicationContext();
+        NoteWriter.getInstance(this).delete(NoteContract.NoteEntry.CONTENT_URI, selection,
+                deleted -> Toast.makeText(appContext, appContext.getString(R.string.bulk_delete_done, deleted),
+                        Toast.LENGTH_SHORT).show());
+    }
 
-
+    /**
+     * Asks the user for a document, then writes the selected notes to it, see {@link #exportTo}.
+     */
+    private void exportSelection() {
+        mPendingExport = mSelection.toSelection();
+        mExportPending = true;
+        mExportLauncher.launch(getString(R.string.export_file_name));
     }
 
+    /**
+     * Writes the notes selected before the document was picked to it, unless the user canceled.
+     */
+    private void exportTo(Uri document) {
+        String selection = mPendingExport;
+        boolean pending = mExportPending;
+        mPendingExport = null;
+        mExportPending = false;
+        if (document == null || !pending) {
+            return;
+        }
+        final Context appContext = getApplicationContext();
+        NoteWriter.getInstance(this).export(document, selection, exported -> Toast.makeText(appContext,
+                exported == null ? appContext.getString(R.string.export_failed)
+                        : appContext.getString(R.string.export_done, exported),
+                Toast.LENGTH_SHORT).show());
+    }
 
+    /**
+     * Opens the note with the given id in the {@link EditorActivity}.
+     */
+    private void openNote(long id) {
+        // Create new intent to go to {@link EditorActivity}
+        Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+
+        // Form the content URI that represents the specific note that was clicked on,
+        // by appending the "id" (passed as input to this method) onto the
+        // {@link NoteEntry#CONTENT_URI}.
+        // For example, the URI would be "content://com.example.android.notes/notes/2"
+        // if the note with ID 2 was clicked on.
+        Uri currentPetUri = ContentUris.withAppendedId(NoteContract.NoteEntry.CONTENT_URI, id);
+
+        // Set the URI on the data field of the intent
+        intent.setData(currentPetUri);
+
+        // Launch the {@link EditorActivity} to display the data for the current note.
+        startActivity(intent);
+    }
 
     @SuppressLint("RestrictedApi")
     @Override
@@ -153,6 +355,28 @@ public class CatalogActivity extends AppCompatActivity implements
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
 
+        // Search as the user types
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                searchView.clearFocus();
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                mSearcher.search(newText);
+                if (NoteSearcher.normalize(newText).isEmpty() && mNoteListView.getAdapter() != mNoteAdapter) {
+                    // Back to all the notes
+                    mNoteListView.swapAdapter(mNoteAdapter, true);
+                    mSearchAdapter.setResults(Collections.emptyList());
+                }
+                return true;
+            }
+        });
+
         if(menu instanceof MenuBuilder){
             MenuBuilder m = (MenuBuilder) menu;
             m.setOptionalIconsVisible(true);
@@ -189,32 +413,27 @@ public class CatalogActivity extends AppCompatActivity implements
 
 
     @Override
-    public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                NoteContract.NoteEntry._ID,
-                NoteContract.NoteEntry.COLUMN_NOTE_NAME,
-                NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN };
-
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                NoteContract.NoteEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                NoteContract.NoteEntry._ID + " DESC");    //  sort order
+    protected void onResume() {
+        super.onResume();
+        if (BuildConfig.DEBUG) {
+            mFrameTimeMonitor.start(getWindow());
+        }
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link NoteCursorAdapter} with this new cursor containing updated note data
-        mCursorAdapter.swapCursor(data);
+    protected void onPause() {
+        super.onPause();
+        if (BuildConfig.DEBUG) {
+            mFrameTimeMonitor.stop(getWindow());
+        }
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+    protected void onDestroy() {
+        super.onDestroy();
+        // Release the pages of notes held by the adapter
+        mNoteAdapter.close();
+        mSearcher.close();
     }
 
 
@@ -0,0 +1,485 @@
+package com.fruity.notebook;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextUtils;
+import android.text.TextWatcher;
+import android.widget.EditText;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.fruity.notebook.data.NoteContract.NoteHistoryEntry;
+import com.fruity.notebook.data.NoteWriter;
+
+import java.util.ArrayDeque;
+
+/**
+ * Undo and redo history of the editor.
+ *
+ * An edit is kept as the text it removed and the text it inserted at its position, never as a
+ * copy of the note, so recording, undoing and redoing an edit costs the size of the edit however
+ * large the note is. Typing or deleting in one place is merged into a single edit until typing
+ * pauses for {@link #MERGE_WINDOW_MS} or the edit reaches {@link #MAX_MERGED_LENGTH} characters.
+ *
+ * The edits kept in memory take at most about {@link #MAX_BYTES}. Past that, the oldest ones are
+ * moved to the history table of the note, see {@link NoteHistoryEntry}, and read back a batch at
+ * a time once undo reaches them. A note that was never saved has no history table yet, so its
+ * oldest edits are dropped instead. The table only holds the edits of the current session: it
+ * is emptied when the journal starts and when it stops.
+ *
+ * Only the edits made between {@link #start()} and {@link #stop()} are recorded, so showing the
+ * note as loaded from the database isn't one. All methods run on the main thread.
+ */
+class EditJournal {
+
+    /** Told on the main thread when {@link #canUndo()} or {@link #canRedo()} changed */
+    interface Listener {
+        void onHistoryChanged();
+    }
+
+    /** Memory the kept edits may take before the oldest ones are moved out */
+    static final int MAX_BYTES = 256 * 1024;
+
+    /** Longest text, in characters, that typing in one place is merged into */
+    static final int MAX_MERGED_LENGTH = 256;
+
+    /** Pause in typing after which the next edit starts a new undo step */
+    static final long MERGE_WINDOW_MS = 1000;
+
+    /** Number of edits read back from the history table at once */
+    private static final int READ_BATCH = 64;
+
+    /** Memory taken by an edit besides its text */
+    private static final int EDIT_OVERHEAD_BYTES = 64;
+
+    /** One edit: at start in its field, removed was replaced by inserted */
+    @VisibleForTesting
+    static final class Edit {
+        final boolean contain;
+        int start;
+        String removed;
+        String inserted;
+        long time;
+
+        Edit(boolean contain, int start, String removed, String inserted, long time) {
+            this.contain = contain;
+            this.start = start;
+            this.removed = removed;
+            this.inserted = inserted;
+            this.time = time;
+        }
+
+        int bytes() {
+            return EDIT_OVERHEAD_BYTES + 2 * (removed.length() + inserted.length());
+        }
+    }
+
+    private final NoteWriter mWriter;
+    private final EditText mTitleEditText;
+    private final EditText mContentEditText;
+    private final Listener mListener;
+
+    private final Recorder mTitleRecorder = new Recorder(false);
+    private final Recorder mContentRecorder = new Recorder(true);
+
+    /** Edits that can be undone, newest last */
+    private final ArrayDeque<Edit> mUndo = new ArrayDeque<>();
+
+    /** Edits that can be redone, next one last */
+    private final ArrayDeque<Edit> mRedo = new ArrayDeque<>();
+
+    /** Memory taken by the edits of both stacks */
+    private long mBytes;
+
+    /** URI of the history of the note, null until a new note is saved once */
+    private Uri mHistoryUri;
+
+    /** Number of edits moved to the history table, all older than the edits in memory */
+    private int mStored;
+
+    /** True while a batch of edits is read back from the history table */
+    private boolean mReading;
+
+    /** True when undo was asked for while the edits to undo were being read back */
+    private boolean mUndoAfterRead;
+
+    /** True when the newest edit may still grow with the next one */
+    private boolean mMergeable;
+
+    /** Set while the journal itself changes the text */
+    private boolean mApplying;
+
+    private boolean mStarted;
+
+    /** What {@link #canUndo()} and {@link #canRedo()} returned when the listener was last told */
+    private boolean mCouldUndo;
+    private boolean mCouldRedo;
+
+    EditJournal(Context context, EditText titleEditText, EditText contentEditText,
+                @Nullable Uri noteUri, Listener listener) {
+        mWriter = NoteWriter.getInstance(context);
+        mTitleEditText = titleEditText;
+        mContentEditText = contentEditText;
+        mListener = listener;
+        setNoteUri(noteUri);
+    }
+
+    /**
+     * Starts recording the edits of the fields, once they show the note.
+     */
+    void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        // Left over from a session that ended without stop()
+        clearStored();
+        mTitleEditText.addTextChangedListener(mTitleRecorder);
+        mContentEditText.addTextChangedListener(mContentRecorder);
+    }
+
+    /**
+     * Stops recording and forgets all the edits, including those in the history table.
+     */
+    void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mTitleEditText.removeTextChangedListener(mTitleRecorder);
+        mContentEditText.removeTextChangedListener(mContentRecorder);
+        forget();
+    }
+
+    /**
+     * Sets the note the edits belong to, once a new note was saved for the first time. From
+     * then on the oldest edits are kept in its history table instead of being dropped.
+     */
+    void setNoteUri(@Nullable Uri noteUri) {
+        mHistoryUri = noteUri == null ? null : NoteHistoryEntry.buildHistoryUri(ContentUris.parseId(noteUri));
+    }
+
+    boolean canUndo() {
+        return !mUndo.isEmpty() || mStored > 0;
+    }
+
+    boolean canRedo() {
+        return !mRedo.isEmpty();
+    }
+
+    /**
+     * Reverts the newest edit that wasn't undone yet. If it is still in the history table, it is
+     * reverted as soon as it has been read back.
+     *
+     * @return true if an edit was reverted now
+     */
+    boolean undo() {
+        if (mUndo.isEmpty()) {
+            if (mStored > 0) {
+                mUndoAfterRead = true;
+                readStored();
+            }
+            return false;
+        }
+
+        Edit edit = mUndo.peekLast();
+        if (!apply(edit.contain, edit.start, edit.inserted, edit.removed)) {
+            return false;
+        }
+        mUndo.pollLast();
+        mRedo.addLast(edit);
+        mMergeable = false;
+
+        // Read the next batch back while the user looks at this one
+        if (mUndo.isEmpty() && mStored > 0) {
+            readStored();
+        }
+        onHistoryChanged();
+        return true;
+    }
+
+    /**
+     * Applies the last undone edit again.
+     *
+     * @return true if an edit was applied
+     */
+    boolean redo() {
+        Edit edit = mRedo.peekLast();
+        if (edit == null || !apply(edit.contain, edit.start, edit.removed, edit.inserted)) {
+            return false;
+        }
+        mRedo.pollLast();
+        mUndo.addLast(edit);
+        mMergeable = false;
+        onHistoryChanged();
+        return true;
+    }
+
+    /** Memory taken by the edits held in memory */
+    @VisibleForTesting
+    long bytes() {
+        return mBytes;
+    }
+
+    /**
+     * Replaces expected with replacement at start in the field, where the cursor ends up.
+     *
+     * @return false if the field doesn't hold the expected text there, in which case the history
+     * no longer matches the text and is forgotten
+     */
+    private boolean apply(boolean contain, int start, String expected, String replacement) {
+        EditText field = contain ? mContentEditText : mTitleEditText;
+        Editable text = field.getText();
+        int end = start + expected.length();
+        if (end > text.length() || !TextUtils.regionMatches(text, start, expected, 0, expected.length())) {
+            forget();
+            return false;
+        }
+
+        // The autosaver still sees the change, so undo and redo are saved like typing
+        mApplying = true;
+        try {
+            text.replace(start, end, replacement);
+        } finally {
+            mApplying = false;
+        }
+        field.requestFocus();
+        field.setSelection(start + replacement.length());
+        return true;
+    }
+
+    /** Records an edit made by the user */
+    private void record(boolean contain, int start, String removed, String inserted) {
+        if (removed.isEmpty() && inserted.isEmpty()) {
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+
+        // Anything undone can't be redone after a new edit
+        for (Edit undone : mRedo) {
+            mBytes -= undone.bytes();
+        }
+        mRedo.clear();
+
+        Edit last = mUndo.peekLast();
+        if (mMergeable && last != null && merge(last, contain, start, removed, inserted, now)) {
+            onHistoryChanged();
+            trim();
+            return;
+        }
+
+        Edit edit = new Edit(contain, start, removed, inserted, now);
+        mUndo.addLast(edit);
+        mBytes += edit.bytes();
+        mMergeable = true;
+        onHistoryChanged();
+        trim();
+    }
+
+    /**
+     * Merges an edit into the newest edit when it continues it: typing or replacing text the
+     * newest edit inserted, or deleting next to the text the newest edit deleted. Merged text
+     * never grows past {@link #MAX_MERGED_LENGTH}, so merging stays as cheap as the edit.
+     *
+     * @return true if the edit was merged
+     */
+    private boolean merge(Edit last, boolean contain, int start, String removed, String inserted, long now) {
+        if (last.contain != contain || now - last.time > MERGE_WINDOW_MS) {
+            return false;
+        }
+
+        String mergedRemoved;
+        String mergedInserted;
+        int mergedStart = last.start;
+        int offset = start - last.start;
+        if (offset >= 0 && offset + removed.length() <= last.inserted.length()) {
+            // Typing, backspace or a keyboard correction within the text inserted last
+            mergedRemoved = last.removed;
+            mergedInserted = last.inserted.substring(0, offset) + inserted
+                    + last.inserted.substring(offset + removed.length());
+        } else if (last.inserted.isEmpty() && inserted.isEmpty() && start + removed.length() == last.start) {
+            // Backspace before the text deleted last
+            mergedStart = start;
+            mergedRemoved = removed + last.removed;
+            mergedInserted = "";
+        } else if (last.inserted.isEmpty() && inserted.isEmpty() && start == last.start) {
+            // Forward delete after the text deleted last
+            mergedRemoved = last.removed + removed;
+            mergedInserted = "";
+        } else {
+            return false;
+        }
+        if (mergedRemoved.length() + mergedInserted.length() > MAX_MERGED_LENGTH) {
+            return false;
+        }
+
+        mBytes -= last.bytes();
+        last.start = mergedStart;
+        last.removed = mergedRemoved;
+        last.inserted = mergedInserted;
+        last.time = now;
+        mBytes += last.bytes();
+        return true;
+    }
+
+    /**
+     * Brings the memory taken by the edits back under {@link #MAX_BYTES}, by moving the oldest
+     * ones to the history table, or dropping them if there is none. Moving happens in batches
+     * down to three quarters of the limit, so it is rare. The newest edit is moved too when it
+     * is that large on its own, e.g. a long paste.
+     */
+    private void trim() {
+        if (mBytes <= MAX_BYTES) {
+            return;
+        }
+        // Edits read back would land below edits moved out meanwhile, in the wrong order
+        if (mReading) {
+            return;
+        }
+
+        long target = MAX_BYTES * 3L / 4;
+        ArrayDeque<Edit> moved = new ArrayDeque<>();
+        while (mBytes > target && !mUndo.isEmpty()) {
+            Edit oldest = mUndo.pollFirst();
+            mBytes -= oldest.bytes();
+            moved.addLast(oldest);
+        }
+        if (mUndo.isEmpty()) {
+            // The next edit can't grow an edit that is no longer in memory
+            mMergeable = false;
+        }
+        if (moved.isEmpty() || mHistoryUri == null) {
+            return;
+        }
+        ContentValues[] values = new ContentValues[moved.size()];
+        int i = 0;
+        for (Edit edit : moved) {
+            values[i++] = toValues(edit);
+        }
+        mStored += values.length;
+        final Uri historyUri = mHistoryUri;
+        mWriter.bulkInsert(historyUri, values, inserted -> {
+            if (inserted == 0 && historyUri.equals(mHistoryUri)) {
+                // The edits older than these can't be undone without them
+                clearStored();
+                onHistoryChanged();
+            }
+        });
+    }
+
+    /** Reads the newest batch of edits back from the history table */
+    private void readStored() {
+        if (mReading || mHistoryUri == null) {
+            return;
+        }
+        mReading = true;
+        final Uri historyUri = mHistoryUri;
+        mWriter.takeHistory(historyUri, READ_BATCH, edits -> {
+            if (!mReading || !historyUri.equals(mHistoryUri)) {
+                return;
+            }
+            mReading = false;
+            if (edits == null) {
+                clearStored();
+            } else {
+                // Newest first, and all of them older than the edits in memory
+                for (ContentValues values : edits) {
+                    Edit edit = fromValues(values);
+                    mUndo.addFirst(edit);
+                    mBytes += edit.bytes();
+                }
+                mStored = edits.size() < READ_BATCH ? 0 : Math.max(0, mStored - edits.size());
+            }
+            onHistoryChanged();
+            if (mUndoAfterRead) {
+                mUndoAfterRead = false;
+                undo();
+            }
+        });
+    }
+
+    /** Forgets all the edits, including those in the history table */
+    private void forget() {
+        mUndo.clear();
+        mRedo.clear();
+        mBytes = 0;
+        mMergeable = false;
+        mUndoAfterRead = false;
+        clearStored();
+        onHistoryChanged();
+    }
+
+    /** Empties the history table of the note */
+    private void clearStored() {
+        mStored = 0;
+        mReading = false;
+        if (mHistoryUri != null) {
+            mWriter.delete(mHistoryUri, null);
+        }
+    }
+
+    private void onHistoryChanged() {
+        boolean canUndo = canUndo();
+        boolean canRedo = canRedo();
+        if (canUndo != mCouldUndo || canRedo != mCouldRedo) {
+            mCouldUndo = canUndo;
+            mCouldRedo = canRedo;
+            mListener.onHistoryChanged();
+        }
+    }
+
+    private static ContentValues toValues(Edit edit) {
+        ContentValues values = new ContentValues();
+        values.put(NoteHistoryEntry.COLUMN_FIELD,
+                edit.contain ? NoteHistoryEntry.FIELD_CONTAIN : NoteHistoryEntry.FIELD_TITLE);
+        values.put(NoteHistoryEntry.COLUMN_START, edit.start);
+        values.put(NoteHistoryEntry.COLUMN_REMOVED, edit.removed);
+        values.put(NoteHistoryEntry.COLUMN_INSERTED, edit.inserted);
+        return values;
+    }
+
+    private static Edit fromValues(ContentValues values) {
+        return new Edit(values.getAsInteger(NoteHistoryEntry.COLUMN_FIELD) == NoteHistoryEntry.FIELD_CONTAIN,
+                values.getAsInteger(NoteHistoryEntry.COLUMN_START),
+                values.getAsString(NoteHistoryEntry.COLUMN_REMOVED),
+                values.getAsString(NoteHistoryEntry.COLUMN_INSERTED), 0);
+    }
+
+    /**
+     * Records the edits of one field. Only the removed and inserted text is copied, never the
+     * whole field.
+     */
+    private class Recorder implements TextWatcher {
+        private final boolean mContain;
+
+        /** Text about to be replaced by the change under way */
+        private String mRemoved = "";
+
+        Recorder(boolean contain) {
+            mContain = contain;
+        }
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            mRemoved = mApplying || count == 0 ? "" : s.subSequence(start, start + count).toString();
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            if (mApplying) {
+                return;
+            }
+            record(mContain, start, mRemoved, s.subSequence(start, start + count).toString());
+            mRemoved = "";
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+        }
+    }
+}
@@ -1,11 +1,10 @@
 package com.fruity.notebook;
 
-import static com.fruity.notebook.CatalogActivity.sharedPref;
-
 import android.annotation.SuppressLint;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
-import android.content.ContentValues;
+import android.content.ContentUris;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -13,25 +12,21 @@ import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Trace;
 import android.text.TextUtils;
 import android.view.Menu;
 import android.view.MenuItem;
-import android.view.View;
 import android.widget.EditText;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.view.menu.MenuBuilder;
 import androidx.core.app.NavUtils;
 
 import com.fruity.notebook.data.NoteContract;
-import com.google.android.gms.ads.AdListener;
-import com.google.android.gms.ads.AdRequest;
-import com.google.android.gms.ads.AdSize;
-import com.google.android.gms.ads.AdView;
-import com.google.android.gms.ads.LoadAdError;
-import com.google.android.gms.ads.MobileAds;
+import com.fruity.notebook.data.NoteWriter;
 
 /**
  * Allows user to create a new note or edit an existing one.
@@ -42,6 +37,10 @@ public class EditorActivity extends AppCompatActivity implements
     /** Identifier for the note data loader */
     private static final int EXISTING_NOTE_LOADER = 0;
 
+    /** Keys of the state kept when the activity is recreated, e.g. on a rotation */
+    private static final String STATE_NOTE_URI = "note_uri";
+    private static final String STATE_NOTE_LOADED = "note_loaded";
+
     /** Content URI for the existing note (null if it's a new note) */
     private Uri mCurrentNoteUri;
 
@@ -51,129 +50,98 @@ public class EditorActivity extends AppCompatActivity implements
     /** EditText field to enter the note's contain */
     private EditText mContentEditText;
 
-    /** Boolean flag that keeps track of whether the note has been edited (true) or not (false) */
-    private boolean mNoteHasChanged = false;
-
-    /**
-     * OnTouchListener that listens for any user touches on a View, implying that they are modifying
-     * the view, and we change the mNoteHasChanged boolean to true.
-     */
-    @SuppressLint("ClickableViewAccessibility")
-    private final View.OnTouchListener mTouchListener = (view, motionEvent) -> {
-        mNoteHasChanged = true;
-        return false;
-    };
-
-    @SuppressLint({"MissingInflatedId", "ClickableViewAccessibility"})
-    @Override
-    protected void onCreate(Bundle savedInstanceState) {
-
-        //add dark mode
-        sharedPref = new SharedPref(this);
-        if(sharedPref.loadNightModeState()) {
-            setTheme(R.style.DarkTheme);
-        }
-        else setTheme(R.style.AppTheme);
-
-        super.onCreate(savedInstanceState);
-        setContentView(R.layout.activity_editor);
-
-        // Examine the intent that was used to launch this activity,
-        // in order to figure out if we're creating a new note or editing an existing one.
-        Intent intent = getIntent();
-        mCurrentNoteUri = intent.getData();
-
-        // If the intent DOES NOT contain a note content URI, then we know that we are
-        // creating a new note.
-        if (mCurrentNoteUri == null) {
-            // This is a new note, so change the app bar to say "Add a Note"
-            setTitle(getString(R.string.editor_activity_title_new_note));
-
-            // Invalidate the options menu, so the "Delete" menu option can be hidden.
-            // (It doesn't make sense to delete a note that hasn't been created yet.)
-            invalidateOptionsMenu();
+    /** Tracks the edits and saves them automatically */
+    private NoteAutosaver mAutosaver;
 
-        } else {
-            // Otherwise this is an existing note, so change app bar to say "Edit Note"
-            setTitle(getString(R.string.editor_activity_title_edit_note));
+    /** Undo and redo history of the fields */
+    private EditJournal mJournal;
 
-            // Initialize a loader to read the note data from the database
-            // and display the current values in the editor
-            getLoaderManager().initLoader(EXISTING_NOTE_LOADER, null, this);
-        }
-
-        // Find all relevant views that we will need to read user input from
-        mTitleEditText = findViewById(R.id.edit_title);
-        mContentEditText = findViewById(R.id.edit_contain);
-
-        // Setup OnTouchListeners on all the input fields, so we can determine if the user
-        // has touched or modified them. This will let us know if there are unsaved changes
-        // or not, if the user tries to leave the editor without saving.
-        mTitleEditText.setOnTouchListener(mTouchListener);
-        mContentEditText.setOnTouchListener(mTouchListener);
-
-         //admob
-        MobileAds.initialize(this, initializationStatus -> {
-        });
+    /** True once the note was read from the database and shown */
+    private boolean mNoteLoaded = false;
 
-        AdView mAdView = new AdView(this);
-
-        mAdView.setAdSize(AdSize.BANNER);
-
-        mAdView.setAdUnitId("ca-app-pub-9792667030467157/4526786061");
+    /** Reads the contain of a chunked note, null unless one is loading */
+    private NoteBodyReader mBodyReader;
 
+    @SuppressLint("MissingInflatedId")
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        // Traced so the time to the first frame can be split up in a system trace
+        Trace.beginSection("EditorActivity.onCreate");
+        try {
+            //add dark mode
+            SharedPref sharedPref = SharedPref.getInstance(this);
+            if(sharedPref.loadNightModeState()) {
+                setTheme(R.style.DarkTheme);
+            }
+            else setTheme(R.style.AppTheme);
 
+            super.onCreate(savedInstanceState);
+            setContentView(R.layout.activity_editor);
 
-        mAdView = findViewById(R.id.adView);
-        AdRequest adRequest = new AdRequest.Builder().build();
-        mAdView.loadAd(adRequest);
+            // Examine the intent that was used to launch this activity,
+            // in order to figure out if we're creating a new note or editing an existing one.
+            Intent intent = getIntent();
+            mCurrentNoteUri = intent.getData();
 
-        mAdView.setAdListener(new AdListener() {
-            @Override
-            public void onAdClicked() {
-                // Code to be executed when the user clicks on an ad.
+            // A new note may have been created by an autosave before the activity was recreated,
+            // editing it again must not insert a second one
+            if (savedInstanceState != null) {
+                mCurrentNoteUri = savedInstanceState.getParcelable(STATE_NOTE_URI);
+                mNoteLoaded = savedInstanceState.getBoolean(STATE_NOTE_LOADED);
             }
 
-            @Override
-            public void onAdClosed() {
-                // Code to be executed when the user is about to return
-                // to the app after tapping on an ad.
-            }
+            // If the intent DOES NOT contain a note content URI, then we know that we are
+            // creating a new note.
+            if (mCurrentNoteUri == null) {
+                // This is a new note, so change the app bar to say "Add a Note"
+                setTitle(getString(R.string.editor_activity_title_new_note));
 
-            @Override
-            public void onAdFailedToLoad(@NonNull LoadAdError adError) {
-                // Code to be executed when an ad request fails.
-            }
+                // Invalidate the options menu, so the "Delete" menu option can be hidden.
+                // (It doesn't make sense to delete a note that hasn't been created yet.)
+                invalidateOptionsMenu();
 
-            @Override
-            public void onAdImpression() {
-                // Code to be executed when an impression is recorded
-                // for an ad.
-            }
+            } else {
+                // Otherwise this is an existing note, so change app bar to say "Edit Note"
+                setTitle(getString(R.string.editor_activity_title_edit_note));
 
-            @Override
-            public void onAdLoaded() {
-                // Code to be executed when an ad finishes loading.
+                // Initialize a loader to read the note data from the database
+                // and display the current values in the editor
+                getLoaderManager().initLoader(EXISTING_NOTE_LOADER, null, this);
             }
 
-            @Override
-            public void onAdOpened() {
-                // Code to be executed when an ad opens an overlay that
-                // covers the screen.
+            // Find all relevant views that we will need to read user input from
+            mTitleEditText = findViewById(R.id.edit_title);
+            mContentEditText = findViewById(R.id.edit_contain);
+
+            // Watch the input fields for edits, and save them automatically once typing pauses.
+            // This also tells us if there are unsaved changes when the user leaves the editor.
+            mAutosaver = new NoteAutosaver(this, mTitleEditText, mContentEditText, mCurrentNoteUri,
+                    this::onNoteCreated);
+
+            // Undo covers what the user types, so an existing note only starts recording
+            // once it is loaded
+            mJournal = new EditJournal(this, mTitleEditText, mContentEditText, mCurrentNoteUri,
+                    this::invalidateOptionsMenu);
+            if (mCurrentNoteUri == null && savedInstanceState == null) {
+                mJournal.start();
             }
-        });
-
-
-
-
 
+            // The ad only loads once the note is on screen
+            BannerAds.loadAfterFirstFrame(findViewById(R.id.adView));
+        } finally {
+            Trace.endSection();
+        }
     }
 
 
     /**
      * Get user input from editor and save  note into database.
+     * The write runs in the background through {@link NoteAutosaver}, and a toast reports the
+     * result once it is done, so the activity can finish right away. Nothing is written if the
+     * note didn't change since it was last saved.
      */
-    private void saveNote() {
+    @VisibleForTesting
+    void saveNote() {
         // Read from input fields
         // Use trim to eliminate leading or trailing white space
 
@@ -188,56 +156,85 @@ public class EditorActivity extends AppCompatActivity implements
         if (mCurrentNoteUri == null &&
                 TextUtils.isEmpty(titleString) && TextUtils.isEmpty(containString)) {
             // Since no fields were modified, we can return early without creating a new note.
-            // No need to create ContentValues and no need to do any ContentProvider operations.
+            // No need to do any ContentProvider operations.
             return;
         }
 
-        // Create a ContentValues object where column names are the keys,
-        // and note attributes from the editor are the values.
-        ContentValues values = new ContentValues();
-        values.put(NoteContract.NoteEntry.COLUMN_NOTE_NAME, titleString);
-        values.put(NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN, containString);
+        // The toasts may show after this activity is gone, so use the application context
+        final Context appContext = getApplicationContext();
 
         // Determine if this is a new or existing note by checking if mCurrentNoteUri is null or not
-        if (mCurrentNoteUri == null) {
-            // This is a NEW note, so insert a new note into the provider,
-            // returning the content URI for the new note.
-            Uri newUri = getContentResolver().insert(NoteContract.NoteEntry.CONTENT_URI, values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_note_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_note_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
-        } else {
-            // Otherwise this is an EXISTING note, so update the note with content URI: mCurrentNoteUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because mCurrentNoteUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentNoteUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_note_failed),
-                        Toast.LENGTH_SHORT).show();
+        final boolean newNote = mCurrentNoteUri == null;
+
+        mAutosaver.save(success -> {
+            // Show a toast message depending on whether or not the save was successful.
+            int message;
+            if (newNote) {
+                message = success ? R.string.editor_insert_note_successful : R.string.editor_insert_note_failed;
             } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_note_successful),
-                        Toast.LENGTH_SHORT).show();
+                message = success ? R.string.editor_update_note_successful : R.string.editor_update_note_failed;
             }
-        }
+            Toast.makeText(appContext, appContext.getString(message), Toast.LENGTH_SHORT).show();
+        });
     }catch (Exception e){
         Toast.makeText(this, getString(R.string.input_exception),
                 Toast.LENGTH_SHORT).show();
     }
     }
 
+    /**
+     * Called when the first autosave of a new note created it in the database.
+     */
+    private void onNoteCreated(Uri noteUri) {
+        mCurrentNoteUri = noteUri;
+        mNoteLoaded = true;
+        mJournal.setNoteUri(noteUri);
+        setTitle(getString(R.string.editor_activity_title_edit_note));
+
+        // The note exists now, so the "Delete" menu option can be shown
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * Save the edits when the user leaves the editor, e.g. by switching to another app.
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mAutosaver.save(null);
+    }
+
+    @Override
+    protected void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(STATE_NOTE_URI, mCurrentNoteUri);
+        // The fields stay read-only until a chunked note is fully read, it is read again then
+        outState.putBoolean(STATE_NOTE_LOADED, mNoteLoaded && mContentEditText.isEnabled());
+        mAutosaver.saveState(outState);
+    }
+
+    /**
+     * The fields get their text back here, which isn't an edit. The undo history starts over
+     * from that text.
+     */
+    @Override
+    protected void onRestoreInstanceState(@NonNull Bundle savedInstanceState) {
+        mAutosaver.restoreState(savedInstanceState, () -> super.onRestoreInstanceState(savedInstanceState));
+        if (mCurrentNoteUri == null || mNoteLoaded) {
+            mJournal.start();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (mBodyReader != null) {
+            mBodyReader.cancel();
+        }
+        mAutosaver.stop();
+        mJournal.stop();
+        super.onDestroy();
+    }
+
     @SuppressLint("RestrictedApi")
     @Override
     public boolean onCreateOptionsMenu(@NonNull Menu menu) {
@@ -265,6 +262,8 @@ public class EditorActivity extends AppCompatActivity implements
             MenuItem menuItem = menu.findItem(R.id.action_delete);
             menuItem.setVisible(false);
         }
+        menu.findItem(R.id.action_undo).setEnabled(mJournal.canUndo());
+        menu.findItem(R.id.action_redo).setEnabled(mJournal.canRedo());
         return true;
     }
 
@@ -280,6 +279,13 @@ public class EditorActivity extends AppCompatActivity implements
                 // Exit activity
                 finish();
                 return true;
+            // Respond to a click on the "Undo" and "Redo" menu options
+            case R.id.action_undo:
+                mJournal.undo();
+                return true;
+            case R.id.action_redo:
+                mJournal.redo();
+                return true;
             // Respond to a click on the "Delete" menu option
             case R.id.action_delete:
                 // Pop up confirmation dialog for deletion
@@ -287,19 +293,21 @@ public class EditorActivity extends AppCompatActivity implements
                 return true;
             // Respond to a click on the "Up" arrow button in the app bar
             case android.R.id.home:
-                // If the note hasn't changed, continue with navigating up to parent activity
-                // which is the {@link CatalogActivity}.
-                if (!mNoteHasChanged) {
+                // If the note hasn't changed since it was opened, continue with navigating up
+                // to parent activity which is the {@link CatalogActivity}.
+                if (!mAutosaver.hasChanges()) {
                     NavUtils.navigateUpFromSameTask(EditorActivity.this);
                     return true;
                 }
 
-                // Otherwise if there are unsaved changes, setup a dialog to warn the user.
-                // Create a click listener to handle the user confirming that
-                // changes should be discarded.
+                // Otherwise the changes may be autosaved already, setup a dialog to ask the user
+                // whether to keep them. Create a click listener to handle the user confirming
+                // that changes should be discarded.
                 DialogInterface.OnClickListener discardButtonClickListener =
                         (dialogInterface, i) -> {
-                            // User clicked "Discard" button, navigate to parent activity.
+                            // User clicked "Discard" button, write the note back as it was loaded
+                            // and navigate to parent activity.
+                            mAutosaver.discard();
                             NavUtils.navigateUpFromSameTask(EditorActivity.this);
                         };
 
@@ -316,17 +324,20 @@ public class EditorActivity extends AppCompatActivity implements
      */
     @Override
     public void onBackPressed() {
-        // If the note hasn't changed, continue with handling back button press
-        if (!mNoteHasChanged) {
+        // If the note hasn't changed since it was opened, continue with handling back button press
+        if (!mAutosaver.hasChanges()) {
             super.onBackPressed();
             return;
         }
 
-        // Otherwise if there are unsaved changes, setup a dialog to warn the user.
-        // Create a click listener to handle the user confirming that changes should be discarded.
+        // Otherwise the changes may be autosaved already, setup a dialog to ask the user whether
+        // to keep them. Create a click listener to handle the user confirming that changes should
+        // be discarded.
         DialogInterface.OnClickListener discardButtonClickListener =
                 (dialogInterface, i) -> {
-                    // User clicked "Discard" button, close the current activity.
+                    // User clicked "Discard" button, write the note back as it was loaded
+                    // and close the current activity.
+                    mAutosaver.discard();
                     finish();
                 };
 
@@ -342,7 +353,8 @@ public class EditorActivity extends AppCompatActivity implements
         String[] projection = {
                 NoteContract.NoteEntry._ID,
                 NoteContract.NoteEntry.COLUMN_NOTE_NAME,
-                NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN};
+                NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN,
+                NoteContract.NoteEntry.COLUMN_NOTE_CHUNKED};
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
@@ -360,34 +372,82 @@ public class EditorActivity extends AppCompatActivity implements
             return;
         }
 
+        // The loader reloads whenever the note is saved. Only show the note once, so an
+        // autosave doesn't overwrite what the user is typing.
+        if (mNoteLoaded) {
+            return;
+        }
+
         // Proceed with moving to the first row of the cursor and reading data from it
         // (This should be the only row in the cursor)
         if (cursor.moveToFirst()) {
             // Find the columns of note attributes that we're interested in
             int titleColumnIndex = cursor.getColumnIndex(NoteContract.NoteEntry.COLUMN_NOTE_NAME);
             int containColumnIndex = cursor.getColumnIndex(NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN);
+            int chunkedColumnIndex = cursor.getColumnIndex(NoteContract.NoteEntry.COLUMN_NOTE_CHUNKED);
 
             // Extract out the value from the Cursor for the given column index
             String title = cursor.getString(titleColumnIndex);
             String contain = cursor.getString(containColumnIndex);
+            boolean chunked = cursor.getInt(chunkedColumnIndex) != 0;
 
             // Update the views on the screen with the values from the database
-            mTitleEditText.setText(title);
-            mContentEditText.setText(contain);
+            if (chunked) {
+                loadChunkedNote(title);
+            } else {
+                mAutosaver.load(title, contain);
+                mJournal.start();
+            }
+            mNoteLoaded = true;
         }
     }
 
+    /**
+     * Shows a note too large to read at once. The contain is added chunk by chunk as it is read,
+     * and the fields stay read-only until all of it is there.
+     */
+    private void loadChunkedNote(String title) {
+        mTitleEditText.setEnabled(false);
+        mContentEditText.setEnabled(false);
+        mAutosaver.beginLoad(title);
+
+        mBodyReader = new NoteBodyReader(getContentResolver(), ContentUris.parseId(mCurrentNoteUri),
+                new NoteBodyReader.Callback() {
+                    @Override
+                    public void onChunkRead(String text) {
+                        mAutosaver.appendLoaded(text);
+                    }
+
+                    @Override
+                    public void onBodyRead(boolean success) {
+                        mBodyReader = null;
+                        if (!success) {
+                            // Leave the fields read-only, so the partial contain is never saved
+                            Toast.makeText(EditorActivity.this, getString(R.string.editor_load_note_failed),
+                                    Toast.LENGTH_SHORT).show();
+                            return;
+                        }
+                        mAutosaver.finishLoad();
+                        mJournal.start();
+                        mTitleEditText.setEnabled(true);
+                        mContentEditText.setEnabled(true);
+                    }
+                });
+        mBodyReader.start();
+    }
+
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // If the loader is invalidated, clear out all the data from the input fields.
-        mTitleEditText.setText("");
-        mContentEditText.setText("");
+        // Clearing them isn't an edit that can be undone.
+        mJournal.stop();
+        mAutosaver.clear();
     }
 
 
     /**
-     * Show a dialog that warns the user there are unsaved changes that will be lost
-     * if they continue leaving the editor.
+     * Show a dialog that warns the user the changes made to the note, autosaved or not, will
+     * be lost if they continue leaving the editor.
      *
      * @param discardButtonClickListener is the click listener for what to do when
      *                                   the user confirms they want to discard their changes
@@ -458,25 +518,31 @@ public class EditorActivity extends AppCompatActivity implements
 
     /**
      * Perform the deletion of the note in the database.
+     * The delete runs in the background through {@link NoteWriter}.
      */
     private void deleteNote() {
         // Only perform the delete if this is an existing note.
         if (mCurrentNoteUri != null) {
-            // Call the ContentResolver to delete the note at the given content URI.
-            // Pass in null for the selection and selection args because the mCurrentPetUri
-            // content URI already identifies the note that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentNoteUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_note_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_note_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Don't let a pending autosave write to the note after it is deleted
+            mAutosaver.cancel();
+
+            // The toasts may show after this activity is gone, so use the application context
+            final Context appContext = getApplicationContext();
+
+            // Ask the NoteWriter to delete the note at the given content URI.
+            // The mCurrentNoteUri content URI already identifies the note that we want.
+            NoteWriter.getInstance(this).delete(mCurrentNoteUri, rowsDeleted -> {
+                // Show a toast message depending on whether or not the delete was successful.
+                if (rowsDeleted == 0) {
+                    // If no rows were deleted, then there was an error with the delete.
+                    Toast.makeText(appContext, appContext.getString(R.string.editor_delete_note_failed),
+                            Toast.LENGTH_SHORT).show();
+                } else {
+                    // Otherwise, the delete was successful and we can display a toast.
+                    Toast.makeText(appContext, appContext.getString(R.string.editor_delete_note_successful),
+                            Toast.LENGTH_SHORT).show();
+                }
+            });
         }
         // Close the activity
         finish();
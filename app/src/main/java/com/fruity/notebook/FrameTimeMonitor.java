@@ -0,0 +1,104 @@
+package com.fruity.notebook;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import androidx.annotation.RequiresApi;
+
+import java.util.Arrays;
+
+/**
+ * Records how long every frame of a window took to draw and logs a summary when stopped,
+ * so scrolling and list updates can be compared before and after a change.
+ *
+ * Uses {@link FrameMetrics}, so nothing is recorded before Android 7.0.
+ */
+class FrameTimeMonitor {
+
+    private static final String LOG_TAG = FrameTimeMonitor.class.getSimpleName();
+
+    /** A frame taking longer than this misses a 60 Hz vsync */
+    private static final long FRAME_BUDGET_NANOS = 16_666_667L;
+
+    /** Frames kept for the percentiles, the oldest are overwritten */
+    private static final int MAX_SAMPLES = 2048;
+
+    /** Name used in the log, usually the activity */
+    private final String mName;
+
+    private final long[] mSamples = new long[MAX_SAMPLES];
+    private int mFrameCount;
+    private int mJankCount;
+
+    private HandlerThread mThread;
+    private Window.OnFrameMetricsAvailableListener mListener;
+
+    FrameTimeMonitor(String name) {
+        mName = name;
+    }
+
+    /**
+     * Starts recording the frames of the given window.
+     */
+    void start(Window window) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && mListener == null) {
+            startRecording(window);
+        }
+    }
+
+    /**
+     * Stops recording and logs the frame times recorded since {@link #start(Window)}.
+     */
+    void stop(Window window) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N && mListener != null) {
+            stopRecording(window);
+            logSummary();
+        }
+    }
+
+    @RequiresApi(Build.VERSION_CODES.N)
+    private void startRecording(Window window) {
+        mThread = new HandlerThread(LOG_TAG);
+        mThread.start();
+        mListener = (w, frameMetrics, dropCountSinceLastInvocation) ->
+                record(frameMetrics.getMetric(FrameMetrics.TOTAL_DURATION));
+        window.addOnFrameMetricsAvailableListener(mListener, new Handler(mThread.getLooper()));
+    }
+
+    @RequiresApi(Build.VERSION_CODES.N)
+    private void stopRecording(Window window) {
+        window.removeOnFrameMetricsAvailableListener(mListener);
+        mListener = null;
+        mThread.quitSafely();
+        mThread = null;
+    }
+
+    private synchronized void record(long durationNanos) {
+        mSamples[mFrameCount % MAX_SAMPLES] = durationNanos;
+        mFrameCount++;
+        if (durationNanos > FRAME_BUDGET_NANOS) {
+            mJankCount++;
+        }
+    }
+
+    private synchronized void logSummary() {
+        if (mFrameCount > 0) {
+            long[] sorted = Arrays.copyOf(mSamples, Math.min(mFrameCount, MAX_SAMPLES));
+            Arrays.sort(sorted);
+            Log.i(LOG_TAG, String.format("%s: %d frames, %d janky, p50 %.1fms, p90 %.1fms, p99 %.1fms",
+                    mName, mFrameCount, mJankCount,
+                    percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99)));
+        }
+        mFrameCount = 0;
+        mJankCount = 0;
+    }
+
+    /** Returns the given percentile of the sorted samples, in milliseconds */
+    private static double percentile(long[] sorted, int percent) {
+        return sorted[(sorted.length - 1) * percent / 100] / 1e6;
+    }
+}
@@ -0,0 +1,519 @@
+package com.fruity.notebook;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextUtils;
+import android.text.TextWatcher;
+import android.widget.EditText;
+
+import androidx.annotation.Nullable;
+
+import com.fruity.notebook.data.NoteWriter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Saves the note of the editor automatically while the user types.
+ *
+ * Edits are tracked with a {@link TextWatcher}, and a save runs once typing pauses for
+ * {@link #AUTOSAVE_DELAY_MS}, or at the latest {@link #MAX_AUTOSAVE_DELAY_MS} after the first
+ * unsaved edit. All the edits made in between are written with a single insert or update.
+ * Nothing is written when the text hashes to the same value as the last save, and only one write
+ * is in flight at a time; edits made meanwhile are saved once it completes.
+ *
+ * As the edits are already written when the user leaves, {@link #discard()} writes the note back
+ * as it was loaded, or moves a note created by this editor to the trash.
+ *
+ * When the activity is recreated, e.g. by a rotation, {@link #saveState(Bundle)} and
+ * {@link #restoreState(Bundle, Runnable)} carry this over to the autosaver of the new activity,
+ * including an insert of the new note still in flight, which the new autosaver waits for
+ * instead of inserting the note a second time.
+ *
+ * All methods run on the main thread.
+ */
+class NoteAutosaver {
+
+    /** Receives the creation of a new note by the first save */
+    interface Listener {
+        void onNoteCreated(Uri noteUri);
+    }
+
+    /** Receives the result of an explicit save on the main thread */
+    interface SaveCallback {
+        void onSaveComplete(boolean success);
+    }
+
+    /** Quiet time after the last edit before saving */
+    private static final long AUTOSAVE_DELAY_MS = 1500;
+
+    /** Longest time an edit stays unsaved while the user keeps typing */
+    private static final long MAX_AUTOSAVE_DELAY_MS = 10000;
+
+    /** Keys of the state saved by {@link #saveState(Bundle)} */
+    private static final String STATE_CREATED = "autosaver_created";
+    private static final String STATE_LOADED = "autosaver_loaded";
+    private static final String STATE_LOADED_TITLE = "autosaver_loaded_title";
+    private static final String STATE_LOADED_CONTAIN = "autosaver_loaded_contain";
+    private static final String STATE_INSERT = "autosaver_insert";
+
+    /**
+     * Longest loaded contain kept in the saved state. The fields save their own text too, and
+     * the whole state must fit in one binder transaction.
+     */
+    private static final int MAX_SAVED_CONTAIN_LENGTH = 64 * 1024;
+
+    /**
+     * Inserts of new notes that were in flight when their activity saved its state, by the key
+     * saved in the state. Only used on the main thread.
+     */
+    private static final Map<String, Handoff> sHandoffs = new HashMap<>();
+
+    /** An insert in flight, handed over from an autosaver to the one of the recreated activity */
+    private static final class Handoff {
+        /** Set once the insert completed */
+        boolean done;
+        Uri noteUri;
+        long hash;
+
+        /** Autosaver waiting for the insert, null until the new activity restored its state */
+        NoteAutosaver successor;
+    }
+
+    private final NoteWriter mWriter;
+    private final EditText mTitleEditText;
+    private final EditText mContentEditText;
+    private final Listener mListener;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    /** URI of the note, null until a new note has been saved once */
+    private Uri mNoteUri;
+
+    /** Hash of the title and contain last written, or loaded from the database */
+    private long mSavedHash;
+
+    /** Title and contain as loaded from the database, null until an existing note is loaded */
+    private String mLoadedTitle;
+    private String mLoadedContain;
+
+    /** Hash of {@link #mLoadedTitle} and {@link #mLoadedContain} */
+    private long mLoadedHash;
+
+    /** True once the first save inserted the note */
+    private boolean mCreated;
+
+    /** Set once the edits were discarded, so a new note inserted meanwhile is trashed */
+    private boolean mDiscarded;
+
+    /** Key of the handoff of the insert in flight, see {@link #saveState(Bundle)} */
+    private String mHandoffKey;
+
+    /** True when the text was edited since the last save started */
+    private boolean mDirty;
+
+    /** Time of the first edit since the last save started */
+    private long mFirstDirtyTime;
+
+    /** True while a write is on its way to the provider */
+    private boolean mWriteInFlight;
+
+    /** True when a save was asked for while a write was in flight */
+    private boolean mSaveAfterWrite;
+
+    /** Callbacks of the write in flight */
+    private List<SaveCallback> mWriteCallbacks = new ArrayList<>();
+
+    /** Callbacks of the save that runs once the write in flight completes */
+    private List<SaveCallback> mWaitingCallbacks = new ArrayList<>();
+
+    /** Set while the text is changed by code rather than by the user */
+    private boolean mMuted;
+
+    /** Set once the editor is gone */
+    private boolean mStopped;
+
+    private final Runnable mSaveRunnable = () -> save(null);
+
+    NoteAutosaver(Context context, EditText titleEditText, EditText contentEditText,
+                  @Nullable Uri noteUri, Listener listener) {
+        mWriter = NoteWriter.getInstance(context);
+        mTitleEditText = titleEditText;
+        mContentEditText = contentEditText;
+        mNoteUri = noteUri;
+        mListener = listener;
+        mSavedHash = hash("", "");
+        if (noteUri == null) {
+            setLoaded("", "");
+        }
+
+        mTitleEditText.addTextChangedListener(new ChangeTracker());
+        mContentEditText.addTextChangedListener(new ChangeTracker());
+    }
+
+    /**
+     * Shows the note as read from the database. This doesn't count as an edit.
+     */
+    void load(String title, String contain) {
+        setTextMuted(title, contain);
+        setLoaded(trim(title), trim(contain));
+    }
+
+    /**
+     * Starts showing a note whose contain is read in parts, see {@link NoteBodyReader}. The parts
+     * are added with {@link #appendLoaded(String)} and the load ends with {@link #finishLoad()}.
+     * The caller keeps the fields read-only meanwhile, so a partial contain is never saved.
+     */
+    void beginLoad(String title) {
+        setTextMuted(title, "");
+    }
+
+    /**
+     * Adds the next part of the contain of the note being loaded. This doesn't count as an edit.
+     */
+    void appendLoaded(String text) {
+        mMuted = true;
+        try {
+            mContentEditText.append(text);
+        } finally {
+            mMuted = false;
+        }
+    }
+
+    /**
+     * Ends the load started with {@link #beginLoad(String)}; what the fields hold now is saved.
+     */
+    void finishLoad() {
+        setLoaded(trim(mTitleEditText.getText().toString()), trim(mContentEditText.getText().toString()));
+    }
+
+    /**
+     * Clears the fields without counting it as an edit.
+     */
+    void clear() {
+        setTextMuted("", "");
+    }
+
+    /**
+     * Returns true if the note was changed since it was loaded, saved by now or not, so
+     * {@link #discard()} has something to undo.
+     */
+    boolean hasChanges() {
+        return mCreated || (mLoadedTitle != null && currentHash() != mLoadedHash);
+    }
+
+    /**
+     * Saves the edits now instead of waiting for typing to pause. Cheap when nothing changed.
+     *
+     * @param callback receives the result once the edits are written, may be null
+     */
+    void save(@Nullable SaveCallback callback) {
+        mHandler.removeCallbacks(mSaveRunnable);
+
+        if (mWriteInFlight) {
+            // Coalesce with the edits already on their way, and save the rest once they land
+            mSaveAfterWrite = true;
+            if (callback != null) {
+                mWaitingCallbacks.add(callback);
+            }
+            return;
+        }
+
+        if (!mDirty) {
+            // Nothing was typed since the last save
+            complete(callback, true);
+            return;
+        }
+
+        String title = trim(mTitleEditText.getText().toString());
+        String contain = trim(mContentEditText.getText().toString());
+        final long hash = hash(title, contain);
+        mDirty = false;
+
+        if (hash == mSavedHash || (mNoteUri == null && title.isEmpty() && contain.isEmpty())) {
+            // The text is back to what is saved, or still an empty new note
+            complete(callback, true);
+            return;
+        }
+
+        mWriteInFlight = true;
+        if (callback != null) {
+            mWriteCallbacks.add(callback);
+        }
+
+        if (mNoteUri == null) {
+            mWriter.insertNote(title, contain, newUri -> onInserted(newUri, hash));
+        } else {
+            mWriter.updateNote(mNoteUri, title, contain, rowsAffected -> onWriteComplete(rowsAffected > 0, hash));
+        }
+    }
+
+    /**
+     * Saves what the autosaver of the recreated activity needs: whether this editor created the
+     * note, the note as it was loaded, and the insert of the new note if it is still in flight.
+     */
+    void saveState(Bundle state) {
+        state.putBoolean(STATE_CREATED, mCreated);
+        state.putBoolean(STATE_LOADED, mLoadedTitle != null);
+        if (mLoadedTitle != null && mLoadedContain.length() <= MAX_SAVED_CONTAIN_LENGTH) {
+            state.putString(STATE_LOADED_TITLE, mLoadedTitle);
+            state.putString(STATE_LOADED_CONTAIN, mLoadedContain);
+        }
+        if (mNoteUri == null && mWriteInFlight) {
+            if (mHandoffKey == null) {
+                mHandoffKey = UUID.randomUUID().toString();
+                sHandoffs.put(mHandoffKey, new Handoff());
+            }
+            state.putString(STATE_INSERT, mHandoffKey);
+        }
+    }
+
+    /**
+     * Restores the state saved by {@link #saveState(Bundle)} in the previous activity.
+     *
+     * @param restoreFields restores the text of the fields, which isn't an edit. A loaded note
+     *                      too large to be saved is then taken as loaded with that text, so
+     *                      discarding only undoes the changes made since.
+     */
+    void restoreState(Bundle state, Runnable restoreFields) {
+        mMuted = true;
+        try {
+            restoreFields.run();
+        } finally {
+            mMuted = false;
+        }
+
+        mCreated = state.getBoolean(STATE_CREATED);
+        if (state.containsKey(STATE_LOADED_TITLE)) {
+            setLoaded(state.getString(STATE_LOADED_TITLE), state.getString(STATE_LOADED_CONTAIN));
+        } else if (state.getBoolean(STATE_LOADED)) {
+            setLoaded(trim(mTitleEditText.getText().toString()), trim(mContentEditText.getText().toString()));
+        }
+        // The previous activity saved the fields when it paused
+        mSavedHash = currentHash();
+
+        // The handoff is gone if the process was restarted, the insert is then lost with it
+        Handoff handoff = sHandoffs.get(state.getString(STATE_INSERT));
+        if (handoff == null) {
+            return;
+        }
+        if (handoff.done) {
+            sHandoffs.remove(state.getString(STATE_INSERT));
+            onInserted(handoff.noteUri, handoff.hash);
+        } else {
+            // Saves wait for the insert like for a write of this autosaver
+            handoff.successor = this;
+            mWriteInFlight = true;
+        }
+    }
+
+    /**
+     * Forgets the unsaved edits, so they are not written by a later save.
+     */
+    void cancel() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        mDirty = false;
+        mSaveAfterWrite = false;
+    }
+
+    /**
+     * Undoes the changes made since the note was loaded: forgets the unsaved edits, and writes
+     * the note back as it was loaded, or moves it to the trash if it was created by this editor.
+     * The write is queued behind the write in flight, if any.
+     */
+    void discard() {
+        cancel();
+        mDiscarded = true;
+        if (mNoteUri == null) {
+            // Nothing was inserted yet, or the insert in flight trashes its note once it lands
+            return;
+        }
+        if (mCreated) {
+            mWriter.delete(mNoteUri, null);
+        } else if (mLoadedTitle != null && (mWriteInFlight || mSavedHash != mLoadedHash)) {
+            mWriter.updateNote(mNoteUri, mLoadedTitle, mLoadedContain, null);
+        }
+    }
+
+    /**
+     * Stops tracking edits. Called when the editor goes away, after the last save was asked for;
+     * the saves already asked for still complete.
+     */
+    void stop() {
+        mHandler.removeCallbacks(mSaveRunnable);
+        mStopped = true;
+    }
+
+    /** Takes the result of the insert of the new note, by this autosaver or the previous one */
+    private void onInserted(@Nullable Uri newUri, long hash) {
+        if (mHandoffKey != null) {
+            Handoff handoff = sHandoffs.get(mHandoffKey);
+            mHandoffKey = null;
+            if (handoff.successor != null || mStopped) {
+                // The activity was recreated, the autosaver of the new one takes the note
+                if (handoff.successor != null) {
+                    sHandoffs.values().remove(handoff);
+                    handoff.successor.onInserted(newUri, hash);
+                } else {
+                    handoff.done = true;
+                    handoff.noteUri = newUri;
+                    handoff.hash = hash;
+                }
+                handOver(newUri != null);
+                return;
+            }
+            sHandoffs.values().remove(handoff);
+        }
+
+        if (newUri != null) {
+            mNoteUri = newUri;
+            mCreated = true;
+            if (mDiscarded) {
+                mWriter.delete(newUri, null);
+            } else {
+                mListener.onNoteCreated(newUri);
+            }
+        }
+        onWriteComplete(newUri != null, hash);
+    }
+
+    /**
+     * Completes the saves asked for once the insert was handed over. The edits made since are in
+     * the restored fields, and saved from there.
+     */
+    private void handOver(boolean success) {
+        mWriteInFlight = false;
+        mSaveAfterWrite = false;
+        List<SaveCallback> callbacks = mWriteCallbacks;
+        callbacks.addAll(mWaitingCallbacks);
+        mWriteCallbacks = new ArrayList<>();
+        mWaitingCallbacks = new ArrayList<>();
+        for (SaveCallback callback : callbacks) {
+            callback.onSaveComplete(success);
+        }
+    }
+
+    private void onWriteComplete(boolean success, long hash) {
+        mWriteInFlight = false;
+        if (success) {
+            mSavedHash = hash;
+        } else {
+            // Try again with the next save
+            mDirty = true;
+        }
+
+        List<SaveCallback> callbacks = mWriteCallbacks;
+        mWriteCallbacks = new ArrayList<>();
+        for (SaveCallback callback : callbacks) {
+            callback.onSaveComplete(success);
+        }
+
+        if (mSaveAfterWrite) {
+            mSaveAfterWrite = false;
+            List<SaveCallback> waiting = mWaitingCallbacks;
+            mWaitingCallbacks = new ArrayList<>();
+            // One save covers all the saves asked for meanwhile
+            save(null);
+            if (mWriteInFlight) {
+                mWriteCallbacks.addAll(waiting);
+            } else {
+                // Nothing left to write
+                for (SaveCallback callback : waiting) {
+                    callback.onSaveComplete(true);
+                }
+            }
+        }
+    }
+
+    /** Records an edit and schedules the save */
+    private void onEdited() {
+        if (mMuted || mStopped) {
+            return;
+        }
+
+        long now = SystemClock.uptimeMillis();
+        if (!mDirty) {
+            mDirty = true;
+            mFirstDirtyTime = now;
+        }
+
+        // Wait for typing to pause, but don't let a long burst of typing go unsaved
+        mHandler.removeCallbacks(mSaveRunnable);
+        long delay = Math.min(AUTOSAVE_DELAY_MS, mFirstDirtyTime + MAX_AUTOSAVE_DELAY_MS - now);
+        mHandler.postDelayed(mSaveRunnable, Math.max(0, delay));
+    }
+
+    private void setLoaded(String title, String contain) {
+        mLoadedTitle = title;
+        mLoadedContain = contain;
+        mLoadedHash = hash(title, contain);
+        mSavedHash = mLoadedHash;
+    }
+
+    private void setTextMuted(String title, String contain) {
+        mMuted = true;
+        try {
+            mTitleEditText.setText(title);
+            mContentEditText.setText(contain);
+        } finally {
+            mMuted = false;
+        }
+    }
+
+    private long currentHash() {
+        return hash(trim(mTitleEditText.getText().toString()), trim(mContentEditText.getText().toString()));
+    }
+
+    private static void complete(@Nullable SaveCallback callback, boolean success) {
+        if (callback != null) {
+            callback.onSaveComplete(success);
+        }
+    }
+
+    private static String trim(String text) {
+        return TextUtils.isEmpty(text) ? "" : text.trim();
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the title and contain. Unlike {@link String#hashCode()}, two
+     * different versions of a note practically never share a hash, so an equal hash can safely
+     * skip the write.
+     */
+    static long hash(String title, String contain) {
+        long hash = 0xcbf29ce484222325L;
+        hash = hash(hash, title);
+        // Separator, so moving text between the title and the contain changes the hash
+        hash = (hash ^ 0xffff) * 0x100000001b3L;
+        return hash(hash, contain);
+    }
+
+    private static long hash(long hash, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /** Forwards the edits of one field */
+    private class ChangeTracker implements TextWatcher {
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            onEdited();
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.fruity.notebook;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.fruity.notebook.data.NoteContract.NoteChunkEntry;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Reads the contain of a chunked note on a background thread and hands it to the main thread
+ * one chunk at a time, so a huge note shows up progressively and the UI keeps drawing frames
+ * while it loads.
+ */
+class NoteBodyReader {
+
+    private static final String LOG_TAG = NoteBodyReader.class.getSimpleName();
+
+    /** Receives the contain on the main thread */
+    interface Callback {
+        /** Called for every chunk, in order */
+        void onChunkRead(String text);
+
+        /** Called once after the last chunk, or when reading failed */
+        void onBodyRead(boolean success);
+    }
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, LOG_TAG));
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ContentResolver mResolver;
+    private final Uri mChunksUri;
+    private final Callback mCallback;
+
+    /** Set once nothing should be delivered anymore */
+    private volatile boolean mCancelled;
+
+    NoteBodyReader(ContentResolver resolver, long noteId, Callback callback) {
+        mResolver = resolver;
+        mChunksUri = NoteChunkEntry.buildChunksUri(noteId);
+        mCallback = callback;
+    }
+
+    /**
+     * Starts reading the chunks.
+     */
+    void start() {
+        sExecutor.execute(this::read);
+    }
+
+    /**
+     * Stops reading, and drops the chunks read but not delivered yet.
+     */
+    void cancel() {
+        mCancelled = true;
+    }
+
+    private void read() {
+        boolean success = false;
+        try (Cursor cursor = mResolver.query(mChunksUri, new String[] { NoteChunkEntry.COLUMN_TEXT },
+                null, null, null)) {
+            if (cursor != null) {
+                // Each chunk is its own message, so frames are drawn between two of them
+                while (!mCancelled && cursor.moveToNext()) {
+                    final String text = cursor.getString(0);
+                    mMainHandler.post(() -> {
+                        if (!mCancelled) {
+                            mCallback.onChunkRead(text);
+                        }
+                    });
+                }
+                success = !mCancelled;
+            }
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Failed to read " + mChunksUri, e);
+        }
+
+        final boolean delivered = success;
+        mMainHandler.post(() -> {
+            if (!mCancelled) {
+                mCallback.onBodyRead(delivered);
+            }
+        });
+    }
+}
@@ -0,0 +1,186 @@
+package com.fruity.notebook;
+
+import android.content.Context;
+import android.os.Trace;
+import android.text.TextUtils;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.AdapterListUpdateCallback;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.List;
+
+/**
+ * Adapter for the notes list. The notes are read page by page through a {@link NotePager},
+ * so only the pages around the scroll position are held in memory, and a change to one note
+ * only rebinds the rows that changed.
+ */
+public class NoteListAdapter extends RecyclerView.Adapter<NoteListAdapter.NoteViewHolder> {
+
+    /** Receives clicks on a note of the list */
+    public interface OnNoteClickListener {
+        void onNoteClick(long id);
+    }
+
+    /** Payload of the rows rebound because the selection changed, not their note */
+    private static final Object PAYLOAD_SELECTION = new Object();
+
+    private final NotePager mPager;
+
+    private final OnNoteClickListener mClickListener;
+
+    /** Receives long presses on the notes, null when they are ignored */
+    private OnNoteClickListener mLongClickListener;
+
+    /** The notes picked for a bulk operation, null when the list isn't selecting */
+    private NoteSelection mSelection;
+
+    /** Text shown for a note without contain */
+    private final String mEmptyContain;
+
+    /**
+     * Constructs a new {@link NoteListAdapter} and starts loading the first page of notes.
+     *
+     * @param context       The context
+     * @param clickListener Receives clicks on the notes
+     */
+    public NoteListAdapter(Context context, OnNoteClickListener clickListener) {
+        mClickListener = clickListener;
+        mEmptyContain = context.getString(R.string.empty_contain);
+        mPager = new NotePager(context.getContentResolver(), new AdapterListUpdateCallback(this));
+    }
+
+    /**
+     * Releases the loaded pages. The adapter can't be used afterwards.
+     */
+    public void close() {
+        mPager.close();
+    }
+
+    /**
+     * Sets the listener of the long presses on the notes, which start a selection.
+     */
+    public void setOnNoteLongClickListener(@Nullable OnNoteClickListener longClickListener) {
+        mLongClickListener = longClickListener;
+    }
+
+    /**
+     * Shows the notes of the selection as picked, or none when null.
+     */
+    void setSelection(@Nullable NoteSelection selection) {
+        mSelection = selection;
+        notifySelectionChanged();
+    }
+
+    /**
+     * Updates the picked state of the rows shown, without binding their notes again.
+     */
+    void notifySelectionChanged() {
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
+    }
+
+    @Override
+    public int getItemCount() {
+        return mPager.getCount();
+    }
+
+    /**
+     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     */
+    @NonNull
+    @Override
+    public NoteViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+
+        // Inflate a list item view using the layout specified in list_item.xml
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        return new NoteViewHolder(view);
+    }
+
+    /**
+     * Binds the note at the given position to the list item, or clears the list item while the
+     * page of that note is still loading.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull NoteViewHolder holder, int position) {
+        Trace.beginSection("NoteListAdapter.bind");
+        try {
+            holder.bind(mPager.getRow(position));
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull NoteViewHolder holder, int position, @NonNull List<Object> payloads) {
+        boolean selectionOnly = !payloads.isEmpty();
+        for (Object payload : payloads) {
+            selectionOnly &= payload == PAYLOAD_SELECTION;
+        }
+        if (selectionOnly) {
+            holder.bindSelection();
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    /**
+     * Holds the views of one list item, so they are only looked up once.
+     */
+    class NoteViewHolder extends RecyclerView.ViewHolder {
+
+        private final TextView mNameTextView;
+        private final TextView mSummaryTextView;
+
+        /** Id of the bound note, -1 while its page is loading */
+        private long mNoteId = -1;
+
+        NoteViewHolder(View view) {
+            super(view);
+            mNameTextView = view.findViewById(R.id.TitleName);
+            mSummaryTextView = view.findViewById(R.id.summary);
+
+            view.setOnClickListener(v -> {
+                // Ignore clicks on rows whose page is still loading
+                if (mNoteId >= 0) {
+                    mClickListener.onNoteClick(mNoteId);
+                }
+            });
+            view.setOnLongClickListener(v -> {
+                if (mNoteId < 0 || mLongClickListener == null) {
+                    return false;
+                }
+                mLongClickListener.onNoteClick(mNoteId);
+                return true;
+            });
+        }
+
+        /** Shows whether the bound note is picked in the selection */
+        void bindSelection() {
+            itemView.setActivated(mSelection != null && mNoteId >= 0 && mSelection.isSelected(mNoteId));
+        }
+
+        void bind(NoteRow row) {
+            if (row == null) {
+                mNoteId = -1;
+                mNameTextView.setText(null);
+                mSummaryTextView.setText(null);
+                bindSelection();
+                return;
+            }
+
+            mNoteId = row.id;
+            mNameTextView.setText(row.title);
+
+            // If the note contain is empty string or null, then use some default text
+            // that says "Empty contain", so the TextView isn't blank.
+            mSummaryTextView.setText(TextUtils.isEmpty(row.summary) ? mEmptyContain : row.summary);
+            bindSelection();
+        }
+    }
+
+}
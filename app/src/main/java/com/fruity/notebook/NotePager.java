@@ -0,0 +1,569 @@
+package com.fruity.notebook;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Trace;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
+
+import com.fruity.notebook.data.NoteContract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the notes list one page at a time, newest first, using the keyset paging query
+ * parameters of {@link NoteContract.NoteEntry#CONTENT_URI}.
+ *
+ * Each page covers a fixed range of note ids, so a page can be reloaded on its own. Only the
+ * pages around the scroll position are kept in memory, so the memory used stays the same
+ * however many notes exist. Pages are loaded on a background thread ahead of the scroll position.
+ *
+ * When the notes change, the {@link NoteContract.NoteChangeEntry change feed} tells which notes
+ * changed. Only the pages in memory holding one of them are reloaded and compared with the old
+ * ones on the background thread, and only the rows that really changed are reported to the
+ * {@link ListUpdateCallback}. A page that grew past {@link #PAGE_SIZE}, like the first page
+ * once notes are added while the list is open, is split into pages of that size.
+ */
+class NotePager {
+
+    /** Number of notes in one page */
+    static final int PAGE_SIZE = 50;
+
+    /** Number of pages kept in memory, the rest are reloaded when scrolled back into view */
+    private static final int MAX_PAGES_IN_MEMORY = 6;
+
+    /** Start loading the next (or previous) page when this close to the edge of a page */
+    private static final int PREFETCH_DISTANCE = PAGE_SIZE / 2;
+
+    /** The id range and size of one page */
+    private static final class Page {
+        /** The notes of this page have a smaller id, Long.MAX_VALUE for the first page */
+        final long upperId;
+
+        /**
+         * The notes of this page have at least this id, or -1 while the page is the last one
+         * found so far and its end isn't known yet.
+         */
+        long lowerId = -1;
+
+        /** Number of notes in the page when it was last loaded */
+        int size;
+
+        Page(long upperId) {
+            this.upperId = upperId;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final ListUpdateCallback mCallback;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Every page found so far, in list order */
+    private final ArrayList<Page> mPages = new ArrayList<>();
+
+    /** Position of the first row of every page */
+    private int[] mPageStarts = new int[0];
+
+    /** Total number of rows in the pages found so far */
+    private int mRowCount;
+
+    /** True once the page holding the oldest note was found */
+    private boolean mEndReached;
+
+    /** Pages currently loading */
+    private final Set<Page> mLoading = new HashSet<>();
+
+    /**
+     * Rows of the loaded pages, the least recently used page is dropped when there are too many.
+     * Keyed by page rather than by index, as a split moves the pages after it.
+     */
+    private final LruCache<Page, List<NoteRow>> mRows = new LruCache<>(MAX_PAGES_IN_MEMORY);
+
+    private boolean mClosed;
+
+    /**
+     * Sequence number of the last change applied, or -1 if unknown. Only used on the background
+     * thread.
+     */
+    private long mChangeSeq = -1;
+
+    private final ContentObserver mObserver = new ContentObserver(mMainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            reload(false);
+        }
+    };
+
+    NotePager(ContentResolver resolver, ListUpdateCallback callback) {
+        mResolver = resolver;
+        mCallback = callback;
+        mResolver.registerContentObserver(NoteContract.NoteEntry.CONTENT_URI, true, mObserver);
+
+        // Find where the feed is before loading the first page, so no change is missed
+        mExecutor.execute(() -> mChangeSeq = queryLatestChange());
+
+        mPages.add(new Page(Long.MAX_VALUE));
+        rebuildPageStarts();
+        load(0);
+    }
+
+    /**
+     * Number of notes in the pages found so far. Grows as the user scrolls towards the end.
+     */
+    int getCount() {
+        return mRowCount;
+    }
+
+    /** Number of pages found so far */
+    @VisibleForTesting
+    int getPageCount() {
+        return mPages.size();
+    }
+
+    /**
+     * Returns the note at the given position, or null if its page isn't loaded yet.
+     * Missing pages and the pages next to the position are loaded in the background.
+     */
+    @Nullable
+    NoteRow getRow(int position) {
+        int page = pageOf(position);
+        int offset = position - mPageStarts[page];
+
+        if (offset >= mPages.get(page).size - PREFETCH_DISTANCE) {
+            load(page + 1);
+        } else if (offset < PREFETCH_DISTANCE && page > 0) {
+            load(page - 1);
+        }
+
+        List<NoteRow> rows = mRows.get(mPages.get(page));
+        if (rows == null || offset >= rows.size()) {
+            load(page);
+            return null;
+        }
+        return rows.get(offset);
+    }
+
+    /**
+     * Stops watching the notes and releases all the pages.
+     */
+    void close() {
+        mClosed = true;
+        mResolver.unregisterContentObserver(mObserver);
+        mExecutor.shutdownNow();
+        mRows.evictAll();
+    }
+
+    /**
+     * Returns the index of the page holding the given position.
+     */
+    private int pageOf(int position) {
+        // Find the last page starting at or before the position. Empty pages share their start
+        // with the next page, so this always lands on the page that holds the row.
+        int low = 0;
+        int high = mPageStarts.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mPageStarts[mid] <= position) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void rebuildPageStarts() {
+        int[] starts = new int[mPages.size()];
+        int position = 0;
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = position;
+            position += mPages.get(i).size;
+        }
+        mPageStarts = starts;
+        mRowCount = position;
+    }
+
+    private void load(final int page) {
+        if (mClosed || page < 0 || page > mPages.size()) {
+            return;
+        }
+        if (page == mPages.size()) {
+            // The next page can only be added once the end of the last one is known
+            Page last = mPages.get(page - 1);
+            if (mEndReached || last.lowerId < 0) {
+                return;
+            }
+            mPages.add(new Page(last.lowerId));
+            rebuildPageStarts();
+        }
+        final Page p = mPages.get(page);
+        if (mLoading.contains(p) || mRows.get(p) != null) {
+            return;
+        }
+
+        mLoading.add(p);
+        final long upperId = p.upperId;
+        final long lowerId = p.lowerId;
+        mExecutor.execute(() -> {
+            final List<NoteRow> rows = queryPage(upperId, lowerId);
+            mMainHandler.post(() -> onPageLoaded(p, rows));
+        });
+    }
+
+    private void onPageLoaded(Page p, List<NoteRow> rows) {
+        mLoading.remove(p);
+        // The page may have been split meanwhile, its rows are then loaded by the new pages
+        int page = mPages.indexOf(p);
+        if (mClosed || rows == null || page < 0 || mRows.get(p) != null) {
+            return;
+        }
+
+        int start = mPageStarts[page];
+        int oldSize = p.size;
+
+        mRows.put(p, rows);
+        updatePage(p, rows);
+        rebuildPageStarts();
+        dispatchResize(start, oldSize, rows.size());
+        splitIfLarge(page);
+    }
+
+    /**
+     * Reloads the pages in memory holding a changed note, or all of them, and reports the
+     * differences.
+     */
+    private void reload(final boolean all) {
+        if (mClosed) {
+            return;
+        }
+
+        final Map<Page, List<NoteRow>> before = mRows.snapshot();
+        final Map<Page, long[]> ranges = new HashMap<>();
+        for (Page p : before.keySet()) {
+            ranges.put(p, new long[] { p.upperId, p.lowerId });
+        }
+
+        mExecutor.execute(() -> {
+            // Read even when all the pages are reloaded, so the feed moves past these changes
+            Set<Long> changed = queryChangedNotes();
+            if (all) {
+                changed = null;
+            }
+            final Map<Page, List<NoteRow>> after = new HashMap<>();
+            final Map<Page, DiffUtil.DiffResult> diffs = new HashMap<>();
+            for (Map.Entry<Page, long[]> range : ranges.entrySet()) {
+                if (changed != null && !containsAny(range.getValue()[0], range.getValue()[1], changed)) {
+                    continue;
+                }
+                List<NoteRow> rows = queryPage(range.getValue()[0], range.getValue()[1]);
+                if (rows == null) {
+                    continue;
+                }
+                after.put(range.getKey(), rows);
+
+                Trace.beginSection("NotePager.diff");
+                try {
+                    diffs.put(range.getKey(), DiffUtil.calculateDiff(
+                            new RowDiff(before.get(range.getKey()), rows), false));
+                } finally {
+                    Trace.endSection();
+                }
+            }
+            mMainHandler.post(() -> onPagesReloaded(before, after, diffs));
+        });
+    }
+
+    private void onPagesReloaded(Map<Page, List<NoteRow>> before, Map<Page, List<NoteRow>> after,
+                                 Map<Page, DiffUtil.DiffResult> diffs) {
+        if (mClosed) {
+            return;
+        }
+
+        // Apply the last page first: the position of a page only depends on the pages before
+        // it, so the pages still to be applied keep their positions.
+        List<Integer> pages = new ArrayList<>(after.size());
+        boolean split = false;
+        for (Page p : after.keySet()) {
+            int page = mPages.indexOf(p);
+            if (page < 0) {
+                // Split since the reload started, the new pages show the older rows
+                split = true;
+            } else {
+                pages.add(page);
+            }
+        }
+        Collections.sort(pages, Collections.reverseOrder());
+        for (int page : pages) {
+            Page p = mPages.get(page);
+            List<NoteRow> rows = after.get(p);
+            int start = mPageStarts[page];
+
+            if (mRows.get(p) == before.get(p)) {
+                // The list still shows the rows the diff was made against
+                diffs.get(p).dispatchUpdatesTo(new OffsetCallback(mCallback, start));
+            } else {
+                // The page was dropped or reloaded in the meantime
+                dispatchResize(start, p.size, rows.size());
+            }
+
+            mRows.put(p, rows);
+            updatePage(p, rows);
+        }
+        rebuildPageStarts();
+
+        // Still the last page first, so splitting a page leaves the indexes to split alone
+        for (int page : pages) {
+            splitIfLarge(page);
+        }
+        if (split) {
+            reload(true);
+        }
+    }
+
+    /**
+     * Splits a loaded page that holds more than {@link #PAGE_SIZE} notes into pages of that
+     * size, the first one taking the rest. Notes added while the list is open all land in the
+     * first page, which would otherwise be loaded and compared whole on every change. The rows
+     * stay at the same positions, so nothing is reported.
+     */
+    private void splitIfLarge(int page) {
+        Page p = mPages.get(page);
+        List<NoteRow> rows = mRows.get(p);
+        // The end of an open page is only known once it is loaded with a limit
+        if (rows == null || rows.size() <= PAGE_SIZE || p.lowerId < 0) {
+            return;
+        }
+
+        List<Page> pieces = new ArrayList<>();
+        long lowerId = p.lowerId;
+        for (int end = rows.size(); end > 0; end -= PAGE_SIZE) {
+            int from = Math.max(0, end - PAGE_SIZE);
+            Page piece = new Page(from == 0 ? p.upperId : rows.get(from - 1).id);
+            piece.lowerId = lowerId;
+            piece.size = end - from;
+            // Put the last piece first, so the pages near the top are the last to be dropped
+            mRows.put(piece, new ArrayList<>(rows.subList(from, end)));
+            pieces.add(0, piece);
+            lowerId = piece.upperId;
+        }
+        mRows.remove(p);
+        mPages.remove(page);
+        mPages.addAll(page, pieces);
+        rebuildPageStarts();
+    }
+
+    /**
+     * Returns true if one of the ids is in the range of a page: below upperId, and at least
+     * lowerId if the lower end of the page is known.
+     */
+    private static boolean containsAny(long upperId, long lowerId, Set<Long> ids) {
+        for (long id : ids) {
+            if (id < upperId && id >= lowerId) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the ids of the notes changed since the last call, or null if every page has to be
+     * reloaded: the feed was reset or couldn't be read. Runs on the background thread.
+     */
+    @Nullable
+    private Set<Long> queryChangedNotes() {
+        if (mChangeSeq < 0) {
+            mChangeSeq = queryLatestChange();
+            return null;
+        }
+
+        Cursor cursor = mResolver.query(NoteContract.NoteChangeEntry.buildChangesUri(mChangeSeq),
+                null, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            Set<Long> ids = new HashSet<>();
+            boolean reset = false;
+            int seqColumn = cursor.getColumnIndexOrThrow(NoteContract.NoteChangeEntry.COLUMN_SEQ);
+            int opColumn = cursor.getColumnIndexOrThrow(NoteContract.NoteChangeEntry.COLUMN_OP);
+            int idColumn = cursor.getColumnIndexOrThrow(NoteContract.NoteChangeEntry.COLUMN_NOTE_ID);
+            while (cursor.moveToNext()) {
+                mChangeSeq = cursor.getLong(seqColumn);
+                if (cursor.getInt(opColumn) == NoteContract.NoteChangeEntry.OP_RESET) {
+                    reset = true;
+                } else {
+                    ids.add(cursor.getLong(idColumn));
+                }
+            }
+            return reset ? null : ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Returns the sequence number of the latest change, 0 if there is none yet, or -1 if the feed
+     * couldn't be read. Runs on the background thread.
+     */
+    private long queryLatestChange() {
+        Cursor cursor = mResolver.query(NoteContract.NoteChangeEntry.CONTENT_URI, null, null, null, null);
+        if (cursor == null) {
+            return -1;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(
+                    cursor.getColumnIndexOrThrow(NoteContract.NoteChangeEntry.COLUMN_SEQ)) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Records the size of a freshly loaded page, and its lower end if it was still open.
+     */
+    private void updatePage(Page page, List<NoteRow> rows) {
+        page.size = rows.size();
+        if (page.lowerId < 0) {
+            if (rows.size() >= PAGE_SIZE) {
+                page.lowerId = rows.get(rows.size() - 1).id;
+            } else {
+                page.lowerId = 0;
+                mEndReached = true;
+            }
+        }
+    }
+
+    /**
+     * Reports a block of rows that went from one size to another.
+     */
+    private void dispatchResize(int start, int oldSize, int newSize) {
+        int common = Math.min(oldSize, newSize);
+        if (common > 0) {
+            mCallback.onChanged(start, common, null);
+        }
+        if (newSize > oldSize) {
+            mCallback.onInserted(start + oldSize, newSize - oldSize);
+        } else if (oldSize > newSize) {
+            mCallback.onRemoved(start + newSize, oldSize - newSize);
+        }
+    }
+
+    /**
+     * Queries the notes with an id in [lowerId, upperId), or the first {@link #PAGE_SIZE} notes
+     * below upperId if lowerId isn't known yet. Runs on the background thread.
+     *
+     * @return the rows, or null if the provider couldn't be reached
+     */
+    private List<NoteRow> queryPage(long upperId, long lowerId) {
+        Uri.Builder builder = NoteContract.NoteEntry.CONTENT_URI.buildUpon();
+        if (upperId != Long.MAX_VALUE) {
+            builder.appendQueryParameter(NoteContract.QUERY_PARAMETER_BEFORE_ID, String.valueOf(upperId));
+        }
+
+        String selection = null;
+        String[] selectionArgs = null;
+        if (lowerId >= 0) {
+            selection = NoteContract.NoteEntry._ID + ">=?";
+            selectionArgs = new String[] { String.valueOf(lowerId) };
+        } else {
+            builder.appendQueryParameter(NoteContract.QUERY_PARAMETER_LIMIT, String.valueOf(PAGE_SIZE));
+        }
+
+        Trace.beginSection("NotePager.queryPage");
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(builder.build(), NoteRow.PROJECTION, selection, selectionArgs,
+                    NoteContract.NoteEntry._ID + " DESC");
+            return cursor == null ? null : NoteRow.fromCursor(cursor);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Compares two versions of a page by note id and shown text.
+     */
+    private static final class RowDiff extends DiffUtil.Callback {
+        private final List<NoteRow> mOld;
+        private final List<NoteRow> mNew;
+
+        RowDiff(List<NoteRow> oldRows, List<NoteRow> newRows) {
+            mOld = oldRows;
+            mNew = newRows;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.size();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.size();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.get(oldItemPosition).id == mNew.get(newItemPosition).id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOld.get(oldItemPosition).hasSameContent(mNew.get(newItemPosition));
+        }
+    }
+
+    /**
+     * Moves the updates of one page to the position of that page in the whole list.
+     */
+    private static final class OffsetCallback implements ListUpdateCallback {
+        private final ListUpdateCallback mTarget;
+        private final int mOffset;
+
+        OffsetCallback(ListUpdateCallback target, int offset) {
+            mTarget = target;
+            mOffset = offset;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            mTarget.onInserted(position + mOffset, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mTarget.onRemoved(position + mOffset, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mTarget.onMoved(fromPosition + mOffset, toPosition + mOffset);
+        }
+
+        @Override
+        public void onChanged(int position, int count, @Nullable Object payload) {
+            mTarget.onChanged(position + mOffset, count, payload);
+        }
+    }
+}
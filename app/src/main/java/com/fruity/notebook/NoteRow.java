@@ -0,0 +1,59 @@
+package com.fruity.notebook;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.fruity.notebook.data.NoteContract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One note as shown in the notes list.
+ */
+final class NoteRow {
+
+    /**
+     * Columns the list item needs. The summary is used instead of the contain, so the list never
+     * reads the full body of a note.
+     */
+    static final String[] PROJECTION = {
+            NoteContract.NoteEntry._ID,
+            NoteContract.NoteEntry.COLUMN_NOTE_NAME,
+            NoteContract.NoteEntry.COLUMN_NOTE_SUMMARY };
+
+    final long id;
+    final String title;
+    final String summary;
+
+    NoteRow(long id, String title, String summary) {
+        this.id = id;
+        this.title = title;
+        this.summary = summary;
+    }
+
+    /**
+     * Reads every row of a cursor queried with {@link #PROJECTION}. The column indices are looked
+     * up once for the whole cursor.
+     */
+    static List<NoteRow> fromCursor(Cursor cursor) {
+        int idColumnIndex = cursor.getColumnIndexOrThrow(NoteContract.NoteEntry._ID);
+        int nameColumnIndex = cursor.getColumnIndexOrThrow(NoteContract.NoteEntry.COLUMN_NOTE_NAME);
+        int summaryColumnIndex = cursor.getColumnIndexOrThrow(NoteContract.NoteEntry.COLUMN_NOTE_SUMMARY);
+
+        List<NoteRow> rows = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            rows.add(new NoteRow(cursor.getLong(idColumnIndex),
+                    cursor.getString(nameColumnIndex),
+                    cursor.getString(summaryColumnIndex)));
+        }
+        return rows;
+    }
+
+    /**
+     * Returns true if the other row shows exactly the same text as this one.
+     */
+    boolean hasSameContent(NoteRow other) {
+        return TextUtils.equals(title, other.title) && TextUtils.equals(summary, other.summary);
+    }
+}
@@ -0,0 +1,196 @@
+package com.fruity.notebook;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.os.Trace;
+import android.util.LruCache;
+
+import com.fruity.notebook.data.NoteContract;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Searches the notes while the user types, through the search URI of
+ * {@link NoteContract.NoteEntry#CONTENT_SEARCH_URI}.
+ *
+ * A search only starts once typing pauses for {@link #SEARCH_DELAY_MS}, on a background thread.
+ * Every new text cancels the search still running with its {@link CancellationSignal}, so the
+ * database stops working on text the user already changed. The results of the last
+ * {@link #MAX_CACHED_SEARCHES} texts are kept, so going back to one of them, for example with
+ * backspace, shows its results at once. The kept results are dropped whenever a note changes.
+ */
+class NoteSearcher {
+
+    /** Receives the results of the current text on the main thread */
+    interface Callback {
+        void onResults(String text, List<NoteRow> results);
+    }
+
+    /** Pause in typing before a search starts */
+    static final long SEARCH_DELAY_MS = 80;
+
+    /** Number of texts whose results are kept */
+    private static final int MAX_CACHED_SEARCHES = 32;
+
+    private final ContentResolver mResolver;
+    private final Callback mCallback;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Results by normalized text */
+    private final LruCache<String, List<NoteRow>> mCache = new LruCache<>(MAX_CACHED_SEARCHES);
+
+    /** The text to show results for, empty when there is no search */
+    private String mText = "";
+
+    /** Cancels the search of the current text while it is waiting or running */
+    private CancellationSignal mRunning;
+
+    /** Changes whenever the notes change, so results read before a change aren't cached */
+    private int mGeneration;
+
+    private boolean mClosed;
+
+    private final Runnable mSearchRunnable = this::startSearch;
+
+    private final ContentObserver mObserver = new ContentObserver(mMainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            mGeneration++;
+            mCache.evictAll();
+            if (!mText.isEmpty()) {
+                cancelRunning();
+                startSearch();
+            }
+        }
+    };
+
+    NoteSearcher(ContentResolver resolver, Callback callback) {
+        mResolver = resolver;
+        mCallback = callback;
+        mResolver.registerContentObserver(NoteContract.NoteEntry.CONTENT_URI, true, mObserver);
+    }
+
+    /**
+     * Shows the results of the given text: at once if they are kept, otherwise once typing
+     * pauses. An empty text only cancels the current search.
+     */
+    void search(String text) {
+        mText = normalize(text);
+        mMainHandler.removeCallbacks(mSearchRunnable);
+        cancelRunning();
+        if (mText.isEmpty()) {
+            return;
+        }
+
+        List<NoteRow> cached = mCache.get(mText);
+        if (cached != null) {
+            mCallback.onResults(mText, cached);
+            return;
+        }
+        mMainHandler.postDelayed(mSearchRunnable, SEARCH_DELAY_MS);
+    }
+
+    /**
+     * Stops watching the notes and cancels the current search.
+     */
+    void close() {
+        mClosed = true;
+        mMainHandler.removeCallbacks(mSearchRunnable);
+        cancelRunning();
+        mResolver.unregisterContentObserver(mObserver);
+        mExecutor.shutdownNow();
+        mCache.evictAll();
+    }
+
+    private void cancelRunning() {
+        if (mRunning != null) {
+            mRunning.cancel();
+            mRunning = null;
+        }
+    }
+
+    private void startSearch() {
+        final String text = mText;
+        final int generation = mGeneration;
+        final CancellationSignal signal = new CancellationSignal();
+        mRunning = signal;
+        mExecutor.execute(() -> {
+            // A search replaced while it waited for the thread never runs
+            if (signal.isCanceled()) {
+                return;
+            }
+            final List<NoteRow> results = query(text, signal);
+            if (results != null) {
+                mMainHandler.post(() -> onSearchDone(text, generation, signal, results));
+            }
+        });
+    }
+
+    private void onSearchDone(String text, int generation, CancellationSignal signal, List<NoteRow> results) {
+        if (mClosed || signal != mRunning) {
+            return;
+        }
+        mRunning = null;
+        if (generation == mGeneration) {
+            mCache.put(text, results);
+        }
+        mCallback.onResults(text, results);
+    }
+
+    /**
+     * Runs the search on the background thread.
+     *
+     * @return the hits, best first, with the snippet as summary, or null if the search was
+     * cancelled or the provider couldn't be reached
+     */
+    private List<NoteRow> query(String text, CancellationSignal signal) {
+        Uri uri = Uri.withAppendedPath(NoteContract.NoteEntry.CONTENT_SEARCH_URI, text);
+        Trace.beginSection("NoteSearcher.query");
+        Cursor cursor = null;
+        try {
+            cursor = mResolver.query(uri, null, null, null, null, signal);
+            if (cursor == null) {
+                return null;
+            }
+            int idColumnIndex = cursor.getColumnIndexOrThrow(NoteContract.NoteEntry._ID);
+            int nameColumnIndex = cursor.getColumnIndexOrThrow(NoteContract.NoteEntry.COLUMN_NOTE_NAME);
+            int snippetColumnIndex = cursor.getColumnIndexOrThrow(NoteContract.NoteEntry.COLUMN_SNIPPET);
+
+            // The search itself runs while the cursor is filled, and can be cancelled there too
+            List<NoteRow> results = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                results.add(new NoteRow(cursor.getLong(idColumnIndex),
+                        cursor.getString(nameColumnIndex),
+                        cursor.getString(snippetColumnIndex)));
+            }
+            return Collections.unmodifiableList(results);
+        } catch (OperationCanceledException e) {
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Returns the text with its spaces collapsed, so texts giving the same results share their
+     * cached results. The case is kept: the search index only ignores the case of ASCII letters.
+     */
+    static String normalize(String text) {
+        return text == null ? "" : text.trim().replaceAll("\\s+", " ");
+    }
+}
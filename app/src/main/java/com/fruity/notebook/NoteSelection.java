@@ -0,0 +1,80 @@
+package com.fruity.notebook;
+
+import androidx.annotation.Nullable;
+
+import com.fruity.notebook.data.NoteContract;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The notes picked in the notes list for a bulk operation. The list only holds the pages around
+ * the scroll position, so "select all" isn't a list of ids: it is kept as all the notes but
+ * the ones unpicked since.
+ */
+final class NoteSelection {
+
+    /** True once all the notes were selected */
+    private boolean mAll;
+
+    /** The picked notes, or the unpicked ones when {@link #mAll} */
+    private final Set<Long> mToggled = new HashSet<>();
+
+    boolean isSelected(long id) {
+        return mAll != mToggled.contains(id);
+    }
+
+    /** Picks the note, or unpicks it if it was */
+    void toggle(long id) {
+        if (!mToggled.remove(id)) {
+            mToggled.add(id);
+        }
+    }
+
+    void selectAll() {
+        mAll = true;
+        mToggled.clear();
+    }
+
+    void clear() {
+        mAll = false;
+        mToggled.clear();
+    }
+
+    /** True once all the notes were selected, see {@link #size()} */
+    boolean isAll() {
+        return mAll;
+    }
+
+    /**
+     * Returns the number of notes picked, or of the notes unpicked since all of them were
+     * selected. The number of notes picked then is only known to the provider, see
+     * {@link #toSelection()}.
+     */
+    int size() {
+        return mToggled.size();
+    }
+
+    /**
+     * Returns the selection of the picked notes for the provider, null for all the notes. The
+     * ids are written into it, so it takes no arguments and any number of notes fits in one
+     * statement.
+     */
+    @Nullable
+    String toSelection() {
+        if (mAll && mToggled.isEmpty()) {
+            return null;
+        }
+        StringBuilder selection = new StringBuilder(NoteContract.NoteEntry._ID)
+                .append(mAll ? " NOT IN (" : " IN (");
+        boolean first = true;
+        for (long id : mToggled) {
+            if (!first) {
+                selection.append(',');
+            }
+            selection.append(id);
+            first = false;
+        }
+        return selection.append(')').toString();
+    }
+}
@@ -0,0 +1,110 @@
+package com.fruity.notebook;
+
+import android.annotation.SuppressLint;
+import android.graphics.Typeface;
+import android.text.SpannableStringBuilder;
+import android.text.Spanned;
+import android.text.style.StyleSpan;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.fruity.notebook.data.NoteContract;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Adapter for the results of a search, best match first. Uses the list items of the notes
+ * list, with the snippet of each note instead of its summary and the matched words in bold.
+ */
+class SearchResultsAdapter extends RecyclerView.Adapter<SearchResultsAdapter.ResultViewHolder> {
+
+    private final NoteListAdapter.OnNoteClickListener mClickListener;
+
+    private List<NoteRow> mResults = Collections.emptyList();
+
+    SearchResultsAdapter(NoteListAdapter.OnNoteClickListener clickListener) {
+        mClickListener = clickListener;
+    }
+
+    /**
+     * Shows the given results instead of the current ones.
+     */
+    @SuppressLint("NotifyDataSetChanged")
+    void setResults(List<NoteRow> results) {
+        mResults = results;
+        // Results of two texts have little in common, so they are not compared row by row
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public int getItemCount() {
+        return mResults.size();
+    }
+
+    @NonNull
+    @Override
+    public ResultViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.list_item, parent, false);
+        return new ResultViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ResultViewHolder holder, int position) {
+        holder.bind(mResults.get(position));
+    }
+
+    /**
+     * Returns the snippet with the highlight markup of the search replaced by bold text.
+     */
+    static CharSequence highlight(String snippet) {
+        if (snippet == null) {
+            return null;
+        }
+        String start = NoteContract.NoteEntry.SNIPPET_HIGHLIGHT_START;
+        String end = NoteContract.NoteEntry.SNIPPET_HIGHLIGHT_END;
+
+        SpannableStringBuilder text = new SpannableStringBuilder();
+        int from = 0;
+        while (true) {
+            int open = snippet.indexOf(start, from);
+            int close = open < 0 ? -1 : snippet.indexOf(end, open + start.length());
+            if (close < 0) {
+                text.append(snippet, from, snippet.length());
+                return text;
+            }
+            text.append(snippet, from, open);
+            int boldStart = text.length();
+            text.append(snippet, open + start.length(), close);
+            text.setSpan(new StyleSpan(Typeface.BOLD), boldStart, text.length(),
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            from = close + end.length();
+        }
+    }
+
+    class ResultViewHolder extends RecyclerView.ViewHolder {
+
+        private final TextView mNameTextView;
+        private final TextView mSnippetTextView;
+
+        private long mNoteId;
+
+        ResultViewHolder(View view) {
+            super(view);
+            mNameTextView = view.findViewById(R.id.TitleName);
+            mSnippetTextView = view.findViewById(R.id.summary);
+            view.setOnClickListener(v -> mClickListener.onNoteClick(mNoteId));
+        }
+
+        void bind(NoteRow row) {
+            mNoteId = row.id;
+            mNameTextView.setText(row.title);
+            mSnippetTextView.setText(highlight(row.summary));
+        }
+    }
+}
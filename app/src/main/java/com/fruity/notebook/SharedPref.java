@@ -1,27 +1,53 @@
 package com.fruity.notebook;
 
-import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Trace;
 
 // Dark Mode
 public class SharedPref {
 
+      private static SharedPref sInstance;
 
       SharedPreferences mySharedPref ;
-      public SharedPref(Context context) {
+
+      /** The night mode state, read from the preferences once per process */
+      private Boolean mNightMode;
+
+      private SharedPref(Context context) {
             mySharedPref = context.getSharedPreferences("filename", Context.MODE_PRIVATE);
       }
+
+      /**
+       * Returns the preferences of the app. Every activity sets its theme from them before its
+       * first frame, so they are shared and the night mode state is kept in memory.
+       */
+      public static synchronized SharedPref getInstance(Context context) {
+            if (sInstance == null) {
+                  sInstance = new SharedPref(context.getApplicationContext());
+            }
+            return sInstance;
+      }
+
       // this method will save the nightMode State : True or False
-      @SuppressLint("ApplySharedPref")
       public void setNightModeState(Boolean state) {
-            SharedPreferences.Editor editor = mySharedPref.edit();
-            editor.putBoolean("NightMode",state);
-            editor.commit();
+            mNightMode = state;
+            // The state in memory is already up to date, so the file can be written in the background
+            mySharedPref.edit().putBoolean("NightMode", state).apply();
       }
+
       // this method will load the Night Mode State
       public Boolean loadNightModeState (){
-            return mySharedPref.getBoolean("NightMode",false);
+            if (mNightMode == null) {
+                  // Only the first call waits for the preferences file to be read
+                  Trace.beginSection("SharedPref.load");
+                  try {
+                        mNightMode = mySharedPref.getBoolean("NightMode", false);
+                  } finally {
+                        Trace.endSection();
+                  }
+            }
+            return mNightMode;
       }
 
 
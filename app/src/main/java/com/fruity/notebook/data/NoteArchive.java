@@ -0,0 +1,266 @@
+package com.fruity.notebook.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.annotation.Nullable;
+
+import com.fruity.notebook.data.NoteContract.NoteChunkEntry;
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams all the notes to and from a compact binary archive, see
+ * {@link NoteContract#ARCHIVE_MIME_TYPE}.
+ *
+ * An archive starts with the {@link #MAGIC} and {@link #VERSION} ints, followed by one record per
+ * note: a {@link #RECORD_NOTE} byte, the title, the contain, and the created and updated times as
+ * longs (since version 2). A {@link #RECORD_END} byte ends the
+ * archive, so a truncated copy is never imported as a smaller notebook. A text is written as
+ * length-prefixed UTF-8 segments followed by a 0 length, or as a single -1 length when it is null.
+ * A chunked note is written one segment per chunk, so it is never held in memory as a whole.
+ */
+final class NoteArchive {
+
+    /** "NOTE" in ASCII */
+    static final int MAGIC = 0x4e4f5445;
+
+    static final int VERSION = 2;
+
+    /** Version 1 archives have no times, their notes are imported as created at import time */
+    private static final int VERSION_WITHOUT_TIMES = 1;
+
+    static final byte RECORD_END = 0;
+    static final byte RECORD_NOTE = 1;
+
+    /** Notes read per query while writing, so no cursor ever has to hold the whole table */
+    private static final int BATCH_SIZE = 500;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Largest segment accepted when reading. Segments written by the app are at most one chunk,
+     * so a larger length means a corrupt archive rather than a reason to run out of memory.
+     */
+    private static final int MAX_SEGMENT_BYTES = 16 * 1024 * 1024;
+
+    private NoteArchive() {}
+
+    /**
+     * Writes all the notes to the stream, oldest first, and flushes it. Notes changed while the
+     * archive is written may be written either as they were or as they are.
+     *
+     * @return the number of notes written
+     */
+    static int write(SQLiteDatabase db, OutputStream stream) throws IOException {
+        return write(db, stream, null);
+    }
+
+    /**
+     * Same as {@link #write(SQLiteDatabase, OutputStream)}, for the notes that match a
+     * selection without arguments only.
+     */
+    static int write(SQLiteDatabase db, OutputStream stream, @Nullable String selection) throws IOException {
+        String where = DatabaseUtils.concatenateWhere(selection, NoteEntry._ID + ">? AND " + NoteTrash.LIVE);
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+
+        String[] columns = {
+                NoteEntry._ID,
+                NoteEntry.COLUMN_NOTE_NAME,
+                "coalesce(" + NoteEntry.COLUMN_NOTE_CONTAIN + ", " + NoteCodec.COLUMN_CONTAIN_PACKED
+                        + ") AS " + NoteEntry.COLUMN_NOTE_CONTAIN,
+                NoteEntry.COLUMN_NOTE_CHUNKED,
+                NoteEntry.COLUMN_NOTE_CREATED_AT,
+                NoteEntry.COLUMN_NOTE_UPDATED_AT };
+
+        // Walk the table by id, one batch per query: a single cursor over a large table has to
+        // step through all the rows before each window it fills.
+        int count = 0;
+        long lastId = -1;
+        while (true) {
+            try (Cursor cursor = NoteCodec.unpacking(db.query(NoteEntry.TABLE_NAME, columns,
+                    where, new String[] { String.valueOf(lastId) },
+                    null, null, NoteEntry._ID, String.valueOf(BATCH_SIZE)), NoteEntry.COLUMN_NOTE_CONTAIN)) {
+                if (!cursor.moveToFirst()) {
+                    break;
+                }
+                do {
+                    lastId = cursor.getLong(0);
+                    out.writeByte(RECORD_NOTE);
+                    writeText(out, cursor.getString(1));
+                    if (cursor.getInt(3) != 0) {
+                        writeChunks(db, out, lastId);
+                    } else {
+                        writeText(out, cursor.getString(2));
+                    }
+                    out.writeLong(cursor.getLong(4));
+                    out.writeLong(cursor.getLong(5));
+                    count++;
+                } while (cursor.moveToNext());
+            }
+        }
+
+        out.writeByte(RECORD_END);
+        out.flush();
+        return count;
+    }
+
+    private static void writeChunks(SQLiteDatabase db, DataOutputStream out, long noteId)
+            throws IOException {
+        try (Cursor cursor = NoteCodec.unpacking(db.query(NoteChunkEntry.TABLE_NAME,
+                new String[] { NoteChunkEntry.COLUMN_TEXT }, NoteChunkEntry.COLUMN_NOTE_ID + "=?",
+                new String[] { String.valueOf(noteId) }, null, null, NoteChunkEntry.COLUMN_SEQ),
+                NoteChunkEntry.COLUMN_TEXT)) {
+            while (cursor.moveToNext()) {
+                writeSegment(out, cursor.getString(0));
+            }
+        }
+        out.writeInt(0);
+    }
+
+    private static void writeText(DataOutputStream out, String text) throws IOException {
+        if (text == null) {
+            out.writeInt(-1);
+            return;
+        }
+        writeSegment(out, text);
+        out.writeInt(0);
+    }
+
+    private static void writeSegment(DataOutputStream out, String text) throws IOException {
+        if (text.isEmpty()) {
+            return;
+        }
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads the notes of an archive one at a time.
+     */
+    static final class Reader {
+        private final DataInputStream mIn;
+
+        /** Buffer of the segment being decoded, grown as needed */
+        private byte[] mBuffer = new byte[8192];
+
+        private final int mVersion;
+
+        /** Time given to the notes of an archive without times */
+        private final long mImportTime = System.currentTimeMillis();
+
+        private String mTitle;
+        private String mContain;
+        private long mCreatedAt;
+        private long mUpdatedAt;
+        private boolean mEnded;
+
+        /**
+         * @throws IllegalArgumentException if the stream is not a notes archive
+         */
+        Reader(InputStream stream) throws IOException {
+            mIn = new DataInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+            try {
+                if (mIn.readInt() != MAGIC) {
+                    throw new IllegalArgumentException("Not a notes archive");
+                }
+                mVersion = mIn.readInt();
+                if (mVersion != VERSION && mVersion != VERSION_WITHOUT_TIMES) {
+                    throw new IllegalArgumentException("Unsupported notes archive version " + mVersion);
+                }
+            } catch (EOFException e) {
+                throw new IllegalArgumentException("Not a notes archive", e);
+            }
+        }
+
+        /**
+         * Moves to the next note.
+         *
+         * @return false at the end of the archive
+         * @throws IllegalArgumentException if the archive is truncated or corrupt
+         */
+        boolean next() throws IOException {
+            if (mEnded) {
+                return false;
+            }
+            try {
+                byte record = mIn.readByte();
+                if (record == RECORD_END) {
+                    mEnded = true;
+                    mTitle = null;
+                    mContain = null;
+                    return false;
+                }
+                if (record != RECORD_NOTE) {
+                    throw new IllegalArgumentException("Corrupt notes archive");
+                }
+                mTitle = readText();
+                mContain = readText();
+                if (mVersion == VERSION_WITHOUT_TIMES) {
+                    mCreatedAt = mImportTime;
+                    mUpdatedAt = mImportTime;
+                } else {
+                    mCreatedAt = mIn.readLong();
+                    mUpdatedAt = mIn.readLong();
+                }
+                return true;
+            } catch (EOFException e) {
+                throw new IllegalArgumentException("Truncated notes archive", e);
+            }
+        }
+
+        /** Title of the current note */
+        String title() {
+            return mTitle;
+        }
+
+        /** Contain of the current note, may be null */
+        String contain() {
+            return mContain;
+        }
+
+        /** Time the current note was created, in milliseconds since the epoch */
+        long createdAt() {
+            return mCreatedAt;
+        }
+
+        /** Time the current note was last changed, in milliseconds since the epoch */
+        long updatedAt() {
+            return mUpdatedAt;
+        }
+
+        private String readText() throws IOException {
+            int length = mIn.readInt();
+            if (length == -1) {
+                return null;
+            }
+            StringBuilder text = new StringBuilder();
+            while (length != 0) {
+                if (length < 0 || length > MAX_SEGMENT_BYTES) {
+                    throw new IllegalArgumentException("Corrupt notes archive");
+                }
+                if (length > mBuffer.length) {
+                    mBuffer = new byte[Math.max(length, mBuffer.length * 2)];
+                }
+                mIn.readFully(mBuffer, 0, length);
+                text.append(new String(mBuffer, 0, length, StandardCharsets.UTF_8));
+                length = mIn.readInt();
+            }
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.fruity.notebook.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.LruCache;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+/**
+ * Keeps the notes read recently through {@link NoteEntry#CONTENT_URI note URIs} in memory, so
+ * reopening a note doesn't go to the database. The cache is bounded by the memory the notes use,
+ * not by their number, so a few large notes can't hold on to megabytes of text.
+ *
+ * The provider invalidates a note whenever it is updated or deleted. Every invalidation also
+ * changes the {@link #stamp()}: a note read from the database is only cached if no write
+ * committed meanwhile, otherwise a reader racing with a writer could cache the old note.
+ */
+final class NoteCache {
+
+    /** Memory used by the cache of the provider */
+    static final int DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+
+    /** Columns of a cached note, returned for a null projection */
+    static final String[] COLUMNS = {
+            NoteEntry._ID,
+            NoteEntry.COLUMN_NOTE_NAME,
+            NoteEntry.COLUMN_NOTE_CONTAIN,
+            NoteEntry.COLUMN_NOTE_SUMMARY,
+            NoteEntry.COLUMN_NOTE_CHUNKED,
+            NoteEntry.COLUMN_NOTE_CREATED_AT,
+            NoteEntry.COLUMN_NOTE_UPDATED_AT };
+
+    /** Approximate memory used by a note besides its text */
+    private static final int RECORD_OVERHEAD_BYTES = 96;
+
+    /** One note as stored in the cache */
+    static final class NoteRecord {
+        final long id;
+        final String title;
+        final String contain;
+        final String summary;
+        final int chunked;
+        final long createdAt;
+        final long updatedAt;
+
+        NoteRecord(long id, String title, String contain, String summary, int chunked,
+                   long createdAt, long updatedAt) {
+            this.id = id;
+            this.title = title;
+            this.contain = contain;
+            this.summary = summary;
+            this.chunked = chunked;
+            this.createdAt = createdAt;
+            this.updatedAt = updatedAt;
+        }
+
+        /**
+         * Reads the note at the current position of a cursor with the {@link #COLUMNS}.
+         */
+        static NoteRecord fromCursor(Cursor cursor) {
+            return new NoteRecord(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                    cursor.getString(3), cursor.getInt(4), cursor.getLong(5), cursor.getLong(6));
+        }
+
+        /** Memory used by the note, mostly its chars */
+        int sizeBytes() {
+            return RECORD_OVERHEAD_BYTES + 2 * (length(title) + length(contain) + length(summary));
+        }
+
+        private Object value(String column) {
+            switch (column) {
+                case NoteEntry._ID:
+                    return id;
+                case NoteEntry.COLUMN_NOTE_NAME:
+                    return title;
+                case NoteEntry.COLUMN_NOTE_CONTAIN:
+                    return contain;
+                case NoteEntry.COLUMN_NOTE_SUMMARY:
+                    return summary;
+                case NoteEntry.COLUMN_NOTE_CREATED_AT:
+                    return createdAt;
+                case NoteEntry.COLUMN_NOTE_UPDATED_AT:
+                    return updatedAt;
+                default:
+                    return chunked;
+            }
+        }
+
+        private static int length(String text) {
+            return text == null ? 0 : text.length();
+        }
+    }
+
+    private final LruCache<Long, NoteRecord> mCache;
+
+    /** Largest note that is cached, so one note can't push out all the others */
+    private final int mMaxRecordBytes;
+
+    /** Changed by every invalidation, guarded by this */
+    private long mStamp;
+
+    NoteCache(int maxBytes) {
+        mMaxRecordBytes = maxBytes / 8;
+        mCache = new LruCache<Long, NoteRecord>(maxBytes) {
+            @Override
+            protected int sizeOf(Long id, NoteRecord record) {
+                return record.sizeBytes();
+            }
+        };
+    }
+
+    /**
+     * Returns true if a query with the given projection can be answered from the cache.
+     */
+    static boolean covers(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (!isCachedColumn(column)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isCachedColumn(String column) {
+        for (String cached : COLUMNS) {
+            if (cached.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the cached note, or null if it has to be read from the database.
+     */
+    NoteRecord get(long id) {
+        return mCache.get(id);
+    }
+
+    /**
+     * Returns the stamp to pass to {@link #put(NoteRecord, long)}. Take it before reading the
+     * note from the database.
+     */
+    synchronized long stamp() {
+        return mStamp;
+    }
+
+    /**
+     * Caches a note read from the database, unless a note was invalidated since the stamp was
+     * taken, in which case the note may already be out of date.
+     */
+    synchronized void put(NoteRecord record, long stamp) {
+        if (stamp == mStamp && record.sizeBytes() <= mMaxRecordBytes) {
+            mCache.put(record.id, record);
+        }
+    }
+
+    /**
+     * Drops a note that was updated or deleted.
+     */
+    synchronized void invalidate(long id) {
+        mStamp++;
+        mCache.remove(id);
+    }
+
+    /**
+     * Drops all the notes.
+     */
+    synchronized void invalidateAll() {
+        mStamp++;
+        // Remove one by one, evictAll() would count them as evictions
+        for (Long id : mCache.snapshot().keySet()) {
+            mCache.remove(id);
+        }
+    }
+
+    /** Number of notes returned from the cache */
+    int hitCount() {
+        return mCache.hitCount();
+    }
+
+    /** Number of notes that had to be read from the database */
+    int missCount() {
+        return mCache.missCount();
+    }
+
+    /** Number of notes dropped to stay within the memory bound, not counting invalidations */
+    int evictionCount() {
+        return mCache.evictionCount();
+    }
+
+    /** Memory used by the cached notes, in bytes */
+    int sizeBytes() {
+        return mCache.size();
+    }
+
+    /**
+     * Returns a cursor with one row holding the given columns of a note.
+     */
+    static Cursor toCursor(NoteRecord record, String[] projection) {
+        String[] columns = projection != null ? projection : COLUMNS;
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            row[i] = record.value(columns[i]);
+        }
+        cursor.addRow(row);
+        return cursor;
+    }
+}
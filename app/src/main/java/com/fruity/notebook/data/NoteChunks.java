@@ -0,0 +1,372 @@
+package com.fruity.notebook.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.fruity.notebook.data.NoteContract.NoteChunkEntry;
+
+/**
+ * Stores the contain of very large notes in the {@link NoteChunkEntry#TABLE_NAME} table.
+ *
+ * A multi-megabyte contain in one row doesn't fit in a cursor window, so the note can't be read
+ * back, and every edit rewrites all of it. A chunked note keeps a null contain in the notes
+ * table, its text is read chunk by chunk, and a write only replaces the chunks that changed.
+ * The provider puts the whole text of a chunked note in the full-text index, see
+ * {@link NoteSearch}.
+ */
+final class NoteChunks {
+
+    /** A longer contain is chunked, in chars */
+    static final int THRESHOLD = 64 * 1024;
+
+    /** Length of the chunks of a freshly written text, in chars */
+    static final int CHUNK_SIZE = 32 * 1024;
+
+    /** Edits let a chunk grow up to this length before it is split */
+    static final int MAX_CHUNK_SIZE = 2 * CHUNK_SIZE;
+
+    /**
+     * Gap between the sequence numbers of two new chunks, so chunks can be added between them
+     * later without renumbering the rest of the note.
+     */
+    static final long SEQ_STEP = 1024;
+
+    /**
+     * Length of the chunk in chars, used with the hash to find the unchanged chunks without
+     * reading their text.
+     *
+     * Type: INTEGER
+     */
+    static final String COLUMN_LENGTH = "length";
+
+    /**
+     * 64-bit FNV-1a hash of the text of the chunk, null if unknown.
+     *
+     * Type: INTEGER
+     */
+    static final String COLUMN_HASH = "hash";
+
+    private static final String SQL_INSERT = "INSERT INTO " + NoteChunkEntry.TABLE_NAME + " ("
+            + NoteChunkEntry.COLUMN_NOTE_ID + ", " + NoteChunkEntry.COLUMN_SEQ + ", "
+            + NoteChunkEntry.COLUMN_TEXT + ", " + COLUMN_LENGTH + ", " + COLUMN_HASH
+            + ") VALUES (?, ?, ?, ?, ?)";
+
+    private static final String SQL_UPDATE = "UPDATE " + NoteChunkEntry.TABLE_NAME + " SET "
+            + NoteChunkEntry.COLUMN_TEXT + " = ?, " + COLUMN_LENGTH + " = ?, " + COLUMN_HASH + " = ?"
+            + " WHERE " + NoteChunkEntry.COLUMN_NOTE_ID + " = ? AND " + NoteChunkEntry.COLUMN_SEQ + " = ?";
+
+    /**
+     * The part of the contain of a chunked note that differs from a new text, read by
+     * {@link #readChanged}.
+     */
+    static final class Changed {
+        /** Start of the part, the contain before it is the start of the new text */
+        final int start;
+
+        /** Text of the part, the contain after it is the end of the new text */
+        final String text;
+
+        /** Length of the whole contain */
+        final int length;
+
+        Changed(int start, String text, int length) {
+            this.start = start;
+            this.text = text;
+            this.length = length;
+        }
+    }
+
+    /** Position, length and hash of the stored chunks of a note, without their text */
+    private static final class Stored {
+        final long[] seqs;
+        final int[] lengths;
+        final long[] hashes;
+        final boolean[] hashed;
+
+        /** Chunks [0, first) hold the text up to start unchanged, set by {@link #match} */
+        int first;
+        int start;
+
+        /** Chunks [last, count) hold the text from end unchanged, set by {@link #match} */
+        int last;
+        int end;
+
+        private Stored(int count) {
+            seqs = new long[count];
+            lengths = new int[count];
+            hashes = new long[count];
+            hashed = new boolean[count];
+        }
+
+        static Stored query(SQLiteDatabase db, long noteId) {
+            try (Cursor cursor = db.query(NoteChunkEntry.TABLE_NAME,
+                    new String[] { NoteChunkEntry.COLUMN_SEQ, COLUMN_LENGTH, COLUMN_HASH },
+                    NoteChunkEntry.COLUMN_NOTE_ID + "=?", new String[] { String.valueOf(noteId) },
+                    null, null, NoteChunkEntry.COLUMN_SEQ)) {
+                Stored stored = new Stored(cursor.getCount());
+                for (int i = 0; cursor.moveToNext(); i++) {
+                    stored.seqs[i] = cursor.getLong(0);
+                    stored.lengths[i] = cursor.getInt(1);
+                    stored.hashed[i] = !cursor.isNull(2);
+                    stored.hashes[i] = cursor.getLong(2);
+                }
+                return stored;
+            }
+        }
+
+        /**
+         * Finds the chunks at the start and at the end of the note that still hold the same
+         * text as the given one.
+         */
+        void match(String text) {
+            int count = seqs.length;
+            first = 0;
+            start = 0;
+            while (first < count && hashed[first] && start + lengths[first] <= text.length()
+                    && hash(text, start, start + lengths[first]) == hashes[first]) {
+                start += lengths[first];
+                first++;
+            }
+
+            last = count;
+            end = text.length();
+            while (last > first && hashed[last - 1] && end - lengths[last - 1] >= start
+                    && hash(text, end - lengths[last - 1], end) == hashes[last - 1]) {
+                end -= lengths[last - 1];
+                last--;
+            }
+        }
+    }
+
+    private NoteChunks() {}
+
+    /**
+     * Returns true if the given contain is too large for the notes table.
+     */
+    static boolean isChunked(String contain) {
+        return contain != null && contain.length() > THRESHOLD;
+    }
+
+    /**
+     * Stores the given text as the chunks of a note. The chunks at the start and at the end of
+     * the note that still hold the same text are kept, only the ones in between are rewritten.
+     * Runs inside the transaction of the caller.
+     *
+     * @param compressThreshold chunks at least this long are packed with {@link NoteCodec}
+     */
+    static void write(SQLiteDatabase db, long noteId, String text, int compressThreshold) {
+        Stored stored = Stored.query(db, noteId);
+        long[] seqs = stored.seqs;
+        int[] lengths = stored.lengths;
+
+        int count = seqs.length;
+        if (count == 0) {
+            insert(db, noteId, text, 0, pieces(text.length(), CHUNK_SIZE), 0, SEQ_STEP,
+                    compressThreshold);
+            return;
+        }
+
+        stored.match(text);
+        int first = stored.first;
+        int start = stored.start;
+        int last = stored.last;
+        int end = stored.end;
+
+        if (first == last) {
+            if (start == end) {
+                // Same text
+                return;
+            }
+            // Text added between two chunks, rewrite a neighbour with it
+            if (last < count) {
+                end += lengths[last];
+                last++;
+            } else {
+                first--;
+                start -= lengths[first];
+            }
+        }
+
+        int slots = last - first;
+        int length = end - start;
+
+        // Rewrite the edited text into the chunks in between. Only split it into more chunks when
+        // they would grow past MAX_CHUNK_SIZE, and use fewer when it fits in fewer of CHUNK_SIZE
+        int pieces = length == 0 ? 0 : Math.max(pieces(length, MAX_CHUNK_SIZE),
+                Math.min(slots, pieces(length, CHUNK_SIZE)));
+        int reused = Math.min(pieces, slots);
+
+        // New chunks are numbered between the last reused chunk and the next unchanged one
+        int added = pieces - reused;
+        long low = seqs[last - 1];
+        long high = last < count ? seqs[last] : low + (added + 1) * SEQ_STEP;
+        long step = (high - low) / (added + 1);
+        if (step < 1) {
+            // No room left between them, renumber the rest of the note from the first change
+            db.delete(NoteChunkEntry.TABLE_NAME, NoteChunkEntry.COLUMN_NOTE_ID + "=? AND "
+                            + NoteChunkEntry.COLUMN_SEQ + " >= ?",
+                    new String[] { String.valueOf(noteId), String.valueOf(seqs[first]) });
+            insert(db, noteId, text, start, pieces(text.length() - start, CHUNK_SIZE),
+                    seqs[first], SEQ_STEP, compressThreshold);
+            return;
+        }
+
+        SQLiteStatement update = db.compileStatement(SQL_UPDATE);
+        try {
+            for (int i = 0; i < reused; i++) {
+                int pieceStart = boundary(text, start, length, pieces, i);
+                int pieceEnd = boundary(text, start, length, pieces, i + 1);
+                bindText(update, 1, text.substring(pieceStart, pieceEnd), compressThreshold);
+                update.bindLong(2, pieceEnd - pieceStart);
+                update.bindLong(3, hash(text, pieceStart, pieceEnd));
+                update.bindLong(4, noteId);
+                update.bindLong(5, seqs[first + i]);
+                update.executeUpdateDelete();
+            }
+        } finally {
+            update.close();
+        }
+
+        if (pieces < slots) {
+            // The edited text fits in fewer chunks, drop the rest
+            db.delete(NoteChunkEntry.TABLE_NAME, NoteChunkEntry.COLUMN_NOTE_ID + "=? AND "
+                            + NoteChunkEntry.COLUMN_SEQ + " BETWEEN ? AND ?",
+                    new String[] { String.valueOf(noteId), String.valueOf(seqs[first + pieces]),
+                            String.valueOf(seqs[last - 1]) });
+        } else if (added > 0) {
+            insertPieces(db, noteId, text, start, length, pieces, reused, low + step, step,
+                    compressThreshold);
+        }
+    }
+
+    /**
+     * Reads the part of the contain of a chunked note that differs from the given text, before
+     * the text is written. The chunks at the start and at the end that the text shares are found
+     * by their hash like {@link #write} does, and only the chunks in between are read.
+     */
+    static Changed readChanged(SQLiteDatabase db, long noteId, String text) {
+        Stored stored = Stored.query(db, noteId);
+        stored.match(text);
+
+        int length = 0;
+        for (int chunkLength : stored.lengths) {
+            length += chunkLength;
+        }
+        if (stored.first == stored.last) {
+            return new Changed(stored.start, "", length);
+        }
+
+        StringBuilder part = new StringBuilder();
+        try (Cursor cursor = NoteCodec.unpacking(db.query(NoteChunkEntry.TABLE_NAME,
+                new String[] { NoteChunkEntry.COLUMN_TEXT }, NoteChunkEntry.COLUMN_NOTE_ID + "=? AND "
+                        + NoteChunkEntry.COLUMN_SEQ + " BETWEEN ? AND ?",
+                new String[] { String.valueOf(noteId), String.valueOf(stored.seqs[stored.first]),
+                        String.valueOf(stored.seqs[stored.last - 1]) },
+                null, null, NoteChunkEntry.COLUMN_SEQ), NoteChunkEntry.COLUMN_TEXT)) {
+            while (cursor.moveToNext()) {
+                part.append(cursor.getString(0));
+            }
+        }
+        return new Changed(stored.start, part.toString(), length);
+    }
+
+    /**
+     * Reads the whole contain of a chunked note.
+     */
+    static String read(SQLiteDatabase db, long noteId) {
+        StringBuilder text = new StringBuilder();
+        try (Cursor cursor = NoteCodec.unpacking(db.query(NoteChunkEntry.TABLE_NAME,
+                new String[] { NoteChunkEntry.COLUMN_TEXT }, NoteChunkEntry.COLUMN_NOTE_ID + "=?",
+                new String[] { String.valueOf(noteId) }, null, null, NoteChunkEntry.COLUMN_SEQ),
+                NoteChunkEntry.COLUMN_TEXT)) {
+            while (cursor.moveToNext()) {
+                text.append(cursor.getString(0));
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Deletes the chunks of a note, if it has any.
+     */
+    static void delete(SQLiteDatabase db, long noteId) {
+        db.delete(NoteChunkEntry.TABLE_NAME, NoteChunkEntry.COLUMN_NOTE_ID + "=?",
+                new String[] { String.valueOf(noteId) });
+    }
+
+    /**
+     * Inserts the text from start to the end as the given number of chunks of equal length.
+     */
+    private static void insert(SQLiteDatabase db, long noteId, String text, int start, int pieces,
+                               long firstSeq, long step, int compressThreshold) {
+        insertPieces(db, noteId, text, start, text.length() - start, pieces, 0, firstSeq, step,
+                compressThreshold);
+    }
+
+    /**
+     * Inserts the pieces from the given index on, of the text from start split into pieces of
+     * equal length.
+     */
+    private static void insertPieces(SQLiteDatabase db, long noteId, String text, int start,
+                                     int length, int pieces, int from, long firstSeq, long step,
+                                     int compressThreshold) {
+        SQLiteStatement insert = db.compileStatement(SQL_INSERT);
+        try {
+            for (int i = from; i < pieces; i++) {
+                int pieceStart = boundary(text, start, length, pieces, i);
+                int pieceEnd = boundary(text, start, length, pieces, i + 1);
+                insert.bindLong(1, noteId);
+                insert.bindLong(2, firstSeq + (i - from) * step);
+                bindText(insert, 3, text.substring(pieceStart, pieceEnd), compressThreshold);
+                insert.bindLong(4, pieceEnd - pieceStart);
+                insert.bindLong(5, hash(text, pieceStart, pieceEnd));
+                insert.executeInsert();
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    /**
+     * Binds the text of a chunk, packed if it is long enough and compresses.
+     */
+    private static void bindText(SQLiteStatement statement, int index, String text, int compressThreshold) {
+        byte[] packed = NoteCodec.pack(text, compressThreshold);
+        if (packed != null) {
+            statement.bindBlob(index, packed);
+        } else {
+            statement.bindString(index, text);
+        }
+    }
+
+    /** Number of pieces of at most the given size needed for the given length */
+    private static int pieces(int length, int size) {
+        return (length + size - 1) / size;
+    }
+
+    /**
+     * Returns where piece i of the text from start splitting it into pieces of equal length
+     * begins, moved so that a surrogate pair is never split.
+     */
+    private static int boundary(String text, int start, int length, int pieces, int i) {
+        int index = start + (int) ((long) length * i / pieces);
+        if (i > 0 && i < pieces
+                && Character.isHighSurrogate(text.charAt(index - 1))
+                && Character.isLowSurrogate(text.charAt(index))) {
+            index++;
+        }
+        return index;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the chars of the text from start to end.
+     */
+    static long hash(String text, int start, int end) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ text.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
+    }
+}
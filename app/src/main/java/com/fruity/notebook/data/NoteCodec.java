@@ -0,0 +1,172 @@
+package com.fruity.notebook.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Compressed encoding of note text, used for the contain of large notes and for note chunks.
+ *
+ * A packed text is a BLOB made of a codec marker byte, the length of the UTF-8 text as a 4 byte
+ * big-endian int, and the compressed UTF-8 text. Plain text stays TEXT, so both can be told apart
+ * by the type of the value.
+ */
+final class NoteCodec {
+
+    /**
+     * Packed contain of a note stored compressed. The contain column is null for such a note,
+     * and the provider returns this column unpacked in its place.
+     *
+     * Type: BLOB
+     */
+    static final String COLUMN_CONTAIN_PACKED = "contain_packed";
+
+    /** Marker of a zlib stream compressed with {@link Deflater#BEST_SPEED} */
+    static final byte CODEC_DEFLATE = 1;
+
+    /** Bytes before the compressed data: the marker and the length */
+    private static final int HEADER_SIZE = 5;
+
+    private NoteCodec() {}
+
+    /**
+     * Packs the text if it is at least threshold chars long and gets smaller.
+     *
+     * @param threshold minimum length in chars, 0 to never pack
+     * @return the packed text, or null if it should be stored as plain text
+     */
+    static byte[] pack(String text, int threshold) {
+        if (threshold <= 0 || text == null || text.length() < threshold) {
+            return null;
+        }
+
+        byte[] plain = text.getBytes(StandardCharsets.UTF_8);
+
+        // Fast level: pasted logs and documents shrink well even so, and saves stay quick
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(plain);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(plain.length / 4 + HEADER_SIZE);
+            out.write(CODEC_DEFLATE);
+            out.write(plain.length >>> 24);
+            out.write(plain.length >>> 16);
+            out.write(plain.length >>> 8);
+            out.write(plain.length);
+
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+                if (out.size() >= plain.length) {
+                    // Doesn't compress, keep the plain text
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Unpacks a text packed by {@link #pack(String, int)}.
+     *
+     * @throws IllegalArgumentException if the value is not a packed text
+     */
+    static String unpack(byte[] packed) {
+        if (packed.length < HEADER_SIZE || packed[0] != CODEC_DEFLATE) {
+            throw new IllegalArgumentException("Unknown note text encoding");
+        }
+
+        int length = (packed[1] & 0xff) << 24 | (packed[2] & 0xff) << 16
+                | (packed[3] & 0xff) << 8 | (packed[4] & 0xff);
+        byte[] plain = new byte[length];
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(packed, HEADER_SIZE, packed.length - HEADER_SIZE);
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int count = inflater.inflate(plain, read, length - read);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += count;
+            }
+            if (read != length) {
+                throw new IllegalArgumentException("Truncated note text");
+            }
+        } catch (DataFormatException e) {
+            throw new IllegalArgumentException("Corrupt note text", e);
+        } finally {
+            inflater.end();
+        }
+        return new String(plain, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns a cursor that reads the given column as plain text, unpacking the packed values.
+     * The cursor is returned as is if it doesn't have the column.
+     */
+    static Cursor unpacking(Cursor cursor, String column) {
+        int index = cursor.getColumnIndex(column);
+        return index < 0 ? cursor : new UnpackingCursor(cursor, index);
+    }
+
+    /**
+     * Unpacks one column. The text of the current row is kept, so reading it twice, as
+     * {@link android.database.DatabaseUtils#cursorFillWindow} does, only unpacks it once.
+     */
+    private static final class UnpackingCursor extends CursorWrapper {
+        private final int mColumn;
+
+        private int mUnpackedPosition = -1;
+        private String mUnpacked;
+
+        UnpackingCursor(Cursor cursor, int column) {
+            super(cursor);
+            mColumn = column;
+        }
+
+        @Override
+        public int getType(int columnIndex) {
+            int type = super.getType(columnIndex);
+            return columnIndex == mColumn && type == FIELD_TYPE_BLOB ? FIELD_TYPE_STRING : type;
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            if (columnIndex != mColumn || super.getType(columnIndex) != FIELD_TYPE_BLOB) {
+                return super.getString(columnIndex);
+            }
+            int position = getPosition();
+            if (position != mUnpackedPosition) {
+                mUnpacked = unpack(super.getBlob(columnIndex));
+                mUnpackedPosition = position;
+            }
+            return mUnpacked;
+        }
+
+        @Override
+        public byte[] getBlob(int columnIndex) {
+            if (columnIndex == mColumn && super.getType(columnIndex) == FIELD_TYPE_BLOB) {
+                return getString(columnIndex).getBytes(StandardCharsets.UTF_8);
+            }
+            return super.getBlob(columnIndex);
+        }
+
+        @Override
+        @SuppressWarnings("deprecation")
+        public boolean requery() {
+            mUnpackedPosition = -1;
+            mUnpacked = null;
+            return super.requery();
+        }
+    }
+}
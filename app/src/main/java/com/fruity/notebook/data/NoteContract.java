@@ -1,6 +1,7 @@
 package com.fruity.notebook.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
@@ -36,6 +37,199 @@ public  final class NoteContract {
      */
     public static final String PATH_NOTES = "notes";
 
+    /**
+     * Path segment for full-text search, appended after {@link #PATH_NOTES}.
+     * For instance, content://com.fruity.notebook/notes/search/shopping runs a ranked
+     * search for "shopping".
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path segment for the chunks of a note, appended after the note id.
+     * For instance, content://com.fruity.notebook/notes/7/chunks reads the contain of note 7
+     * chunk by chunk.
+     */
+    public static final String PATH_CHUNKS = "chunks";
+
+    /**
+     * Path segment for the change feed of the notes, appended after {@link #PATH_NOTES}.
+     * For instance, content://com.fruity.notebook/notes/changes?since=120 lists the changes
+     * made after change 120.
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Path segment for the edit history of a note, appended after the note id.
+     * For instance, content://com.fruity.notebook/notes/7/history holds the oldest undoable
+     * edits of note 7 while it is open in the editor.
+     */
+    public static final String PATH_HISTORY = "history";
+
+    /**
+     * Path segment for the saved versions of a note, appended after the note id.
+     * For instance, content://com.fruity.notebook/notes/7/revisions lists the revisions of
+     * note 7, and content://com.fruity.notebook/notes/7/revisions/3 rebuilds its revision 3.
+     */
+    public static final String PATH_REVISIONS = "revisions";
+
+    /**
+     * Path segment for the archive of all the notes, appended after {@link #PATH_NOTES}.
+     * Open content://com.fruity.notebook/notes/export for reading to stream the archive.
+     */
+    public static final String PATH_EXPORT = "export";
+
+    /**
+     * Path segment for the deleted notes, appended after {@link #PATH_NOTES}.
+     * For instance, content://com.fruity.notebook/notes/trash lists the notes in the trash, and
+     * content://com.fruity.notebook/notes/trash/7 is note 7 while it is in the trash.
+     */
+    public static final String PATH_TRASH = "trash";
+
+    /**
+     * MIME type of a notes archive, as written by {@link NoteEntry#CONTENT_EXPORT_URI} and read by
+     * {@link #METHOD_IMPORT_NOTES}. The archive holds the title and contain of every note.
+     */
+    public static final String ARCHIVE_MIME_TYPE = "application/vnd." + CONTENT_AUTHORITY + ".notes";
+
+    /**
+     * Query parameter that caps the number of rows returned by a query,
+     * e.g. content://com.fruity.notebook/notes/search/shopping?limit=20
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Query parameter for keyset paging of {@link NoteEntry#CONTENT_URI}: only notes with a
+     * smaller id are returned, newest first. Pass the id of the last note of the previous page,
+     * e.g. content://com.fruity.notebook/notes?limit=50&before_id=1234
+     */
+    public static final String QUERY_PARAMETER_BEFORE_ID = "before_id";
+
+    /**
+     * Query parameter of {@link NoteChangeEntry#CONTENT_URI}: only changes with a larger
+     * sequence number are returned. Pass the sequence number of the last change already applied.
+     */
+    public static final String QUERY_PARAMETER_SINCE = "since";
+
+    /**
+     * Provider method returning the counters of the cache of single notes, as ints under the
+     * KEY_CACHE_* keys. Call it with {@link ContentResolver#call(Uri, String, String, android.os.Bundle)}
+     * on {@link #BASE_CONTENT_URI}.
+     */
+    public static final String METHOD_NOTE_CACHE_STATS = "note_cache_stats";
+
+    /** Number of note queries answered from the cache */
+    public static final String KEY_CACHE_HITS = "hits";
+
+    /** Number of note queries that read the database */
+    public static final String KEY_CACHE_MISSES = "misses";
+
+    /** Number of notes dropped from the cache to stay within its memory bound */
+    public static final String KEY_CACHE_EVICTIONS = "evictions";
+
+    /** Memory used by the cached notes, in bytes */
+    public static final String KEY_CACHE_SIZE_BYTES = "size_bytes";
+
+    /**
+     * Provider method returning the metrics of the provider since the process started. For each
+     * operation (METRICS_QUERY, METRICS_INSERT, METRICS_UPDATE, METRICS_DELETE and
+     * METRICS_BULK_INSERT) a Bundle under its name holds the KEY_METRICS_* longs and histogram.
+     * The result also holds {@link #KEY_METRICS_CURSOR_BYTES}, {@link #KEY_METRICS_NOTIFICATIONS}
+     * and the KEY_CACHE_* counters of {@link #METHOD_NOTE_CACHE_STATS}. The same metrics are
+     * printed by dumpsys activity provider com.fruity.notebook/.data.NoteProvider.
+     */
+    public static final String METHOD_METRICS = "metrics";
+
+    public static final String METRICS_QUERY = "query";
+    public static final String METRICS_INSERT = "insert";
+    public static final String METRICS_UPDATE = "update";
+    public static final String METRICS_DELETE = "delete";
+    public static final String METRICS_BULK_INSERT = "bulk_insert";
+
+    /** Number of operations */
+    public static final String KEY_METRICS_COUNT = "count";
+
+    /** Rows inserted, updated or deleted, or moved to in the cursors of the queries */
+    public static final String KEY_METRICS_ROWS = "rows";
+
+    /** Time spent in the operations, in µs */
+    public static final String KEY_METRICS_TOTAL_MICROS = "total_us";
+
+    /** Percentiles of the latency, in µs, rounded up to a power of two */
+    public static final String KEY_METRICS_P50_MICROS = "p50_us";
+    public static final String KEY_METRICS_P90_MICROS = "p90_us";
+    public static final String KEY_METRICS_P99_MICROS = "p99_us";
+
+    /**
+     * Latency histogram, a long[] of operation counts: index 0 counts latencies below 1 µs,
+     * index i those below 2^i µs, the last index all the slower ones.
+     */
+    public static final String KEY_METRICS_HISTOGRAM = "histogram_us";
+
+    /** Bytes read from the cursors of the queries, strings counting two bytes per char */
+    public static final String KEY_METRICS_CURSOR_BYTES = "cursor_bytes";
+
+    /** Change notifications sent to the observers of the notes */
+    public static final String KEY_METRICS_NOTIFICATIONS = "notifications";
+
+    /**
+     * Provider method adding the notes of an archive, in one transaction: either all the notes
+     * are added or none is. Pass the archive as a readable
+     * {@link android.os.ParcelFileDescriptor} under {@link #KEY_ARCHIVE_FILE} in the extras. Returns
+     * the number of notes added under {@link #KEY_NOTE_COUNT}. Throws IllegalArgumentException if
+     * the file is not a complete archive.
+     */
+    public static final String METHOD_IMPORT_NOTES = "import_notes";
+
+    /** The archive to import */
+    public static final String KEY_ARCHIVE_FILE = "file";
+
+    /** Number of notes imported */
+    public static final String KEY_NOTE_COUNT = "count";
+
+    /**
+     * Provider method writing an archive of some of the notes, like reading the
+     * {@link NoteEntry#CONTENT_EXPORT_URI}. Pass a selection of the notes without arguments as
+     * the arg, e.g. the ids of the notes picked in the list, or null for all the notes, and a
+     * writable {@link android.os.ParcelFileDescriptor} under {@link #KEY_ARCHIVE_FILE} in the
+     * extras. Returns the number of notes written under {@link #KEY_NOTE_COUNT}.
+     */
+    public static final String METHOD_EXPORT_NOTES = "export_notes";
+
+    /**
+     * Provider method running the database maintenance now: removes the expired notes of the
+     * trash, refreshes the statistics of the query planner, optimizes the full-text index, and frees the pages left empty by deleted
+     * notes. {@link NoteMaintenanceJob} runs it while the device is idle and charging. Returns
+     * the sizes and durations under the KEY_MAINTENANCE_* keys; the last report is also printed
+     * by dumpsys.
+     */
+    public static final String METHOD_MAINTENANCE = "maintenance";
+
+    /** Time the maintenance started, in milliseconds since the epoch */
+    public static final String KEY_MAINTENANCE_TIME = "time";
+
+    /** Bytes of the database and its write-ahead log, before and after the maintenance */
+    public static final String KEY_MAINTENANCE_SIZE_BEFORE = "size_before";
+    public static final String KEY_MAINTENANCE_SIZE_AFTER = "size_after";
+
+    /** Unused pages in the database, before and after the maintenance */
+    public static final String KEY_MAINTENANCE_FREE_PAGES_BEFORE = "free_pages_before";
+    public static final String KEY_MAINTENANCE_FREE_PAGES_AFTER = "free_pages_after";
+
+    /** Durations of the steps, and of the whole maintenance */
+    public static final String KEY_MAINTENANCE_ANALYZE_MILLIS = "analyze_ms";
+    public static final String KEY_MAINTENANCE_FTS_OPTIMIZE_MILLIS = "fts_optimize_ms";
+    public static final String KEY_MAINTENANCE_VACUUM_MILLIS = "vacuum_ms";
+    public static final String KEY_MAINTENANCE_TOTAL_MILLIS = "total_ms";
+
+    /** Whether the vacuum rebuilt the whole database, which happens once per database */
+    public static final String KEY_MAINTENANCE_FULL_VACUUM = "full_vacuum";
+
+    /** Notes removed from the trash because they expired */
+    public static final String KEY_MAINTENANCE_PURGED_NOTES = "purged_notes";
+
+    /** False if the maintenance was stopped before its last step */
+    public static final String KEY_MAINTENANCE_COMPLETE = "complete";
+
 
     /**
      * Inner class that defines constant values for the notes database table.
@@ -46,6 +240,26 @@ public  final class NoteContract {
         /** The content URI to access the note data in the provider */
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_NOTES);
 
+        /**
+         * The content URI to search the notes. Append the search text as the last path segment.
+         */
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
+
+        /**
+         * The content URI to open for reading to export all the notes as an archive of the
+         * {@link #ARCHIVE_MIME_TYPE}. The archive is written while it is read, whatever the number
+         * of notes.
+         */
+        public static final Uri CONTENT_EXPORT_URI = Uri.withAppendedPath(CONTENT_URI, PATH_EXPORT);
+
+        /**
+         * The content URI of the notes in the trash, see {@link #COLUMN_NOTE_DELETED_AT}. Query
+         * it like the {@link #CONTENT_URI}, most recently deleted first by default. Update a
+         * note of the trash with a null {@link #COLUMN_NOTE_DELETED_AT} to restore it, and
+         * delete it to remove it for good; deleting this URI empties the trash.
+         */
+        public static final Uri CONTENT_TRASH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_TRASH);
+
         /**
          * The MIME type of the {@link #CONTENT_URI} for a list of notes.
          */
@@ -78,13 +292,411 @@ public  final class NoteContract {
         public final static String COLUMN_NOTE_NAME ="title";
 
         /**
-         * * contain of the note.
+         * * contain of the note. Null for a chunked note, see {@link #COLUMN_NOTE_CHUNKED}.
+         * A large contain is stored compressed and returned as plain text by queries. A
+         * selection on this column doesn't see it, so look for text with
+         * {@link #CONTENT_SEARCH_URI}, which covers it.
          *
          * Type: TEXT
          */
         public final static String COLUMN_NOTE_CONTAIN = "contain";
 
+        /**
+         * 1 when the contain is too large for a single row and is stored as
+         * {@link NoteChunkEntry chunks} instead, 0 otherwise. Maintained by the provider: write
+         * the whole contain as usual, and read a chunked note through
+         * {@link NoteChunkEntry#buildChunksUri(long)}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_NOTE_CHUNKED = "chunked";
+
+        /**
+         * First {@link #SUMMARY_LENGTH} characters of the contain, with line breaks turned into
+         * spaces. Maintained by the provider, so the notes list never has to read the contain.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_NOTE_SUMMARY = "summary";
+
+        /** Maximum number of characters in {@link #COLUMN_NOTE_SUMMARY} */
+        public final static int SUMMARY_LENGTH = 120;
+
+        /**
+         * Time the note was created, in milliseconds since the epoch. Maintained by the provider.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_NOTE_CREATED_AT = "created_at";
+
+        /**
+         * Time the note was last changed, in milliseconds since the epoch. Maintained by the
+         * provider.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_NOTE_UPDATED_AT = "updated_at";
+
+        /**
+         * Time the note was moved to the trash, in milliseconds since the epoch, null for a note
+         * that isn't. Deleting a note through the {@link #CONTENT_URI} moves it to the trash; it
+         * is removed for good 30 days later. A note in the trash is only seen through the
+         * {@link #CONTENT_TRASH_URI}, and can't be updated. Maintained by the provider.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_NOTE_DELETED_AT = "deleted_at";
+
+        /**
+         * Sort order of the most recently edited notes first. Served from an index that also
+         * holds the title and summary, so a list sorted this way never sorts or reads the notes.
+         */
+        public final static String SORT_RECENTLY_EDITED =
+                COLUMN_NOTE_UPDATED_AT + " DESC, " + _ID + " DESC";
+
+        /**
+         * Sort order by title, ignoring case. Served from an index like
+         * {@link #SORT_RECENTLY_EDITED}.
+         */
+        public final static String SORT_TITLE = COLUMN_NOTE_NAME + " COLLATE NOCASE, " + _ID;
+
+        /** Sort order of the trash, most recently deleted notes first */
+        public final static String SORT_RECENTLY_DELETED =
+                COLUMN_NOTE_DELETED_AT + " DESC, " + _ID + " DESC";
 
+        /** Name of the full-text index of the plain title and contain of the notes */
+        public final static String FTS_TABLE_NAME = "notes_fts";
+
+        /**
+         * Excerpt of the matching text with the hits highlighted. Only present in search results.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SNIPPET = "snippet";
+
+        /**
+         * Number of times the search terms occur in the note, higher is a better match.
+         * Only present in search results.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_RANK = "rank";
+
+        /** Markup placed around each hit in {@link #COLUMN_SNIPPET} */
+        public final static String SNIPPET_HIGHLIGHT_START = "<b>";
+        public final static String SNIPPET_HIGHLIGHT_END = "</b>";
+
+        /**
+         * Returns the content URI of the given note while it is in the trash.
+         */
+        public static Uri buildTrashUri(long noteId) {
+            return ContentUris.withAppendedId(CONTENT_TRASH_URI, noteId);
+        }
+
+    }
+
+    /**
+     * Inner class that defines constant values for the note chunks database table.
+     * Each entry in the table holds one piece of the contain of a chunked note, in order.
+     */
+    public static final class NoteChunkEntry {
+
+        /**
+         * The MIME type of the chunks of a note.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHUNKS;
+
+        /** Name of database table for note chunks */
+        public final static String TABLE_NAME = "note_chunks";
+
+        /**
+         * Id of the note the chunk belongs to.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_NOTE_ID = "note_id";
+
+        /**
+         * Position of the chunk in the contain, chunks are read in ascending order.
+         * The numbers are not consecutive.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SEQ = "seq";
+
+        /**
+         * Text of the chunk. Large chunks are stored compressed, and returned as plain text.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_TEXT = "text";
+
+        private NoteChunkEntry() {}
+
+        /**
+         * Returns the content URI of the chunks of the given note, in order.
+         */
+        public static Uri buildChunksUri(long noteId) {
+            return NoteEntry.CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(noteId))
+                    .appendPath(PATH_CHUNKS)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the change log of the notes table.
+     * Every insert, update and delete of a note adds one entry, so an observer can apply the
+     * changes it missed instead of reading all the notes again.
+     */
+    public static final class NoteChangeEntry {
+
+        /**
+         * The content URI of the change feed. Without {@link #QUERY_PARAMETER_SINCE} only the
+         * latest change is returned, which is where a new observer starts following the feed.
+         * Queries always return the columns below, oldest change first.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(NoteEntry.CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * The MIME type of the change feed.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        /** Name of database table for the change log */
+        public final static String TABLE_NAME = "note_changes";
+
+        /**
+         * Sequence number of the change, increasing with every change.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SEQ = "seq";
+
+        /**
+         * What happened to the note, one of the OP_* values.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_OP = "op";
+
+        /**
+         * Id of the changed note. Null for {@link #OP_RESET}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_NOTE_ID = "note_id";
+
+        /** The note was inserted, or restored from the trash */
+        public final static int OP_INSERT = 1;
+
+        /** The note was updated */
+        public final static int OP_UPDATE = 2;
+
+        /** The note was moved to the trash, or removed from it for good */
+        public final static int OP_DELETE = 3;
+
+        /**
+         * Only the oldest changes are dropped from the log, so when some changes after the
+         * requested one are gone, a single change with this op and the latest sequence number
+         * is returned instead: the observer has to read all the notes again.
+         */
+        public final static int OP_RESET = 4;
+
+        private NoteChangeEntry() {}
+
+        /**
+         * Returns the content URI of the changes made after the given sequence number.
+         */
+        public static Uri buildChangesUri(long since) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(since))
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the edit history of the notes.
+     * The editor moves the oldest edits it can undo here when they take too much memory, and
+     * reads them back when the user undoes that far. The history of a note only lasts while the
+     * note is open in the editor.
+     *
+     * Queries return the newest edit first and take {@link #QUERY_PARAMETER_LIMIT}. Bulk
+     * inserts add edits to the note of the URI, and deletes only remove edits of that note.
+     */
+    public static final class NoteHistoryEntry {
+
+        /**
+         * The MIME type of the edit history of a note.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        /** Name of database table for the edit history */
+        public final static String TABLE_NAME = "note_history";
+
+        /**
+         * Order of the edit, increasing from older to newer edits of the same note.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SEQ = "seq";
+
+        /**
+         * Id of the edited note.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_NOTE_ID = "note_id";
+
+        /**
+         * Field that was edited, {@link #FIELD_TITLE} or {@link #FIELD_CONTAIN}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_FIELD = "field";
+
+        /**
+         * Position in the field where the edit starts.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_START = "start";
+
+        /**
+         * Text the edit removed at the start, empty if it only inserted text.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_REMOVED = "removed";
+
+        /**
+         * Text the edit inserted at the start, empty if it only removed text.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_INSERTED = "inserted";
+
+        /** The edit changed the title */
+        public final static int FIELD_TITLE = 0;
+
+        /** The edit changed the contain */
+        public final static int FIELD_CONTAIN = 1;
+
+        private NoteHistoryEntry() {}
+
+        /**
+         * Returns the content URI of the edit history of the given note.
+         */
+        public static Uri buildHistoryUri(long noteId) {
+            return NoteEntry.CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(noteId))
+                    .appendPath(PATH_HISTORY)
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the revisions of the notes.
+     * Every update of a note adds a revision, so any recent version of a note can be read back.
+     * The revisions are stored as deltas, and rebuilt when one is queried.
+     */
+    public static final class NoteRevisionEntry {
+
+        /**
+         * The MIME type of the revisions of a note.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_REVISIONS;
+
+        /**
+         * The MIME type of a single revision of a note.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_REVISIONS;
+
+        /** Name of database table for the revisions */
+        public final static String TABLE_NAME = "note_revisions";
+
+        /**
+         * Id of the note the revision belongs to.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_NOTE_ID = "note_id";
+
+        /**
+         * Number of the revision, increasing with every save of the note. The oldest revisions
+         * of a note are dropped, so the numbers may not start at 1.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REVISION = "revision";
+
+        /**
+         * Time the revision was saved, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CREATED_AT = "created_at";
+
+        /**
+         * Title of the note in the revision.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_TITLE = "title";
+
+        /**
+         * Contain of the note in the revision, only returned by the URI of a single revision.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_CONTAIN = "contain";
+
+        /**
+         * Length of the contain in chars.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LENGTH = "length";
+
+        /**
+         * 1 if the revision is stored whole, 0 if it is stored as a delta.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_KEYFRAME = "keyframe";
+
+        /**
+         * Bytes the stored revision takes, without its title.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SIZE = "size";
+
+        private NoteRevisionEntry() {}
+
+        /**
+         * Returns the content URI of the revisions of the given note, newest first. Queries
+         * always return the columns above but the contain.
+         */
+        public static Uri buildRevisionsUri(long noteId) {
+            return NoteEntry.CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(noteId))
+                    .appendPath(PATH_REVISIONS)
+                    .build();
+        }
+
+        /**
+         * Returns the content URI of one revision of the given note. Queries return its revision,
+         * time, title and contain, or no row if the revision is gone.
+         */
+        public static Uri buildRevisionUri(long noteId, long revision) {
+            return ContentUris.withAppendedId(buildRevisionsUri(noteId), revision);
+        }
     }
 
 }
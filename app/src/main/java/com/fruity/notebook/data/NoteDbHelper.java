@@ -2,9 +2,22 @@ package com.fruity.notebook.data;
 
 
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.fruity.notebook.data.NoteContract.NoteChangeEntry;
+import com.fruity.notebook.data.NoteContract.NoteChunkEntry;
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+import com.fruity.notebook.data.NoteContract.NoteHistoryEntry;
+import com.fruity.notebook.data.NoteContract.NoteRevisionEntry;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Database helper for NoteBook app. Manages database creation and version management.
  */
@@ -15,8 +28,78 @@ public class NoteDbHelper  extends SQLiteOpenHelper {
 
     /**
      * Database version. If you change the database schema, you must increment the database version.
+     *
+     * 1: notes table
+     * 2: full-text index on title and contain
+     * 3: summary column
+     * 4: note chunks table for very large notes
+     * 5: packed contain column
+     * 6: change log of the notes
+     * 7: created and updated times, indexes for the sorted lists
+     * 8: edit history of the editor
+     * 9: revisions of the notes
+     * 10: trash of the deleted notes
+     * 11: full-text index of the plain text, written by the provider
+     * 12: index of the notes outside the trash in id order
+     *
+     * The database uses write-ahead logging, see {@link #NoteDbHelper(Context, String, Tuning)}.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 12;
+
+    /** Number of the latest changes kept in the change log, older ones are dropped */
+    static final int CHANGES_KEPT = 1000;
+
+    /**
+     * Connection settings applied in {@link #onConfigure(SQLiteDatabase)}, how often the
+     * write-ahead log is checkpointed, and which note text is stored compressed.
+     */
+    public static final class Tuning {
+
+        /**
+         * Settings used by the app. With WAL, synchronous NORMAL only syncs on checkpoints: a
+         * crash can lose the last commits but never corrupts the database.
+         */
+        public static final Tuning DEFAULT = new Tuning("NORMAL", -2048, 32L * 1024 * 1024, 500,
+                16 * 1024);
+
+        /** Value of PRAGMA synchronous: OFF, NORMAL or FULL */
+        public final String synchronous;
+
+        /** Value of PRAGMA cache_size, in pages, or in KiB if negative */
+        public final int cacheSize;
+
+        /** Value of PRAGMA mmap_size in bytes, 0 to read the file without memory mapping */
+        public final long mmapSize;
+
+        /** Number of committed writes between two background checkpoints */
+        public final int checkpointInterval;
+
+        /**
+         * Contains and note chunks at least this many chars long are stored compressed, see
+         * {@link NoteCodec}. 0 stores all text plain.
+         */
+        public final int compressThreshold;
+
+        public Tuning(String synchronous, int cacheSize, long mmapSize, int checkpointInterval,
+                      int compressThreshold) {
+            this.synchronous = synchronous;
+            this.cacheSize = cacheSize;
+            this.mmapSize = mmapSize;
+            this.checkpointInterval = checkpointInterval;
+            this.compressThreshold = compressThreshold;
+        }
+    }
+
+    private final Tuning mTuning;
+
+    /** Committed writes since the last checkpoint */
+    private final AtomicInteger mWritesSinceCheckpoint = new AtomicInteger();
+
+    /** Runs checkpoints off the thread that committed the write, until {@link #close()} */
+    private final ExecutorService mCheckpointExecutor = Executors.newSingleThreadExecutor();
+
+    /** Longest wait in {@link #close()} for the checkpoint running */
+    private static final long CHECKPOINT_TIMEOUT_MS = 5000;
 
     /**
      * Constructs a new instance of {@link NoteDbHelper}.
@@ -24,7 +107,106 @@ public class NoteDbHelper  extends SQLiteOpenHelper {
      * @param context of the app
      */
     public NoteDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, Tuning.DEFAULT);
+    }
+
+    /**
+     * Constructs a new instance of {@link NoteDbHelper} for the given database file and settings.
+     */
+    NoteDbHelper(Context context, String name, Tuning tuning) {
+        super(context, name, null, DATABASE_VERSION);
+        mTuning = tuning;
+
+        // With write-ahead logging, readers use their own connections and see the last
+        // committed state, so a save from the editor no longer blocks the notes list.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Returns the settings of this database.
+     */
+    Tuning getTuning() {
+        return mTuning;
+    }
+
+    /**
+     * Applies the {@link Tuning} pragmas. These apply to the primary connection, which does all
+     * the writes; the read connections of the pool keep the SQLite defaults. Also asks for
+     * incremental vacuum, so {@link NoteMaintenance} can free the pages of deleted notes without
+     * rebuilding the database.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        pragma(db, "PRAGMA synchronous = " + mTuning.synchronous);
+        pragma(db, "PRAGMA cache_size = " + mTuning.cacheSize);
+        pragma(db, "PRAGMA mmap_size = " + mTuning.mmapSize);
+        // Only applies to a new database, or after a VACUUM; see NoteMaintenance
+        pragma(db, "PRAGMA auto_vacuum = INCREMENTAL");
+    }
+
+    /**
+     * Called by the provider after each committed write. Every
+     * {@link Tuning#checkpointInterval} writes, the write-ahead log is copied back into the
+     * database on a background thread, so it stays small and the automatic checkpoint rarely
+     * has to run during a commit.
+     */
+    void onWriteCommitted() {
+        if (mWritesSinceCheckpoint.incrementAndGet() >= mTuning.checkpointInterval) {
+            mWritesSinceCheckpoint.set(0);
+            try {
+                mCheckpointExecutor.execute(() -> {
+                    trimChanges(getWritableDatabase(), CHANGES_KEPT);
+                    checkpoint();
+                });
+            } catch (RejectedExecutionException e) {
+                // Closed, closing the last connection checkpoints the log anyway
+            }
+        }
+    }
+
+    /**
+     * Stops the checkpoints, waiting for the one running so it doesn't open the database again,
+     * then closes the database. Not synchronized like the method it overrides, as a checkpoint
+     * needs the lock to get the database.
+     */
+    @Override
+    public void close() {
+        mCheckpointExecutor.shutdown();
+        try {
+            mCheckpointExecutor.awaitTermination(CHECKPOINT_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        super.close();
+    }
+
+    /**
+     * Drops all but the latest keep entries of the change log.
+     */
+    static void trimChanges(SQLiteDatabase db, int keep) {
+        db.execSQL("DELETE FROM " + NoteChangeEntry.TABLE_NAME + " WHERE " + NoteChangeEntry.COLUMN_SEQ
+                + " <= (SELECT max(" + NoteChangeEntry.COLUMN_SEQ + ") FROM " + NoteChangeEntry.TABLE_NAME
+                + ") - " + keep + ";");
+    }
+
+    /**
+     * Copies as much of the write-ahead log as possible into the database without waiting for
+     * readers or writers.
+     */
+    void checkpoint() {
+        pragma(getWritableDatabase(), "PRAGMA wal_checkpoint(PASSIVE)");
+    }
+
+    /**
+     * Runs a pragma. Some pragmas return a row, which execSQL doesn't allow, so it runs as a query.
+     */
+    private static void pragma(SQLiteDatabase db, String sql) {
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     /**
@@ -33,22 +215,361 @@ public class NoteDbHelper  extends SQLiteOpenHelper {
     @Override
     public void onCreate(SQLiteDatabase db) {
         // Create a String that contains the SQL statement to create the notes table
-        String SQL_CREATE_NOTES_TABLE =  "CREATE TABLE " + NoteContract.NoteEntry.TABLE_NAME + " ("
-                + NoteContract.NoteEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + NoteContract.NoteEntry.COLUMN_NOTE_NAME + " TEXT NOT NULL, "
-                + NoteContract.NoteEntry. COLUMN_NOTE_CONTAIN + " TEXT );";
+        String SQL_CREATE_NOTES_TABLE =  "CREATE TABLE " + NoteEntry.TABLE_NAME + " ("
+                + NoteEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + NoteEntry.COLUMN_NOTE_NAME + " TEXT NOT NULL, "
+                + NoteEntry. COLUMN_NOTE_CONTAIN + " TEXT );";
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_NOTES_TABLE);
 
+        // Bring the version 1 table up to date, so a fresh install and an upgraded
+        // install always end up with exactly the same schema.
+        onUpgrade(db, 1, DATABASE_VERSION);
+
     }
 
     /**
      * This is called when the database needs to be upgraded.
+     * Each step moves the schema up by one version.
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        if (oldVersion < 2) {
+            createFullTextIndex(db);
+        }
+        if (oldVersion < 3) {
+            addSummaryColumn(db);
+        }
+        if (oldVersion < 4) {
+            createChunksTable(db);
+        }
+        if (oldVersion < 5) {
+            // Existing notes stay plain until they are saved again
+            db.execSQL("ALTER TABLE " + NoteEntry.TABLE_NAME + " ADD COLUMN "
+                    + NoteCodec.COLUMN_CONTAIN_PACKED + " BLOB;");
+        }
+        if (oldVersion < 6) {
+            createChangeLog(db);
+        }
+        if (oldVersion < 7) {
+            addTimestamps(db);
+        }
+        if (oldVersion < 8) {
+            createHistoryTable(db);
+        }
+        if (oldVersion < 9) {
+            createRevisionsTable(db);
+        }
+        if (oldVersion < 10) {
+            addTrash(db);
+        }
+        if (oldVersion < 11) {
+            indexPlainText(db);
+        }
+        if (oldVersion < 12) {
+            createIdIndex(db);
+        }
+    }
 
+    /**
+     * Creates the {@link NoteEntry#FTS_TABLE_NAME} index over the notes table, the triggers that
+     * keep it in sync, and indexes the notes that already exist.
+     *
+     * The index uses FTS4 with the notes table as external content, so the note text is not
+     * stored twice. FTS5 is not compiled into the platform SQLite on every API level we support.
+     */
+    private static void createFullTextIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + NoteEntry.FTS_TABLE_NAME + " USING fts4("
+                + "content=\"" + NoteEntry.TABLE_NAME + "\", "
+                + NoteEntry.COLUMN_NOTE_NAME + ", "
+                + NoteEntry.COLUMN_NOTE_CONTAIN + ");");
+
+        // An external content index reads the old values from the notes table to remove them,
+        // so the delete has to run before the row changes and the insert after.
+        String indexRow = "INSERT INTO " + NoteEntry.FTS_TABLE_NAME
+                + "(docid, " + NoteEntry.COLUMN_NOTE_NAME + ", " + NoteEntry.COLUMN_NOTE_CONTAIN + ")"
+                + " VALUES (new." + NoteEntry._ID + ", new." + NoteEntry.COLUMN_NOTE_NAME
+                + ", new." + NoteEntry.COLUMN_NOTE_CONTAIN + "); END;";
+        String unindexRow = "DELETE FROM " + NoteEntry.FTS_TABLE_NAME
+                + " WHERE docid = old." + NoteEntry._ID + "; END;";
+
+        db.execSQL("CREATE TRIGGER notes_fts_before_update BEFORE UPDATE ON "
+                + NoteEntry.TABLE_NAME + " BEGIN " + unindexRow);
+        db.execSQL("CREATE TRIGGER notes_fts_before_delete BEFORE DELETE ON "
+                + NoteEntry.TABLE_NAME + " BEGIN " + unindexRow);
+        db.execSQL("CREATE TRIGGER notes_fts_after_update AFTER UPDATE ON "
+                + NoteEntry.TABLE_NAME + " BEGIN " + indexRow);
+        db.execSQL("CREATE TRIGGER notes_fts_after_insert AFTER INSERT ON "
+                + NoteEntry.TABLE_NAME + " BEGIN " + indexRow);
+
+        // Index the notes written before the index existed
+        db.execSQL("INSERT INTO " + NoteEntry.FTS_TABLE_NAME + "(" + NoteEntry.FTS_TABLE_NAME
+                + ") VALUES ('rebuild');");
+    }
+
+    /**
+     * Adds the {@link NoteEntry#COLUMN_NOTE_SUMMARY} column and fills it in for existing notes.
+     */
+    private static void addSummaryColumn(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + NoteEntry.TABLE_NAME
+                + " ADD COLUMN " + NoteEntry.COLUMN_NOTE_SUMMARY + " TEXT;");
+        db.execSQL("UPDATE " + NoteEntry.TABLE_NAME + " SET " + NoteEntry.COLUMN_NOTE_SUMMARY
+                + " = " + NoteSummary.sqlExpression(NoteEntry.COLUMN_NOTE_CONTAIN) + ";");
+    }
+
+    /**
+     * Creates the {@link NoteChunkEntry#TABLE_NAME} table and moves the contain of the notes that
+     * are already too large into it, see {@link NoteChunks}.
+     */
+    private static void createChunksTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + NoteChunkEntry.TABLE_NAME + " ("
+                + NoteChunkEntry.COLUMN_NOTE_ID + " INTEGER NOT NULL, "
+                + NoteChunkEntry.COLUMN_SEQ + " INTEGER NOT NULL, "
+                + NoteChunkEntry.COLUMN_TEXT + " TEXT NOT NULL, "
+                + NoteChunks.COLUMN_LENGTH + " INTEGER, "
+                + NoteChunks.COLUMN_HASH + " INTEGER, "
+                + "PRIMARY KEY (" + NoteChunkEntry.COLUMN_NOTE_ID + ", " + NoteChunkEntry.COLUMN_SEQ + "));");
+
+        db.execSQL("ALTER TABLE " + NoteEntry.TABLE_NAME + " ADD COLUMN "
+                + NoteEntry.COLUMN_NOTE_CHUNKED + " INTEGER NOT NULL DEFAULT 0;");
+
+        // Deleting a note deletes its chunks
+        db.execSQL("CREATE TRIGGER note_chunks_after_delete AFTER DELETE ON " + NoteEntry.TABLE_NAME
+                + " BEGIN DELETE FROM " + NoteChunkEntry.TABLE_NAME
+                + " WHERE " + NoteChunkEntry.COLUMN_NOTE_ID + " = old." + NoteEntry._ID + "; END;");
+
+        // Split the notes that are already too large without reading them into a cursor, which
+        // is exactly what fails for them. substr() counts code points, so the length and hash of
+        // these chunks are left unknown and the first save rewrites them.
+        db.execSQL("INSERT INTO " + NoteChunkEntry.TABLE_NAME + " ("
+                + NoteChunkEntry.COLUMN_NOTE_ID + ", " + NoteChunkEntry.COLUMN_SEQ + ", "
+                + NoteChunkEntry.COLUMN_TEXT + ")"
+                + " WITH RECURSIVE split(note_id, seq, pos) AS ("
+                + " SELECT " + NoteEntry._ID + ", 0, 1 FROM " + NoteEntry.TABLE_NAME
+                + " WHERE length(" + NoteEntry.COLUMN_NOTE_CONTAIN + ") > " + NoteChunks.THRESHOLD
+                + " UNION ALL SELECT split.note_id, split.seq + " + NoteChunks.SEQ_STEP
+                + ", split.pos + " + NoteChunks.CHUNK_SIZE
+                + " FROM split JOIN " + NoteEntry.TABLE_NAME + " n ON n." + NoteEntry._ID + " = split.note_id"
+                + " WHERE split.pos + " + NoteChunks.CHUNK_SIZE + " <= length(n." + NoteEntry.COLUMN_NOTE_CONTAIN + "))"
+                + " SELECT split.note_id, split.seq, substr(n." + NoteEntry.COLUMN_NOTE_CONTAIN
+                + ", split.pos, " + NoteChunks.CHUNK_SIZE + ")"
+                + " FROM split JOIN " + NoteEntry.TABLE_NAME + " n ON n." + NoteEntry._ID + " = split.note_id;");
+        db.execSQL("UPDATE " + NoteEntry.TABLE_NAME + " SET " + NoteEntry.COLUMN_NOTE_CHUNKED + " = 1, "
+                + NoteEntry.COLUMN_NOTE_CONTAIN + " = NULL"
+                + " WHERE length(" + NoteEntry.COLUMN_NOTE_CONTAIN + ") > " + NoteChunks.THRESHOLD + ";");
+    }
+
+    /**
+     * Creates the {@link NoteChangeEntry#TABLE_NAME} table and the triggers that add an entry
+     * for every change of a note. Being triggers, they also catch the changes made by a
+     * selection, a batch or a bulk insert, in the same transaction as the change itself.
+     */
+    private static void createChangeLog(SQLiteDatabase db) {
+        // AUTOINCREMENT, so a sequence number is never reused once the oldest entries are trimmed
+        db.execSQL("CREATE TABLE " + NoteChangeEntry.TABLE_NAME + " ("
+                + NoteChangeEntry.COLUMN_SEQ + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + NoteChangeEntry.COLUMN_OP + " INTEGER NOT NULL, "
+                + NoteChangeEntry.COLUMN_NOTE_ID + " INTEGER);");
+
+        String logChange = "INSERT INTO " + NoteChangeEntry.TABLE_NAME + " ("
+                + NoteChangeEntry.COLUMN_OP + ", " + NoteChangeEntry.COLUMN_NOTE_ID + ") VALUES (";
+        db.execSQL("CREATE TRIGGER note_changes_after_insert AFTER INSERT ON " + NoteEntry.TABLE_NAME
+                + " BEGIN " + logChange + NoteChangeEntry.OP_INSERT + ", new." + NoteEntry._ID + "); END;");
+        db.execSQL("CREATE TRIGGER note_changes_after_update AFTER UPDATE ON " + NoteEntry.TABLE_NAME
+                + " BEGIN " + logChange + NoteChangeEntry.OP_UPDATE + ", new." + NoteEntry._ID + "); END;");
+        db.execSQL("CREATE TRIGGER note_changes_after_delete AFTER DELETE ON " + NoteEntry.TABLE_NAME
+                + " BEGIN " + logChange + NoteChangeEntry.OP_DELETE + ", old." + NoteEntry._ID + "); END;");
+    }
+
+
+    /**
+     * Adds the {@link NoteEntry#COLUMN_NOTE_CREATED_AT} and {@link NoteEntry#COLUMN_NOTE_UPDATED_AT}
+     * columns, and the covering indexes of the {@link NoteEntry#SORT_RECENTLY_EDITED} and
+     * {@link NoteEntry#SORT_TITLE} orders.
+     */
+    private static void addTimestamps(SQLiteDatabase db) {
+        // The existing notes get the time of the upgrade through the column default, which
+        // SQLite returns for old rows without rewriting them. The provider sets both times of
+        // every new note, so the default is never used otherwise.
+        long now = System.currentTimeMillis();
+        db.execSQL("ALTER TABLE " + NoteEntry.TABLE_NAME + " ADD COLUMN "
+                + NoteEntry.COLUMN_NOTE_CREATED_AT + " INTEGER NOT NULL DEFAULT " + now + ";");
+        db.execSQL("ALTER TABLE " + NoteEntry.TABLE_NAME + " ADD COLUMN "
+                + NoteEntry.COLUMN_NOTE_UPDATED_AT + " INTEGER NOT NULL DEFAULT " + now + ";");
+
+        // The keys follow the sort orders, _id included, and the notes list reads only the title
+        // and summary besides them: both lists are a walk of one index, with no sort and no
+        // lookup in the notes table.
+        db.execSQL("CREATE INDEX notes_updated_at ON " + NoteEntry.TABLE_NAME + " ("
+                + NoteEntry.COLUMN_NOTE_UPDATED_AT + ", " + NoteEntry._ID + ", "
+                + NoteEntry.COLUMN_NOTE_NAME + ", " + NoteEntry.COLUMN_NOTE_SUMMARY + ");");
+        db.execSQL("CREATE INDEX notes_title ON " + NoteEntry.TABLE_NAME + " ("
+                + NoteEntry.COLUMN_NOTE_NAME + " COLLATE NOCASE, " + NoteEntry._ID + ", "
+                + NoteEntry.COLUMN_NOTE_SUMMARY + ");");
+    }
+
+    /**
+     * Creates the {@link NoteHistoryEntry#TABLE_NAME} table, where the editor keeps the edits it
+     * has no room for in memory.
+     */
+    private static void createHistoryTable(SQLiteDatabase db) {
+        // The sequence numbers only have to grow within the edits of one note, so a plain
+        // INTEGER PRIMARY KEY is enough: it reuses the numbers of the edits read back
+        db.execSQL("CREATE TABLE " + NoteHistoryEntry.TABLE_NAME + " ("
+                + NoteHistoryEntry.COLUMN_SEQ + " INTEGER PRIMARY KEY, "
+                + NoteHistoryEntry.COLUMN_NOTE_ID + " INTEGER NOT NULL, "
+                + NoteHistoryEntry.COLUMN_FIELD + " INTEGER NOT NULL, "
+                + NoteHistoryEntry.COLUMN_START + " INTEGER NOT NULL, "
+                + NoteHistoryEntry.COLUMN_REMOVED + " TEXT NOT NULL, "
+                + NoteHistoryEntry.COLUMN_INSERTED + " TEXT NOT NULL);");
+        db.execSQL("CREATE INDEX note_history_note ON " + NoteHistoryEntry.TABLE_NAME + " ("
+                + NoteHistoryEntry.COLUMN_NOTE_ID + ", " + NoteHistoryEntry.COLUMN_SEQ + ");");
+
+        // Deleting a note deletes its history
+        db.execSQL("CREATE TRIGGER note_history_after_delete AFTER DELETE ON " + NoteEntry.TABLE_NAME
+                + " BEGIN DELETE FROM " + NoteHistoryEntry.TABLE_NAME
+                + " WHERE " + NoteHistoryEntry.COLUMN_NOTE_ID + " = old." + NoteEntry._ID + "; END;");
+    }
+
+    /**
+     * Creates the {@link NoteRevisionEntry#TABLE_NAME} table, see {@link NoteRevisions}. The
+     * existing notes get their first revision when they are next saved.
+     */
+    private static void createRevisionsTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + NoteRevisionEntry.TABLE_NAME + " ("
+                + NoteRevisionEntry.COLUMN_NOTE_ID + " INTEGER NOT NULL, "
+                + NoteRevisionEntry.COLUMN_REVISION + " INTEGER NOT NULL, "
+                + NoteRevisionEntry.COLUMN_CREATED_AT + " INTEGER NOT NULL, "
+                + NoteRevisionEntry.COLUMN_TITLE + " TEXT, "
+                + NoteRevisionEntry.COLUMN_LENGTH + " INTEGER NOT NULL, "
+                + NoteRevisions.COLUMN_KEYFRAME_REVISION + " INTEGER NOT NULL, "
+                + NoteRevisions.COLUMN_TEXT + ", "
+                + NoteRevisions.COLUMN_DELTA + " BLOB, "
+                + "PRIMARY KEY (" + NoteRevisionEntry.COLUMN_NOTE_ID + ", "
+                + NoteRevisionEntry.COLUMN_REVISION + "));");
+
+        // Deleting a note deletes its revisions
+        db.execSQL("CREATE TRIGGER note_revisions_after_delete AFTER DELETE ON " + NoteEntry.TABLE_NAME
+                + " BEGIN DELETE FROM " + NoteRevisionEntry.TABLE_NAME
+                + " WHERE " + NoteRevisionEntry.COLUMN_NOTE_ID + " = old." + NoteEntry._ID + "; END;");
+    }
+
+    /**
+     * Adds the {@link NoteEntry#COLUMN_NOTE_DELETED_AT} column, see {@link NoteTrash}. The
+     * indexes of the sorted lists become partial indexes of the notes outside the trash, so the
+     * lists skip the deleted notes without reading them, and a partial index of the trash
+     * serves its list and the purge.
+     */
+    private static void addTrash(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + NoteEntry.TABLE_NAME + " ADD COLUMN "
+                + NoteEntry.COLUMN_NOTE_DELETED_AT + " INTEGER;");
+
+        // Partial indexes need SQLite 3.8.0, which every supported API level has. A query only
+        // uses them when its selection holds the same term, see NoteTrash.LIVE. The column of
+        // that term ends the keys, always null, so the indexes still cover the lists.
+        db.execSQL("DROP INDEX notes_updated_at;");
+        db.execSQL("DROP INDEX notes_title;");
+        db.execSQL("CREATE INDEX notes_updated_at ON " + NoteEntry.TABLE_NAME + " ("
+                + NoteEntry.COLUMN_NOTE_UPDATED_AT + ", " + NoteEntry._ID + ", "
+                + NoteEntry.COLUMN_NOTE_NAME + ", " + NoteEntry.COLUMN_NOTE_SUMMARY + ", "
+                + NoteEntry.COLUMN_NOTE_DELETED_AT + ") WHERE " + NoteTrash.LIVE + ";");
+        db.execSQL("CREATE INDEX notes_title ON " + NoteEntry.TABLE_NAME + " ("
+                + NoteEntry.COLUMN_NOTE_NAME + " COLLATE NOCASE, " + NoteEntry._ID + ", "
+                + NoteEntry.COLUMN_NOTE_SUMMARY + ", " + NoteEntry.COLUMN_NOTE_DELETED_AT + ")"
+                + " WHERE " + NoteTrash.LIVE + ";");
+        db.execSQL("CREATE INDEX notes_deleted_at ON " + NoteEntry.TABLE_NAME + " ("
+                + NoteEntry.COLUMN_NOTE_DELETED_AT + ") WHERE " + NoteTrash.TRASHED + ";");
+
+        // Moving a note to the trash or back leaves its text alone, so it stays in the full-text
+        // index, and the search skips it, instead of being indexed again
+        String sameTrashState = " WHEN old." + NoteEntry.COLUMN_NOTE_DELETED_AT
+                + " IS new." + NoteEntry.COLUMN_NOTE_DELETED_AT;
+        db.execSQL("DROP TRIGGER notes_fts_before_update;");
+        db.execSQL("DROP TRIGGER notes_fts_after_update;");
+        db.execSQL("CREATE TRIGGER notes_fts_before_update BEFORE UPDATE ON " + NoteEntry.TABLE_NAME
+                + sameTrashState + " BEGIN DELETE FROM " + NoteEntry.FTS_TABLE_NAME
+                + " WHERE docid = old." + NoteEntry._ID + "; END;");
+        db.execSQL("CREATE TRIGGER notes_fts_after_update AFTER UPDATE ON " + NoteEntry.TABLE_NAME
+                + sameTrashState + " BEGIN INSERT INTO " + NoteEntry.FTS_TABLE_NAME
+                + "(docid, " + NoteEntry.COLUMN_NOTE_NAME + ", " + NoteEntry.COLUMN_NOTE_CONTAIN + ")"
+                + " VALUES (new." + NoteEntry._ID + ", new." + NoteEntry.COLUMN_NOTE_NAME
+                + ", new." + NoteEntry.COLUMN_NOTE_CONTAIN + "); END;");
+
+        // For the change feed, a note moved to the trash is deleted and a restored one inserted
+        String logChange = "INSERT INTO " + NoteChangeEntry.TABLE_NAME + " ("
+                + NoteChangeEntry.COLUMN_OP + ", " + NoteChangeEntry.COLUMN_NOTE_ID + ") VALUES (";
+        db.execSQL("DROP TRIGGER note_changes_after_update;");
+        db.execSQL("CREATE TRIGGER note_changes_after_update AFTER UPDATE ON " + NoteEntry.TABLE_NAME
+                + sameTrashState + " BEGIN " + logChange + NoteChangeEntry.OP_UPDATE
+                + ", new." + NoteEntry._ID + "); END;");
+        db.execSQL("CREATE TRIGGER note_changes_after_trash AFTER UPDATE OF "
+                + NoteEntry.COLUMN_NOTE_DELETED_AT + " ON " + NoteEntry.TABLE_NAME
+                + " WHEN old." + NoteEntry.COLUMN_NOTE_DELETED_AT + " IS NOT new." + NoteEntry.COLUMN_NOTE_DELETED_AT
+                + " BEGIN " + logChange + "CASE WHEN new." + NoteEntry.COLUMN_NOTE_DELETED_AT
+                + " IS NULL THEN " + NoteChangeEntry.OP_INSERT + " ELSE " + NoteChangeEntry.OP_DELETE
+                + " END, new." + NoteEntry._ID + "); END;");
+    }
+
+    /**
+     * Replaces the full-text index, which read the contain of the notes table and so missed
+     * the packed ones, by an index the provider writes the plain text into, see
+     * {@link NoteSearch}, and indexes all the notes again.
+     *
+     * The index keeps its own copy of the text. FTS4 can't leave it out: a contentless table
+     * can't remove a note, and an external content table reads the text to remove from the
+     * notes table, where it may only be packed.
+     */
+    private static void indexPlainText(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER notes_fts_before_update;");
+        db.execSQL("DROP TRIGGER notes_fts_before_delete;");
+        db.execSQL("DROP TRIGGER notes_fts_after_update;");
+        db.execSQL("DROP TRIGGER notes_fts_after_insert;");
+        db.execSQL("DROP TABLE " + NoteEntry.FTS_TABLE_NAME + ";");
+        db.execSQL("CREATE VIRTUAL TABLE " + NoteEntry.FTS_TABLE_NAME + " USING fts4("
+                + NoteEntry.COLUMN_NOTE_NAME + ", " + NoteEntry.COLUMN_NOTE_CONTAIN + ");");
+
+        // Purging a note from the trash removes its entry, without reading the note
+        db.execSQL("CREATE TRIGGER notes_fts_after_delete AFTER DELETE ON " + NoteEntry.TABLE_NAME
+                + " BEGIN DELETE FROM " + NoteEntry.FTS_TABLE_NAME
+                + " WHERE docid = old." + NoteEntry._ID + "; END;");
+
+        // The plain contains are copied over at once, the packed ones are unpacked and the
+        // chunked ones put together one by one
+        db.execSQL("INSERT INTO " + NoteEntry.FTS_TABLE_NAME + " (docid, " + NoteEntry.COLUMN_NOTE_NAME
+                + ", " + NoteEntry.COLUMN_NOTE_CONTAIN + ") SELECT " + NoteEntry._ID + ", "
+                + NoteEntry.COLUMN_NOTE_NAME + ", " + NoteEntry.COLUMN_NOTE_CONTAIN + " FROM "
+                + NoteEntry.TABLE_NAME + " WHERE " + NoteCodec.COLUMN_CONTAIN_PACKED + " IS NULL AND "
+                + NoteEntry.COLUMN_NOTE_CHUNKED + " = 0;");
+        try (Cursor cursor = NoteCodec.unpacking(db.query(NoteEntry.TABLE_NAME, new String[] {
+                        NoteEntry._ID, NoteEntry.COLUMN_NOTE_NAME,
+                        NoteCodec.COLUMN_CONTAIN_PACKED + " AS " + NoteEntry.COLUMN_NOTE_CONTAIN },
+                NoteCodec.COLUMN_CONTAIN_PACKED + " IS NOT NULL", null, null, null, null),
+                NoteEntry.COLUMN_NOTE_CONTAIN)) {
+            while (cursor.moveToNext()) {
+                NoteSearch.index(db, cursor.getLong(0), cursor.getString(1), cursor.getString(2));
+            }
+        }
+        try (Cursor cursor = db.query(NoteEntry.TABLE_NAME, new String[] {
+                        NoteEntry._ID, NoteEntry.COLUMN_NOTE_NAME },
+                NoteEntry.COLUMN_NOTE_CHUNKED + " != 0", null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                NoteSearch.index(db, id, cursor.getString(1), NoteChunks.read(db, id));
+            }
+        }
+    }
+
+    /**
+     * Adds a partial index of the notes outside the trash in id order, which the keyset pages
+     * of the notes list walk, see {@link NoteContract#QUERY_PARAMETER_BEFORE_ID}. Without it
+     * the pages walk the primary key and read every note in the trash on the way. Like the
+     * indexes of the other orders, it covers the list.
+     */
+    private static void createIdIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX notes_id ON " + NoteEntry.TABLE_NAME + " ("
+                + NoteEntry._ID + ", " + NoteEntry.COLUMN_NOTE_NAME + ", "
+                + NoteEntry.COLUMN_NOTE_SUMMARY + ", " + NoteEntry.COLUMN_NOTE_DELETED_AT + ")"
+                + " WHERE " + NoteTrash.LIVE + ";");
     }
 }
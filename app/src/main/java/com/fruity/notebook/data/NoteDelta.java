@@ -0,0 +1,162 @@
+package com.fruity.notebook.data;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary delta between two versions of a note text, used by {@link NoteRevisions}.
+ *
+ * A delta is a {@link #FORMAT} marker byte followed by operations that build the new text in
+ * order: {@link #OP_COPY} with the start and length in chars of a range of the old text, or
+ * {@link #OP_ADD} with the byte length of new UTF-8 text and the text itself. Numbers are
+ * unsigned LEB128 varints.
+ *
+ * The encoder keeps the common start and end of both texts and adds what lies between, which
+ * covers the edits of one save in a few bytes more than the edited text.
+ */
+final class NoteDelta {
+
+    /** Marker of this delta format */
+    static final byte FORMAT = 1;
+
+    /** Copies a range of the old text */
+    private static final int OP_COPY = 0;
+
+    /** Adds new text */
+    private static final int OP_ADD = 1;
+
+    private NoteDelta() {}
+
+    /**
+     * Returns the delta that turns the old text into the new one.
+     */
+    static byte[] encode(String oldText, String newText) {
+        return encode(oldText, 0, oldText.length(), newText);
+    }
+
+    /**
+     * Returns the delta that turns the old text into the new one, given only a part of the old
+     * text. The old text before the part is the start of the new text, and the old text after
+     * it is the end of the new text, like the unchanged chunks of {@link NoteChunks#readChanged}.
+     *
+     * @param oldPart   the part of the old text
+     * @param offset    start of the part in the old text
+     * @param oldLength length of the whole old text
+     */
+    static byte[] encode(String oldPart, int offset, int oldLength, String newText) {
+        int newLength = newText.length();
+        int max = Math.min(oldLength, newLength);
+
+        int prefix = Math.min(offset, max);
+        while (prefix < max && charAt(oldPart, offset, oldLength, newText, prefix) == newText.charAt(prefix)) {
+            prefix++;
+        }
+        // Don't split a surrogate pair, the added text has to stay valid UTF-16
+        if (prefix > 0 && prefix < newLength && Character.isHighSurrogate(newText.charAt(prefix - 1))) {
+            prefix--;
+        }
+
+        int suffix = Math.min(oldLength - offset - oldPart.length(), max - prefix);
+        while (suffix < max - prefix && charAt(oldPart, offset, oldLength, newText, oldLength - 1 - suffix)
+                == newText.charAt(newLength - 1 - suffix)) {
+            suffix++;
+        }
+        if (suffix > 0 && newLength - suffix > prefix
+                && Character.isLowSurrogate(newText.charAt(newLength - suffix))) {
+            suffix--;
+        }
+
+        byte[] added = newText.substring(prefix, newLength - suffix).getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(added.length + 16);
+        out.write(FORMAT);
+        if (prefix > 0) {
+            out.write(OP_COPY);
+            writeVarint(out, 0);
+            writeVarint(out, prefix);
+        }
+        if (added.length > 0) {
+            out.write(OP_ADD);
+            writeVarint(out, added.length);
+            out.write(added, 0, added.length);
+        }
+        if (suffix > 0) {
+            out.write(OP_COPY);
+            writeVarint(out, oldLength - suffix);
+            writeVarint(out, suffix);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Builds the new text from the old text and a delta made by {@link #encode}.
+     *
+     * @param length length of the new text in chars, to size the result
+     * @throws IllegalArgumentException if the delta is corrupt or doesn't fit the old text
+     */
+    static String apply(String oldText, byte[] delta, int length) {
+        if (delta.length == 0 || delta[0] != FORMAT) {
+            throw new IllegalArgumentException("Unknown delta format");
+        }
+        StringBuilder text = new StringBuilder(length);
+        int[] position = { 1 };
+        while (position[0] < delta.length) {
+            int op = delta[position[0]++];
+            if (op == OP_COPY) {
+                int start = readVarint(delta, position);
+                int count = readVarint(delta, position);
+                if (start < 0 || count < 0 || start + count > oldText.length()) {
+                    throw new IllegalArgumentException("Delta doesn't fit the old text");
+                }
+                text.append(oldText, start, start + count);
+            } else if (op == OP_ADD) {
+                int count = readVarint(delta, position);
+                if (count < 0 || position[0] + count > delta.length) {
+                    throw new IllegalArgumentException("Truncated delta");
+                }
+                text.append(new String(delta, position[0], count, StandardCharsets.UTF_8));
+                position[0] += count;
+            } else {
+                throw new IllegalArgumentException("Unknown delta operation " + op);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns the char at the given index of the old text given as a part, see
+     * {@link #encode(String, int, int, String)}.
+     */
+    private static char charAt(String oldPart, int offset, int oldLength, String newText, int index) {
+        if (index < offset) {
+            return newText.charAt(index);
+        }
+        if (index - offset < oldPart.length()) {
+            return oldPart.charAt(index - offset);
+        }
+        return newText.charAt(index - oldLength + newText.length());
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** Reads the varint at position[0] and moves the position past it */
+    private static int readVarint(byte[] delta, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (position[0] >= delta.length) {
+                throw new IllegalArgumentException("Truncated delta");
+            }
+            byte b = delta[position[0]++];
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Corrupt delta");
+    }
+}
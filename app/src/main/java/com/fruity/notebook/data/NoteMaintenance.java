@@ -0,0 +1,142 @@
+package com.fruity.notebook.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.SystemClock;
+import android.os.Trace;
+
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * Housekeeping of the notes database, run by {@link NoteMaintenanceJob} while the device is idle
+ * and charging, or through {@link NoteContract#METHOD_MAINTENANCE}.
+ *
+ * One run removes the expired notes of the {@link NoteTrash trash}, refreshes the statistics of
+ * the query planner, merges the segments of the full-text index, gives the pages freed by
+ * deleted notes back to the file system, and truncates the write-ahead log. A database created
+ * before incremental vacuum was enabled, see {@link NoteDbHelper#onConfigure(SQLiteDatabase)},
+ * is rebuilt with a full VACUUM once, which switches it over; later runs only free the empty
+ * pages.
+ */
+final class NoteMaintenance {
+
+    /** Value of PRAGMA auto_vacuum for incremental vacuum */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private NoteMaintenance() {}
+
+    /**
+     * Runs the maintenance steps in order. The signal is checked before each step, and between
+     * the batches of the purge, but a step that started runs to its end. Most are short; the
+     * one-time full VACUUM rewrites the whole file, which on a large database takes a while and
+     * keeps the write lock after the job was asked to stop.
+     *
+     * @return the sizes and durations under the KEY_MAINTENANCE_* keys
+     */
+    static Bundle run(SQLiteDatabase db, @Nullable CancellationSignal signal) {
+        Trace.beginSection("NoteMaintenance.run");
+        try {
+            Bundle report = new Bundle();
+            long start = SystemClock.elapsedRealtime();
+            report.putLong(NoteContract.KEY_MAINTENANCE_TIME, System.currentTimeMillis());
+            report.putLong(NoteContract.KEY_MAINTENANCE_SIZE_BEFORE, fileSize(db));
+            report.putLong(NoteContract.KEY_MAINTENANCE_FREE_PAGES_BEFORE,
+                    longPragma(db, "PRAGMA freelist_count"));
+
+            // First, so the vacuum gives back the pages of the purged notes
+            report.putInt(NoteContract.KEY_MAINTENANCE_PURGED_NOTES,
+                    NoteTrash.purgeExpired(db, System.currentTimeMillis(), signal));
+
+            boolean complete = false;
+            if (!isCanceled(signal)) {
+                long stepStart = SystemClock.elapsedRealtime();
+                // ANALYZE reads every index once, optimize then only redoes what went stale
+                db.execSQL("ANALYZE");
+                longPragma(db, "PRAGMA optimize");
+                report.putLong(NoteContract.KEY_MAINTENANCE_ANALYZE_MILLIS,
+                        SystemClock.elapsedRealtime() - stepStart);
+            }
+            if (!isCanceled(signal)) {
+                long stepStart = SystemClock.elapsedRealtime();
+                // Merges the segments left by many small updates into one per level
+                db.execSQL("INSERT INTO " + NoteContract.NoteEntry.FTS_TABLE_NAME + "("
+                        + NoteContract.NoteEntry.FTS_TABLE_NAME + ") VALUES ('optimize');");
+                report.putLong(NoteContract.KEY_MAINTENANCE_FTS_OPTIMIZE_MILLIS,
+                        SystemClock.elapsedRealtime() - stepStart);
+            }
+            if (!isCanceled(signal)) {
+                long stepStart = SystemClock.elapsedRealtime();
+                boolean full = longPragma(db, "PRAGMA auto_vacuum") != AUTO_VACUUM_INCREMENTAL;
+                if (full) {
+                    // The mode is stored in the file when VACUUM rewrites it
+                    longPragma(db, "PRAGMA auto_vacuum = INCREMENTAL");
+                    db.execSQL("VACUUM");
+                } else {
+                    longPragma(db, "PRAGMA incremental_vacuum");
+                }
+                // The vacuum went through the write-ahead log, which would stay that large
+                longPragma(db, "PRAGMA wal_checkpoint(TRUNCATE)");
+                report.putBoolean(NoteContract.KEY_MAINTENANCE_FULL_VACUUM, full);
+                report.putLong(NoteContract.KEY_MAINTENANCE_VACUUM_MILLIS,
+                        SystemClock.elapsedRealtime() - stepStart);
+                complete = true;
+            }
+
+            report.putBoolean(NoteContract.KEY_MAINTENANCE_COMPLETE, complete);
+            report.putLong(NoteContract.KEY_MAINTENANCE_SIZE_AFTER, fileSize(db));
+            report.putLong(NoteContract.KEY_MAINTENANCE_FREE_PAGES_AFTER,
+                    longPragma(db, "PRAGMA freelist_count"));
+            report.putLong(NoteContract.KEY_MAINTENANCE_TOTAL_MILLIS, SystemClock.elapsedRealtime() - start);
+            return report;
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /**
+     * Prints a report made by {@link #run}.
+     */
+    static void dump(Bundle report, PrintWriter writer) {
+        writer.printf(Locale.US, "Last maintenance at %d: %s, %d notes purged, %d -> %d bytes,"
+                        + " %d -> %d free pages, analyze %d ms, fts optimize %d ms, %s vacuum %d ms, total %d ms%n",
+                report.getLong(NoteContract.KEY_MAINTENANCE_TIME),
+                report.getBoolean(NoteContract.KEY_MAINTENANCE_COMPLETE) ? "complete" : "stopped",
+                report.getInt(NoteContract.KEY_MAINTENANCE_PURGED_NOTES),
+                report.getLong(NoteContract.KEY_MAINTENANCE_SIZE_BEFORE),
+                report.getLong(NoteContract.KEY_MAINTENANCE_SIZE_AFTER),
+                report.getLong(NoteContract.KEY_MAINTENANCE_FREE_PAGES_BEFORE),
+                report.getLong(NoteContract.KEY_MAINTENANCE_FREE_PAGES_AFTER),
+                report.getLong(NoteContract.KEY_MAINTENANCE_ANALYZE_MILLIS),
+                report.getLong(NoteContract.KEY_MAINTENANCE_FTS_OPTIMIZE_MILLIS),
+                report.getBoolean(NoteContract.KEY_MAINTENANCE_FULL_VACUUM) ? "full" : "incremental",
+                report.getLong(NoteContract.KEY_MAINTENANCE_VACUUM_MILLIS),
+                report.getLong(NoteContract.KEY_MAINTENANCE_TOTAL_MILLIS));
+    }
+
+    private static boolean isCanceled(@Nullable CancellationSignal signal) {
+        return signal != null && signal.isCanceled();
+    }
+
+    /** Bytes taken by the database file and its write-ahead log */
+    private static long fileSize(SQLiteDatabase db) {
+        long pages = longPragma(db, "PRAGMA page_count");
+        long pageSize = longPragma(db, "PRAGMA page_size");
+        return pages * pageSize + new File(db.getPath() + "-wal").length();
+    }
+
+    /**
+     * Runs a pragma as a query, and returns the first column of its first row, 0 if it returns
+     * nothing.
+     */
+    private static long longPragma(SQLiteDatabase db, String sql) {
+        try (Cursor cursor = db.rawQuery(sql, null)) {
+            return cursor.moveToFirst() && cursor.getColumnCount() > 0 ? cursor.getLong(0) : 0;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.fruity.notebook.data;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.Context;
+import android.os.CancellationSignal;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the {@link NoteMaintenance database maintenance} about once a day, while the device is
+ * idle and charging so it doesn't compete with the user for the disk or the battery.
+ */
+public class NoteMaintenanceJob extends JobService {
+
+    private static final String LOG_TAG = NoteMaintenanceJob.class.getSimpleName();
+
+    /** Id of the job, unique among the jobs of the app */
+    static final int JOB_ID = 1;
+
+    /** How often the maintenance runs, when the device gets idle and charging */
+    private static final long PERIOD_MS = TimeUnit.DAYS.toMillis(1);
+
+    /** Cancels the maintenance in progress, null when none */
+    private CancellationSignal mSignal;
+
+    /**
+     * Schedules the maintenance, unless it already is. The job isn't persisted across reboots,
+     * so this is called each time the app starts; the scheduler is asked on a background
+     * thread, off the startup path.
+     */
+    public static void schedule(Context context) {
+        final Context appContext = context.getApplicationContext();
+        new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            JobScheduler scheduler = (JobScheduler) appContext.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+            if (scheduler == null) {
+                return;
+            }
+            for (JobInfo job : scheduler.getAllPendingJobs()) {
+                if (job.getId() == JOB_ID) {
+                    return;
+                }
+            }
+            scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(appContext, NoteMaintenanceJob.class))
+                    .setRequiresCharging(true)
+                    .setRequiresDeviceIdle(true)
+                    .setPeriodic(PERIOD_MS)
+                    .build());
+        }, "NoteMaintenanceJob.schedule").start();
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        final CancellationSignal signal = new CancellationSignal();
+        mSignal = signal;
+        new Thread(() -> {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            try {
+                runMaintenance(signal);
+            } catch (RuntimeException e) {
+                Log.w(LOG_TAG, "Database maintenance failed", e);
+            }
+            // A stopped run is rescheduled by onStopJob, a failed one waits for the next period
+            if (!signal.isCanceled()) {
+                jobFinished(params, false);
+            }
+        }, "NoteMaintenanceJob").start();
+        return true;
+    }
+
+    /**
+     * Stops the maintenance before its next step, and asks for the job to run again. A step
+     * under way, such as the one-time full VACUUM, still runs to its end.
+     */
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (mSignal != null) {
+            mSignal.cancel();
+            mSignal = null;
+        }
+        return true;
+    }
+
+    /**
+     * Runs the maintenance in the provider of this process, or through the resolver if the
+     * provider runs elsewhere, where it can't be canceled.
+     */
+    private void runMaintenance(CancellationSignal signal) {
+        ContentProviderClient client = getContentResolver()
+                .acquireContentProviderClient(NoteContract.CONTENT_AUTHORITY);
+        try {
+            ContentProvider provider = client == null ? null : client.getLocalContentProvider();
+            if (provider instanceof NoteProvider) {
+                ((NoteProvider) provider).runMaintenance(signal);
+            } else {
+                getContentResolver().call(NoteContract.BASE_CONTENT_URI, NoteContract.METHOD_MAINTENANCE,
+                        null, null);
+            }
+        } finally {
+            release(client);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void release(ContentProviderClient client) {
+        // close() only exists from API 24
+        if (client != null) {
+            client.release();
+        }
+    }
+}
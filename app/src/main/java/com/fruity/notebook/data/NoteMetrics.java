@@ -0,0 +1,200 @@
+package com.fruity.notebook.data;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.os.Bundle;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the operations of the {@link NoteProvider}: a latency histogram and the rows of each
+ * kind of operation, the bytes read from the returned cursors, and the change notifications
+ * sent. Recording only adds to preallocated atomic counters, it never allocates or locks, so
+ * the metrics stay on in release builds.
+ *
+ * The latency of a query is the time to run {@link NoteProvider#query}. Most cursors run their
+ * query on the first move, which is counted by the caller, not here.
+ */
+final class NoteMetrics {
+
+    static final int QUERY = 0;
+    static final int INSERT = 1;
+    static final int UPDATE = 2;
+    static final int DELETE = 3;
+    static final int BULK_INSERT = 4;
+
+    /** Names of the operations, indexed by operation */
+    private static final String[] NAMES = {
+            NoteContract.METRICS_QUERY,
+            NoteContract.METRICS_INSERT,
+            NoteContract.METRICS_UPDATE,
+            NoteContract.METRICS_DELETE,
+            NoteContract.METRICS_BULK_INSERT };
+
+    /**
+     * Buckets of the latency histograms. Bucket 0 counts latencies below 1 µs, bucket i those
+     * in [2^(i-1), 2^i) µs, and the last bucket everything from about 4 s.
+     */
+    static final int BUCKETS = 24;
+
+    private final AtomicLongArray mHistograms = new AtomicLongArray(NAMES.length * BUCKETS);
+    private final AtomicLongArray mCounts = new AtomicLongArray(NAMES.length);
+    private final AtomicLongArray mTotalNanos = new AtomicLongArray(NAMES.length);
+    private final AtomicLongArray mRows = new AtomicLongArray(NAMES.length);
+    private final AtomicLong mCursorBytes = new AtomicLong();
+    private final AtomicLong mNotifications = new AtomicLong();
+
+    /**
+     * Records an operation that started at startNanos, from {@link System#nanoTime()}, and
+     * affected the given number of rows. The rows of a query are recorded when its cursor is
+     * closed, see {@link #counting(Cursor)}.
+     */
+    void record(int operation, long startNanos, int rows) {
+        long nanos = System.nanoTime() - startNanos;
+        mHistograms.incrementAndGet(operation * BUCKETS + bucket(nanos));
+        mCounts.incrementAndGet(operation);
+        mTotalNanos.addAndGet(operation, nanos);
+        if (rows > 0) {
+            mRows.addAndGet(operation, rows);
+        }
+    }
+
+    /** Records a change notification sent to the observers of the notes */
+    void recordNotification() {
+        mNotifications.incrementAndGet();
+    }
+
+    /**
+     * Wraps a query result so the rows moved to and the bytes read are recorded when it is
+     * closed. Strings are counted as two bytes per char, as they are held in memory.
+     */
+    Cursor counting(Cursor cursor) {
+        return new CountingCursor(cursor);
+    }
+
+    /** Returns the histogram bucket of a latency */
+    static int bucket(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Returns the metrics in the format of {@link NoteContract#METHOD_METRICS}, without the
+     * note cache counters.
+     */
+    Bundle toBundle() {
+        Bundle metrics = new Bundle();
+        for (int operation = 0; operation < NAMES.length; operation++) {
+            long[] histogram = histogram(operation);
+            Bundle bundle = new Bundle();
+            bundle.putLong(NoteContract.KEY_METRICS_COUNT, mCounts.get(operation));
+            bundle.putLong(NoteContract.KEY_METRICS_ROWS, mRows.get(operation));
+            bundle.putLong(NoteContract.KEY_METRICS_TOTAL_MICROS, mTotalNanos.get(operation) / 1000);
+            bundle.putLong(NoteContract.KEY_METRICS_P50_MICROS, percentile(histogram, 50));
+            bundle.putLong(NoteContract.KEY_METRICS_P90_MICROS, percentile(histogram, 90));
+            bundle.putLong(NoteContract.KEY_METRICS_P99_MICROS, percentile(histogram, 99));
+            bundle.putLongArray(NoteContract.KEY_METRICS_HISTOGRAM, histogram);
+            metrics.putBundle(NAMES[operation], bundle);
+        }
+        metrics.putLong(NoteContract.KEY_METRICS_CURSOR_BYTES, mCursorBytes.get());
+        metrics.putLong(NoteContract.KEY_METRICS_NOTIFICATIONS, mNotifications.get());
+        return metrics;
+    }
+
+    /**
+     * Prints the metrics as a table, for dumpsys.
+     */
+    void dump(PrintWriter writer) {
+        writer.println("Operations (latencies in us, upper bound of the histogram bucket):");
+        writer.printf(Locale.US, "  %-12s %10s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "rows", "mean", "p50", "p90", "p99");
+        for (int operation = 0; operation < NAMES.length; operation++) {
+            long[] histogram = histogram(operation);
+            long count = mCounts.get(operation);
+            writer.printf(Locale.US, "  %-12s %10d %10d %10d %10d %10d %10d%n", NAMES[operation], count,
+                    mRows.get(operation), count == 0 ? 0 : mTotalNanos.get(operation) / 1000 / count,
+                    percentile(histogram, 50), percentile(histogram, 90), percentile(histogram, 99));
+        }
+        writer.printf(Locale.US, "Cursor bytes read: %d%n", mCursorBytes.get());
+        writer.printf(Locale.US, "Change notifications: %d%n", mNotifications.get());
+    }
+
+    private long[] histogram(int operation) {
+        long[] histogram = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = mHistograms.get(operation * BUCKETS + i);
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the upper bound in µs of the bucket holding the given percentile, or 0 if nothing
+     * was recorded. The last bucket has no upper bound, its lower bound is returned.
+     */
+    static long percentile(long[] histogram, int percent) {
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (total * percent + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return 1L << Math.min(i, histogram.length - 2);
+            }
+        }
+        return 1L << (histogram.length - 2);
+    }
+
+    /**
+     * Counts what is read from a query result. Cursors are used by one thread at a time, so the
+     * counts are plain fields, added to the metrics once on close.
+     */
+    private final class CountingCursor extends CursorWrapper {
+        private long mBytes;
+        private boolean mClosed;
+
+        CountingCursor(Cursor cursor) {
+            super(cursor);
+        }
+
+        @Override
+        public String getString(int columnIndex) {
+            String value = super.getString(columnIndex);
+            if (value != null) {
+                mBytes += 2L * value.length();
+            }
+            return value;
+        }
+
+        @Override
+        public byte[] getBlob(int columnIndex) {
+            byte[] value = super.getBlob(columnIndex);
+            if (value != null) {
+                mBytes += value.length;
+            }
+            return value;
+        }
+
+        @Override
+        public void close() {
+            if (!mClosed) {
+                mClosed = true;
+                // Rows up to where the cursor was left, all of them if it was read to the end.
+                // A cursor that never moved isn't counted, so its query never runs here.
+                int position = getPosition();
+                int rows = position < 0 ? 0 : Math.min(position + 1, getCount());
+                mRows.addAndGet(QUERY, rows);
+                mCursorBytes.addAndGet(mBytes);
+            }
+            super.close();
+        }
+    }
+}
@@ -4,14 +4,44 @@ package com.fruity.notebook.data;
 import static com.fruity.notebook.data.NoteContract.NoteEntry.CONTENT_LIST_TYPE;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.Trace;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.fruity.notebook.R;
+import com.fruity.notebook.data.NoteContract.NoteChangeEntry;
+import com.fruity.notebook.data.NoteContract.NoteChunkEntry;
+import com.fruity.notebook.data.NoteContract.NoteHistoryEntry;
+import com.fruity.notebook.data.NoteContract.NoteRevisionEntry;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Locale;
+
 /**
  * {@link ContentProvider} for NoteBook app.
  */
@@ -26,6 +56,49 @@ public class NoteProvider extends ContentProvider{
     /** URI matcher code for the content URI for a single note in the notes table */
     private static final int NOTE_ID = 101;
 
+    /** URI matcher code for the content URI for a full-text search over the notes table */
+    private static final int NOTE_SEARCH = 102;
+
+    /** URI matcher code for the content URI for the chunks of a single note */
+    private static final int NOTE_CHUNKS = 103;
+
+    /** URI matcher code for the content URI for the change feed of the notes table */
+    private static final int NOTE_CHANGES = 104;
+
+    /** URI matcher code for the content URI for the archive of all the notes */
+    private static final int NOTE_EXPORT = 105;
+
+    /** URI matcher code for the content URI for the edit history of a single note */
+    private static final int NOTE_HISTORY = 106;
+
+    /** URI matcher code for the content URI for the revisions of a single note */
+    private static final int NOTE_REVISIONS = 107;
+
+    /** URI matcher code for the content URI for one revision of a single note */
+    private static final int NOTE_REVISION_ID = 108;
+
+    /** URI matcher code for the content URI for the notes in the trash */
+    private static final int NOTE_TRASH = 109;
+
+    /** URI matcher code for the content URI for a single note in the trash */
+    private static final int NOTE_TRASH_ID = 110;
+
+    /** Columns of the change feed */
+    private static final String[] CHANGE_COLUMNS = {
+            NoteChangeEntry.COLUMN_SEQ, NoteChangeEntry.COLUMN_OP, NoteChangeEntry.COLUMN_NOTE_ID };
+
+    /** Columns of the notes list, queried by {@link #prewarm()} */
+    private static final String[] PREWARM_LIST_COLUMNS = {
+            NoteContract.NoteEntry._ID, NoteContract.NoteEntry.COLUMN_NOTE_NAME,
+            NoteContract.NoteEntry.COLUMN_NOTE_SUMMARY };
+
+    /** Columns of the trash when the query has no projection */
+    private static final String[] TRASH_COLUMNS = {
+            NoteContract.NoteEntry._ID, NoteContract.NoteEntry.COLUMN_NOTE_NAME,
+            NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN, NoteContract.NoteEntry.COLUMN_NOTE_SUMMARY,
+            NoteContract.NoteEntry.COLUMN_NOTE_CHUNKED, NoteContract.NoteEntry.COLUMN_NOTE_CREATED_AT,
+            NoteContract.NoteEntry.COLUMN_NOTE_UPDATED_AT, NoteContract.NoteEntry.COLUMN_NOTE_DELETED_AT };
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -38,12 +111,57 @@ public class NoteProvider extends ContentProvider{
 
         sUriMatcher.addURI(NoteContract.CONTENT_AUTHORITY,NoteContract.PATH_NOTES,NOTES);
         sUriMatcher.addURI(NoteContract.CONTENT_AUTHORITY,NoteContract.PATH_NOTES + "/#",NOTE_ID);
+        sUriMatcher.addURI(NoteContract.CONTENT_AUTHORITY,
+                NoteContract.PATH_NOTES + "/" + NoteContract.PATH_SEARCH + "/*", NOTE_SEARCH);
+        sUriMatcher.addURI(NoteContract.CONTENT_AUTHORITY,
+                NoteContract.PATH_NOTES + "/#/" + NoteContract.PATH_CHUNKS, NOTE_CHUNKS);
+        sUriMatcher.addURI(NoteContract.CONTENT_AUTHORITY,
+                NoteContract.PATH_NOTES + "/" + NoteContract.PATH_CHANGES, NOTE_CHANGES);
+        sUriMatcher.addURI(NoteContract.CONTENT_AUTHORITY,
+                NoteContract.PATH_NOTES + "/" + NoteContract.PATH_EXPORT, NOTE_EXPORT);
+        sUriMatcher.addURI(NoteContract.CONTENT_AUTHORITY,
+                NoteContract.PATH_NOTES + "/#/" + NoteContract.PATH_HISTORY, NOTE_HISTORY);
+        sUriMatcher.addURI(NoteContract.CONTENT_AUTHORITY,
+                NoteContract.PATH_NOTES + "/#/" + NoteContract.PATH_REVISIONS, NOTE_REVISIONS);
+        sUriMatcher.addURI(NoteContract.CONTENT_AUTHORITY,
+                NoteContract.PATH_NOTES + "/#/" + NoteContract.PATH_REVISIONS + "/#", NOTE_REVISION_ID);
+        sUriMatcher.addURI(NoteContract.CONTENT_AUTHORITY,
+                NoteContract.PATH_NOTES + "/" + NoteContract.PATH_TRASH, NOTE_TRASH);
+        sUriMatcher.addURI(NoteContract.CONTENT_AUTHORITY,
+                NoteContract.PATH_NOTES + "/" + NoteContract.PATH_TRASH + "/#", NOTE_TRASH_ID);
 
     }
 
     /** Database helper object */
     private NoteDbHelper mDbHelper;
 
+    /** Warms up the database after {@link #onCreate()}, null if disabled */
+    private Thread mPrewarmThread;
+
+    /** Notes read recently through their note URI */
+    private final NoteCache mNoteCache = new NoteCache(NoteCache.DEFAULT_MAX_BYTES);
+
+    /** Latencies and sizes of the operations, see {@link NoteContract#METHOD_METRICS} */
+    private final NoteMetrics mMetrics = new NoteMetrics();
+
+    /** Report of the last {@link #runMaintenance}, null if it hasn't run in this process */
+    private volatile Bundle mLastMaintenance;
+
+    /** Statements of the single note writes, compiled on first use, see {@link #statements} */
+    private volatile NoteStatements mStatements;
+
+    /**
+     * Set while the calling thread runs a batch. Changes made during a batch are notified once,
+     * when the batch commits, instead of once per row.
+     */
+    private final ThreadLocal<Boolean> mInBatch = new ThreadLocal<>();
+
+    /** Set when a change was made during the batch of the calling thread */
+    private final ThreadLocal<Boolean> mBatchChanged = new ThreadLocal<>();
+
+    /** Notes invalidated during the batch of the calling thread, invalidated again on commit */
+    private final ThreadLocal<ArrayList<long[]>> mBatchInvalidated = new ThreadLocal<>();
+
 
     /**
      * Initialize the provider and the database helper object.
@@ -52,17 +170,133 @@ public class NoteProvider extends ContentProvider{
     public boolean onCreate() {
 
         mDbHelper = new NoteDbHelper(getContext());
+
+        // The first query of the notes list would otherwise open the database, create or
+        // upgrade it, and prepare its statements while the user waits
+        if (getContext().getResources().getBoolean(R.bool.prewarm_note_database)) {
+            mPrewarmThread = new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                prewarm();
+            }, "NoteProvider.prewarm");
+            mPrewarmThread.start();
+        }
         return true;
 
     }
 
+    /**
+     * Opens the database, which creates or upgrades it and loads its schema, and prepares the
+     * statements run when the notes list and a note are first shown. Prepared statements are
+     * cached per connection: only the queries that later run on the connection used here reuse
+     * them, reads on the other connections of the WAL pool prepare their own. Nothing is
+     * written.
+     */
+    @VisibleForTesting
+    void prewarm() {
+        Trace.beginSection("NoteProvider.prewarm");
+        try {
+            SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+            // The first page of the notes list, and the latest change the list starts from.
+            // These go through the query code so it is compiled as well, but aren't counted
+            // in the metrics.
+            Uri firstPage = NoteContract.NoteEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(NoteContract.QUERY_PARAMETER_LIMIT, "1")
+                    .build();
+            prewarm(queryUri(firstPage, PREWARM_LIST_COLUMNS, null, null, NoteContract.NoteEntry._ID + " DESC",
+                    null));
+            prewarm(queryUri(NoteChangeEntry.CONTENT_URI, null, null, null, null, null));
+
+            // Opening a note, run directly so the note cache and its counters aren't touched
+            prewarm(database.query(NoteContract.NoteEntry.TABLE_NAME, withPackedContain(NoteCache.COLUMNS),
+                    NoteContract.NoteEntry._ID + "=?", new String[] { "-1" }, null, null, null));
+
+            // The statement of the bulk inserts and imports, on the connection doing the writes
+            compileInsert(database).close();
+        } catch (RuntimeException e) {
+            // The real queries will fail the same way and report it
+            Log.w(LOG_TAG, "Failed to prewarm the database", e);
+        } finally {
+            Trace.endSection();
+        }
+    }
+
+    /** Runs the query of a cursor and closes it */
+    private static void prewarm(Cursor cursor) {
+        try {
+            cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Waits for the background prewarm started by {@link #onCreate()}, so the database isn't
+     * used after this returns, and closes the compiled statements and the database.
+     */
+    @Override
+    public void shutdown() {
+        if (mPrewarmThread != null) {
+            try {
+                mPrewarmThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mPrewarmThread = null;
+        }
+        if (mStatements != null) {
+            mStatements.close();
+            mStatements = null;
+        }
+        mDbHelper.close();
+        super.shutdown();
+    }
+
+    /**
+     * Makes the provider use another database, e.g. one with other {@link NoteDbHelper.Tuning}.
+     */
+    @VisibleForTesting
+    void setDbHelper(NoteDbHelper dbHelper) {
+        mDbHelper.close();
+        mDbHelper = dbHelper;
+        mNoteCache.invalidateAll();
+    }
+
+    /**
+     * Returns the cache of single notes, to check its counters.
+     */
+    @VisibleForTesting
+    NoteCache getNoteCache() {
+        return mNoteCache;
+    }
+
     /**
      * Perform the query for the given URI. Use the given projection, selection, selection arguments,
      * and sort order.
      */
     @Override
-    public Cursor query(Uri uri,String[] projection, String selection, String[] selectionArgs,
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Same as {@link #query(Uri, String[], String, String[], String)}. A search stops with an
+     * {@link android.os.OperationCanceledException} once the signal is cancelled, so a search
+     * replaced by the next keystroke doesn't run to the end.
+     */
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder, CancellationSignal cancellationSignal) {
+        long start = System.nanoTime();
+        Cursor cursor = queryUri(uri, projection, selection, selectionArgs, sortOrder,
+                cancellationSignal);
+        mMetrics.record(NoteMetrics.QUERY, start, 0);
+        return mMetrics.counting(cursor);
+    }
+
+    private Cursor queryUri(Uri uri,String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder, CancellationSignal cancellationSignal) {
 
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
@@ -74,16 +308,119 @@ public class NoteProvider extends ContentProvider{
         int match = sUriMatcher.match(uri);
         switch (match) {
             case NOTES:
-                cursor = database.query(NoteContract.NoteEntry.TABLE_NAME, projection, selection,
-                        selectionArgs, null, null, sortOrder);
+                // The notes in the trash are left out by the partial indexes of the lists
+                selection = DatabaseUtils.concatenateWhere(selection, NoteTrash.LIVE);
+
+                // Keyset paging: only return the notes older than the last note of the previous
+                // page. This walks the partial index of the notes outside the trash in id order,
+                // so every page costs the same however deep into the list it is, unlike an OFFSET,
+                // and however many notes are in the trash.
+                String beforeId = uri.getQueryParameter(NoteContract.QUERY_PARAMETER_BEFORE_ID);
+                if (beforeId != null) {
+                    selection = DatabaseUtils.concatenateWhere(selection, NoteContract.NoteEntry._ID + "<?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[] { String.valueOf(parseId(uri, beforeId)) });
+                    sortOrder = NoteContract.NoteEntry._ID + " DESC";
+                }
+
+                String limit = uri.getQueryParameter(NoteContract.QUERY_PARAMETER_LIMIT) == null
+                        ? null : String.valueOf(parseLimit(uri, 0));
+
+                cursor = database.query(NoteContract.NoteEntry.TABLE_NAME, withPackedContain(projection),
+                        selection, selectionArgs, null, null, sortOrder, limit);
+                cursor = NoteCodec.unpacking(cursor, NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN);
                 break;
 
             case NOTE_ID:
-                selection = NoteContract.NoteEntry._ID + "=?";
+                if (NoteCache.covers(projection)) {
+                    // Reopening a recently used note doesn't touch the database
+                    cursor = queryCachedNote(database, ContentUris.parseId(uri), projection);
+                    break;
+                }
+
+                selection = NoteContract.NoteEntry._ID + "=? AND " + NoteTrash.LIVE;
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
 
-                cursor = database.query(NoteContract.NoteEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
+                cursor = database.query(NoteContract.NoteEntry.TABLE_NAME, withPackedContain(projection),
+                        selection, selectionArgs, null, null, sortOrder);
+                cursor = NoteCodec.unpacking(cursor, NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN);
+                break;
+
+            case NOTE_TRASH:
+            case NOTE_TRASH_ID:
+                selection = DatabaseUtils.concatenateWhere(selection, NoteTrash.TRASHED);
+                if (match == NOTE_TRASH_ID) {
+                    selection = DatabaseUtils.concatenateWhere(selection, NoteContract.NoteEntry._ID + "=?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[] { String.valueOf(ContentUris.parseId(uri)) });
+                }
+                if (sortOrder == null) {
+                    sortOrder = NoteContract.NoteEntry.SORT_RECENTLY_DELETED;
+                }
+                String trashLimit = uri.getQueryParameter(NoteContract.QUERY_PARAMETER_LIMIT) == null
+                        ? null : String.valueOf(parseLimit(uri, 0));
+
+                cursor = database.query(NoteContract.NoteEntry.TABLE_NAME,
+                        withPackedContain(projection != null ? projection : TRASH_COLUMNS),
+                        selection, selectionArgs, null, null, sortOrder, trashLimit);
+                cursor = NoteCodec.unpacking(cursor, NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN);
+                break;
+
+            case NOTE_SEARCH:
+                // Search results always have the NoteSearch columns in rank order,
+                // so the projection, selection and sort order are ignored.
+                cursor = NoteSearch.query(database, uri.getLastPathSegment(),
+                        parseLimit(uri, NoteSearch.DEFAULT_LIMIT), cancellationSignal);
+
+                // Any change to any note can change the results, so watch the whole table
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        NoteContract.NoteEntry.CONTENT_URI);
+                return cursor;
+
+            case NOTE_CHUNKS:
+                // The chunks of one note in order. The cursor fills its window with a few chunks
+                // at a time, so even a huge note is streamed rather than read at once.
+                selection = NoteChunkEntry.COLUMN_NOTE_ID + "=?";
+                selectionArgs = new String[] { uri.getPathSegments().get(1) };
+
+                cursor = database.query(NoteChunkEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, NoteChunkEntry.COLUMN_SEQ);
+                cursor = NoteCodec.unpacking(cursor, NoteChunkEntry.COLUMN_TEXT);
+                break;
+
+            case NOTE_CHANGES:
+                // The projection, selection and sort order are ignored, like for a search
+                cursor = queryChanges(database, uri);
+
+                // Every change of a note adds to the feed
+                cursor.setNotificationUri(getContext().getContentResolver(),
+                        NoteContract.NoteEntry.CONTENT_URI);
+                return cursor;
+
+            case NOTE_HISTORY:
+                // The edits of one note, newest first unless asked otherwise
+                selection = DatabaseUtils.concatenateWhere(selection, NoteHistoryEntry.COLUMN_NOTE_ID + "=?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[] { uri.getPathSegments().get(1) });
+                if (sortOrder == null) {
+                    sortOrder = NoteHistoryEntry.COLUMN_SEQ + " DESC";
+                }
+                String historyLimit = uri.getQueryParameter(NoteContract.QUERY_PARAMETER_LIMIT) == null
+                        ? null : String.valueOf(parseLimit(uri, 0));
+
+                cursor = database.query(NoteHistoryEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder, historyLimit);
+                break;
+
+            case NOTE_REVISIONS:
+                // The projection, selection and sort order are ignored, like for a search
+                cursor = NoteRevisions.list(database, parseId(uri, uri.getPathSegments().get(1)));
+                break;
+
+            case NOTE_REVISION_ID:
+                // Rebuilt from the keyframe before it, so the cursor holds the whole contain
+                cursor = NoteRevisions.rebuild(database, parseId(uri, uri.getPathSegments().get(1)),
+                        ContentUris.parseId(uri));
                 break;
 
             default:
@@ -97,6 +434,225 @@ public class NoteProvider extends ContentProvider{
 
     }
 
+    /**
+     * Returns the given columns of a note from the {@link NoteCache}, reading the note from the
+     * database and caching it on a miss.
+     */
+    private Cursor queryCachedNote(SQLiteDatabase database, long id, String[] projection) {
+        NoteCache.NoteRecord record = mNoteCache.get(id);
+        if (record == null) {
+            // Taken before the read, so a note changed meanwhile isn't cached
+            long stamp = mNoteCache.stamp();
+            try (Cursor cursor = NoteCodec.unpacking(database.query(NoteContract.NoteEntry.TABLE_NAME,
+                    withPackedContain(NoteCache.COLUMNS),
+                    NoteContract.NoteEntry._ID + "=? AND " + NoteTrash.LIVE,
+                    new String[] { String.valueOf(id) }, null, null, null),
+                    NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN)) {
+                if (!cursor.moveToFirst()) {
+                    return new MatrixCursor(projection != null ? projection : NoteCache.COLUMNS, 0);
+                }
+                record = NoteCache.NoteRecord.fromCursor(cursor);
+            }
+            mNoteCache.put(record, stamp);
+        }
+        return NoteCache.toCursor(record, projection);
+    }
+
+    /**
+     * Returns the changes after the {@link NoteContract#QUERY_PARAMETER_SINCE} of the URI, or the
+     * latest change if it has none. When the log no longer holds all the changes asked for, returns
+     * a single {@link NoteChangeEntry#OP_RESET} change instead.
+     */
+    private static Cursor queryChanges(SQLiteDatabase database, Uri uri) {
+        String since = uri.getQueryParameter(NoteContract.QUERY_PARAMETER_SINCE);
+        if (since == null) {
+            return database.query(NoteChangeEntry.TABLE_NAME, CHANGE_COLUMNS, null, null, null, null,
+                    NoteChangeEntry.COLUMN_SEQ + " DESC", "1");
+        }
+        long sinceSeq;
+        try {
+            sinceSeq = Long.parseLong(since);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid change " + since + " in " + uri);
+        }
+
+        // Read the bounds and the changes in one SELECT, so they come from the same snapshot and
+        // a trim can't run in between, without taking the write lock. The bounds are joined to
+        // every change, or come alone in a row of nulls when there is none.
+        String limit = uri.getQueryParameter(NoteContract.QUERY_PARAMETER_LIMIT) == null
+                ? "-1" : String.valueOf(parseLimit(uri, 0));
+        String seq = NoteChangeEntry.COLUMN_SEQ;
+        String sql = "SELECT bounds.first_seq, bounds.last_seq, c." + seq + ", c." + NoteChangeEntry.COLUMN_OP
+                + ", c." + NoteChangeEntry.COLUMN_NOTE_ID
+                + " FROM (SELECT min(" + seq + ") AS first_seq, max(" + seq + ") AS last_seq FROM "
+                + NoteChangeEntry.TABLE_NAME + ") AS bounds"
+                + " LEFT JOIN (SELECT * FROM " + NoteChangeEntry.TABLE_NAME + " WHERE " + seq + ">?"
+                + " ORDER BY " + seq + " LIMIT " + limit + ") AS c"
+                + " ORDER BY c." + seq;
+        try (Cursor rows = database.rawQuery(sql, new String[] { String.valueOf(sinceSeq) })) {
+            rows.moveToFirst();
+            long first = rows.isNull(0) ? 1 : rows.getLong(0);
+            long last = rows.isNull(1) ? 0 : rows.getLong(1);
+
+            MatrixCursor cursor = new MatrixCursor(CHANGE_COLUMNS, rows.getCount());
+            if (sinceSeq + 1 < first || sinceSeq > last) {
+                // Changes were trimmed, or the caller followed another database
+                cursor.addRow(new Object[] { last, NoteChangeEntry.OP_RESET, null });
+                return cursor;
+            }
+            if (rows.isNull(2)) {
+                // No change since
+                return cursor;
+            }
+            do {
+                cursor.addRow(new Object[] { rows.getLong(2), rows.getInt(3), rows.getLong(4) });
+            } while (rows.moveToNext());
+            return cursor;
+        }
+    }
+
+    /**
+     * Returns the projection to query the notes table with: a packed contain is read in place of
+     * the contain, to be unpacked by {@link NoteCodec#unpacking(Cursor, String)}. A null
+     * projection reads all the columns of the contract.
+     */
+    private static String[] withPackedContain(String[] projection) {
+        String[] columns = (projection != null ? projection : NoteCache.COLUMNS).clone();
+        for (int i = 0; i < columns.length; i++) {
+            if (NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN.equals(columns[i])) {
+                columns[i] = "coalesce(" + NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN + ", "
+                        + NoteCodec.COLUMN_CONTAIN_PACKED + ") AS " + NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Reads the {@link NoteContract#QUERY_PARAMETER_LIMIT} query parameter of the given URI.
+     *
+     * @param defaultLimit returned when the URI has no limit
+     */
+    private static int parseLimit(Uri uri, int defaultLimit) {
+        String limit = uri.getQueryParameter(NoteContract.QUERY_PARAMETER_LIMIT);
+        if (limit == null) {
+            return defaultLimit;
+        }
+        try {
+            int value = Integer.parseInt(limit);
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException ignored) {
+            // Fall through to the error below
+        }
+        throw new IllegalArgumentException("Invalid limit " + limit + " in " + uri);
+    }
+
+    /**
+     * Parses a note id passed as a query parameter of the given URI.
+     */
+    private static long parseId(Uri uri, String id) {
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid note id " + id + " in " + uri);
+        }
+    }
+
+    /**
+     * Runs a provider method that isn't a query on the notes:
+     * {@link NoteContract#METHOD_NOTE_CACHE_STATS} returns the counters of the note cache,
+     * {@link NoteContract#METHOD_IMPORT_NOTES} imports an archive,
+     * {@link NoteContract#METHOD_EXPORT_NOTES} exports some notes, and
+     * {@link NoteContract#METHOD_MAINTENANCE} runs the database maintenance.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (NoteContract.METHOD_IMPORT_NOTES.equals(method)) {
+            @SuppressWarnings("deprecation")
+            ParcelFileDescriptor file = extras == null ? null
+                    : (ParcelFileDescriptor) extras.getParcelable(NoteContract.KEY_ARCHIVE_FILE);
+            if (file == null) {
+                throw new IllegalArgumentException("No archive to import");
+            }
+            try (InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(file)) {
+                Bundle result = new Bundle();
+                result.putInt(NoteContract.KEY_NOTE_COUNT, importNotes(in));
+                return result;
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot read the notes archive", e);
+            }
+        }
+        if (NoteContract.METHOD_EXPORT_NOTES.equals(method)) {
+            @SuppressWarnings("deprecation")
+            ParcelFileDescriptor file = extras == null ? null
+                    : (ParcelFileDescriptor) extras.getParcelable(NoteContract.KEY_ARCHIVE_FILE);
+            if (file == null) {
+                throw new IllegalArgumentException("No file to export to");
+            }
+            try (OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(file)) {
+                Bundle result = new Bundle();
+                result.putInt(NoteContract.KEY_NOTE_COUNT, exportNotes(out, arg));
+                return result;
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot write the notes archive", e);
+            }
+        }
+        if (NoteContract.METHOD_NOTE_CACHE_STATS.equals(method)) {
+            Bundle stats = new Bundle();
+            putCacheStats(stats);
+            return stats;
+        }
+        if (NoteContract.METHOD_METRICS.equals(method)) {
+            Bundle metrics = mMetrics.toBundle();
+            putCacheStats(metrics);
+            return metrics;
+        }
+        if (NoteContract.METHOD_MAINTENANCE.equals(method)) {
+            return runMaintenance(null);
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Runs the {@link NoteMaintenance database maintenance} and keeps its report for dumpsys.
+     * Called on a background thread by {@link NoteMaintenanceJob}.
+     *
+     * @param signal stops the maintenance before its next step when canceled
+     */
+    Bundle runMaintenance(@Nullable CancellationSignal signal) {
+        Bundle report = NoteMaintenance.run(mDbHelper.getWritableDatabase(), signal);
+        mLastMaintenance = report;
+        if (report.getInt(NoteContract.KEY_MAINTENANCE_PURGED_NOTES) != 0) {
+            notifyChange(NoteContract.NoteEntry.CONTENT_TRASH_URI);
+        }
+        Log.i(LOG_TAG, "Maintenance " + report);
+        return report;
+    }
+
+    private void putCacheStats(Bundle stats) {
+        stats.putInt(NoteContract.KEY_CACHE_HITS, mNoteCache.hitCount());
+        stats.putInt(NoteContract.KEY_CACHE_MISSES, mNoteCache.missCount());
+        stats.putInt(NoteContract.KEY_CACHE_EVICTIONS, mNoteCache.evictionCount());
+        stats.putInt(NoteContract.KEY_CACHE_SIZE_BYTES, mNoteCache.sizeBytes());
+    }
+
+    /**
+     * Prints the {@link NoteContract#METHOD_METRICS metrics} and the note cache counters, for
+     * adb shell dumpsys activity provider com.fruity.notebook/.data.NoteProvider
+     */
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+        writer.printf(Locale.US, "Note cache: %d hits, %d misses, %d evictions, %d bytes%n",
+                mNoteCache.hitCount(), mNoteCache.missCount(), mNoteCache.evictionCount(),
+                mNoteCache.sizeBytes());
+        Bundle maintenance = mLastMaintenance;
+        if (maintenance != null) {
+            NoteMaintenance.dump(maintenance, writer);
+        }
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -105,9 +661,24 @@ public class NoteProvider extends ContentProvider{
         final int match = sUriMatcher.match(uri);
         switch (match){
             case NOTES:
+            case NOTE_SEARCH:
+            case NOTE_TRASH:
                 return CONTENT_LIST_TYPE;
             case NOTE_ID:
+            case NOTE_TRASH_ID:
                 return NoteContract.NoteEntry.CONTENT_ITEM_TYPE;
+            case NOTE_CHUNKS:
+                return NoteChunkEntry.CONTENT_LIST_TYPE;
+            case NOTE_CHANGES:
+                return NoteChangeEntry.CONTENT_LIST_TYPE;
+            case NOTE_HISTORY:
+                return NoteHistoryEntry.CONTENT_LIST_TYPE;
+            case NOTE_REVISIONS:
+                return NoteRevisionEntry.CONTENT_LIST_TYPE;
+            case NOTE_REVISION_ID:
+                return NoteRevisionEntry.CONTENT_ITEM_TYPE;
+            case NOTE_EXPORT:
+                return NoteContract.ARCHIVE_MIME_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
 
@@ -121,7 +692,10 @@ public class NoteProvider extends ContentProvider{
     public Uri insert(Uri uri,ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
         if (match == NOTES) {
-            return insertNote(uri, contentValues);
+            long start = System.nanoTime();
+            Uri inserted = insertNote(uri, contentValues);
+            mMetrics.record(NoteMetrics.INSERT, start, inserted == null ? 0 : 1);
+            return inserted;
         }
         throw new IllegalArgumentException("Insertion is not supported for " + uri);
     }
@@ -140,11 +714,28 @@ public class NoteProvider extends ContentProvider{
 
         // No need to check the contain, any value is valid (including null).
 
+        // Keep the summary in step with the contain, and move a large contain to chunks
+        String contain = values.getAsString(NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN);
+        values = withTimestamps(withStoredContain(withSummary(values)), true);
+
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
         // Insert the new note with the given values
-        long id = database.insert(NoteContract.NoteEntry.TABLE_NAME, null, values);
+        long id;
+        database.beginTransaction();
+        try {
+            id = database.insert(NoteContract.NoteEntry.TABLE_NAME, null, values);
+            if (id != -1) {
+                if (NoteChunks.isChunked(contain)) {
+                    NoteChunks.write(database, id, contain, compressThreshold());
+                }
+                NoteSearch.index(database, id, name, contain);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
@@ -152,33 +743,106 @@ public class NoteProvider extends ContentProvider{
         }
 
         // Notify all listeners that the data has changed for the note content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
 
         // Return the new URI with the ID (of the newly inserted row) appended at the end
         return ContentUris.withAppendedId(uri, id);
 
     }
 
+    /**
+     * Returns a copy of the given values with {@link NoteContract.NoteEntry#COLUMN_NOTE_SUMMARY}
+     * computed from the contain. The summary is never taken from the caller.
+     */
+    private static ContentValues withSummary(ContentValues values) {
+        ContentValues result = new ContentValues(values);
+        result.remove(NoteContract.NoteEntry.COLUMN_NOTE_SUMMARY);
+        if (values.containsKey(NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN)) {
+            result.put(NoteContract.NoteEntry.COLUMN_NOTE_SUMMARY,
+                    NoteSummary.of(values.getAsString(NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN)));
+        }
+        return result;
+    }
+
+    /**
+     * Decides how the contain in the given values is stored: a contain too large for the notes
+     * table is left out, to be written as chunks, and a large one is packed. Sets
+     * {@link NoteContract.NoteEntry#COLUMN_NOTE_CHUNKED} and the packed contain, which are
+     * never taken from the caller.
+     */
+    private ContentValues withStoredContain(ContentValues values) {
+        values.remove(NoteContract.NoteEntry.COLUMN_NOTE_CHUNKED);
+        values.remove(NoteCodec.COLUMN_CONTAIN_PACKED);
+        if (values.containsKey(NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN)) {
+            String contain = values.getAsString(NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN);
+            boolean chunked = NoteChunks.isChunked(contain);
+            byte[] packed = chunked ? null : NoteCodec.pack(contain, compressThreshold());
+
+            values.put(NoteContract.NoteEntry.COLUMN_NOTE_CHUNKED, chunked ? 1 : 0);
+            values.put(NoteCodec.COLUMN_CONTAIN_PACKED, packed);
+            if (chunked || packed != null) {
+                values.putNull(NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Sets {@link NoteContract.NoteEntry#COLUMN_NOTE_UPDATED_AT} in the given values to now, and
+     * {@link NoteContract.NoteEntry#COLUMN_NOTE_CREATED_AT} too for a new note. Neither time is
+     * taken from the caller.
+     */
+    private static ContentValues withTimestamps(ContentValues values, boolean created) {
+        long now = System.currentTimeMillis();
+        values.remove(NoteContract.NoteEntry.COLUMN_NOTE_CREATED_AT);
+        if (created) {
+            values.put(NoteContract.NoteEntry.COLUMN_NOTE_CREATED_AT, now);
+        }
+        values.put(NoteContract.NoteEntry.COLUMN_NOTE_UPDATED_AT, now);
+        return values;
+    }
+
+    private int compressThreshold() {
+        return mDbHelper.getTuning().compressThreshold;
+    }
+
     /**
      * Updates the data at the given selection and selection arguments, with the new ContentValues.
      */
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,String[] selectionArgs) {
 
+        long start = System.nanoTime();
+        int rowsUpdated;
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case NOTES:
-                return updateNote(uri, contentValues, selection, selectionArgs);
+                // The notes in the trash can't be changed
+                selection = DatabaseUtils.concatenateWhere(selection, NoteTrash.LIVE);
+                rowsUpdated = updateNote(uri, contentValues, selection, selectionArgs);
+                break;
             case NOTE_ID:
                 // For the NOTE_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the actual ID.
-                selection = NoteContract.NoteEntry._ID + "=?";
+                selection = NoteContract.NoteEntry._ID + "=? AND " + NoteTrash.LIVE;
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updateNote(uri, contentValues, selection, selectionArgs);
+                rowsUpdated = updateNote(uri, contentValues, selection, selectionArgs);
+                break;
+            case NOTE_TRASH:
+            case NOTE_TRASH_ID:
+                if (match == NOTE_TRASH_ID) {
+                    selection = DatabaseUtils.concatenateWhere(selection, NoteContract.NoteEntry._ID + "=?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[] { String.valueOf(ContentUris.parseId(uri)) });
+                }
+                rowsUpdated = restoreNotes(contentValues, selection, selectionArgs);
+                break;
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
+        mMetrics.record(NoteMetrics.UPDATE, start, rowsUpdated);
+        return rowsUpdated;
 
     }
 
@@ -204,16 +868,70 @@ public class NoteProvider extends ContentProvider{
            return 0;
        }
 
+       // Keep the summary in step with the contain, and move a large contain to chunks
+       boolean containChanged = values.containsKey(NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN);
+       boolean revised = containChanged || values.containsKey(NoteContract.NoteEntry.COLUMN_NOTE_NAME);
+       String contain = values.getAsString(NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN);
+       // The index gets the title and contain as given, before the contain is packed or chunked
+       ContentValues indexed = values;
+       values = withTimestamps(withStoredContain(withSummary(values)), false);
+       long now = values.getAsLong(NoteContract.NoteEntry.COLUMN_NOTE_UPDATED_AT);
+
        // Otherwise, get writeable database to update the data
        SQLiteDatabase database = mDbHelper.getWritableDatabase();
 
        // Perform the update on the database and get the number of rows affected
-       int rowsUpdated = database.update(NoteContract.NoteEntry.TABLE_NAME, values, selection, selectionArgs);
+       int rowsUpdated;
+       long[] ids;
+       database.beginTransaction();
+       try {
+           // Find the notes before the update, the selection may depend on the old values
+           ids = queryIds(database, selection, selectionArgs);
+
+           // The next revision of each note is a delta against its current version
+           NoteRevisions.Previous[] previous = new NoteRevisions.Previous[revised ? ids.length : 0];
+           String title = indexed.getAsString(NoteContract.NoteEntry.COLUMN_NOTE_NAME);
+           for (int i = 0; i < previous.length; i++) {
+               previous[i] = NoteRevisions.before(database, ids[i], title, containChanged, contain);
+           }
+
+           rowsUpdated = database.update(NoteContract.NoteEntry.TABLE_NAME, values, selection, selectionArgs);
+           NoteSearch.reindex(database, ids, indexed);
+
+           if (containChanged) {
+               for (long id : ids) {
+                   if (NoteChunks.isChunked(contain)) {
+                       // Only the chunks that changed are written
+                       NoteChunks.write(database, id, contain, compressThreshold());
+                   } else {
+                       // The contain is back in the notes table
+                       NoteChunks.delete(database, id);
+                   }
+               }
+           }
+
+           if (previous.length != 0) {
+               SQLiteStatement insertRevision = NoteRevisions.compileInsert(database);
+               try {
+                   for (NoteRevisions.Previous note : previous) {
+                       if (note != null) {
+                           NoteRevisions.add(database, insertRevision, note, now, compressThreshold());
+                       }
+                   }
+               } finally {
+                   insertRevision.close();
+               }
+           }
+           database.setTransactionSuccessful();
+       } finally {
+           database.endTransaction();
+       }
+       invalidate(ids);
 
        // If 1 or more rows were updated, then notify all listeners that the data at the
        // given URI has changed
        if (rowsUpdated != 0) {
-           getContext().getContentResolver().notifyChange(uri, null);
+           notifyChange(uri);
        }
 
        // Return the number of rows updated
@@ -223,10 +941,51 @@ public class NoteProvider extends ContentProvider{
 
 
     /**
-     * Delete the data at the given selection and selection arguments.
+     * Moves the notes of the trash that match the selection back to the notes. The values must
+     * only hold a null {@link NoteContract.NoteEntry#COLUMN_NOTE_DELETED_AT}.
+     */
+    private int restoreNotes(ContentValues values, String selection, String[] selectionArgs) {
+        if (values.size() != 1 || !values.containsKey(NoteContract.NoteEntry.COLUMN_NOTE_DELETED_AT)
+                || values.get(NoteContract.NoteEntry.COLUMN_NOTE_DELETED_AT) != null) {
+            throw new IllegalArgumentException("Notes in the trash can only be restored");
+        }
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsRestored = database.update(NoteContract.NoteEntry.TABLE_NAME, values,
+                DatabaseUtils.concatenateWhere(selection, NoteTrash.TRASHED), selectionArgs);
+        if (rowsRestored != 0) {
+            notifyChange(NoteContract.NoteEntry.CONTENT_URI);
+        }
+        return rowsRestored;
+    }
+
+    /**
+     * Returns the ids of the notes that match the given selection.
+     */
+    private static long[] queryIds(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        try (Cursor cursor = database.query(NoteContract.NoteEntry.TABLE_NAME,
+                new String[] { NoteContract.NoteEntry._ID }, selection, selectionArgs,
+                null, null, null)) {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        }
+    }
+
+    /**
+     * Delete the data at the given selection and selection arguments. Notes are moved to the
+     * trash, and notes of the trash are removed for good.
      */
     @Override
     public int delete(Uri uri,String selection,String[] selectionArgs) {
+        long start = System.nanoTime();
+        int rowsDeleted = deleteRows(uri, selection, selectionArgs);
+        mMetrics.record(NoteMetrics.DELETE, start, rowsDeleted);
+        return rowsDeleted;
+    }
+
+    private int deleteRows(Uri uri, String selection, String[] selectionArgs) {
 
         // Get writeable database
         SQLiteDatabase database = mDbHelper.getWritableDatabase();
@@ -237,16 +996,65 @@ public class NoteProvider extends ContentProvider{
         final int match = sUriMatcher.match(uri);
         switch (match){
             case NOTES:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(NoteContract.NoteEntry.TABLE_NAME, selection, selectionArgs);
+                // Deleted notes go to the trash: each is a single row update, and the purge
+                // removes them later in small batches
+                if (selection == null) {
+                    // Move all the notes to the trash
+                    rowsDeleted = database.update(NoteContract.NoteEntry.TABLE_NAME, trashed(),
+                            NoteTrash.LIVE, null);
+                    invalidateAll();
+                    break;
+                }
+
+                // Move the notes that match the selection and selection args, and drop exactly
+                // those notes from the cache
+                selection = DatabaseUtils.concatenateWhere(selection, NoteTrash.LIVE);
+                long[] ids;
+                database.beginTransaction();
+                try {
+                    ids = queryIds(database, selection, selectionArgs);
+                    rowsDeleted = database.update(NoteContract.NoteEntry.TABLE_NAME, trashed(), selection,
+                            selectionArgs);
+                    database.setTransactionSuccessful();
+                } finally {
+                    database.endTransaction();
+                }
+                invalidate(ids);
                 break;
 
             case NOTE_ID:
-                // Delete a single row given by the ID in the URI
-                selection = NoteContract.NoteEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(NoteContract.NoteEntry.TABLE_NAME, selection, selectionArgs);
+                // Move a single note given by the ID in the URI to the trash
+                long id = ContentUris.parseId(uri);
+                selection = NoteContract.NoteEntry._ID + "=? AND " + NoteTrash.LIVE;
+                selectionArgs = new String[] { String.valueOf(id) };
+                rowsDeleted = database.update(NoteContract.NoteEntry.TABLE_NAME, trashed(), selection,
+                        selectionArgs);
+                invalidate(new long[] { id });
                 break;
+
+            case NOTE_TRASH:
+            case NOTE_TRASH_ID:
+                // Removed for good, in batches so a full trash doesn't hold the write lock
+                if (match == NOTE_TRASH_ID) {
+                    selection = DatabaseUtils.concatenateWhere(selection, NoteContract.NoteEntry._ID + "=?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[] { String.valueOf(ContentUris.parseId(uri)) });
+                }
+                rowsDeleted = NoteTrash.purge(database, selection, selectionArgs, NoteTrash.PURGE_BATCH_SIZE,
+                        null);
+                break;
+
+            case NOTE_HISTORY:
+                // The history isn't part of the note, so nobody is notified
+                selection = DatabaseUtils.concatenateWhere(selection, NoteHistoryEntry.COLUMN_NOTE_ID + "=?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[] { uri.getPathSegments().get(1) });
+                rowsDeleted = database.delete(NoteHistoryEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    mDbHelper.onWriteCommitted();
+                }
+                return rowsDeleted;
+
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
@@ -254,11 +1062,448 @@ public class NoteProvider extends ContentProvider{
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
 
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /** Values moving a note to the trash now */
+    private static ContentValues trashed() {
+        ContentValues values = new ContentValues();
+        values.put(NoteContract.NoteEntry.COLUMN_NOTE_DELETED_AT, System.currentTimeMillis());
+        return values;
+    }
+
+    /**
+     * Insert many notes at once. All the notes are inserted in a single transaction with one
+     * compiled statement, and listeners are notified once at the end.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        final int match = sUriMatcher.match(uri);
+        if (match != NOTES && match != NOTE_HISTORY) {
+            throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+        long start = System.nanoTime();
+        int rowsInserted = match == NOTES
+                ? bulkInsertNotes(uri, values)
+                : bulkInsertHistory(Long.parseLong(uri.getPathSegments().get(1)), values);
+        mMetrics.record(NoteMetrics.BULK_INSERT, start, rowsInserted);
+        return rowsInserted;
+    }
+
+    /**
+     * Adds edits to the history of a note, in the order given, after its newest edit. The
+     * edits are written in one transaction, so either all of them are added or none.
+     */
+    private int bulkInsertHistory(long noteId, ContentValues[] values) {
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        database.beginTransaction();
+        SQLiteStatement insert = database.compileStatement("INSERT INTO "
+                + NoteHistoryEntry.TABLE_NAME + " ("
+                + NoteHistoryEntry.COLUMN_NOTE_ID + ", "
+                + NoteHistoryEntry.COLUMN_FIELD + ", "
+                + NoteHistoryEntry.COLUMN_START + ", "
+                + NoteHistoryEntry.COLUMN_REMOVED + ", "
+                + NoteHistoryEntry.COLUMN_INSERTED + ") VALUES (?, ?, ?, ?, ?)");
+        try {
+            for (ContentValues edit : values) {
+                Integer field = edit.getAsInteger(NoteHistoryEntry.COLUMN_FIELD);
+                Integer start = edit.getAsInteger(NoteHistoryEntry.COLUMN_START);
+                String removed = edit.getAsString(NoteHistoryEntry.COLUMN_REMOVED);
+                String inserted = edit.getAsString(NoteHistoryEntry.COLUMN_INSERTED);
+                if (field == null || start == null || removed == null || inserted == null) {
+                    throw new IllegalArgumentException("Edit requires a field, start, removed and inserted text");
+                }
+                insert.bindLong(1, noteId);
+                insert.bindLong(2, field);
+                insert.bindLong(3, start);
+                insert.bindString(4, removed);
+                insert.bindString(5, inserted);
+                insert.executeInsert();
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            database.endTransaction();
+        }
+
+        // The history isn't part of the note, so nobody is notified
+        if (values.length != 0) {
+            mDbHelper.onWriteCommitted();
+        }
+        return values.length;
+    }
+
+    private int bulkInsertNotes(Uri uri, ContentValues[] values) {
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsInserted = 0;
+
+        long now = System.currentTimeMillis();
+
+        database.beginTransaction();
+        SQLiteStatement insert = compileInsert(database);
+        SQLiteStatement index = database.compileStatement(NoteSearch.SQL_INDEX);
+        try {
+            for (ContentValues noteValues : values) {
+                if (insertNote(database, insert, index,
+                        noteValues.getAsString(NoteContract.NoteEntry.COLUMN_NOTE_NAME),
+                        noteValues.getAsString(NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN),
+                        now, now) != -1) {
+                    rowsInserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            index.close();
+            database.endTransaction();
+        }
+
+        if (rowsInserted != 0) {
+            notifyChange(uri);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Compiles the statement inserting one note for {@link #insertNote(SQLiteDatabase,
+     * SQLiteStatement, SQLiteStatement, String, String, long, long)}.
+     */
+    private static SQLiteStatement compileInsert(SQLiteDatabase database) {
+        return database.compileStatement("INSERT INTO "
+                + NoteContract.NoteEntry.TABLE_NAME + " ("
+                + NoteContract.NoteEntry.COLUMN_NOTE_NAME + ", "
+                + NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN + ", "
+                + NoteContract.NoteEntry.COLUMN_NOTE_SUMMARY + ", "
+                + NoteContract.NoteEntry.COLUMN_NOTE_CHUNKED + ", "
+                + NoteCodec.COLUMN_CONTAIN_PACKED + ", "
+                + NoteContract.NoteEntry.COLUMN_NOTE_CREATED_AT + ", "
+                + NoteContract.NoteEntry.COLUMN_NOTE_UPDATED_AT + ") VALUES (?, ?, ?, ?, ?, ?, ?)");
+    }
+
+    /**
+     * Inserts one note with a compiled insert statement, and indexes it with a compiled
+     * {@link NoteSearch#SQL_INDEX}, inside the transaction of the caller. Makes the same checks
+     * and stores the contain the same way as a single insert.
+     *
+     * @return the id of the note, or -1 if it couldn't be inserted
+     */
+    private long insertNote(SQLiteDatabase database, SQLiteStatement insert, SQLiteStatement index,
+                            String name, String contain, long createdAt, long updatedAt) {
+        if (name == null) {
+            throw new IllegalArgumentException("Note requires a title");
+        }
+
+        boolean chunked = NoteChunks.isChunked(contain);
+        byte[] packed = chunked ? null : NoteCodec.pack(contain, compressThreshold());
+
+        insert.bindString(1, name);
+        bindStringOrNull(insert, 2, chunked || packed != null ? null : contain);
+        bindStringOrNull(insert, 3, NoteSummary.of(contain));
+        insert.bindLong(4, chunked ? 1 : 0);
+        if (packed != null) {
+            insert.bindBlob(5, packed);
+        } else {
+            insert.bindNull(5);
+        }
+        insert.bindLong(6, createdAt);
+        insert.bindLong(7, updatedAt);
+        long id = insert.executeInsert();
+        insert.clearBindings();
+        if (id != -1) {
+            if (chunked) {
+                NoteChunks.write(database, id, contain, compressThreshold());
+            }
+            NoteSearch.index(index, id, name, contain);
+        }
+        return id;
+    }
+
+    /**
+     * Inserts a note with the given title and contain, like an insert of
+     * {@link NoteContract.NoteEntry#CONTENT_URI} with those two values. This is the fast path of
+     * {@link NoteWriter} when the provider runs in the same process: the values are bound into
+     * a statement compiled once, without a ContentValues or SQL built per call.
+     *
+     * @return the id of the note, or -1 if it couldn't be inserted
+     */
+    long insertNote(String title, String contain) {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long id;
+        database.beginTransaction();
+        try {
+            NoteStatements statements = statements(database);
+            id = insertNote(database, statements.insert, statements.index, title, contain, now, now);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert a note");
+            return -1;
+        }
+
+        notifyChange(NoteContract.NoteEntry.CONTENT_URI);
+        mMetrics.record(NoteMetrics.INSERT, start, 1);
+        return id;
+    }
+
+    /**
+     * Sets the title and contain of one note, like an update of its note URI with those two
+     * values, through compiled statements like {@link #insertNote(String, String)}. The
+     * notification is sent for {@link NoteContract.NoteEntry#CONTENT_URI}, which reaches the
+     * observers of the note URI too. Not for use inside {@link #applyBatch}.
+     *
+     * @return the number of notes updated, 0 if there is no such note
+     */
+    int updateNote(long id, String title, String contain) {
+        if (title == null) {
+            throw new IllegalArgumentException("Note requires a title");
+        }
+        long start = System.nanoTime();
+        boolean chunked = NoteChunks.isChunked(contain);
+        byte[] packed = chunked ? null : NoteCodec.pack(contain, compressThreshold());
+        String summary = NoteSummary.of(contain);
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+
+        long now = System.currentTimeMillis();
+
+        int rowsUpdated;
+        database.beginTransaction();
+        try {
+            NoteStatements statements = statements(database);
+            // Read before the note changes, the new revision is a delta against it
+            NoteRevisions.Previous previous = NoteRevisions.before(database, id, title, true, contain);
+            SQLiteStatement update = statements.update;
+            try {
+                update.bindString(1, title);
+                bindStringOrNull(update, 2, chunked || packed != null ? null : contain);
+                bindStringOrNull(update, 3, summary);
+                update.bindLong(4, chunked ? 1 : 0);
+                if (packed != null) {
+                    update.bindBlob(5, packed);
+                } else {
+                    update.bindNull(5);
+                }
+                update.bindLong(6, now);
+                update.bindLong(7, id);
+                rowsUpdated = update.executeUpdateDelete();
+            } finally {
+                update.clearBindings();
+            }
+
+            if (rowsUpdated != 0) {
+                if (chunked) {
+                    NoteChunks.write(database, id, contain, compressThreshold());
+                } else {
+                    // The contain is in the notes table, drop the chunks it may have had
+                    statements.deleteChunks.bindLong(1, id);
+                    statements.deleteChunks.executeUpdateDelete();
+                    statements.deleteChunks.clearBindings();
+                }
+                NoteSearch.index(statements.reindex, id, title, contain);
+                NoteRevisions.add(database, statements.insertRevision, previous, now, compressThreshold());
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        mNoteCache.invalidate(id);
+
+        if (rowsUpdated != 0) {
+            notifyChange(NoteContract.NoteEntry.CONTENT_URI);
+        }
+        mMetrics.record(NoteMetrics.UPDATE, start, rowsUpdated);
+        return rowsUpdated;
+    }
+
+    /**
+     * Returns the compiled statements of the given database, compiling them on first use or
+     * after the database changed. Only called inside a write transaction.
+     */
+    private NoteStatements statements(SQLiteDatabase database) {
+        NoteStatements statements = mStatements;
+        if (statements == null || statements.database != database) {
+            if (statements != null) {
+                statements.close();
+            }
+            statements = new NoteStatements(database, compileInsert(database));
+            mStatements = statements;
+        }
+        return statements;
+    }
+
+    /**
+     * Opens the archive of all the notes for reading. The archive is written into a pipe on a
+     * background thread while the caller reads it.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != NOTE_EXPORT || !"r".equals(mode)) {
+            throw new FileNotFoundException("Cannot open " + uri + " in mode " + mode);
+        }
+        return openPipeHelper(uri, NoteContract.ARCHIVE_MIME_TYPE, null, null,
+                (output, pipeUri, mimeType, opts, args) -> {
+                    // The pipe itself is closed by openPipeHelper once this returns
+                    try {
+                        exportNotes(new FileOutputStream(output.getFileDescriptor()));
+                    } catch (IOException e) {
+                        // Usually the reader closed its end early
+                        Log.w(LOG_TAG, "Notes export stopped", e);
+                    }
+                });
+    }
+
+    /**
+     * Writes all the notes to the given stream as an archive, see {@link NoteArchive}.
+     *
+     * @return the number of notes written
+     */
+    int exportNotes(OutputStream out) throws IOException {
+        return NoteArchive.write(mDbHelper.getReadableDatabase(), out);
+    }
+
+    /**
+     * Writes the notes that match a selection without arguments to the given stream as an
+     * archive, all the notes if it is null.
+     *
+     * @return the number of notes written
+     */
+    int exportNotes(OutputStream out, @Nullable String selection) throws IOException {
+        return NoteArchive.write(mDbHelper.getReadableDatabase(), out, selection);
+    }
+
+    /**
+     * Adds the notes of an archive in a single transaction, as a bulk insert does, and notifies
+     * the listeners once. The archive is read one note at a time. The notes keep the times they
+     * were created and edited at.
+     *
+     * @return the number of notes added
+     * @throws IllegalArgumentException if the stream is not a complete archive, nothing is added
+     */
+    int importNotes(InputStream in) throws IOException {
+        NoteArchive.Reader reader = new NoteArchive.Reader(in);
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        int rowsInserted = 0;
+
+        database.beginTransaction();
+        SQLiteStatement insert = compileInsert(database);
+        SQLiteStatement index = database.compileStatement(NoteSearch.SQL_INDEX);
+        try {
+            while (reader.next()) {
+                if (insertNote(database, insert, index, reader.title(), reader.contain(),
+                        reader.createdAt(), reader.updatedAt()) != -1) {
+                    rowsInserted++;
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            insert.close();
+            index.close();
+            database.endTransaction();
+        }
+
+        if (rowsInserted != 0) {
+            notifyChange(NoteContract.NoteEntry.CONTENT_URI);
+        }
+        return rowsInserted;
+    }
+
+    /**
+     * Apply a batch of operations in a single transaction. Either all of them are applied or none
+     * is, and listeners are notified once when the batch commits.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        if (Boolean.TRUE.equals(mInBatch.get())) {
+            // Nested batch, the outer one owns the transaction and the notification
+            return super.applyBatch(operations);
+        }
+
+        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        ContentProviderResult[] results;
+
+        mInBatch.set(Boolean.TRUE);
+        mBatchChanged.remove();
+        mBatchInvalidated.set(new ArrayList<>());
+        database.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mInBatch.remove();
+
+            // Readers may have cached the notes as they were before the commit
+            for (long[] ids : mBatchInvalidated.get()) {
+                if (ids == null) {
+                    mNoteCache.invalidateAll();
+                } else {
+                    invalidate(ids);
+                }
+            }
+            mBatchInvalidated.remove();
+        }
+
+        if (Boolean.TRUE.equals(mBatchChanged.get())) {
+            mBatchChanged.remove();
+            notifyChange(NoteContract.NoteEntry.CONTENT_URI);
+        }
+        return results;
+    }
+
+    /**
+     * Drops updated or deleted notes from the {@link NoteCache}. Called after the write
+     * committed; during a batch, the notes are dropped again when the batch commits.
+     */
+    private void invalidate(long[] ids) {
+        for (long id : ids) {
+            mNoteCache.invalidate(id);
+        }
+        if (Boolean.TRUE.equals(mInBatch.get())) {
+            mBatchInvalidated.get().add(ids);
+        }
+    }
+
+    private void invalidateAll() {
+        mNoteCache.invalidateAll();
+        if (Boolean.TRUE.equals(mInBatch.get())) {
+            // An empty list of ids can't express "all", so drop everything at the commit instead
+            mBatchInvalidated.get().add(null);
+        }
+    }
+
+    /**
+     * Notify all listeners that the data at the given URI has changed. During a batch the
+     * notification is held back, and one notification for the whole table is sent at the end.
+     * Called once per committed write, so it also drives the checkpoints of the database.
+     */
+    private void notifyChange(Uri uri) {
+        if (Boolean.TRUE.equals(mInBatch.get())) {
+            mBatchChanged.set(Boolean.TRUE);
+            return;
+        }
+        mDbHelper.onWriteCommitted();
+        getContext().getContentResolver().notifyChange(uri, null);
+        mMetrics.recordNotification();
+    }
+
+    private static void bindStringOrNull(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
 }
@@ -0,0 +1,353 @@
+package com.fruity.notebook.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+import com.fruity.notebook.data.NoteContract.NoteRevisionEntry;
+
+/**
+ * Stores the saved versions of the notes in the {@link NoteRevisionEntry#TABLE_NAME} table.
+ *
+ * Every update that changes a note adds a revision. Most revisions only hold a {@link NoteDelta}
+ * against the revision before, so they take about as much room as the text that was edited. Every
+ * {@link #KEYFRAME_INTERVAL} revisions, or when a delta saves nothing, the whole text is stored
+ * instead, packed like a large contain. A revision is rebuilt from the keyframe before it and
+ * the deltas in between, so rebuilding one never applies more than
+ * {@link #KEYFRAME_INTERVAL} - 1 deltas.
+ *
+ * The first update of a note also stores the version it replaces, as the first keyframe, so a
+ * note that is never edited has no revisions at all. Only about the latest
+ * {@link #MAX_REVISIONS} revisions of a note are kept.
+ */
+final class NoteRevisions {
+
+    /** Revisions from one keyframe to the next */
+    static final int KEYFRAME_INTERVAL = 16;
+
+    /** Revisions kept per note, older ones are dropped a keyframe interval at a time */
+    static final int MAX_REVISIONS = 256;
+
+    /**
+     * Revision of the keyframe the revision is rebuilt from, the revision itself for a keyframe.
+     *
+     * Type: INTEGER
+     */
+    static final String COLUMN_KEYFRAME_REVISION = "keyframe_revision";
+
+    /**
+     * Whole contain of a keyframe, plain or packed like a large contain, null otherwise.
+     *
+     * Type: TEXT or BLOB
+     */
+    static final String COLUMN_TEXT = "text";
+
+    /**
+     * {@link NoteDelta} against the revision before, null for a keyframe.
+     *
+     * Type: BLOB
+     */
+    static final String COLUMN_DELTA = "delta";
+
+    private static final String SQL_INSERT = "INSERT INTO " + NoteRevisionEntry.TABLE_NAME + " ("
+            + NoteRevisionEntry.COLUMN_NOTE_ID + ", " + NoteRevisionEntry.COLUMN_REVISION + ", "
+            + NoteRevisionEntry.COLUMN_CREATED_AT + ", " + NoteRevisionEntry.COLUMN_TITLE + ", "
+            + NoteRevisionEntry.COLUMN_LENGTH + ", " + COLUMN_KEYFRAME_REVISION + ", "
+            + COLUMN_TEXT + ", " + COLUMN_DELTA + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+    /** Columns of the list of the revisions of a note */
+    private static final String[] LIST_COLUMNS = {
+            NoteRevisionEntry.COLUMN_REVISION,
+            NoteRevisionEntry.COLUMN_CREATED_AT,
+            NoteRevisionEntry.COLUMN_TITLE,
+            NoteRevisionEntry.COLUMN_LENGTH,
+            "(" + NoteRevisionEntry.COLUMN_REVISION + " = " + COLUMN_KEYFRAME_REVISION + ") AS "
+                    + NoteRevisionEntry.COLUMN_KEYFRAME,
+            "ifnull(length(CAST(" + COLUMN_TEXT + " AS BLOB)), 0) + ifnull(length(" + COLUMN_DELTA
+                    + "), 0) AS " + NoteRevisionEntry.COLUMN_SIZE };
+
+    /** Columns of a rebuilt revision */
+    private static final String[] REBUILT_COLUMNS = {
+            NoteRevisionEntry.COLUMN_REVISION,
+            NoteRevisionEntry.COLUMN_CREATED_AT,
+            NoteRevisionEntry.COLUMN_TITLE,
+            NoteRevisionEntry.COLUMN_CONTAIN };
+
+    /**
+     * A write of a note, and what its revision is built from, read by {@link #before}.
+     */
+    static final class Previous {
+        final long noteId;
+
+        /** Latest revision, 0 if the note has none */
+        final long revision;
+
+        /** Keyframe of the latest revision */
+        final long keyframeRevision;
+
+        /** Title and contain of the note before the write, only read if it has no revision yet */
+        final String title;
+        final String contain;
+
+        /** Time the note was last saved */
+        final long updatedAt;
+
+        /** Title and contain the write stores */
+        final String newTitle;
+        final String newContain;
+
+        /** Delta from the contain before the write to the new one, null for a keyframe */
+        final byte[] delta;
+
+        /** True if the write stores the note as it is, it adds no revision then */
+        final boolean unchanged;
+
+        Previous(long noteId, long revision, long keyframeRevision, String title, String contain,
+                 long updatedAt, String newTitle, String newContain, byte[] delta, boolean unchanged) {
+            this.noteId = noteId;
+            this.revision = revision;
+            this.keyframeRevision = keyframeRevision;
+            this.title = title;
+            this.contain = contain;
+            this.updatedAt = updatedAt;
+            this.newTitle = newTitle;
+            this.newContain = newContain;
+            this.delta = delta;
+            this.unchanged = unchanged;
+        }
+    }
+
+    private NoteRevisions() {}
+
+    /**
+     * Compiles the statement adding a revision, for {@link #add}.
+     */
+    static SQLiteStatement compileInsert(SQLiteDatabase db) {
+        return db.compileStatement(SQL_INSERT);
+    }
+
+    /**
+     * Reads what the next revision of a note is built from. Runs inside the write transaction,
+     * before the note changes. The contain of the note is only read when the next revision is
+     * a delta against it, and for a chunked note only the chunks the write changes are read.
+     *
+     * @param title          title the write stores, null if it keeps the title
+     * @param containChanged false if the write keeps the contain
+     * @param contain        contain the write stores
+     * @return null if there is no such note
+     */
+    static Previous before(SQLiteDatabase db, long noteId, String title, boolean containChanged,
+                           String contain) {
+        long revision = 0;
+        long keyframeRevision = 0;
+        try (Cursor cursor = db.query(NoteRevisionEntry.TABLE_NAME,
+                new String[] { NoteRevisionEntry.COLUMN_REVISION, COLUMN_KEYFRAME_REVISION },
+                NoteRevisionEntry.COLUMN_NOTE_ID + "=?", new String[] { String.valueOf(noteId) },
+                null, null, NoteRevisionEntry.COLUMN_REVISION + " DESC", "1")) {
+            if (cursor.moveToFirst()) {
+                revision = cursor.getLong(0);
+                keyframeRevision = cursor.getLong(1);
+            }
+        }
+        boolean keyframe = revision > 0 && revision + 1 - keyframeRevision >= KEYFRAME_INTERVAL;
+        // The first revision keeps the whole contain replaced, and a write keeping the contain
+        // stores it again
+        boolean whole = revision == 0 || !containChanged;
+
+        String oldTitle;
+        String oldContain;
+        boolean chunked;
+        long updatedAt;
+        try (Cursor cursor = NoteCodec.unpacking(db.query(NoteEntry.TABLE_NAME, new String[] {
+                        NoteEntry.COLUMN_NOTE_NAME,
+                        // A chunked note has no contain in the notes table
+                        (whole || !keyframe ? "coalesce(" + NoteEntry.COLUMN_NOTE_CONTAIN + ", "
+                                + NoteCodec.COLUMN_CONTAIN_PACKED + ")" : "NULL")
+                                + " AS " + NoteEntry.COLUMN_NOTE_CONTAIN,
+                        NoteEntry.COLUMN_NOTE_CHUNKED,
+                        NoteEntry.COLUMN_NOTE_UPDATED_AT },
+                NoteEntry._ID + "=?", new String[] { String.valueOf(noteId) }, null, null, null),
+                NoteEntry.COLUMN_NOTE_CONTAIN)) {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            oldTitle = cursor.getString(0);
+            oldContain = cursor.getString(1);
+            chunked = cursor.getInt(2) != 0;
+            updatedAt = cursor.getLong(3);
+        }
+        if (chunked) {
+            oldContain = whole ? NoteChunks.read(db, noteId) : null;
+        } else if (oldContain == null && (whole || !keyframe)) {
+            oldContain = "";
+        }
+
+        String newTitle = title != null ? title : oldTitle;
+        String newContain = !containChanged ? oldContain : contain != null ? contain : "";
+
+        byte[] delta = null;
+        // Unknown for a keyframe of a note that isn't chunked, it is then stored anyway
+        boolean containUnchanged = false;
+        if (oldContain != null) {
+            containUnchanged = oldContain.equals(newContain);
+            if (!keyframe) {
+                delta = NoteDelta.encode(oldContain, newContain);
+            }
+        } else if (chunked) {
+            NoteChunks.Changed changed = NoteChunks.readChanged(db, noteId, newContain);
+            containUnchanged = changed.text.isEmpty() && changed.length == newContain.length();
+            if (!keyframe) {
+                delta = NoteDelta.encode(changed.text, changed.start, changed.length, newContain);
+            }
+        }
+
+        return new Previous(noteId, revision, keyframeRevision, revision == 0 ? oldTitle : null,
+                revision == 0 ? oldContain : null, updatedAt, newTitle, newContain, delta,
+                containUnchanged && newTitle.equals(oldTitle));
+    }
+
+    /**
+     * Adds the revision of a note written after {@link #before}, unless the write kept the note
+     * as it was. Runs inside the same transaction.
+     *
+     * @param compressThreshold keyframes at least this long are packed with {@link NoteCodec}
+     */
+    static void add(SQLiteDatabase db, SQLiteStatement insert, Previous previous, long time,
+                    int compressThreshold) {
+        if (previous.unchanged) {
+            return;
+        }
+        String title = previous.newTitle;
+        String contain = previous.newContain;
+        long revision = previous.revision + 1;
+        long keyframeRevision = previous.keyframeRevision;
+
+        if (previous.revision == 0) {
+            // The first update keeps the version it replaces too
+            insert(db, insert, previous.noteId, revision, previous.updatedAt, previous.title,
+                    previous.contain, revision, null, compressThreshold);
+            keyframeRevision = revision;
+            revision++;
+        }
+
+        byte[] delta = previous.delta;
+        // A delta longer than the text saves nothing and only lengthens the rebuilds
+        if (delta == null || delta.length > contain.length()) {
+            insert(db, insert, previous.noteId, revision, time, title, contain, revision, null,
+                    compressThreshold);
+            prune(db, previous.noteId, revision);
+        } else {
+            insert(db, insert, previous.noteId, revision, time, title, contain, keyframeRevision, delta,
+                    compressThreshold);
+        }
+    }
+
+    /**
+     * Returns the revisions of a note, newest first, with the columns of
+     * {@link NoteRevisionEntry} but the contain.
+     */
+    static Cursor list(SQLiteDatabase db, long noteId) {
+        return db.query(NoteRevisionEntry.TABLE_NAME, LIST_COLUMNS,
+                NoteRevisionEntry.COLUMN_NOTE_ID + "=?", new String[] { String.valueOf(noteId) },
+                null, null, NoteRevisionEntry.COLUMN_REVISION + " DESC");
+    }
+
+    /**
+     * Rebuilds one revision of a note from its keyframe and the deltas after it.
+     *
+     * @return a cursor with the revision, its time, title and contain, empty if there is no
+     * such revision
+     */
+    static Cursor rebuild(SQLiteDatabase db, long noteId, long revision) {
+        MatrixCursor result = new MatrixCursor(REBUILT_COLUMNS, 1);
+        String[] noteArgs = { String.valueOf(noteId), String.valueOf(revision) };
+
+        long keyframeRevision;
+        long createdAt;
+        String title;
+        try (Cursor cursor = db.query(NoteRevisionEntry.TABLE_NAME,
+                new String[] { COLUMN_KEYFRAME_REVISION, NoteRevisionEntry.COLUMN_CREATED_AT,
+                        NoteRevisionEntry.COLUMN_TITLE },
+                NoteRevisionEntry.COLUMN_NOTE_ID + "=? AND " + NoteRevisionEntry.COLUMN_REVISION + "=?",
+                noteArgs, null, null, null)) {
+            if (!cursor.moveToFirst()) {
+                return result;
+            }
+            keyframeRevision = cursor.getLong(0);
+            createdAt = cursor.getLong(1);
+            title = cursor.getString(2);
+        }
+
+        String text = null;
+        try (Cursor cursor = NoteCodec.unpacking(db.query(NoteRevisionEntry.TABLE_NAME,
+                new String[] { NoteRevisionEntry.COLUMN_REVISION, NoteRevisionEntry.COLUMN_LENGTH,
+                        COLUMN_TEXT, COLUMN_DELTA },
+                NoteRevisionEntry.COLUMN_NOTE_ID + "=? AND " + NoteRevisionEntry.COLUMN_REVISION
+                        + " BETWEEN ? AND ?",
+                new String[] { noteArgs[0], String.valueOf(keyframeRevision), noteArgs[1] },
+                null, null, NoteRevisionEntry.COLUMN_REVISION), COLUMN_TEXT)) {
+            while (cursor.moveToNext()) {
+                if (text == null) {
+                    if (cursor.getLong(0) != keyframeRevision) {
+                        throw new IllegalStateException("Keyframe " + keyframeRevision + " of note "
+                                + noteId + " is missing");
+                    }
+                    text = cursor.getString(2);
+                } else {
+                    text = NoteDelta.apply(text, cursor.getBlob(3), cursor.getInt(1));
+                }
+            }
+        }
+
+        result.addRow(new Object[] { revision, createdAt, title, text });
+        return result;
+    }
+
+    private static void insert(SQLiteDatabase db, SQLiteStatement insert, long noteId, long revision,
+                               long time, String title, String contain, long keyframeRevision,
+                               byte[] delta, int compressThreshold) {
+        insert.bindLong(1, noteId);
+        insert.bindLong(2, revision);
+        insert.bindLong(3, time);
+        if (title == null) {
+            insert.bindNull(4);
+        } else {
+            insert.bindString(4, title);
+        }
+        insert.bindLong(5, contain.length());
+        insert.bindLong(6, keyframeRevision);
+        if (delta != null) {
+            insert.bindNull(7);
+            insert.bindBlob(8, delta);
+        } else {
+            byte[] packed = NoteCodec.pack(contain, compressThreshold);
+            if (packed != null) {
+                insert.bindBlob(7, packed);
+            } else {
+                insert.bindString(7, contain);
+            }
+            insert.bindNull(8);
+        }
+        insert.executeInsert();
+        insert.clearBindings();
+    }
+
+    /**
+     * Drops the revisions of a note older than the latest {@link #MAX_REVISIONS}. Whole keyframe
+     * intervals are dropped, so every revision kept can still be rebuilt.
+     */
+    private static void prune(SQLiteDatabase db, long noteId, long latestRevision) {
+        long oldestKept = latestRevision - MAX_REVISIONS + 1;
+        if (oldestKept <= 1) {
+            return;
+        }
+        String note = String.valueOf(noteId);
+        db.delete(NoteRevisionEntry.TABLE_NAME,
+                NoteRevisionEntry.COLUMN_NOTE_ID + "=? AND " + COLUMN_KEYFRAME_REVISION + " < (SELECT "
+                        + COLUMN_KEYFRAME_REVISION + " FROM " + NoteRevisionEntry.TABLE_NAME + " WHERE "
+                        + NoteRevisionEntry.COLUMN_NOTE_ID + "=? AND " + NoteRevisionEntry.COLUMN_REVISION + "=?)",
+                new String[] { note, note, String.valueOf(oldestKept) });
+    }
+}
@@ -0,0 +1,166 @@
+package com.fruity.notebook.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
+
+import androidx.annotation.Nullable;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+/**
+ * Ranked full-text search over the notes, backed by the {@link NoteEntry#FTS_TABLE_NAME} index.
+ *
+ * The provider writes the plain title and contain of a note into the index along with the note,
+ * since the notes table may only hold the contain packed, see {@link NoteCodec}. A trigger
+ * removes the index entry of a note purged from the trash.
+ */
+final class NoteSearch {
+
+    /** Number of hits returned when the caller doesn't pass a limit */
+    static final int DEFAULT_LIMIT = 50;
+
+    /** Columns of every search result cursor */
+    static final String[] COLUMNS = {
+            NoteEntry._ID,
+            NoteEntry.COLUMN_NOTE_NAME,
+            NoteEntry.COLUMN_SNIPPET,
+            NoteEntry.COLUMN_RANK };
+
+    /**
+     * offsets() returns four space separated integers per hit, so the number of hits can be
+     * counted from the number of spaces without a custom ranking function.
+     */
+    private static final String HITS = "(length(offsets(" + NoteEntry.FTS_TABLE_NAME + "))"
+            + " - length(replace(offsets(" + NoteEntry.FTS_TABLE_NAME + "), ' ', '')) + 1) / 4";
+
+    private static final String SQL_SEARCH = "SELECT "
+            + "n." + NoteEntry._ID + " AS " + NoteEntry._ID + ", "
+            + "n." + NoteEntry.COLUMN_NOTE_NAME + " AS " + NoteEntry.COLUMN_NOTE_NAME + ", "
+            + "snippet(" + NoteEntry.FTS_TABLE_NAME + ", '" + NoteEntry.SNIPPET_HIGHLIGHT_START
+            + "', '" + NoteEntry.SNIPPET_HIGHLIGHT_END + "', '...', -1, 16) AS " + NoteEntry.COLUMN_SNIPPET + ", "
+            + HITS + " AS " + NoteEntry.COLUMN_RANK
+            + " FROM " + NoteEntry.FTS_TABLE_NAME
+            + " JOIN " + NoteEntry.TABLE_NAME + " n ON n." + NoteEntry._ID + " = "
+            + NoteEntry.FTS_TABLE_NAME + ".docid"
+            + " WHERE " + NoteEntry.FTS_TABLE_NAME + " MATCH ?"
+            // The notes in the trash keep their index entries until they are purged
+            + " AND n." + NoteTrash.LIVE
+            + " ORDER BY " + NoteEntry.COLUMN_RANK + " DESC, n." + NoteEntry._ID + " DESC"
+            + " LIMIT ";
+
+    /** Indexes a new note: title, contain and id, see {@link #index(SQLiteStatement, long, String, String)} */
+    static final String SQL_INDEX = "INSERT INTO " + NoteEntry.FTS_TABLE_NAME + " ("
+            + NoteEntry.COLUMN_NOTE_NAME + ", " + NoteEntry.COLUMN_NOTE_CONTAIN + ", docid) VALUES (?, ?, ?)";
+
+    /** Indexes a note again: title, contain and id, see {@link #index(SQLiteStatement, long, String, String)} */
+    static final String SQL_REINDEX = "UPDATE " + NoteEntry.FTS_TABLE_NAME + " SET "
+            + NoteEntry.COLUMN_NOTE_NAME + " = ?, " + NoteEntry.COLUMN_NOTE_CONTAIN + " = ? WHERE docid = ?";
+
+    private NoteSearch() {}
+
+    /**
+     * Adds a new note to the index, inside the transaction of the caller.
+     *
+     * @param contain the plain contain, however it is stored
+     */
+    static void index(SQLiteDatabase db, long id, String title, @Nullable String contain) {
+        db.execSQL(SQL_INDEX, new Object[] { title, contain, id });
+    }
+
+    /**
+     * Runs a compiled {@link #SQL_INDEX} or {@link #SQL_REINDEX} for one note, inside the
+     * transaction of the caller.
+     *
+     * @param contain the plain contain, however it is stored
+     */
+    static void index(SQLiteStatement statement, long id, String title, @Nullable String contain) {
+        try {
+            statement.bindString(1, title);
+            if (contain == null) {
+                statement.bindNull(2);
+            } else {
+                statement.bindString(2, contain);
+            }
+            statement.bindLong(3, id);
+            statement.execute();
+        } finally {
+            statement.clearBindings();
+        }
+    }
+
+    /**
+     * Indexes the notes updated with the given values again, inside the transaction of the
+     * caller. Only the title and the plain contain are taken from the values, the other indexed
+     * field of a note is kept.
+     */
+    static void reindex(SQLiteDatabase db, long[] ids, ContentValues values) {
+        ContentValues indexed = new ContentValues();
+        if (values.containsKey(NoteEntry.COLUMN_NOTE_NAME)) {
+            indexed.put(NoteEntry.COLUMN_NOTE_NAME, values.getAsString(NoteEntry.COLUMN_NOTE_NAME));
+        }
+        if (values.containsKey(NoteEntry.COLUMN_NOTE_CONTAIN)) {
+            indexed.put(NoteEntry.COLUMN_NOTE_CONTAIN, values.getAsString(NoteEntry.COLUMN_NOTE_CONTAIN));
+        }
+        if (indexed.size() == 0) {
+            return;
+        }
+        for (long id : ids) {
+            db.update(NoteEntry.FTS_TABLE_NAME, indexed, "docid=?", new String[] { String.valueOf(id) });
+        }
+    }
+
+    /**
+     * Runs a ranked search for the given user text.
+     *
+     * @param db        database to search
+     * @param rawQuery  text typed by the user, may be null
+     * @param limit     maximum number of hits
+     * @return a cursor with the {@link #COLUMNS}, best match first
+     */
+    static Cursor query(SQLiteDatabase db, String rawQuery, int limit) {
+        return query(db, rawQuery, limit, null);
+    }
+
+    /**
+     * Runs a ranked search that stops with an {@link android.os.OperationCanceledException} once
+     * the signal is cancelled, also while the returned cursor is being filled.
+     */
+    static Cursor query(SQLiteDatabase db, String rawQuery, int limit,
+                        @Nullable CancellationSignal cancellationSignal) {
+        String match = buildMatchQuery(rawQuery);
+        if (match == null) {
+            return new MatrixCursor(COLUMNS, 0);
+        }
+        return db.rawQuery(SQL_SEARCH + limit, new String[] { match }, cancellationSignal);
+    }
+
+    /**
+     * Turns free text into an FTS match expression. Every word becomes a prefix term and all of
+     * them have to match, so typing "shop li" finds "shopping list". Characters with a meaning in
+     * the FTS query syntax are dropped, so user input can never make the query fail to parse.
+     *
+     * @return the match expression, or null if the text contains no searchable word
+     */
+    static String buildMatchQuery(String rawQuery) {
+        if (rawQuery == null) {
+            return null;
+        }
+
+        StringBuilder match = new StringBuilder();
+        for (String word : rawQuery.trim().split("\\s+")) {
+            String term = word.replaceAll("[\"*^():]", "");
+            if (term.isEmpty()) {
+                continue;
+            }
+            if (match.length() > 0) {
+                match.append(' ');
+            }
+            match.append('"').append(term).append("*\"");
+        }
+        return match.length() == 0 ? null : match.toString();
+    }
+}
@@ -0,0 +1,71 @@
+package com.fruity.notebook.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.fruity.notebook.data.NoteContract.NoteChunkEntry;
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+/**
+ * The statements of the single note writes of {@link NoteProvider}, compiled once per database.
+ * A write binds its values straight into them instead of building a ContentValues and SQL. The
+ * SQLite statement behind each is prepared once on the connection doing the writes, which keeps
+ * it in its statement cache.
+ *
+ * The statements are only used inside a write transaction. The database gives that to one
+ * thread at a time, so they are never bound by two threads at once.
+ */
+final class NoteStatements {
+
+    private static final String SQL_UPDATE = "UPDATE " + NoteEntry.TABLE_NAME + " SET "
+            + NoteEntry.COLUMN_NOTE_NAME + "=?, "
+            + NoteEntry.COLUMN_NOTE_CONTAIN + "=?, "
+            + NoteEntry.COLUMN_NOTE_SUMMARY + "=?, "
+            + NoteEntry.COLUMN_NOTE_CHUNKED + "=?, "
+            + NoteCodec.COLUMN_CONTAIN_PACKED + "=?, "
+            + NoteEntry.COLUMN_NOTE_UPDATED_AT + "=? WHERE "
+            + NoteEntry._ID + "=? AND " + NoteTrash.LIVE;
+
+    private static final String SQL_DELETE_CHUNKS = "DELETE FROM " + NoteChunkEntry.TABLE_NAME
+            + " WHERE " + NoteChunkEntry.COLUMN_NOTE_ID + "=?";
+
+    /** The database the statements were compiled for */
+    final SQLiteDatabase database;
+
+    /** Inserts a note, see {@link NoteProvider#insertNote(String, String)} */
+    final SQLiteStatement insert;
+
+    /** Sets the title, contain, summary, chunked, packed contain and update time of a note */
+    final SQLiteStatement update;
+
+    /** Adds a new note to the full-text index, see {@link NoteSearch#SQL_INDEX} */
+    final SQLiteStatement index;
+
+    /** Sets the indexed title and contain of a note, see {@link NoteSearch#SQL_REINDEX} */
+    final SQLiteStatement reindex;
+
+    /** Deletes the chunks of a note */
+    final SQLiteStatement deleteChunks;
+
+    /** Adds a revision of a note, see {@link NoteRevisions} */
+    final SQLiteStatement insertRevision;
+
+    NoteStatements(SQLiteDatabase database, SQLiteStatement insert) {
+        this.database = database;
+        this.insert = insert;
+        this.update = database.compileStatement(SQL_UPDATE);
+        this.index = database.compileStatement(NoteSearch.SQL_INDEX);
+        this.reindex = database.compileStatement(NoteSearch.SQL_REINDEX);
+        this.deleteChunks = database.compileStatement(SQL_DELETE_CHUNKS);
+        this.insertRevision = NoteRevisions.compileInsert(database);
+    }
+
+    void close() {
+        insert.close();
+        update.close();
+        index.close();
+        reindex.close();
+        deleteChunks.close();
+        insertRevision.close();
+    }
+}
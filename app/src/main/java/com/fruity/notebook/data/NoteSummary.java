@@ -0,0 +1,52 @@
+package com.fruity.notebook.data;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+/**
+ * Builds the {@link NoteEntry#COLUMN_NOTE_SUMMARY} of a note from its contain.
+ *
+ * The summary is the contain with every line break turned into a space and the leading spaces
+ * removed, cut to {@link NoteEntry#SUMMARY_LENGTH} characters, without trailing spaces.
+ * {@link #of(String)} and {@link #sqlExpression(String)} give the same result, so rows written by
+ * the provider and rows filled in by a database upgrade look alike.
+ */
+final class NoteSummary {
+
+    private NoteSummary() {}
+
+    /**
+     * Returns the summary of the given contain, or null if the contain is null.
+     */
+    static String of(String contain) {
+        if (contain == null) {
+            return null;
+        }
+
+        String flat = contain.replace("\r\n", " ").replace('\r', ' ').replace('\n', ' ');
+
+        int start = 0;
+        while (start < flat.length() && flat.charAt(start) == ' ') {
+            start++;
+        }
+
+        int end = Math.min(flat.length(), start + NoteEntry.SUMMARY_LENGTH);
+        // Don't cut a surrogate pair in half
+        if (end < flat.length() && Character.isHighSurrogate(flat.charAt(end - 1))) {
+            end--;
+        }
+        while (end > start && flat.charAt(end - 1) == ' ') {
+            end--;
+        }
+
+        return flat.substring(start, end);
+    }
+
+    /**
+     * Returns an SQL expression computing the summary of the given column.
+     */
+    static String sqlExpression(String column) {
+        return "rtrim(substr(ltrim(replace(replace(replace(" + column
+                + ", char(13) || char(10), ' '), char(13), ' '), char(10), ' '), ' '), 1, "
+                + NoteEntry.SUMMARY_LENGTH + "), ' ')";
+    }
+}
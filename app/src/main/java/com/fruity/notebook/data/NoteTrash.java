@@ -0,0 +1,93 @@
+package com.fruity.notebook.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.CancellationSignal;
+
+import androidx.annotation.Nullable;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The trash of the notes. Deleting a note only sets its {@link NoteEntry#COLUMN_NOTE_DELETED_AT},
+ * a single row update; the note, its chunks, history and revisions are removed later by
+ * {@link #purge}, when the note expires or the trash is emptied.
+ *
+ * The purge deletes a few notes per transaction, so emptying a large trash never holds the
+ * write lock for long: other writes wait at most one batch, and the write-ahead log the readers
+ * have to look through stays small.
+ */
+final class NoteTrash {
+
+    /** How long a deleted note stays in the trash */
+    static final long RETENTION_MS = TimeUnit.DAYS.toMillis(30);
+
+    /** Notes removed per transaction by {@link #purge} */
+    static final int PURGE_BATCH_SIZE = 50;
+
+    /** Selection of the notes that are not in the trash, served by the indexes of the lists */
+    static final String LIVE = NoteEntry.COLUMN_NOTE_DELETED_AT + " IS NULL";
+
+    /** Selection of the notes in the trash, served by the notes_deleted_at index */
+    static final String TRASHED = NoteEntry.COLUMN_NOTE_DELETED_AT + " IS NOT NULL";
+
+    private NoteTrash() {}
+
+    /**
+     * Removes the notes of the trash that expired at the given time, see {@link #purge}.
+     */
+    static int purgeExpired(SQLiteDatabase db, long now, @Nullable CancellationSignal signal) {
+        return purge(db, NoteEntry.COLUMN_NOTE_DELETED_AT + "<=?",
+                new String[] { String.valueOf(now - RETENTION_MS) }, PURGE_BATCH_SIZE, signal);
+    }
+
+    /**
+     * Removes the notes of the trash that match the selection for good, longest deleted first,
+     * batchSize notes per transaction. The triggers of the notes table remove their chunks,
+     * history, revisions and full-text entries in the same transaction. The signal is checked
+     * between batches.
+     *
+     * @return the number of notes removed
+     */
+    static int purge(SQLiteDatabase db, @Nullable String selection, @Nullable String[] selectionArgs,
+                     int batchSize, @Nullable CancellationSignal signal) {
+        String where = DatabaseUtils.concatenateWhere(TRASHED, selection);
+        int purged = 0;
+        while (signal == null || !signal.isCanceled()) {
+            int deleted;
+            db.beginTransactionNonExclusive();
+            try {
+                String ids = queryIds(db, where, selectionArgs, batchSize);
+                deleted = ids.isEmpty() ? 0 : db.delete(NoteEntry.TABLE_NAME,
+                        NoteEntry._ID + " IN (" + ids + ")", null);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            purged += deleted;
+            if (deleted < batchSize) {
+                break;
+            }
+        }
+        return purged;
+    }
+
+    /** Returns the ids of the next batch as a comma separated list, empty if none is left */
+    private static String queryIds(SQLiteDatabase db, String where, @Nullable String[] selectionArgs,
+                                   int batchSize) {
+        StringBuilder ids = new StringBuilder();
+        try (Cursor cursor = db.query(NoteEntry.TABLE_NAME, new String[] { NoteEntry._ID }, where,
+                selectionArgs, null, null, NoteEntry.COLUMN_NOTE_DELETED_AT, String.valueOf(batchSize))) {
+            while (cursor.moveToNext()) {
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(cursor.getLong(0));
+            }
+        }
+        return ids.toString();
+    }
+}
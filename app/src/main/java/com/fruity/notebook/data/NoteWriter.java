@@ -0,0 +1,272 @@
+package com.fruity.notebook.data;
+
+import android.content.ContentProvider;
+import android.content.ContentProviderClient;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.provider.BaseColumns;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs note writes through the {@link NoteProvider} on a single background thread, so saving
+ * or deleting a large note never blocks the UI.
+ *
+ * Writes run one at a time in the order they were submitted, so the writes of a note can't
+ * overtake each other. The result of every write is delivered on the main thread.
+ */
+public final class NoteWriter {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = NoteWriter.class.getSimpleName();
+
+    /** Receives the result of a write on the main thread */
+    public interface Callback<T> {
+        void onWriteComplete(T result);
+    }
+
+    private static NoteWriter sInstance;
+
+    private final ContentResolver mResolver;
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(
+            runnable -> new Thread(runnable, LOG_TAG));
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private NoteWriter(Context context) {
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * Returns the writer shared by the whole app.
+     */
+    public static synchronized NoteWriter getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NoteWriter(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Inserts a note. The callback receives the URI of the new note, or null if the insert failed.
+     */
+    public void insert(final Uri uri, ContentValues values, @Nullable Callback<Uri> callback) {
+        final ContentValues copy = new ContentValues(values);
+        submit(() -> mResolver.insert(uri, copy), null, callback);
+    }
+
+    /**
+     * Updates the notes at the given URI. The callback receives the number of notes updated,
+     * 0 if the update failed.
+     */
+    public void update(final Uri uri, ContentValues values, @Nullable Callback<Integer> callback) {
+        final ContentValues copy = new ContentValues(values);
+        submit(() -> mResolver.update(uri, copy, null, null), 0, callback);
+    }
+
+    /**
+     * Saves the title and contain of a new note. Same as {@link #insert} with those two values,
+     * but when the provider runs in this process the values are written through its compiled
+     * statements, see {@link NoteProvider#insertNote(String, String)}.
+     */
+    public void insertNote(final String title, final String contain, @Nullable Callback<Uri> callback) {
+        submit(() -> {
+            ContentProviderClient client = acquireProvider();
+            try {
+                NoteProvider provider = localProvider(client);
+                if (provider == null) {
+                    return mResolver.insert(NoteContract.NoteEntry.CONTENT_URI, values(title, contain));
+                }
+                long id = provider.insertNote(title, contain);
+                return id == -1 ? null : ContentUris.withAppendedId(NoteContract.NoteEntry.CONTENT_URI, id);
+            } finally {
+                release(client);
+            }
+        }, null, callback);
+    }
+
+    /**
+     * Saves the title and contain of the note at the given note URI. Same as {@link #update}
+     * with those two values, through the fast path of the provider like
+     * {@link #insertNote(String, String, Callback)}.
+     */
+    public void updateNote(final Uri uri, final String title, final String contain,
+                           @Nullable Callback<Integer> callback) {
+        submit(() -> {
+            ContentProviderClient client = acquireProvider();
+            try {
+                NoteProvider provider = localProvider(client);
+                if (provider == null) {
+                    return mResolver.update(uri, values(title, contain), null, null);
+                }
+                return provider.updateNote(ContentUris.parseId(uri), title, contain);
+            } finally {
+                release(client);
+            }
+        }, 0, callback);
+    }
+
+    /**
+     * Deletes the notes at the given URI. The callback receives the number of notes deleted,
+     * 0 if the delete failed.
+     */
+    public void delete(final Uri uri, @Nullable Callback<Integer> callback) {
+        submit(() -> mResolver.delete(uri, null, null), 0, callback);
+    }
+
+    /**
+     * Deletes the notes at the given URI that match a selection without arguments, e.g. the ids
+     * picked in the notes list. The provider deletes them in one transaction and notifies once,
+     * however many there are. The callback receives the number of notes deleted, 0 if the
+     * delete failed.
+     */
+    public void delete(final Uri uri, @Nullable final String selection, @Nullable Callback<Integer> callback) {
+        submit(() -> mResolver.delete(uri, selection, null), 0, callback);
+    }
+
+    /**
+     * Counts the notes at the given URI that match a selection without arguments, all of them
+     * if it is null. The callback receives the count, or -1 if it couldn't be read. Being
+     * queued like a write, this sees every write queued before it.
+     */
+    public void count(final Uri uri, @Nullable final String selection, Callback<Integer> callback) {
+        submit(() -> {
+            try (Cursor cursor = mResolver.query(uri, new String[] { "count(*) AS " + BaseColumns._COUNT },
+                    selection, null, null)) {
+                return cursor != null && cursor.moveToFirst() ? cursor.getInt(0) : -1;
+            }
+        }, -1, callback);
+    }
+
+    /**
+     * Writes an archive of the notes that match a selection without arguments, all the notes if
+     * it is null, to the document at the given URI, see {@link NoteContract#METHOD_EXPORT_NOTES}.
+     * The callback receives the number of notes written, or null if the export failed.
+     */
+    public void export(final Uri document, @Nullable final String selection, Callback<Integer> callback) {
+        submit(() -> {
+            // Truncated, so a shorter archive doesn't keep the end of an older one
+            try (ParcelFileDescriptor file = mResolver.openFileDescriptor(document, "wt")) {
+                if (file == null) {
+                    return null;
+                }
+                // A local provider closes this very file, closing it again does nothing
+                Bundle extras = new Bundle();
+                extras.putParcelable(NoteContract.KEY_ARCHIVE_FILE, file);
+                Bundle result = mResolver.call(NoteContract.BASE_CONTENT_URI,
+                        NoteContract.METHOD_EXPORT_NOTES, selection, extras);
+                return result == null ? null : result.getInt(NoteContract.KEY_NOTE_COUNT);
+            }
+        }, null, callback);
+    }
+
+    /**
+     * Inserts many rows at the given URI at once. The callback receives the number of rows
+     * inserted, 0 if the insert failed.
+     */
+    public void bulkInsert(final Uri uri, ContentValues[] values, @Nullable Callback<Integer> callback) {
+        final ContentValues[] copy = new ContentValues[values.length];
+        for (int i = 0; i < values.length; i++) {
+            copy[i] = new ContentValues(values[i]);
+        }
+        submit(() -> mResolver.bulkInsert(uri, copy), 0, callback);
+    }
+
+    /**
+     * Removes the newest edits, at most count, from the edit history at the given URI, see
+     * {@link NoteContract.NoteHistoryEntry}. The callback receives them newest first, or null if
+     * they couldn't be read. Being queued like a write, this sees every edit inserted before it.
+     */
+    public void takeHistory(final Uri historyUri, final int count,
+                            Callback<List<ContentValues>> callback) {
+        submit(() -> {
+            Uri uri = historyUri.buildUpon()
+                    .appendQueryParameter(NoteContract.QUERY_PARAMETER_LIMIT, String.valueOf(count))
+                    .build();
+            List<ContentValues> edits = new ArrayList<>(count);
+            try (Cursor cursor = mResolver.query(uri, null, null, null, null)) {
+                if (cursor == null) {
+                    return null;
+                }
+                while (cursor.moveToNext()) {
+                    ContentValues edit = new ContentValues();
+                    DatabaseUtils.cursorRowToContentValues(cursor, edit);
+                    edits.add(edit);
+                }
+            }
+            if (!edits.isEmpty()) {
+                String oldest = edits.get(edits.size() - 1).getAsString(NoteContract.NoteHistoryEntry.COLUMN_SEQ);
+                mResolver.delete(historyUri, NoteContract.NoteHistoryEntry.COLUMN_SEQ + ">=?",
+                        new String[] { oldest });
+            }
+            return edits;
+        }, null, callback);
+    }
+
+    private ContentProviderClient acquireProvider() {
+        return mResolver.acquireContentProviderClient(NoteContract.CONTENT_AUTHORITY);
+    }
+
+    /**
+     * Returns the provider if it runs in this process, or null if its methods can only be
+     * reached through the resolver.
+     */
+    @Nullable
+    private static NoteProvider localProvider(@Nullable ContentProviderClient client) {
+        ContentProvider provider = client == null ? null : client.getLocalContentProvider();
+        return provider instanceof NoteProvider ? (NoteProvider) provider : null;
+    }
+
+    @SuppressWarnings("deprecation")
+    private static void release(@Nullable ContentProviderClient client) {
+        // close() only exists from API 24
+        if (client != null) {
+            client.release();
+        }
+    }
+
+    private static ContentValues values(String title, String contain) {
+        ContentValues values = new ContentValues();
+        values.put(NoteContract.NoteEntry.COLUMN_NOTE_NAME, title);
+        values.put(NoteContract.NoteEntry.COLUMN_NOTE_CONTAIN, contain);
+        return values;
+    }
+
+    /**
+     * Queues a write on the writer thread and posts its result, or the failure value if it
+     * threw, to the callback.
+     */
+    private <T> void submit(final Callable<T> write, final T failure, @Nullable final Callback<T> callback) {
+        mExecutor.execute(() -> {
+            T result;
+            try {
+                result = write.call();
+            } catch (Exception e) {
+                Log.e(LOG_TAG, "Note write failed", e);
+                result = failure;
+            }
+
+            if (callback != null) {
+                final T delivered = result;
+                mMainHandler.post(() -> callback.onWriteComplete(delivered));
+            }
+        });
+    }
+}
@@ -0,0 +1,121 @@
+package com.fruity.notebook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs operations in the style of JMH: warmup iterations first, then timed iterations, reported
+ * as the mean and percentiles of the time per operation. The results of a suite are written as
+ * JSON to the directory in the notebook.bench.out system property, so runs of different commits
+ * can be compared.
+ */
+final class BenchmarkRunner {
+
+    /** One operation, i is the iteration number, warmup included */
+    interface Operation {
+        void run(int i) throws Exception;
+    }
+
+    /** Timing of one benchmark at one data set size */
+    static final class Result {
+        final String name;
+        final int size;
+        final int iterations;
+        final double meanMicros;
+        final double p50Micros;
+        final double p90Micros;
+        final double p99Micros;
+
+        Result(String name, int size, long[] nanos) {
+            this.name = name;
+            this.size = size;
+            this.iterations = nanos.length;
+
+            long[] sorted = nanos.clone();
+            Arrays.sort(sorted);
+            long total = 0;
+            for (long sample : sorted) {
+                total += sample;
+            }
+            meanMicros = total / 1e3 / sorted.length;
+            p50Micros = percentile(sorted, 50);
+            p90Micros = percentile(sorted, 90);
+            p99Micros = percentile(sorted, 99);
+        }
+
+        private static double percentile(long[] sorted, int percent) {
+            return sorted[(sorted.length - 1) * percent / 100] / 1e3;
+        }
+    }
+
+    private final String mSuite;
+    private final List<Result> mResults = new ArrayList<>();
+
+    BenchmarkRunner(String suite) {
+        mSuite = suite;
+    }
+
+    /**
+     * Runs the operation warmup times untimed, then iterations times timed, and records the result.
+     */
+    Result measure(String name, int size, int warmup, int iterations, Operation operation)
+            throws Exception {
+        for (int i = 0; i < warmup; i++) {
+            operation.run(i);
+        }
+        long[] nanos = new long[iterations];
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            operation.run(warmup + i);
+            nanos[i] = System.nanoTime() - start;
+        }
+
+        Result result = new Result(name, size, nanos);
+        mResults.add(result);
+        System.out.printf(Locale.US, "%s.%s size=%d: mean %.1fus p50 %.1fus p90 %.1fus p99 %.1fus%n",
+                mSuite, name, size, result.meanMicros, result.p50Micros, result.p90Micros,
+                result.p99Micros);
+        return result;
+    }
+
+    /**
+     * Writes the results to notebook.bench.out/&lt;suite&gt;.json, or to build/benchmarks when the
+     * property isn't set.
+     */
+    File writeJson() throws IOException {
+        File dir = new File(System.getProperty("notebook.bench.out", "build/benchmarks"));
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File file = new File(dir, mSuite + ".json");
+
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"suite\": \"").append(mSuite).append("\",\n");
+        json.append("  \"commit\": \"").append(System.getProperty("notebook.bench.commit", "")).append("\",\n");
+        json.append("  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+        json.append("  \"unit\": \"us/op\",\n");
+        json.append("  \"results\": [");
+        for (int i = 0; i < mResults.size(); i++) {
+            Result result = mResults.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append(String.format(Locale.US, "    {\"benchmark\": \"%s\", \"size\": %d, \"iterations\": %d, "
+                            + "\"mean\": %.3f, \"p50\": %.3f, \"p90\": %.3f, \"p99\": %.3f}",
+                    result.name, result.size, result.iterations, result.meanMicros,
+                    result.p50Micros, result.p90Micros, result.p99Micros));
+        }
+        json.append("\n  ]\n}\n");
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+        return file;
+    }
+}
@@ -0,0 +1,182 @@
+package com.fruity.notebook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.view.ContextThemeWrapper;
+import android.widget.FrameLayout;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract;
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+import com.fruity.notebook.data.NoteProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Benchmarks the data layer as the app uses it: writes and reads through the
+ * {@link NoteProvider}, and binding list items, at several data set sizes. Results are written as
+ * JSON by {@link BenchmarkRunner}. Run only the benchmarks, on the full data sets, with
+ * ./gradlew :app:testDebugUnitTest -Pbenchmark
+ */
+@RunWith(RobolectricTestRunner.class)
+public class DataLayerBenchmark {
+
+    private static final int[] SIZES = Boolean.getBoolean("notebook.bench.full")
+            ? new int[] { 1_000, 10_000, 100_000 }
+            : new int[] { 1_000, 10_000 };
+
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 1_000;
+
+    /** Reading the whole catalog is much slower than the other operations */
+    private static final int CATALOG_WARMUP = 3;
+    private static final int CATALOG_ITERATIONS = 10;
+
+    /** Notes inserted per bulk insert while filling the notebook */
+    private static final int FILL_BATCH = 1_000;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+    private final Random mRandom = new Random(42);
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void dataLayer() throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner("DataLayerBenchmark");
+        for (int size : SIZES) {
+            mResolver.delete(NoteEntry.CONTENT_URI, null, null);
+            mResolver.delete(NoteEntry.CONTENT_TRASH_URI, null, null);
+            long[] ids = fill(size);
+            run(runner, size, ids);
+        }
+        assertTrue(runner.writeJson().isFile());
+    }
+
+    private void run(BenchmarkRunner runner, int size, long[] ids) throws Exception {
+        int operations = WARMUP + ITERATIONS;
+        long[] inserted = new long[operations];
+
+        runner.measure("insert", size, WARMUP, ITERATIONS, i -> {
+            Uri uri = mResolver.insert(NoteEntry.CONTENT_URI, note("Inserted " + i, i));
+            inserted[i] = ContentUris.parseId(uri);
+        });
+
+        ContentValues update = new ContentValues();
+        runner.measure("update", size, WARMUP, ITERATIONS, i -> {
+            update.put(NoteEntry.COLUMN_NOTE_CONTAIN, "Edited note " + i + "\nwith a second line");
+            assertEquals(1, mResolver.update(noteUri(ids), update, null, null));
+        });
+
+        runner.measure("query_note", size, WARMUP, ITERATIONS, i -> {
+            try (Cursor cursor = mResolver.query(noteUri(ids), null, null, null, null)) {
+                assertTrue(cursor.moveToFirst());
+            }
+        });
+
+        // Reopening the same note, served by the note cache after the first time
+        Uri cachedNote = ContentUris.withAppendedId(NoteEntry.CONTENT_URI, ids[0]);
+        runner.measure("query_cached_note", size, WARMUP, ITERATIONS, i -> {
+            try (Cursor cursor = mResolver.query(cachedNote, null, null, null, null)) {
+                assertTrue(cursor.moveToFirst());
+            }
+        });
+
+        runner.measure("query_page", size, WARMUP, ITERATIONS, i -> {
+            Uri page = NoteEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(NoteContract.QUERY_PARAMETER_LIMIT, String.valueOf(NotePager.PAGE_SIZE))
+                    .appendQueryParameter(NoteContract.QUERY_PARAMETER_BEFORE_ID,
+                            String.valueOf(ids[mRandom.nextInt(ids.length)]))
+                    .build();
+            try (Cursor cursor = mResolver.query(page, NoteRow.PROJECTION, null, null, null)) {
+                NoteRow.fromCursor(cursor);
+            }
+        });
+
+        runner.measure("query_catalog", size, CATALOG_WARMUP, CATALOG_ITERATIONS, i -> {
+            try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, NoteRow.PROJECTION, null, null,
+                    NoteEntry._ID + " DESC")) {
+                assertEquals(size + operations, NoteRow.fromCursor(cursor).size());
+            }
+        });
+
+        // Deletes the notes of the insert benchmark, so the next data set starts from the same size
+        runner.measure("delete", size, WARMUP, ITERATIONS, i -> assertEquals(1,
+                mResolver.delete(ContentUris.withAppendedId(NoteEntry.CONTENT_URI, inserted[i]), null, null)));
+
+        List<NoteRow> rows;
+        Uri firstPage = NoteEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(NoteContract.QUERY_PARAMETER_LIMIT, String.valueOf(NotePager.PAGE_SIZE))
+                .build();
+        try (Cursor cursor = mResolver.query(firstPage, NoteRow.PROJECTION, null, null,
+                NoteEntry._ID + " DESC")) {
+            rows = NoteRow.fromCursor(cursor);
+        }
+        NoteListAdapter adapter = new NoteListAdapter(mContext, id -> { });
+        NoteListAdapter.NoteViewHolder holder = adapter.onCreateViewHolder(
+                new FrameLayout(new ContextThemeWrapper(mContext, R.style.AppTheme)), 0);
+        adapter.close();
+        runner.measure("adapter_bind", size, WARMUP, ITERATIONS, i -> holder.bind(rows.get(i % rows.size())));
+    }
+
+    /** Fills the notebook with the given number of notes, and returns their ids */
+    private long[] fill(int size) {
+        ContentValues[] batch = new ContentValues[FILL_BATCH];
+        for (int i = 0; i < size; i += FILL_BATCH) {
+            for (int j = 0; j < FILL_BATCH; j++) {
+                batch[j] = note("Note " + (i + j), i + j);
+            }
+            mResolver.bulkInsert(NoteEntry.CONTENT_URI, batch);
+        }
+
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, new String[] { NoteEntry._ID },
+                null, null, null)) {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            assertEquals(size, ids.length);
+            return ids;
+        }
+    }
+
+    private Uri noteUri(long[] ids) {
+        return ContentUris.withAppendedId(NoteEntry.CONTENT_URI, ids[mRandom.nextInt(ids.length)]);
+    }
+
+    private static ContentValues note(String title, int i) {
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, title);
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, "Note number " + i
+                + "\nwith a second line and a few more words, like a short real note");
+        return values;
+    }
+}
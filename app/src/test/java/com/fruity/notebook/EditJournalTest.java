@@ -0,0 +1,195 @@
+package com.fruity.notebook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Looper;
+import android.widget.EditText;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract;
+import com.fruity.notebook.data.NoteContract.NoteHistoryEntry;
+import com.fruity.notebook.data.NoteProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+
+/**
+ * Tests for the undo and redo history of the editor, see {@link EditJournal}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EditJournalTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private Context mContext;
+    private NoteProvider mProvider;
+    private EditText mTitle;
+    private EditText mContain;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+        mTitle = new EditText(mContext);
+        mContain = new EditText(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void typing_isUndoneAndRedoneAsOneStep() {
+        EditJournal journal = new EditJournal(mContext, mTitle, mContain, null, () -> { });
+        journal.start();
+
+        for (char c : "milk".toCharArray()) {
+            mContain.getText().append(c);
+        }
+        mContain.getText().delete(3, 4);
+        assertEquals("mil", mContain.getText().toString());
+
+        assertTrue(journal.undo());
+        assertEquals("", mContain.getText().toString());
+        assertFalse(journal.canUndo());
+
+        assertTrue(journal.redo());
+        assertEquals("mil", mContain.getText().toString());
+        assertFalse(journal.canRedo());
+    }
+
+    @Test
+    public void loadedText_isNotAnEdit() {
+        mContain.setText("loaded");
+        EditJournal journal = new EditJournal(mContext, mTitle, mContain, null, () -> { });
+        journal.start();
+
+        assertFalse(journal.canUndo());
+        mTitle.getText().append("Groceries");
+        assertTrue(journal.undo());
+        assertEquals("", mTitle.getText().toString());
+        assertEquals("loaded", mContain.getText().toString());
+    }
+
+    @Test
+    public void editOfLargeNote_keepsOnlyTheEdit() {
+        StringBuilder large = new StringBuilder(1024 * 1024);
+        while (large.length() < 1024 * 1024) {
+            large.append("All work and no play. ");
+        }
+        mContain.setText(large);
+        EditJournal journal = new EditJournal(mContext, mTitle, mContain, null, () -> { });
+        journal.start();
+
+        mContain.getText().replace(500000, 500004, "Most");
+        assertTrue(journal.bytes() < 1024);
+
+        assertTrue(journal.undo());
+        assertEquals(large.toString(), mContain.getText().toString());
+    }
+
+    @Test
+    public void oldestEdits_moveToTheHistoryAndBack() throws InterruptedException {
+        ContentValues note = new ContentValues();
+        note.put(NoteContract.NoteEntry.COLUMN_NOTE_NAME, "Groceries");
+        Uri noteUri = mContext.getContentResolver().insert(NoteContract.NoteEntry.CONTENT_URI, note);
+        Uri historyUri = NoteHistoryEntry.buildHistoryUri(ContentUris.parseId(noteUri));
+
+        EditJournal journal = new EditJournal(mContext, mTitle, mContain, noteUri, () -> { });
+        journal.start();
+
+        // Each insert is too long to merge with the one before
+        char[] block = new char[4096];
+        int edits = (EditJournal.MAX_BYTES / (2 * block.length)) * 2;
+        for (int i = 0; i < edits; i++) {
+            Arrays.fill(block, (char) ('a' + i % 26));
+            mContain.getText().append(new String(block));
+        }
+        assertTrue(journal.bytes() <= EditJournal.MAX_BYTES);
+        awaitHistory(historyUri);
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (journal.canUndo() && System.currentTimeMillis() < deadline) {
+            journal.undo();
+            // Lets the edits read back from the history table arrive
+            Thread.sleep(1);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        assertEquals("", mContain.getText().toString());
+    }
+
+    @Test
+    public void pasteLargerThanTheLimit_movesToTheHistoryAndBack() throws InterruptedException {
+        ContentValues note = new ContentValues();
+        note.put(NoteContract.NoteEntry.COLUMN_NOTE_NAME, "Groceries");
+        Uri noteUri = mContext.getContentResolver().insert(NoteContract.NoteEntry.CONTENT_URI, note);
+        Uri historyUri = NoteHistoryEntry.buildHistoryUri(ContentUris.parseId(noteUri));
+
+        EditJournal journal = new EditJournal(mContext, mTitle, mContain, noteUri, () -> { });
+        journal.start();
+
+        char[] paste = new char[EditJournal.MAX_BYTES];
+        Arrays.fill(paste, 'p');
+        mContain.getText().append(new String(paste));
+        assertEquals(0, journal.bytes());
+        assertTrue(journal.canUndo());
+        awaitHistory(historyUri);
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        journal.undo();
+        while (mContain.length() > 0 && System.currentTimeMillis() < deadline) {
+            // Lets the paste read back from the history table arrive, it is undone then
+            Thread.sleep(1);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        assertEquals("", mContain.getText().toString());
+    }
+
+    @Test
+    public void pasteLargerThanTheLimit_isDroppedWithoutHistory() {
+        EditJournal journal = new EditJournal(mContext, mTitle, mContain, null, () -> { });
+        journal.start();
+
+        char[] paste = new char[EditJournal.MAX_BYTES];
+        Arrays.fill(paste, 'p');
+        mContain.getText().append(new String(paste));
+        assertEquals(0, journal.bytes());
+        assertFalse(journal.canUndo());
+
+        // Typing after it is recorded again
+        mContain.getText().append("milk");
+        assertTrue(journal.undo());
+        assertEquals(new String(paste), mContain.getText().toString());
+    }
+
+    /** Waits until the history of the note holds some edits */
+    private void awaitHistory(Uri historyUri) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            try (Cursor cursor = mContext.getContentResolver().query(historyUri, null, null, null, null)) {
+                if (cursor.getCount() > 0) {
+                    return;
+                }
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("No edit was moved to the history");
+    }
+}
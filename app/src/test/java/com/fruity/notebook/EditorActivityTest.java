@@ -0,0 +1,130 @@
+package com.fruity.notebook;
+
+import static org.junit.Assert.assertEquals;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.AlertDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.database.Cursor;
+import android.os.Looper;
+import android.widget.EditText;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract;
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+import com.fruity.notebook.data.NoteProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.android.controller.ActivityController;
+import org.robolectric.shadows.ShadowAlertDialog;
+
+/**
+ * Tests for keeping the new note of the editor when the activity is recreated, e.g. on a
+ * rotation.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class EditorActivityTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private Context mContext;
+    private NoteProvider mProvider;
+    private ActivityController<EditorActivity> mController;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+        mController = Robolectric.buildActivity(EditorActivity.class,
+                new Intent(mContext, EditorActivity.class)).setup();
+    }
+
+    @After
+    public void tearDown() {
+        mController.pause().stop().destroy();
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void recreate_editsTheNoteCreatedBefore() throws InterruptedException {
+        title().getText().append("Groceries");
+        mController.get().saveNote();
+        awaitCount(1);
+
+        mController.recreate();
+        assertEquals("Groceries", title().getText().toString());
+
+        title().getText().append(" list");
+        mController.get().saveNote();
+        awaitTitle("Groceries list");
+        assertEquals(1, count());
+
+        // The note was created by this editor, so discarding still trashes it
+        discard();
+        awaitCount(0);
+    }
+
+    @Test
+    public void recreate_whileTheNoteIsInserted_editsThatNote() throws InterruptedException {
+        title().getText().append("Groceries");
+        mController.get().saveNote();
+        // The insert completes once the activity is recreated
+        mController.recreate();
+
+        title().getText().append(" list");
+        mController.get().saveNote();
+        awaitTitle("Groceries list");
+        assertEquals(1, count());
+    }
+
+    private EditText title() {
+        return mController.get().findViewById(R.id.edit_title);
+    }
+
+    private void discard() {
+        mController.get().onBackPressed();
+        AlertDialog dialog = (AlertDialog) ShadowAlertDialog.getLatestAlertDialog();
+        dialog.getButton(DialogInterface.BUTTON_POSITIVE).performClick();
+    }
+
+    private void awaitCount(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (count() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        assertEquals(count, count());
+    }
+
+    private void awaitTitle(String title) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!title.equals(firstTitle()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        assertEquals(title, firstTitle());
+    }
+
+    /** Counts the live notes, the trashed ones aren't listed */
+    private int count() {
+        try (Cursor cursor = mContext.getContentResolver().query(NoteEntry.CONTENT_URI, null, null, null, null)) {
+            return cursor.getCount();
+        }
+    }
+
+    private String firstTitle() {
+        try (Cursor cursor = mContext.getContentResolver().query(NoteEntry.CONTENT_URI,
+                new String[] { NoteEntry.COLUMN_NOTE_NAME }, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getString(0) : null;
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.fruity.notebook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Looper;
+import android.widget.EditText;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract;
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+import com.fruity.notebook.data.NoteProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Tests for the autosave of the editor, and for discarding the changes once they were autosaved,
+ * see {@link NoteAutosaver}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteAutosaverTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private Context mContext;
+    private NoteProvider mProvider;
+    private EditText mTitle;
+    private EditText mContain;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+        mTitle = new EditText(mContext);
+        mContain = new EditText(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void discard_writesTheLoadedNoteBack() throws InterruptedException {
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, "Groceries");
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, "milk");
+        Uri noteUri = mContext.getContentResolver().insert(NoteEntry.CONTENT_URI, values);
+
+        NoteAutosaver autosaver = new NoteAutosaver(mContext, mTitle, mContain, noteUri, uri -> { });
+        autosaver.load("Groceries", "milk");
+        assertFalse(autosaver.hasChanges());
+
+        mContain.getText().append(" and eggs");
+        save(autosaver);
+        assertEquals("milk and eggs", contain(noteUri));
+        assertTrue(autosaver.hasChanges());
+
+        autosaver.discard();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!"milk".equals(contain(noteUri)) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("milk", contain(noteUri));
+    }
+
+    @Test
+    public void discard_trashesTheNewNote() throws InterruptedException {
+        NoteAutosaver autosaver = new NoteAutosaver(mContext, mTitle, mContain, null, uri -> { });
+        mTitle.getText().append("Groceries");
+        save(autosaver);
+        assertEquals(1, count());
+
+        autosaver.discard();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (count() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, count());
+    }
+
+    @Test
+    public void savesAskedDuringAWrite_shareTheNextWrite() throws InterruptedException {
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, "Groceries");
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, "milk");
+        Uri noteUri = mContext.getContentResolver().insert(NoteEntry.CONTENT_URI, values);
+
+        NoteAutosaver autosaver = new NoteAutosaver(mContext, mTitle, mContain, noteUri, uri -> { });
+        autosaver.load("Groceries", "milk");
+
+        // The write completes on the main thread, so the later saves wait for it
+        int[] saved = new int[1];
+        mContain.getText().append(" and eggs");
+        autosaver.save(success -> saved[0]++);
+        mContain.getText().append(" and bread");
+        autosaver.save(success -> saved[0]++);
+        mContain.getText().append(" and tea");
+        autosaver.save(success -> saved[0]++);
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (saved[0] < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        assertEquals(3, saved[0]);
+        assertEquals("milk and eggs and bread and tea", contain(noteUri));
+
+        // The version loaded, the first write and the one write of the later edits
+        try (Cursor cursor = mContext.getContentResolver().query(
+                NoteContract.NoteRevisionEntry.buildRevisionsUri(ContentUris.parseId(noteUri)),
+                null, null, null, null)) {
+            assertEquals(3, cursor.getCount());
+        }
+    }
+
+    /** Saves the edits now and waits until they are written */
+    private static void save(NoteAutosaver autosaver) throws InterruptedException {
+        boolean[] saved = new boolean[1];
+        autosaver.save(success -> saved[0] = success);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!saved[0] && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        assertTrue(saved[0]);
+    }
+
+    private String contain(Uri noteUri) {
+        try (Cursor cursor = mContext.getContentResolver().query(noteUri,
+                new String[] { NoteEntry.COLUMN_NOTE_CONTAIN }, null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        }
+    }
+
+    /** Counts the live notes, the trashed ones aren't listed */
+    private int count() {
+        try (Cursor cursor = mContext.getContentResolver().query(NoteEntry.CONTENT_URI, null, null, null, null)) {
+            return cursor.getCount();
+        }
+    }
+}
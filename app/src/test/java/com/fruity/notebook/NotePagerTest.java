@@ -0,0 +1,111 @@
+package com.fruity.notebook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Looper;
+
+import androidx.recyclerview.widget.ListUpdateCallback;
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract;
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+import com.fruity.notebook.data.NoteProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Tests for the paging of the notes list, see {@link NotePager}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NotePagerTest {
+
+    private static final long TIMEOUT_MS = 5000;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+    private NotePager mPager;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        if (mPager != null) {
+            mPager.close();
+        }
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void notesAddedWhileOpen_areSplitIntoPages() throws InterruptedException {
+        insert(0, 10);
+        mPager = new NotePager(mResolver, new IgnoringCallback());
+        awaitCount(10);
+        assertEquals(1, mPager.getPageCount());
+
+        // All newer than the first page, so they all land in it
+        insert(10, NotePager.PAGE_SIZE * 3);
+        awaitCount(10 + NotePager.PAGE_SIZE * 3);
+        assertEquals(4, mPager.getPageCount());
+
+        // Newest first across the new pages
+        for (int position = 0; position < mPager.getCount(); position++) {
+            NoteRow row = mPager.getRow(position);
+            assertNotNull(row);
+            assertEquals("Note " + (mPager.getCount() - 1 - position), row.title);
+        }
+    }
+
+    private void insert(int first, int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = new ContentValues();
+            values[i].put(NoteEntry.COLUMN_NOTE_NAME, "Note " + (first + i));
+        }
+        assertEquals(count, mResolver.bulkInsert(NoteEntry.CONTENT_URI, values));
+    }
+
+    /** Waits until the pages found so far hold the given number of notes */
+    private void awaitCount(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (mPager.getCount() != count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            shadowOf(Looper.getMainLooper()).idle();
+        }
+        assertEquals(count, mPager.getCount());
+    }
+
+    private static final class IgnoringCallback implements ListUpdateCallback {
+        @Override
+        public void onInserted(int position, int count) {
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+        }
+
+        @Override
+        public void onChanged(int position, int count, Object payload) {
+        }
+    }
+}
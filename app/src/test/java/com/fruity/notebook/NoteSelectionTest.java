@@ -0,0 +1,148 @@
+package com.fruity.notebook;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract;
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+import com.fruity.notebook.data.NoteProvider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Tests for {@link NoteSelection} and the bulk operations it selects the notes of.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteSelectionTest {
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void pickedNotes_areDeletedTogether() {
+        long groceries = id(insert("Groceries"));
+        long recipes = id(insert("Recipes"));
+        long chores = id(insert("Chores"));
+
+        NoteSelection selection = new NoteSelection();
+        selection.toggle(groceries);
+        selection.toggle(chores);
+        selection.toggle(recipes);
+        selection.toggle(recipes);
+        assertTrue(selection.isSelected(groceries));
+        assertFalse(selection.isSelected(recipes));
+        assertFalse(selection.isAll());
+        assertEquals(2, selection.size());
+
+        assertEquals(2, mResolver.delete(NoteEntry.CONTENT_URI, selection.toSelection(), null));
+        assertEquals(1, count());
+    }
+
+    @Test
+    public void selectAll_keepsTheUnpickedNotes() {
+        insert("Groceries");
+        long recipes = id(insert("Recipes"));
+        insert("Chores");
+
+        NoteSelection selection = new NoteSelection();
+        selection.selectAll();
+        assertNull(selection.toSelection());
+        selection.toggle(recipes);
+        assertFalse(selection.isSelected(recipes));
+        assertTrue(selection.isAll());
+        assertEquals(1, selection.size());
+
+        assertEquals(2, mResolver.delete(NoteEntry.CONTENT_URI, selection.toSelection(), null));
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, new String[] { NoteEntry._ID },
+                null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(recipes, cursor.getLong(0));
+        }
+    }
+
+    @Test
+    public void clearedSelection_picksNothing() {
+        NoteSelection selection = new NoteSelection();
+        selection.selectAll();
+        selection.clear();
+        assertFalse(selection.isAll());
+        assertEquals(0, selection.size());
+        assertEquals(NoteEntry._ID + " IN ()", selection.toSelection());
+    }
+
+    @Test
+    public void selectAll_isCountedByTheProvider() {
+        // More notes than the first page of the list, as the whole table is selected
+        long first = 0;
+        for (int i = 0; i < NotePager.PAGE_SIZE * 2; i++) {
+            long id = id(insert("Note " + i));
+            first = first == 0 ? id : first;
+        }
+        mResolver.delete(ContentUris.withAppendedId(NoteEntry.CONTENT_URI, first), null, null);
+
+        NoteSelection selection = new NoteSelection();
+        selection.selectAll();
+        selection.toggle(first + 1);
+        // The trashed note isn't counted, though it isn't unpicked
+        assertEquals(NotePager.PAGE_SIZE * 2 - 2, count(selection.toSelection()));
+
+        selection.toggle(first + 1);
+        assertEquals(NotePager.PAGE_SIZE * 2 - 1, count(selection.toSelection()));
+    }
+
+    private Uri insert(String title) {
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, title);
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, title.toLowerCase());
+        return mResolver.insert(NoteEntry.CONTENT_URI, values);
+    }
+
+    private static long id(Uri uri) {
+        return ContentUris.parseId(uri);
+    }
+
+    /** Counts the notes like the catalog does, see {@link com.fruity.notebook.data.NoteWriter#count} */
+    private int count(String selection) {
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI,
+                new String[] { "count(*) AS " + NoteEntry._COUNT }, selection, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        }
+    }
+
+    private int count() {
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, null, null, null, null)) {
+            return cursor.getCount();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Measures the export and import throughput of {@link NoteProvider}, in notes and MiB per second.
+ * Run with -Dnotebook.bench.full=true for 100k notes.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteArchiveBenchmark {
+
+    private static final int NOTES = Boolean.getBoolean("notebook.bench.full") ? 100_000 : 10_000;
+
+    /** Notes inserted per bulk insert while filling the notebook */
+    private static final int FILL_BATCH = 1_000;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+        mFile = new File(mContext.getCacheDir(), "bench.archive");
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+        mFile.delete();
+    }
+
+    @Test
+    public void exportAndImportThroughput() throws Exception {
+        fill();
+
+        long start = System.nanoTime();
+        try (OutputStream out = new FileOutputStream(mFile)) {
+            assertEquals(NOTES, mProvider.exportNotes(out));
+        }
+        report("export", System.nanoTime() - start);
+
+        mResolver.delete(NoteEntry.CONTENT_URI, null, null);
+
+        start = System.nanoTime();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(mFile))) {
+            assertEquals(NOTES, mProvider.importNotes(in));
+        }
+        report("import", System.nanoTime() - start);
+
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, new String[] { NoteEntry._ID },
+                null, null, null)) {
+            assertEquals(NOTES, cursor.getCount());
+        }
+    }
+
+    private void fill() {
+        ContentValues[] batch = new ContentValues[FILL_BATCH];
+        for (int i = 0; i < NOTES; i += FILL_BATCH) {
+            for (int j = 0; j < FILL_BATCH; j++) {
+                batch[j] = new ContentValues();
+                batch[j].put(NoteEntry.COLUMN_NOTE_NAME, "Note " + (i + j));
+                batch[j].put(NoteEntry.COLUMN_NOTE_CONTAIN, "Exported note number " + (i + j)
+                        + "\nwith a second line and a few more words to make it realistic");
+            }
+            mResolver.bulkInsert(NoteEntry.CONTENT_URI, batch);
+        }
+    }
+
+    private void report(String direction, long nanos) {
+        double seconds = nanos / 1e9;
+        System.out.printf("%s: %d notes in %.1fms, %.0f notes/sec, %.1f MiB/sec (archive %.1f MiB)%n",
+                direction, NOTES, nanos / 1e6, NOTES / seconds,
+                mFile.length() / (1024.0 * 1024.0) / seconds, mFile.length() / (1024.0 * 1024.0));
+    }
+}
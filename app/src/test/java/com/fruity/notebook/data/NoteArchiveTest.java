@@ -0,0 +1,209 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link NoteArchive} and the export and import of {@link NoteProvider}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteArchiveTest {
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void exportedNotes_importUnchanged() throws Exception {
+        char[] chunked = new char[NoteChunks.THRESHOLD * 3];
+        Arrays.fill(chunked, 'x');
+        String[][] notes = {
+                { "Groceries", "milk\neggs" },
+                { "Empty", "" },
+                { "No contain", null },
+                { "caf\u00e9 \uD83D\uDCDD", "na\u00efve \uD83D\uDCDD" },
+                { "Log", NoteCodecTest.log(NoteDbHelper.Tuning.DEFAULT.compressThreshold * 2) },
+                { "Large", new String(chunked) } };
+        for (String[] note : notes) {
+            insert(note[0], note[1]);
+        }
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        assertEquals(notes.length, mProvider.exportNotes(archive));
+
+        mResolver.delete(NoteEntry.CONTENT_URI, null, null);
+        assertEquals(notes.length, mProvider.importNotes(new ByteArrayInputStream(archive.toByteArray())));
+
+        // Imported in the same order, so the ids keep the order of the notes
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, new String[] {
+                NoteEntry.COLUMN_NOTE_NAME, NoteEntry.COLUMN_NOTE_CONTAIN, NoteEntry.COLUMN_NOTE_CHUNKED },
+                null, null, NoteEntry._ID)) {
+            assertEquals(notes.length, cursor.getCount());
+            for (String[] note : notes) {
+                cursor.moveToNext();
+                assertEquals(note[0], cursor.getString(0));
+                if (cursor.getInt(2) != 0) {
+                    assertEquals(note[1], readChunks(cursor.getPosition()));
+                } else {
+                    assertEquals(note[1], cursor.getString(1));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void truncatedArchive_importsNothing() throws Exception {
+        insert("One", "first");
+        insert("Two", "second");
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        mProvider.exportNotes(archive);
+        mResolver.delete(NoteEntry.CONTENT_URI, null, null);
+
+        // Cut in the middle of the second note
+        byte[] bytes = Arrays.copyOf(archive.toByteArray(), archive.size() - 4);
+        try {
+            mProvider.importNotes(new ByteArrayInputStream(bytes));
+            fail("A truncated archive was imported");
+        } catch (IllegalArgumentException expected) {
+            // The whole import is rolled back
+        }
+        assertEquals(0, count());
+
+        try {
+            mProvider.importNotes(new ByteArrayInputStream("not an archive".getBytes("UTF-8")));
+            fail("Text was imported as an archive");
+        } catch (IllegalArgumentException expected) {
+            assertEquals(0, count());
+        }
+    }
+
+    @Test
+    public void importCall_readsTheFile() throws Exception {
+        insert("Groceries", "milk");
+        File file = new File(mContext.getCacheDir(), "notes.archive");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            mProvider.exportNotes(out);
+        }
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(NoteContract.KEY_ARCHIVE_FILE,
+                ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY));
+        Bundle result = mResolver.call(NoteContract.BASE_CONTENT_URI,
+                NoteContract.METHOD_IMPORT_NOTES, null, extras);
+
+        assertEquals(1, result.getInt(NoteContract.KEY_NOTE_COUNT));
+        assertEquals(2, count());
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void exportCall_writesTheSelectedNotes() throws Exception {
+        insert("Groceries", "milk");
+        insert("Recipes", "bread");
+        insert("Chores", "dishes");
+        File file = new File(mContext.getCacheDir(), "notes.archive");
+
+        Bundle extras = new Bundle();
+        extras.putParcelable(NoteContract.KEY_ARCHIVE_FILE, ParcelFileDescriptor.open(file,
+                ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_CREATE));
+        Bundle result = mResolver.call(NoteContract.BASE_CONTENT_URI, NoteContract.METHOD_EXPORT_NOTES,
+                NoteEntry.COLUMN_NOTE_NAME + " IN ('Groceries','Chores')", extras);
+        assertEquals(2, result.getInt(NoteContract.KEY_NOTE_COUNT));
+
+        try (FileInputStream in = new FileInputStream(file)) {
+            NoteArchive.Reader reader = new NoteArchive.Reader(in);
+            assertTrue(reader.next());
+            assertEquals("Groceries", reader.title());
+            assertTrue(reader.next());
+            assertEquals("Chores", reader.title());
+            assertFalse(reader.next());
+        }
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void nullContain_staysNull() throws Exception {
+        insert("No contain", null);
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        mProvider.exportNotes(archive);
+
+        NoteArchive.Reader reader = new NoteArchive.Reader(new ByteArrayInputStream(archive.toByteArray()));
+        assertTrue(reader.next());
+        assertEquals("No contain", reader.title());
+        assertNull(reader.contain());
+        assertFalse(reader.next());
+    }
+
+    private void insert(String title, String contain) {
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, title);
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, contain);
+        mResolver.insert(NoteEntry.CONTENT_URI, values);
+    }
+
+    private int count() {
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, new String[] { NoteEntry._ID },
+                null, null, null)) {
+            return cursor.getCount();
+        }
+    }
+
+    /** Reads the contain of the note at the given position, oldest first, from its chunks */
+    private String readChunks(int position) {
+        long id;
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, new String[] { NoteEntry._ID },
+                null, null, NoteEntry._ID)) {
+            cursor.moveToPosition(position);
+            id = cursor.getLong(0);
+        }
+        StringBuilder text = new StringBuilder();
+        try (Cursor cursor = mResolver.query(NoteContract.NoteChunkEntry.buildChunksUri(id),
+                new String[] { NoteContract.NoteChunkEntry.COLUMN_TEXT }, null, null, null)) {
+            while (cursor.moveToNext()) {
+                text.append(cursor.getString(0));
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,104 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+
+/**
+ * Measures the import throughput of {@link NoteProvider}, in notes per second, for single
+ * inserts, {@link ContentResolver#bulkInsert} and {@link ContentResolver#applyBatch}.
+ * Run with -Dnotebook.bench.full=true for the larger import.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteBulkInsertBenchmark {
+
+    private static final int NOTES = Boolean.getBoolean("notebook.bench.full") ? 50_000 : 5_000;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void importThroughput() throws Exception {
+        ContentValues[] notes = notes();
+
+        long start = System.nanoTime();
+        for (ContentValues note : notes) {
+            mResolver.insert(NoteEntry.CONTENT_URI, note);
+        }
+        report("insert", System.nanoTime() - start);
+        clear();
+
+        start = System.nanoTime();
+        assertEquals(NOTES, mResolver.bulkInsert(NoteEntry.CONTENT_URI, notes));
+        report("bulkInsert", System.nanoTime() - start);
+        assertEquals(NOTES, count());
+        clear();
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (ContentValues note : notes) {
+            operations.add(ContentProviderOperation.newInsert(NoteEntry.CONTENT_URI).withValues(note).build());
+        }
+        start = System.nanoTime();
+        mResolver.applyBatch(NoteContract.CONTENT_AUTHORITY, operations);
+        report("applyBatch", System.nanoTime() - start);
+        assertEquals(NOTES, count());
+    }
+
+    private static ContentValues[] notes() {
+        ContentValues[] notes = new ContentValues[NOTES];
+        for (int i = 0; i < NOTES; i++) {
+            notes[i] = new ContentValues();
+            notes[i].put(NoteEntry.COLUMN_NOTE_NAME, "Note " + i);
+            notes[i].put(NoteEntry.COLUMN_NOTE_CONTAIN, "Imported note number " + i + "\nwith a second line");
+        }
+        return notes;
+    }
+
+    private void clear() {
+        mResolver.delete(NoteEntry.CONTENT_URI, null, null);
+        mResolver.delete(NoteEntry.CONTENT_TRASH_URI, null, null);
+    }
+
+    private int count() {
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, new String[] { NoteEntry._ID },
+                null, null, null)) {
+            return cursor.getCount();
+        }
+    }
+
+    private static void report(String method, long nanos) {
+        System.out.printf("%s: %d notes in %.1fms, %.0f notes/sec%n",
+                method, NOTES, nanos / 1e6, NOTES / (nanos / 1e9));
+    }
+}
@@ -0,0 +1,179 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Tests for {@link NoteCache} and how {@link NoteProvider} keeps it up to date.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteCacheTest {
+
+    private static final String[] PROJECTION = {
+            NoteEntry._ID, NoteEntry.COLUMN_NOTE_NAME, NoteEntry.COLUMN_NOTE_CONTAIN };
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void reopenedNote_isAHit() {
+        Uri uri = insert("Groceries", "milk");
+
+        assertEquals("milk", contain(uri));
+        assertEquals("milk", contain(uri));
+
+        Bundle stats = mResolver.call(NoteContract.BASE_CONTENT_URI,
+                NoteContract.METHOD_NOTE_CACHE_STATS, null, null);
+        assertEquals(1, stats.getInt(NoteContract.KEY_CACHE_MISSES));
+        assertEquals(1, stats.getInt(NoteContract.KEY_CACHE_HITS));
+    }
+
+    @Test
+    public void update_invalidatesTheNote() {
+        Uri uri = insert("Groceries", "milk");
+        contain(uri);
+
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, "eggs");
+        mResolver.update(uri, values, null, null);
+        assertEquals("eggs", contain(uri));
+
+        // An update of the whole table only drops the notes it changed
+        Uri other = insert("Other", "bread");
+        contain(other);
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, "butter");
+        mResolver.update(NoteEntry.CONTENT_URI, values, NoteEntry.COLUMN_NOTE_NAME + "=?",
+                new String[] { "Groceries" });
+        assertEquals("butter", contain(uri));
+        assertNotNull(mProvider.getNoteCache().get(ContentUris.parseId(other)));
+    }
+
+    @Test
+    public void delete_invalidatesTheNote() {
+        Uri uri = insert("Groceries", "milk");
+        contain(uri);
+
+        mResolver.delete(NoteEntry.CONTENT_URI, NoteEntry.COLUMN_NOTE_NAME + "=?",
+                new String[] { "Groceries" });
+        assertNull(mProvider.getNoteCache().get(ContentUris.parseId(uri)));
+        try (Cursor cursor = mResolver.query(uri, PROJECTION, null, null, null)) {
+            assertEquals(0, cursor.getCount());
+        }
+    }
+
+    @Test
+    public void batchUpdate_invalidatesTheNote() throws Exception {
+        Uri uri = insert("Groceries", "milk");
+        contain(uri);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newUpdate(uri)
+                .withValue(NoteEntry.COLUMN_NOTE_CONTAIN, "eggs").build());
+        mResolver.applyBatch(NoteContract.CONTENT_AUTHORITY, operations);
+
+        assertEquals("eggs", contain(uri));
+    }
+
+    @Test
+    public void staleStamp_isNotCached() {
+        NoteCache cache = new NoteCache(NoteCache.DEFAULT_MAX_BYTES);
+        long stamp = cache.stamp();
+        cache.invalidate(1);
+
+        cache.put(new NoteCache.NoteRecord(1, "Groceries", "milk", "milk", 0, 0, 0), stamp);
+        assertNull(cache.get(1));
+    }
+
+    @Test
+    public void cache_isBoundedByBytes() {
+        NoteCache cache = new NoteCache(64 * 1024);
+        char[] text = new char[1024];
+        Arrays.fill(text, 'a');
+
+        for (int id = 0; id < 100; id++) {
+            cache.put(new NoteCache.NoteRecord(id, "Note", new String(text), null, 0, 0, 0), cache.stamp());
+        }
+        assertTrue(cache.sizeBytes() <= 64 * 1024);
+        assertTrue(cache.evictionCount() > 0);
+
+        // A note larger than an eighth of the cache is never cached
+        char[] large = new char[8 * 1024];
+        cache.put(new NoteCache.NoteRecord(1000, "Large", new String(large), null, 0, 0, 0), cache.stamp());
+        assertNull(cache.get(1000));
+    }
+
+    @Test
+    public void projectionWithOtherColumns_isNotCovered() {
+        assertTrue(NoteCache.covers(null));
+        assertTrue(NoteCache.covers(PROJECTION));
+        assertFalse(NoteCache.covers(new String[] { "length(" + NoteEntry.COLUMN_NOTE_CONTAIN + ")" }));
+    }
+
+    @Test
+    public void reopeningANote_neverReadsTheDatabaseAgain() {
+        Uri uri = insert("Groceries", "milk");
+        for (int i = 0; i < 100; i++) {
+            assertEquals("milk", contain(uri));
+        }
+
+        // The time it saves is measured by DataLayerBenchmark
+        Bundle stats = mResolver.call(NoteContract.BASE_CONTENT_URI,
+                NoteContract.METHOD_NOTE_CACHE_STATS, null, null);
+        assertEquals(1, stats.getInt(NoteContract.KEY_CACHE_MISSES));
+        assertEquals(99, stats.getInt(NoteContract.KEY_CACHE_HITS));
+    }
+
+    private Uri insert(String title, String contain) {
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, title);
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, contain);
+        return mResolver.insert(NoteEntry.CONTENT_URI, values);
+    }
+
+    private String contain(Uri uri) {
+        try (Cursor cursor = mResolver.query(uri, PROJECTION, null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(2);
+        }
+    }
+}
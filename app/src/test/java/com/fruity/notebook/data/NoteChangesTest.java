@@ -0,0 +1,161 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteChangeEntry;
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the change feed of {@link NoteProvider}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteChangesTest {
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void everyWrite_isLoggedInOrder() {
+        long start = latest();
+        Uri uri = insert("Groceries");
+        long id = ContentUris.parseId(uri);
+
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, "milk");
+        mResolver.update(uri, values, null, null);
+        mResolver.delete(uri, null, null);
+
+        List<long[]> changes = changes(start);
+        assertEquals(3, changes.size());
+        assertChange(changes.get(0), NoteChangeEntry.OP_INSERT, id);
+        assertChange(changes.get(1), NoteChangeEntry.OP_UPDATE, id);
+        assertChange(changes.get(2), NoteChangeEntry.OP_DELETE, id);
+        assertTrue(changes.get(0)[0] < changes.get(1)[0]);
+        assertTrue(changes.get(1)[0] < changes.get(2)[0]);
+        assertEquals(changes.get(2)[0], latest());
+
+        // Only the changes after the given one are returned
+        assertEquals(1, changes(changes.get(1)[0]).size());
+        assertEquals(0, changes(latest()).size());
+    }
+
+    @Test
+    public void selectionAndBatchWrites_logEveryNote() throws Exception {
+        long first = ContentUris.parseId(insert("One"));
+        long second = ContentUris.parseId(insert("Two"));
+        long start = latest();
+
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, "same");
+        mResolver.update(NoteEntry.CONTENT_URI, values, null, null);
+        assertEquals(2, changes(start).size());
+
+        start = latest();
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        operations.add(ContentProviderOperation.newDelete(
+                ContentUris.withAppendedId(NoteEntry.CONTENT_URI, first)).build());
+        operations.add(ContentProviderOperation.newDelete(
+                ContentUris.withAppendedId(NoteEntry.CONTENT_URI, second)).build());
+        mResolver.applyBatch(NoteContract.CONTENT_AUTHORITY, operations);
+
+        List<long[]> changes = changes(start);
+        assertEquals(2, changes.size());
+        assertChange(changes.get(0), NoteChangeEntry.OP_DELETE, first);
+        assertChange(changes.get(1), NoteChangeEntry.OP_DELETE, second);
+    }
+
+    @Test
+    public void trimmedChanges_returnAReset() {
+        long start = latest();
+        for (int i = 0; i < 5; i++) {
+            insert("Note " + i);
+        }
+
+        NoteDbHelper dbHelper = new NoteDbHelper(mContext);
+        try {
+            NoteDbHelper.trimChanges(dbHelper.getWritableDatabase(), 2);
+        } finally {
+            dbHelper.close();
+        }
+
+        List<long[]> changes = changes(start);
+        assertEquals(1, changes.size());
+        assertEquals(NoteChangeEntry.OP_RESET, changes.get(0)[1]);
+        assertEquals(latest(), changes.get(0)[0]);
+
+        // The changes still in the log can be read
+        assertEquals(1, changes(latest() - 1).size());
+        // Nothing follows the latest change
+        assertTrue(changes(latest()).isEmpty());
+
+        // So can a position from another database
+        assertEquals(NoteChangeEntry.OP_RESET, changes(latest() + 10).get(0)[1]);
+    }
+
+    private Uri insert(String title) {
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, title);
+        return mResolver.insert(NoteEntry.CONTENT_URI, values);
+    }
+
+    /** Sequence number of the latest change, 0 if there is none */
+    private long latest() {
+        try (Cursor cursor = mResolver.query(NoteChangeEntry.CONTENT_URI, null, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    /** The changes after the given one, as {seq, op, note id} */
+    private List<long[]> changes(long since) {
+        List<long[]> changes = new ArrayList<>();
+        try (Cursor cursor = mResolver.query(NoteChangeEntry.buildChangesUri(since), null, null, null, null)) {
+            while (cursor.moveToNext()) {
+                changes.add(new long[] {
+                        cursor.getLong(cursor.getColumnIndexOrThrow(NoteChangeEntry.COLUMN_SEQ)),
+                        cursor.getLong(cursor.getColumnIndexOrThrow(NoteChangeEntry.COLUMN_OP)),
+                        cursor.getLong(cursor.getColumnIndexOrThrow(NoteChangeEntry.COLUMN_NOTE_ID)) });
+            }
+        }
+        return changes;
+    }
+
+    private static void assertChange(long[] change, int op, long noteId) {
+        assertEquals(op, change[1]);
+        assertEquals(noteId, change[2]);
+    }
+}
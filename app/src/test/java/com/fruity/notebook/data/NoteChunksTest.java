@@ -0,0 +1,220 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteChunkEntry;
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for the chunked storage of large notes by {@link NoteProvider} and {@link NoteChunks}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteChunksTest {
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void largeNote_isChunked() {
+        String contain = text(NoteChunks.THRESHOLD * 3);
+        Uri uri = insert(contain);
+
+        try (Cursor cursor = mResolver.query(uri, new String[] {
+                NoteEntry.COLUMN_NOTE_CONTAIN, NoteEntry.COLUMN_NOTE_CHUNKED, NoteEntry.COLUMN_NOTE_SUMMARY },
+                null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            assertNull(cursor.getString(0));
+            assertEquals(1, cursor.getInt(1));
+            assertEquals(NoteSummary.of(contain), cursor.getString(2));
+        }
+        assertEquals(contain, read(uri));
+    }
+
+    @Test
+    public void smallEdit_rewritesOneChunk() {
+        StringBuilder contain = new StringBuilder(text(NoteChunks.THRESHOLD * 4));
+        Uri uri = insert(contain.toString());
+        Map<Long, String> before = chunks(uri);
+
+        int index = contain.length() / 2;
+        while (Character.isSurrogate(contain.charAt(index))) {
+            index++;
+        }
+        contain.setCharAt(index, '#');
+        update(uri, contain.toString());
+
+        Map<Long, String> after = chunks(uri);
+        assertEquals(before.keySet(), after.keySet());
+        int changed = 0;
+        for (Map.Entry<Long, String> chunk : after.entrySet()) {
+            if (!chunk.getValue().equals(before.get(chunk.getKey()))) {
+                changed++;
+            }
+        }
+        assertEquals(1, changed);
+        assertEquals(contain.toString(), read(uri));
+    }
+
+    @Test
+    public void largeInsertAndRemoval_keepTheText() {
+        StringBuilder contain = new StringBuilder(text(NoteChunks.THRESHOLD * 2));
+        Uri uri = insert(contain.toString());
+
+        contain.insert(NoteChunks.CHUNK_SIZE + 10, text(NoteChunks.MAX_CHUNK_SIZE * 3));
+        update(uri, contain.toString());
+        assertEquals(contain.toString(), read(uri));
+
+        contain.delete(100, NoteChunks.MAX_CHUNK_SIZE * 2);
+        update(uri, contain.toString());
+        assertEquals(contain.toString(), read(uri));
+
+        contain.append(text(NoteChunks.CHUNK_SIZE + 7));
+        update(uri, contain.toString());
+        assertEquals(contain.toString(), read(uri));
+    }
+
+    @Test
+    public void shrinkingNote_movesBackToNotesTable() {
+        Uri uri = insert(text(NoteChunks.THRESHOLD * 2));
+        update(uri, "short");
+
+        try (Cursor cursor = mResolver.query(uri, new String[] {
+                NoteEntry.COLUMN_NOTE_CONTAIN, NoteEntry.COLUMN_NOTE_CHUNKED }, null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("short", cursor.getString(0));
+            assertEquals(0, cursor.getInt(1));
+        }
+        assertTrue(chunks(uri).isEmpty());
+    }
+
+    @Test
+    public void chunkedNote_isSearchedThroughItsBody() {
+        String start = text(NoteChunks.THRESHOLD);
+        Uri uri = insert(start + " kaleidoscope\n" + text(NoteChunks.THRESHOLD));
+        assertTrue(chunks(uri).size() > 2);
+        assertEquals(1, search("kaleido"));
+
+        // Only the chunks that changed are written, but the whole text is indexed again
+        update(uri, start + " telescope\n" + text(NoteChunks.THRESHOLD));
+        assertEquals(0, search("kaleido"));
+        assertEquals(1, search("telescope"));
+
+        // Back to a plain contain
+        update(uri, "microscope");
+        assertEquals(0, search("telescope"));
+        assertEquals(1, search("microscope"));
+    }
+
+    @Test
+    public void purgedNote_losesItsChunks() {
+        Uri uri = insert(text(NoteChunks.THRESHOLD * 2));
+        mResolver.delete(uri, null, null);
+        // Kept while the note is in the trash
+        assertFalse(chunks(uri).isEmpty());
+
+        mResolver.delete(NoteEntry.buildTrashUri(ContentUris.parseId(uri)), null, null);
+        assertTrue(chunks(uri).isEmpty());
+    }
+
+    @Test
+    public void bulkInsert_chunksLargeNotes() {
+        String contain = text(NoteChunks.THRESHOLD + 1);
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, "Large");
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, contain);
+        assertEquals(1, mResolver.bulkInsert(NoteEntry.CONTENT_URI, new ContentValues[] { values }));
+
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, new String[] { NoteEntry._ID },
+                null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(contain, read(ContentUris.withAppendedId(NoteEntry.CONTENT_URI, cursor.getLong(0))));
+        }
+    }
+
+    /** Text of the given length with a surrogate pair every few chars, so chunks can't split them */
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append("line ").append(text.length()).append(" \uD83D\uDCDD\n");
+        }
+        return text.toString();
+    }
+
+    private Uri insert(String contain) {
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, "Large");
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, contain);
+        return mResolver.insert(NoteEntry.CONTENT_URI, values);
+    }
+
+    private void update(Uri uri, String contain) {
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, contain);
+        assertEquals(1, mResolver.update(uri, values, null, null));
+    }
+
+    private Map<Long, String> chunks(Uri uri) {
+        Map<Long, String> chunks = new HashMap<>();
+        try (Cursor cursor = mResolver.query(NoteChunkEntry.buildChunksUri(ContentUris.parseId(uri)),
+                new String[] { NoteChunkEntry.COLUMN_SEQ, NoteChunkEntry.COLUMN_TEXT }, null, null, null)) {
+            while (cursor.moveToNext()) {
+                chunks.put(cursor.getLong(0), cursor.getString(1));
+            }
+        }
+        return chunks;
+    }
+
+    private int search(String text) {
+        try (Cursor cursor = mResolver.query(Uri.withAppendedPath(NoteEntry.CONTENT_SEARCH_URI, text),
+                null, null, null, null)) {
+            return cursor.getCount();
+        }
+    }
+
+    private String read(Uri uri) {
+        StringBuilder contain = new StringBuilder();
+        try (Cursor cursor = mResolver.query(NoteChunkEntry.buildChunksUri(ContentUris.parseId(uri)),
+                new String[] { NoteChunkEntry.COLUMN_TEXT }, null, null, null)) {
+            while (cursor.moveToNext()) {
+                contain.append(cursor.getString(0));
+            }
+        }
+        return contain.toString();
+    }
+}
@@ -0,0 +1,119 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Tests for {@link NoteCodec} and the compressed contain of {@link NoteProvider}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteCodecTest {
+
+    private static final int THRESHOLD = NoteDbHelper.Tuning.DEFAULT.compressThreshold;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void packedText_unpacksToTheSameText() {
+        String text = log(THRESHOLD * 2) + " caf\u00e9 \uD83D\uDCDD";
+        byte[] packed = NoteCodec.pack(text, THRESHOLD);
+
+        assertNotNull(packed);
+        assertEquals(NoteCodec.CODEC_DEFLATE, packed[0]);
+        assertTrue(packed.length < text.length() / 2);
+        assertEquals(text, NoteCodec.unpack(packed));
+    }
+
+    @Test
+    public void shortText_isNotPacked() {
+        assertNull(NoteCodec.pack(log(THRESHOLD - 1), THRESHOLD));
+        assertNull(NoteCodec.pack(log(THRESHOLD * 2), 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownMarker_isRejected() {
+        NoteCodec.unpack(new byte[] { 9, 0, 0, 0, 1, 0 });
+    }
+
+    @Test
+    public void largeContain_isStoredPackedAndReadPlain() {
+        String contain = log(THRESHOLD * 2);
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, "Log");
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, contain);
+        Uri uri = mResolver.insert(NoteEntry.CONTENT_URI, values);
+
+        try (Cursor cursor = mResolver.query(uri, new String[] { NoteEntry.COLUMN_NOTE_CONTAIN },
+                null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(Cursor.FIELD_TYPE_STRING, cursor.getType(0));
+            assertEquals(contain, cursor.getString(0));
+        }
+
+        // The notes table itself only holds the packed contain
+        NoteDbHelper dbHelper = new NoteDbHelper(mContext);
+        try (Cursor cursor = dbHelper.getReadableDatabase().rawQuery(
+                "SELECT typeof(" + NoteEntry.COLUMN_NOTE_CONTAIN + "), typeof("
+                        + NoteCodec.COLUMN_CONTAIN_PACKED + ") FROM " + NoteEntry.TABLE_NAME, null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("null", cursor.getString(0));
+            assertEquals("blob", cursor.getString(1));
+        } finally {
+            dbHelper.close();
+        }
+
+        // Shrinking the note stores it plain again
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, "short");
+        mResolver.update(uri, values, null, null);
+        try (Cursor cursor = mResolver.query(uri, null, null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("short", cursor.getString(cursor.getColumnIndex(NoteEntry.COLUMN_NOTE_CONTAIN)));
+        }
+    }
+
+    /** Log lines, the kind of text users paste into notes */
+    static String log(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; text.length() < length; i++) {
+            text.append("2024-05-0").append(i % 9 + 1).append(" 12:").append(i % 60)
+                    .append(" I/NoteProvider: query notes/").append(i * 7 % 1000)
+                    .append(" took ").append(i % 17).append("ms\n");
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+}
@@ -0,0 +1,111 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+
+/**
+ * Compares the database size, write latency and read latency of compressed contains against
+ * plain TEXT, for notes of pasted logs. Run with -Dnotebook.bench.full=true for more notes.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteCompressionBenchmark {
+
+    private static final int NOTES = Boolean.getBoolean("notebook.bench.full") ? 2_000 : 200;
+
+    /** Length of each note in chars, above the compression threshold but not chunked */
+    private static final int NOTE_LENGTH = 48 * 1024;
+
+    private static final NoteDbHelper.Tuning PLAIN = new NoteDbHelper.Tuning(
+            NoteDbHelper.Tuning.DEFAULT.synchronous, NoteDbHelper.Tuning.DEFAULT.cacheSize,
+            NoteDbHelper.Tuning.DEFAULT.mmapSize, NoteDbHelper.Tuning.DEFAULT.checkpointInterval, 0);
+
+    private Context mContext;
+    private NoteProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("bench-plain.db");
+        mContext.deleteDatabase("bench-packed.db");
+    }
+
+    @Test
+    public void packedVersusPlain() {
+        run("plain", new NoteDbHelper(mContext, "bench-plain.db", PLAIN));
+        run("packed", new NoteDbHelper(mContext, "bench-packed.db", NoteDbHelper.Tuning.DEFAULT));
+    }
+
+    private void run(String name, NoteDbHelper dbHelper) {
+        mProvider.setDbHelper(dbHelper);
+
+        long[] writes = new long[NOTES];
+        Uri[] uris = new Uri[NOTES];
+        for (int i = 0; i < NOTES; i++) {
+            ContentValues values = new ContentValues();
+            values.put(NoteEntry.COLUMN_NOTE_NAME, "Log " + i);
+            values.put(NoteEntry.COLUMN_NOTE_CONTAIN, i + NoteCodecTest.log(NOTE_LENGTH));
+
+            long start = System.nanoTime();
+            uris[i] = mProvider.insert(NoteEntry.CONTENT_URI, values);
+            writes[i] = System.nanoTime() - start;
+        }
+
+        long[] reads = new long[NOTES];
+        for (int i = 0; i < NOTES; i++) {
+            long start = System.nanoTime();
+            try (Cursor cursor = mProvider.query(uris[i],
+                    new String[] { NoteEntry.COLUMN_NOTE_CONTAIN }, null, null, null)) {
+                cursor.moveToFirst();
+                assertEquals(NOTE_LENGTH + String.valueOf(i).length(), cursor.getString(0).length());
+            }
+            reads[i] = System.nanoTime() - start;
+        }
+
+        System.out.printf("%s: %d notes, db %.1f MiB, write p50 %.2fms p90 %.2fms, read p50 %.2fms p90 %.2fms%n",
+                name, NOTES, size(dbHelper) / (1024.0 * 1024.0),
+                percentile(writes, 50), percentile(writes, 90),
+                percentile(reads, 50), percentile(reads, 90));
+
+        dbHelper.close();
+    }
+
+    /** Size of the database in bytes, including the pages still in the write-ahead log */
+    private static long size(NoteDbHelper dbHelper) {
+        try (Cursor pages = dbHelper.getReadableDatabase().rawQuery("PRAGMA page_count", null);
+             Cursor pageSize = dbHelper.getReadableDatabase().rawQuery("PRAGMA page_size", null)) {
+            pages.moveToFirst();
+            pageSize.moveToFirst();
+            return pages.getLong(0) * pageSize.getLong(0);
+        }
+    }
+
+    /** Returns the given percentile of the samples, in milliseconds */
+    private static double percentile(long[] samples, int percent) {
+        long[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        return sorted[(sorted.length - 1) * percent / 100] / 1e6;
+    }
+}
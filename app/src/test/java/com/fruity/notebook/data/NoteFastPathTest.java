@@ -0,0 +1,167 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteChunkEntry;
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the single note writes of {@link NoteProvider} through its compiled statements.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteFastPathTest {
+
+    private static final String[] PROJECTION = {
+            NoteEntry.COLUMN_NOTE_NAME, NoteEntry.COLUMN_NOTE_CONTAIN, NoteEntry.COLUMN_NOTE_SUMMARY,
+            NoteEntry.COLUMN_NOTE_CHUNKED };
+
+    private static final int WARMUP = 50;
+    private static final int WRITES = 200;
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void fastPath_storesTheNoteLikeTheResolver() {
+        long id = mProvider.insertNote("Groceries", "milk\nand eggs");
+        Uri uri = ContentUris.withAppendedId(NoteEntry.CONTENT_URI, id);
+        assertEquals(Arrays.asList("Groceries", "milk\nand eggs", "milk and eggs", "0"), read(uri));
+
+        // Too large for the notes table, then back to a short contain
+        String large = text(NoteChunks.THRESHOLD + 1);
+        assertEquals(1, mProvider.updateNote(id, "Groceries", large));
+        assertEquals("1", read(uri).get(3));
+        assertEquals(large, chunks(id));
+
+        assertEquals(1, mProvider.updateNote(id, "Shopping", "bread"));
+        assertEquals(Arrays.asList("Shopping", "bread", "bread", "0"), read(uri));
+        assertEquals("", chunks(id));
+
+        assertEquals(0, mProvider.updateNote(id + 1, "Missing", "note"));
+    }
+
+    @Test
+    public void fastPath_isSeenByReaders() {
+        long id = mProvider.insertNote("Groceries", "milk");
+        Uri uri = ContentUris.withAppendedId(NoteEntry.CONTENT_URI, id);
+        // Puts the note in the note cache
+        assertEquals("milk", read(uri).get(1));
+
+        long before;
+        try (Cursor cursor = mResolver.query(NoteContract.NoteChangeEntry.CONTENT_URI, null, null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            before = cursor.getLong(0);
+        }
+        mProvider.updateNote(id, "Groceries", "milk and eggs");
+
+        assertEquals("milk and eggs", read(uri).get(1));
+        try (Cursor cursor = mResolver.query(NoteContract.NoteChangeEntry.buildChangesUri(before),
+                null, null, null, null)) {
+            assertEquals(1, cursor.getCount());
+        }
+    }
+
+    @Test
+    public void fastPath_allocatesLessThanTheResolver() {
+        long id = mProvider.insertNote("Groceries", "milk");
+        Uri uri = ContentUris.withAppendedId(NoteEntry.CONTENT_URI, id);
+        String[] contains = new String[WARMUP + WRITES];
+        for (int i = 0; i < contains.length; i++) {
+            contains[i] = "Note number " + i + "\nwith a second line";
+        }
+
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < WARMUP; i++) {
+            mProvider.updateNote(id, "Groceries", contains[i]);
+            values.put(NoteEntry.COLUMN_NOTE_CONTAIN, contains[i]);
+            mResolver.update(uri, values, null, null);
+        }
+
+        long start = allocatedBytes();
+        for (int i = WARMUP; i < contains.length; i++) {
+            mProvider.updateNote(id, "Groceries", contains[i]);
+        }
+        long fast = (allocatedBytes() - start) / WRITES;
+
+        start = allocatedBytes();
+        for (int i = WARMUP; i < contains.length; i++) {
+            ContentValues update = new ContentValues();
+            update.put(NoteEntry.COLUMN_NOTE_NAME, "Groceries");
+            update.put(NoteEntry.COLUMN_NOTE_CONTAIN, contains[i]);
+            mResolver.update(uri, update, null, null);
+        }
+        long regular = (allocatedBytes() - start) / WRITES;
+
+        assertTrue("bytes allocated per update: fast path " + fast + ", resolver " + regular,
+                fast * 2 < regular);
+    }
+
+    private List<String> read(Uri uri) {
+        try (Cursor cursor = mResolver.query(uri, PROJECTION, null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            return Arrays.asList(cursor.getString(0), cursor.getString(1), cursor.getString(2),
+                    cursor.getString(3));
+        }
+    }
+
+    private String chunks(long id) {
+        StringBuilder text = new StringBuilder();
+        try (Cursor cursor = mResolver.query(NoteChunkEntry.buildChunksUri(id),
+                new String[] { NoteChunkEntry.COLUMN_TEXT }, null, null, null)) {
+            while (cursor.moveToNext()) {
+                text.append(cursor.getString(0));
+            }
+        }
+        return text.toString();
+    }
+
+    /** Bytes allocated so far by the calling thread */
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        while (text.length() < length) {
+            text.append("All work and no play. ");
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+}
@@ -0,0 +1,120 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Tests for the database maintenance, see {@link NoteMaintenance}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteMaintenanceTest {
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void deletedNotes_giveTheirPagesBack() {
+        ContentValues[] notes = new ContentValues[200];
+        for (int i = 0; i < notes.length; i++) {
+            notes[i] = new ContentValues();
+            notes[i].put(NoteEntry.COLUMN_NOTE_NAME, "Note " + i);
+            notes[i].put(NoteEntry.COLUMN_NOTE_CONTAIN, text(2000, i));
+        }
+        mResolver.bulkInsert(NoteEntry.CONTENT_URI, notes);
+        mResolver.delete(NoteEntry.CONTENT_URI, null, null);
+        mResolver.delete(NoteEntry.CONTENT_TRASH_URI, null, null);
+
+        Bundle report = maintenance();
+        assertTrue(report.getBoolean(NoteContract.KEY_MAINTENANCE_COMPLETE));
+        assertFalse(report.getBoolean(NoteContract.KEY_MAINTENANCE_FULL_VACUUM));
+        assertTrue(report.getLong(NoteContract.KEY_MAINTENANCE_FREE_PAGES_BEFORE) > 0);
+        assertEquals(0, report.getLong(NoteContract.KEY_MAINTENANCE_FREE_PAGES_AFTER));
+        assertTrue(report.getLong(NoteContract.KEY_MAINTENANCE_SIZE_AFTER)
+                < report.getLong(NoteContract.KEY_MAINTENANCE_SIZE_BEFORE));
+    }
+
+    @Test
+    public void databaseWithoutAutoVacuum_isRebuiltOnce() {
+        mProvider.insertNote("Groceries", "milk");
+        NoteDbHelper other = new NoteDbHelper(mContext);
+        try {
+            SQLiteDatabase db = other.getWritableDatabase();
+            db.execSQL("PRAGMA auto_vacuum = NONE");
+            db.execSQL("VACUUM");
+            assertEquals(0, autoVacuum(db));
+        } finally {
+            other.close();
+        }
+
+        assertTrue(maintenance().getBoolean(NoteContract.KEY_MAINTENANCE_FULL_VACUUM));
+        assertFalse(maintenance().getBoolean(NoteContract.KEY_MAINTENANCE_FULL_VACUUM));
+
+        // The notes survive the rebuild
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, null, null, null, null)) {
+            assertEquals(1, cursor.getCount());
+        }
+    }
+
+    @Test
+    public void canceledMaintenance_stopsBeforeItsSteps() {
+        CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+        Bundle report = mProvider.runMaintenance(signal);
+        assertFalse(report.getBoolean(NoteContract.KEY_MAINTENANCE_COMPLETE));
+        assertFalse(report.containsKey(NoteContract.KEY_MAINTENANCE_ANALYZE_MILLIS));
+    }
+
+    private Bundle maintenance() {
+        return mResolver.call(NoteContract.BASE_CONTENT_URI, NoteContract.METHOD_MAINTENANCE, null, null);
+    }
+
+    private static long autoVacuum(SQLiteDatabase db) {
+        try (Cursor cursor = db.rawQuery("PRAGMA auto_vacuum", null)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getLong(0);
+        }
+    }
+
+    private static String text(int length, int seed) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = seed; text.length() < length; i++) {
+            text.append("Line ").append(i).append(" of note ").append(seed).append(".\n");
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+}
@@ -0,0 +1,143 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Tests for the operation metrics of {@link NoteProvider}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteMetricsTest {
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void operations_areCounted() {
+        Uri uri = mResolver.insert(NoteEntry.CONTENT_URI, note("Groceries", "milk"));
+        mResolver.bulkInsert(NoteEntry.CONTENT_URI, new ContentValues[] {
+                note("Books", "a novel"), note("Films", "a comedy") });
+
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, "milk and eggs");
+        mResolver.update(uri, values, null, null);
+
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, new String[] {
+                NoteEntry.COLUMN_NOTE_NAME }, null, null, null)) {
+            while (cursor.moveToNext()) {
+                cursor.getString(0);
+            }
+        }
+        mResolver.delete(NoteEntry.CONTENT_URI, null, null);
+
+        Bundle metrics = metrics();
+        assertOperation(metrics, NoteContract.METRICS_INSERT, 1, 1);
+        assertOperation(metrics, NoteContract.METRICS_BULK_INSERT, 1, 2);
+        assertOperation(metrics, NoteContract.METRICS_UPDATE, 1, 1);
+        assertOperation(metrics, NoteContract.METRICS_QUERY, 1, 3);
+        assertOperation(metrics, NoteContract.METRICS_DELETE, 1, 3);
+
+        // "Groceries", "Books" and "Films", two bytes per char
+        assertEquals(2 * 19, metrics.getLong(NoteContract.KEY_METRICS_CURSOR_BYTES));
+        assertEquals(4, metrics.getLong(NoteContract.KEY_METRICS_NOTIFICATIONS));
+
+        // The note cache counters are included
+        assertTrue(metrics.containsKey(NoteContract.KEY_CACHE_HITS));
+    }
+
+    @Test
+    public void unreadCursor_countsNoRows() {
+        mResolver.insert(NoteEntry.CONTENT_URI, note("Groceries", "milk"));
+        mResolver.query(NoteEntry.CONTENT_URI, null, null, null, null).close();
+
+        Bundle query = metrics().getBundle(NoteContract.METRICS_QUERY);
+        assertEquals(1, query.getLong(NoteContract.KEY_METRICS_COUNT));
+        assertEquals(0, query.getLong(NoteContract.KEY_METRICS_ROWS));
+    }
+
+    @Test
+    public void percentiles_useTheBucketUpperBounds() {
+        long[] histogram = new long[NoteMetrics.BUCKETS];
+        histogram[NoteMetrics.bucket(500)] = 90;
+        histogram[NoteMetrics.bucket(3_000)] = 9;
+        histogram[NoteMetrics.bucket(10_000_000_000L)] = 1;
+
+        assertEquals(0, NoteMetrics.bucket(500));
+        assertEquals(1, NoteMetrics.percentile(histogram, 50));
+        assertEquals(1, NoteMetrics.percentile(histogram, 90));
+        assertEquals(4, NoteMetrics.percentile(histogram, 99));
+        assertEquals(1L << (NoteMetrics.BUCKETS - 2), NoteMetrics.percentile(histogram, 100));
+        assertEquals(0, NoteMetrics.percentile(new long[NoteMetrics.BUCKETS], 50));
+    }
+
+    @Test
+    public void dump_printsEveryOperation() {
+        mResolver.insert(NoteEntry.CONTENT_URI, note("Groceries", "milk"));
+
+        StringWriter out = new StringWriter();
+        mProvider.dump(null, new PrintWriter(out), new String[0]);
+        String dump = out.toString();
+        assertTrue(dump, dump.contains(NoteContract.METRICS_QUERY));
+        assertTrue(dump, dump.contains(NoteContract.METRICS_BULK_INSERT));
+        assertTrue(dump, dump.contains("Change notifications: 1"));
+    }
+
+    private Bundle metrics() {
+        return mResolver.call(NoteContract.BASE_CONTENT_URI, NoteContract.METHOD_METRICS, null, null);
+    }
+
+    private static void assertOperation(Bundle metrics, String name, long count, long rows) {
+        Bundle operation = metrics.getBundle(name);
+        assertEquals(name, count, operation.getLong(NoteContract.KEY_METRICS_COUNT));
+        assertEquals(name, rows, operation.getLong(NoteContract.KEY_METRICS_ROWS));
+
+        long recorded = 0;
+        for (long bucket : operation.getLongArray(NoteContract.KEY_METRICS_HISTOGRAM)) {
+            recorded += bucket;
+        }
+        assertEquals(name, count, recorded);
+        assertTrue(name, operation.getLong(NoteContract.KEY_METRICS_P99_MICROS) > 0);
+    }
+
+    private static ContentValues note(String title, String contain) {
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, title);
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, contain);
+        return values;
+    }
+}
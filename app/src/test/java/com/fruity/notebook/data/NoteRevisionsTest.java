@@ -0,0 +1,214 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+import com.fruity.notebook.data.NoteContract.NoteRevisionEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the revisions of the notes, see {@link NoteRevisions} and {@link NoteDelta}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteRevisionsTest {
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void delta_rebuildsTheNewText() {
+        String[][] pairs = {
+                { "", "milk" },
+                { "milk", "" },
+                { "milk and eggs", "milk, bread and eggs" },
+                { "same", "same" },
+                { "café 😀 ok", "café 😁 ok" },
+        };
+        for (String[] pair : pairs) {
+            byte[] delta = NoteDelta.encode(pair[0], pair[1]);
+            assertEquals(pair[1], NoteDelta.apply(pair[0], delta, pair[1].length()));
+        }
+    }
+
+    @Test
+    public void smallEditOfLargeNote_storesASmallDelta() {
+        String large = text(200 * 1024);
+        long id = mProvider.insertNote("Diary", large);
+        String edited = large.substring(0, 100000) + "!" + large.substring(100000);
+        mProvider.updateNote(id, "Diary", edited);
+
+        try (Cursor cursor = mResolver.query(NoteRevisionEntry.buildRevisionsUri(id), null, null, null, null)) {
+            // The version the update replaced is kept as the first keyframe
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals(2, cursor.getLong(cursor.getColumnIndexOrThrow(NoteRevisionEntry.COLUMN_REVISION)));
+            assertEquals(0, cursor.getInt(cursor.getColumnIndexOrThrow(NoteRevisionEntry.COLUMN_KEYFRAME)));
+            assertTrue(cursor.getLong(cursor.getColumnIndexOrThrow(NoteRevisionEntry.COLUMN_SIZE)) < 32);
+        }
+        assertEquals(large, contain(id, 1));
+        assertEquals(edited, contain(id, 2));
+    }
+
+    @Test
+    public void everyRevision_isRebuilt() {
+        Uri uri = mResolver.insert(NoteEntry.CONTENT_URI, values("Groceries", "milk"));
+        long id = ContentUris.parseId(uri);
+
+        List<String> versions = new ArrayList<>();
+        versions.add("milk");
+        String contain = "milk";
+        for (int i = 0; i < NoteRevisions.KEYFRAME_INTERVAL * 2 + 3; i++) {
+            contain = i % 5 == 0 ? contain.substring(1) : contain + " item" + i;
+            versions.add(contain);
+            if (i % 2 == 0) {
+                mProvider.updateNote(id, "Groceries", contain);
+            } else {
+                mResolver.update(uri, values("Groceries", contain), null, null);
+            }
+        }
+
+        for (int revision = 1; revision <= versions.size(); revision++) {
+            assertEquals(versions.get(revision - 1), contain(id, revision));
+        }
+
+        // No revision is further than one interval from its keyframe
+        try (Cursor cursor = mResolver.query(NoteRevisionEntry.buildRevisionsUri(id), null, null, null, null)) {
+            int keyframe = cursor.getColumnIndexOrThrow(NoteRevisionEntry.COLUMN_KEYFRAME);
+            int sinceKeyframe = 0;
+            cursor.moveToLast();
+            do {
+                sinceKeyframe = cursor.getInt(keyframe) == 1 ? 0 : sinceKeyframe + 1;
+                assertTrue(sinceKeyframe < NoteRevisions.KEYFRAME_INTERVAL);
+            } while (cursor.moveToPrevious());
+        }
+    }
+
+    @Test
+    public void smallEditOfChunkedNote_onlyReadsTheEditedChunks() {
+        String large = text(1024 * 1024);
+        long id = mProvider.insertNote("Diary", large);
+        // The first update reads the whole note, to keep the version it replaces
+        mProvider.updateNote(id, "Diary", large + "!");
+        String edited = large.substring(0, 500000) + "?" + large.substring(500000) + "!";
+
+        NoteDbHelper dbHelper = new NoteDbHelper(mContext);
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        SQLiteStatement insert = NoteRevisions.compileInsert(db);
+        db.beginTransaction();
+        try {
+            long start = allocatedBytes();
+            NoteRevisions.Previous previous = NoteRevisions.before(db, id, "Diary", true, edited);
+            NoteRevisions.add(db, insert, previous, System.currentTimeMillis(),
+                    NoteDbHelper.Tuning.DEFAULT.compressThreshold);
+            long allocated = allocatedBytes() - start;
+
+            assertTrue(previous.delta.length < 32);
+            // Reading the whole note would allocate at least two bytes per char
+            assertTrue("bytes allocated: " + allocated, allocated < large.length());
+        } finally {
+            db.endTransaction();
+            insert.close();
+            dbHelper.close();
+        }
+
+        mProvider.updateNote(id, "Diary", edited);
+        assertEquals(edited, contain(id, 3));
+    }
+
+    @Test
+    public void unchangedWrite_addsNoRevision() {
+        long id = mProvider.insertNote("Groceries", "milk");
+        mProvider.updateNote(id, "Groceries", "milk and eggs");
+        mProvider.updateNote(id, "Groceries", "milk and eggs");
+
+        try (Cursor cursor = mResolver.query(NoteRevisionEntry.buildRevisionsUri(id), null, null, null, null)) {
+            assertEquals(2, cursor.getCount());
+        }
+    }
+
+    @Test
+    public void missingRevision_hasNoRow() {
+        long id = mProvider.insertNote("Groceries", "milk");
+        try (Cursor cursor = mResolver.query(NoteRevisionEntry.buildRevisionUri(id, 1), null, null, null, null)) {
+            assertFalse(cursor.moveToFirst());
+        }
+    }
+
+    @Test
+    public void purgedNote_losesItsRevisions() {
+        long id = mProvider.insertNote("Groceries", "milk");
+        mProvider.updateNote(id, "Groceries", "milk and eggs");
+        mResolver.delete(ContentUris.withAppendedId(NoteEntry.CONTENT_URI, id), null, null);
+        mResolver.delete(NoteEntry.buildTrashUri(id), null, null);
+
+        try (Cursor cursor = mResolver.query(NoteRevisionEntry.buildRevisionsUri(id), null, null, null, null)) {
+            assertEquals(0, cursor.getCount());
+        }
+    }
+
+    private String contain(long id, long revision) {
+        try (Cursor cursor = mResolver.query(NoteRevisionEntry.buildRevisionUri(id, revision),
+                null, null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(cursor.getColumnIndexOrThrow(NoteRevisionEntry.COLUMN_CONTAIN));
+        }
+    }
+
+    private static ContentValues values(String title, String contain) {
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, title);
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, contain);
+        return values;
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static String text(int length) {
+        StringBuilder text = new StringBuilder(length);
+        for (int i = 0; text.length() < length; i++) {
+            text.append("Line ").append(i).append(" of the diary.\n");
+        }
+        text.setLength(length);
+        return text.toString();
+    }
+}
@@ -0,0 +1,240 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.net.Uri;
+import android.os.Bundle;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+import com.fruity.notebook.data.NoteContract.NoteHistoryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Tests for the schema of {@link NoteDbHelper}: the upgrade path, the note times, the
+ * indexes behind the sorted notes lists, and warming up the database.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteSchemaTest {
+
+    /** Columns of the notes list */
+    private static final String[] LIST_COLUMNS = {
+            NoteEntry._ID, NoteEntry.COLUMN_NOTE_NAME, NoteEntry.COLUMN_NOTE_SUMMARY };
+
+    private static final String UPGRADE_DATABASE = "upgrade.db";
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+        mContext.deleteDatabase(UPGRADE_DATABASE);
+    }
+
+    @Test
+    public void recentlyEditedList_walksACoveringIndex() {
+        String plan = queryPlan(NoteEntry.SORT_RECENTLY_EDITED);
+        assertTrue(plan, plan.contains("COVERING INDEX notes_updated_at"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void titleList_walksACoveringIndex() {
+        String plan = queryPlan(NoteEntry.SORT_TITLE);
+        assertTrue(plan, plan.contains("COVERING INDEX notes_title"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void pagedList_walksACoveringIndex() {
+        // The pages after the first one, see NotePager
+        String plan = queryPlan(DatabaseUtils.concatenateWhere(NoteTrash.LIVE, NoteEntry._ID + "<100"),
+                NoteEntry._ID + " DESC");
+        assertTrue(plan, plan.contains("COVERING INDEX notes_id"));
+        assertFalse(plan, plan.contains("TEMP B-TREE"));
+    }
+
+    @Test
+    public void times_areMaintainedByTheProvider() throws Exception {
+        long before = System.currentTimeMillis();
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, "Groceries");
+        values.put(NoteEntry.COLUMN_NOTE_CREATED_AT, 1L);
+        Uri uri = mResolver.insert(NoteEntry.CONTENT_URI, values);
+
+        long[] times = times(uri);
+        assertTrue(times[0] >= before);
+        assertEquals(times[0], times[1]);
+
+        Thread.sleep(5);
+        values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, "milk");
+        mResolver.update(uri, values, null, null);
+
+        long[] updated = times(uri);
+        assertEquals(times[0], updated[0]);
+        assertTrue(updated[1] > times[1]);
+
+        // The edited note comes first in the recently edited order
+        Uri other = mResolver.insert(NoteEntry.CONTENT_URI, titleOnly("Other"));
+        Thread.sleep(5);
+        mResolver.update(uri, values, null, null);
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, LIST_COLUMNS, null, null,
+                NoteEntry.SORT_RECENTLY_EDITED)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Groceries", cursor.getString(1));
+            assertTrue(cursor.moveToNext());
+            assertEquals(other.getLastPathSegment(), cursor.getString(0));
+        }
+    }
+
+    @Test
+    public void versionOneDatabase_isUpgraded() {
+        SQLiteDatabase old = SQLiteDatabase.openOrCreateDatabase(
+                mContext.getDatabasePath(UPGRADE_DATABASE), null);
+        old.execSQL("CREATE TABLE notes (_id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + "title TEXT NOT NULL, contain TEXT );");
+        old.execSQL("INSERT INTO notes (title, contain) VALUES ('Groceries', 'milk and eggs');");
+        old.setVersion(1);
+        old.close();
+
+        long before = System.currentTimeMillis();
+        NoteDbHelper dbHelper = new NoteDbHelper(mContext, UPGRADE_DATABASE, NoteDbHelper.Tuning.DEFAULT);
+        try {
+            SQLiteDatabase db = dbHelper.getReadableDatabase();
+            try (Cursor cursor = db.query(NoteEntry.TABLE_NAME, new String[] {
+                    NoteEntry.COLUMN_NOTE_SUMMARY, NoteEntry.COLUMN_NOTE_CREATED_AT,
+                    NoteEntry.COLUMN_NOTE_UPDATED_AT }, null, null, null, null, null)) {
+                assertTrue(cursor.moveToFirst());
+                assertEquals("milk and eggs", cursor.getString(0));
+                assertTrue(cursor.getLong(1) >= before);
+                assertEquals(cursor.getLong(1), cursor.getLong(2));
+            }
+
+            // The old note is in the search index
+            try (Cursor cursor = NoteSearch.query(db, "eggs", 10)) {
+                assertEquals(1, cursor.getCount());
+            }
+
+            try (Cursor cursor = db.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index'"
+                    + " AND name IN ('notes_updated_at', 'notes_title')", null)) {
+                assertEquals(2, cursor.getCount());
+            }
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    @Test
+    public void history_isNewestFirstAndDeletedWithTheNote() {
+        ContentValues note = new ContentValues();
+        note.put(NoteEntry.COLUMN_NOTE_NAME, "Groceries");
+        Uri noteUri = mResolver.insert(NoteEntry.CONTENT_URI, note);
+        Uri historyUri = NoteHistoryEntry.buildHistoryUri(ContentUris.parseId(noteUri));
+
+        ContentValues[] edits = new ContentValues[3];
+        for (int i = 0; i < edits.length; i++) {
+            edits[i] = new ContentValues();
+            edits[i].put(NoteHistoryEntry.COLUMN_FIELD, NoteHistoryEntry.FIELD_CONTAIN);
+            edits[i].put(NoteHistoryEntry.COLUMN_START, i);
+            edits[i].put(NoteHistoryEntry.COLUMN_REMOVED, "");
+            edits[i].put(NoteHistoryEntry.COLUMN_INSERTED, String.valueOf(i));
+        }
+        assertEquals(3, mResolver.bulkInsert(historyUri, edits));
+
+        Uri newestTwo = historyUri.buildUpon()
+                .appendQueryParameter(NoteContract.QUERY_PARAMETER_LIMIT, "2").build();
+        try (Cursor cursor = mResolver.query(newestTwo, null, null, null, null)) {
+            assertEquals(2, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            assertEquals("2", cursor.getString(cursor.getColumnIndexOrThrow(NoteHistoryEntry.COLUMN_INSERTED)));
+        }
+
+        mResolver.delete(noteUri, null, null);
+        mResolver.delete(NoteEntry.buildTrashUri(ContentUris.parseId(noteUri)), null, null);
+        try (Cursor cursor = mResolver.query(historyUri, null, null, null, null)) {
+            assertEquals(0, cursor.getCount());
+        }
+    }
+
+    @Test
+    public void prewarm_writesNothing() {
+        mProvider.prewarm();
+
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, LIST_COLUMNS, null, null, null)) {
+            assertEquals(0, cursor.getCount());
+        }
+        try (Cursor cursor = mResolver.query(NoteContract.NoteChangeEntry.CONTENT_URI, null, null, null, null)) {
+            assertEquals(0, cursor.getCount());
+        }
+        // Opening a note was prepared without going through the note cache
+        Bundle stats = mResolver.call(NoteContract.BASE_CONTENT_URI,
+                NoteContract.METHOD_NOTE_CACHE_STATS, null, null);
+        assertEquals(0, stats.getInt(NoteContract.KEY_CACHE_MISSES));
+    }
+
+    /**
+     * Returns the query plan of one page of the notes list in the given order, leaving out the
+     * trash like the provider does
+     */
+    private String queryPlan(String sortOrder) {
+        return queryPlan(NoteTrash.LIVE, sortOrder);
+    }
+
+    private String queryPlan(String selection, String sortOrder) {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, NoteEntry.TABLE_NAME, LIST_COLUMNS,
+                selection, null, null, sortOrder, "50");
+        NoteDbHelper dbHelper = new NoteDbHelper(mContext);
+        try (Cursor cursor = dbHelper.getReadableDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, null)) {
+            StringBuilder plan = new StringBuilder();
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            while (cursor.moveToNext()) {
+                plan.append(cursor.getString(detail)).append('\n');
+            }
+            return plan.toString();
+        } finally {
+            dbHelper.close();
+        }
+    }
+
+    private long[] times(Uri uri) {
+        try (Cursor cursor = mResolver.query(uri, new String[] {
+                NoteEntry.COLUMN_NOTE_CREATED_AT, NoteEntry.COLUMN_NOTE_UPDATED_AT }, null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            return new long[] { cursor.getLong(0), cursor.getLong(1) };
+        }
+    }
+
+    private static ContentValues titleOnly(String title) {
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, title);
+        return values;
+    }
+}
@@ -0,0 +1,134 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares ranked full-text lookups against the LIKE scan they replace.
+ * Run with -Dnotebook.bench.full=true to include the 1M note data set.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteSearchBenchmark {
+
+    private static final int[] SIZES = Boolean.getBoolean("notebook.bench.full")
+            ? new int[] { 10_000, 100_000, 1_000_000 }
+            : new int[] { 10_000, 100_000 };
+
+    private static final String[] WORDS = {
+            "shopping", "meeting", "travel", "recipe", "budget", "garden", "project", "call",
+            "invoice", "birthday", "library", "exercise", "doctor", "holiday", "school", "car" };
+
+    /** Only written into every 1000th note, so lookups have a selective term to find */
+    private static final String RARE_WORD = "zanzibar";
+
+    private static final int RUNS = 20;
+
+    private Context mContext;
+    private NoteDbHelper mDbHelper;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mDbHelper = new NoteDbHelper(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        mDbHelper.close();
+        mContext.deleteDatabase(mDbHelper.getDatabaseName());
+    }
+
+    @Test
+    public void ftsVersusLikeScan() {
+        for (int size : SIZES) {
+            SQLiteDatabase db = mDbHelper.getWritableDatabase();
+            seed(db, size);
+
+            long ftsNanos = time(() -> count(NoteSearch.query(db, RARE_WORD, NoteSearch.DEFAULT_LIMIT)));
+            long likeNanos = time(() -> count(likeScan(db, RARE_WORD)));
+            long ftsCommonNanos = time(() -> count(NoteSearch.query(db, WORDS[0], NoteSearch.DEFAULT_LIMIT)));
+            long likeCommonNanos = time(() -> count(likeScan(db, WORDS[0])));
+
+            System.out.printf("notes=%d rare: fts=%.3fms like=%.3fms common: fts=%.3fms like=%.3fms%n",
+                    size, ftsNanos / 1e6, likeNanos / 1e6, ftsCommonNanos / 1e6, likeCommonNanos / 1e6);
+
+            // Both paths have to find the same notes for the comparison to mean anything
+            assertEquals(count(likeScan(db, RARE_WORD)),
+                    count(NoteSearch.query(db, RARE_WORD, NoteSearch.DEFAULT_LIMIT)));
+
+            db.delete(NoteEntry.TABLE_NAME, null, null);
+        }
+    }
+
+    /** The LIKE query the catalog would have to run without the index */
+    private static Cursor likeScan(SQLiteDatabase db, String word) {
+        String pattern = "%" + word + "%";
+        return db.query(NoteEntry.TABLE_NAME,
+                new String[] { NoteEntry._ID, NoteEntry.COLUMN_NOTE_NAME },
+                NoteEntry.COLUMN_NOTE_NAME + " LIKE ? OR " + NoteEntry.COLUMN_NOTE_CONTAIN + " LIKE ?",
+                new String[] { pattern, pattern }, null, null, NoteEntry._ID + " DESC",
+                String.valueOf(NoteSearch.DEFAULT_LIMIT));
+    }
+
+    private static void seed(SQLiteDatabase db, int size) {
+        Random random = new Random(42);
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < size; i++) {
+                StringBuilder body = new StringBuilder();
+                for (int w = 0; w < 40; w++) {
+                    body.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                }
+                if (i % 1000 == 0) {
+                    body.append(RARE_WORD);
+                }
+                values.put(NoteEntry.COLUMN_NOTE_NAME, WORDS[random.nextInt(WORDS.length)] + " " + i);
+                values.put(NoteEntry.COLUMN_NOTE_CONTAIN, body.toString());
+                long id = db.insert(NoteEntry.TABLE_NAME, null, values);
+                NoteSearch.index(db, id, values.getAsString(NoteEntry.COLUMN_NOTE_NAME), body.toString());
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static int count(Cursor cursor) {
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /** Median time of {@link #RUNS} runs, after one warm-up run */
+    private static long time(Runnable query) {
+        query.run();
+        long[] samples = new long[RUNS];
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            query.run();
+            samples[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(samples);
+        return samples[RUNS / 2];
+    }
+}
@@ -0,0 +1,125 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Tests for searching the notes through {@link NoteProvider}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteSearchTest {
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+
+        ContentValues[] notes = new ContentValues[20];
+        for (int i = 0; i < notes.length; i++) {
+            notes[i] = new ContentValues();
+            notes[i].put(NoteEntry.COLUMN_NOTE_NAME, "Note " + i);
+            notes[i].put(NoteEntry.COLUMN_NOTE_CONTAIN, i % 2 == 0 ? "shopping list" : "meeting notes");
+        }
+        mResolver.bulkInsert(NoteEntry.CONTENT_URI, notes);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void prefix_findsTheNotes() {
+        try (Cursor cursor = mResolver.query(searchUri("shop"), null, null, null, null,
+                new CancellationSignal())) {
+            assertEquals(10, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            String snippet = cursor.getString(cursor.getColumnIndexOrThrow(NoteEntry.COLUMN_SNIPPET));
+            assertTrue(snippet, snippet.contains(NoteEntry.SNIPPET_HIGHLIGHT_START + "shopping"));
+        }
+    }
+
+    @Test
+    public void compressedNote_isSearchedThroughItsBody() {
+        // Long enough to be stored packed, with a word only near its end
+        String log = NoteCodecTest.log(NoteDbHelper.Tuning.DEFAULT.compressThreshold * 3);
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, "Log");
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, log + " kaleidoscope\n" + log);
+        Uri uri = mResolver.insert(NoteEntry.CONTENT_URI, values);
+
+        try (Cursor cursor = mResolver.query(searchUri("kaleido"), null, null, null, null)) {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            String snippet = cursor.getString(cursor.getColumnIndexOrThrow(NoteEntry.COLUMN_SNIPPET));
+            assertTrue(snippet, snippet.contains(NoteEntry.SNIPPET_HIGHLIGHT_START + "kaleidoscope"));
+        }
+
+        // A new title keeps the body indexed
+        ContentValues title = new ContentValues();
+        title.put(NoteEntry.COLUMN_NOTE_NAME, "Old log");
+        mResolver.update(uri, title, null, null);
+        assertEquals(1, count(searchUri("kaleido")));
+
+        // A new body drops the words that are gone
+        ContentValues contain = new ContentValues();
+        contain.put(NoteEntry.COLUMN_NOTE_CONTAIN, log + " telescope");
+        mResolver.update(uri, contain, null, null);
+        assertEquals(0, count(searchUri("kaleido")));
+        assertEquals(1, count(searchUri("telescope")));
+
+        // And so does the fast path of the editor
+        assertEquals(1, mProvider.updateNote(ContentUris.parseId(uri), "Log", log + " microscope"));
+        assertEquals(0, count(searchUri("telescope")));
+        assertEquals(1, count(searchUri("microscope")));
+    }
+
+    @Test
+    public void cancelledSearch_stops() {
+        CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+        try (Cursor cursor = mResolver.query(searchUri("meet"), null, null, null, null, signal)) {
+            // The query may only run once the cursor is filled
+            cursor.getCount();
+            fail("The search ran although it was cancelled");
+        } catch (OperationCanceledException expected) {
+        }
+    }
+
+    private int count(Uri uri) {
+        try (Cursor cursor = mResolver.query(uri, null, null, null, null)) {
+            return cursor.getCount();
+        }
+    }
+
+    private static Uri searchUri(String text) {
+        return Uri.withAppendedPath(NoteEntry.CONTENT_SEARCH_URI, text);
+    }
+}
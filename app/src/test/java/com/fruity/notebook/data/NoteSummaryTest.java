@@ -0,0 +1,38 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link NoteSummary}.
+ */
+public class NoteSummaryTest {
+
+    @Test
+    public void nullContain_hasNoSummary() {
+        assertNull(NoteSummary.of(null));
+    }
+
+    @Test
+    public void lineBreaks_becomeSpaces() {
+        assertEquals("milk eggs  bread", NoteSummary.of("milk\neggs\r\n\rbread"));
+    }
+
+    @Test
+    public void leadingAndTrailingSpaces_areRemoved() {
+        assertEquals("milk", NoteSummary.of("\n  milk \n"));
+    }
+
+    @Test
+    public void longContain_isCut() {
+        StringBuilder contain = new StringBuilder();
+        for (int i = 0; i < NoteEntry.SUMMARY_LENGTH * 2; i++) {
+            contain.append('a');
+        }
+        assertEquals(NoteEntry.SUMMARY_LENGTH, NoteSummary.of(contain.toString()).length());
+    }
+}
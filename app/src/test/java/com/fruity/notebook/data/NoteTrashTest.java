@@ -0,0 +1,190 @@
+package com.fruity.notebook.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import com.fruity.notebook.data.NoteContract.NoteChangeEntry;
+import com.fruity.notebook.data.NoteContract.NoteEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Tests for the trash of the notes, see {@link NoteTrash}.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class NoteTrashTest {
+
+    private Context mContext;
+    private ContentResolver mResolver;
+    private NoteProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mContext = ApplicationProvider.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+        mProvider = Robolectric.setupContentProvider(NoteProvider.class, NoteContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        mContext.deleteDatabase("shelter.db");
+    }
+
+    @Test
+    public void deletedNote_movesToTheTrash() {
+        Uri uri = insert("Groceries", "milk");
+        long id = ContentUris.parseId(uri);
+        assertEquals(1, mResolver.delete(uri, null, null));
+
+        assertEquals(0, count(NoteEntry.CONTENT_URI));
+        assertEquals(0, count(uri));
+        assertEquals(0, count(Uri.withAppendedPath(NoteEntry.CONTENT_SEARCH_URI, "milk")));
+        try (Cursor cursor = mResolver.query(NoteEntry.buildTrashUri(id), null, null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("milk", cursor.getString(cursor.getColumnIndexOrThrow(NoteEntry.COLUMN_NOTE_CONTAIN)));
+            assertFalse(cursor.isNull(cursor.getColumnIndexOrThrow(NoteEntry.COLUMN_NOTE_DELETED_AT)));
+        }
+
+        // A note in the trash can't be changed, nor deleted again
+        assertEquals(0, mResolver.update(uri, values("Groceries", "eggs"), null, null));
+        assertEquals(0, mProvider.updateNote(id, "Groceries", "eggs"));
+        assertEquals(0, mResolver.delete(uri, null, null));
+    }
+
+    @Test
+    public void restoredNote_isBackWithItsText() {
+        long start = latestChange();
+        Uri uri = insert("Groceries", "milk");
+        long id = ContentUris.parseId(uri);
+        mResolver.delete(uri, null, null);
+
+        ContentValues restore = new ContentValues();
+        restore.putNull(NoteEntry.COLUMN_NOTE_DELETED_AT);
+        assertEquals(1, mResolver.update(NoteEntry.buildTrashUri(id), restore, null, null));
+
+        assertEquals(0, count(NoteEntry.CONTENT_TRASH_URI));
+        assertEquals(1, count(Uri.withAppendedPath(NoteEntry.CONTENT_SEARCH_URI, "milk")));
+        try (Cursor cursor = mResolver.query(uri, new String[] { NoteEntry.COLUMN_NOTE_CONTAIN },
+                null, null, null)) {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("milk", cursor.getString(0));
+        }
+
+        // The change feed sees the note go and come back
+        try (Cursor cursor = mResolver.query(NoteChangeEntry.buildChangesUri(start), null, null, null, null)) {
+            int op = cursor.getColumnIndexOrThrow(NoteChangeEntry.COLUMN_OP);
+            assertEquals(3, cursor.getCount());
+            cursor.moveToPosition(1);
+            assertEquals(NoteChangeEntry.OP_DELETE, cursor.getInt(op));
+            cursor.moveToPosition(2);
+            assertEquals(NoteChangeEntry.OP_INSERT, cursor.getInt(op));
+        }
+    }
+
+    @Test
+    public void emptiedTrash_isPurgedInBatches() {
+        int notes = NoteTrash.PURGE_BATCH_SIZE * 2 + 7;
+        for (int i = 0; i < notes; i++) {
+            insert("Note " + i, "text " + i);
+        }
+        Uri kept = insert("Kept", "kept");
+        mResolver.delete(NoteEntry.CONTENT_URI, NoteEntry.COLUMN_NOTE_NAME + " LIKE 'Note %'", null);
+        assertEquals(notes, count(NoteEntry.CONTENT_TRASH_URI));
+
+        assertEquals(notes, mResolver.delete(NoteEntry.CONTENT_TRASH_URI, null, null));
+        assertEquals(0, count(NoteEntry.CONTENT_TRASH_URI));
+        assertEquals(1, count(kept));
+    }
+
+    @Test
+    public void bulkDelete_notifiesOnce() {
+        ContentValues[] notes = new ContentValues[5000];
+        for (int i = 0; i < notes.length; i++) {
+            notes[i] = values("Note " + i, "text " + i);
+        }
+        mResolver.bulkInsert(NoteEntry.CONTENT_URI, notes);
+        StringBuilder ids = new StringBuilder();
+        try (Cursor cursor = mResolver.query(NoteEntry.CONTENT_URI, new String[] { NoteEntry._ID },
+                null, null, null)) {
+            while (cursor.moveToNext()) {
+                ids.append(ids.length() == 0 ? "" : ",").append(cursor.getLong(0));
+            }
+        }
+
+        long notifications = notifications();
+        assertEquals(notes.length, mResolver.delete(NoteEntry.CONTENT_URI,
+                NoteEntry._ID + " IN (" + ids + ")", null));
+        assertEquals(notifications + 1, notifications());
+        assertEquals(0, count(NoteEntry.CONTENT_URI));
+        assertEquals(notes.length, count(NoteEntry.CONTENT_TRASH_URI));
+    }
+
+    @Test
+    public void expiredNotes_arePurgedByTheMaintenance() {
+        Uri expired = insert("Old", "old");
+        Uri recent = insert("Recent", "recent");
+        mResolver.delete(expired, null, null);
+        mResolver.delete(recent, null, null);
+
+        NoteDbHelper dbHelper = new NoteDbHelper(mContext);
+        try {
+            ContentValues deletedAt = new ContentValues();
+            deletedAt.put(NoteEntry.COLUMN_NOTE_DELETED_AT,
+                    System.currentTimeMillis() - NoteTrash.RETENTION_MS - 1);
+            dbHelper.getWritableDatabase().update(NoteEntry.TABLE_NAME, deletedAt,
+                    NoteEntry._ID + "=?", new String[] { String.valueOf(ContentUris.parseId(expired)) });
+        } finally {
+            dbHelper.close();
+        }
+
+        assertEquals(1, mResolver.call(NoteContract.BASE_CONTENT_URI, NoteContract.METHOD_MAINTENANCE,
+                null, null).getInt(NoteContract.KEY_MAINTENANCE_PURGED_NOTES));
+        assertEquals(0, count(NoteEntry.buildTrashUri(ContentUris.parseId(expired))));
+        assertEquals(1, count(NoteEntry.buildTrashUri(ContentUris.parseId(recent))));
+    }
+
+    private Uri insert(String title, String contain) {
+        return mResolver.insert(NoteEntry.CONTENT_URI, values(title, contain));
+    }
+
+    private int count(Uri uri) {
+        try (Cursor cursor = mResolver.query(uri, null, null, null, null)) {
+            return cursor.getCount();
+        }
+    }
+
+    private long notifications() {
+        return mResolver.call(NoteContract.BASE_CONTENT_URI, NoteContract.METHOD_METRICS, null, null)
+                .getLong(NoteContract.KEY_METRICS_NOTIFICATIONS);
+    }
+
+    private long latestChange() {
+        try (Cursor cursor = mResolver.query(NoteChangeEntry.CONTENT_URI, null, null, null, null)) {
+            return cursor.moveToFirst()
+                    ? cursor.getLong(cursor.getColumnIndexOrThrow(NoteChangeEntry.COLUMN_SEQ)) : 0;
+        }
+    }
+
+    private static ContentValues values(String title, String contain) {
+        ContentValues values = new ContentValues();
+        values.put(NoteEntry.COLUMN_NOTE_NAME, title);
+        values.put(NoteEntry.COLUMN_NOTE_CONTAIN, contain);
+        return values;
+    }
+}